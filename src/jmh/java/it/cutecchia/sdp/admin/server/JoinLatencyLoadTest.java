@@ -0,0 +1,109 @@
+package it.cutecchia.sdp.admin.server;
+
+import it.cutecchia.sdp.admin.server.stores.InMemoryDronesStore;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Registers a burst of drones at the same time, each from its own thread, and prints the
+ * percentiles of how long their joins took. The burst is sent first to a server that handles one
+ * request at a time on a backlog as short as the JDK's default, like the one <code>
+ * HttpServerFactory</code> creates, then to servers with a pool of workers.
+ *
+ * <p>Usage: <code>JoinLatencyLoadTest [drones] [worker threads...]</code>, 1000 drones and the
+ * default pool if not given.
+ */
+public class JoinLatencyLoadTest {
+  private static final String HOST = "localhost";
+  // What the JDK uses when HttpServerFactory asks for the default backlog
+  private static final int JDK_DEFAULT_BACKLOG = 50;
+
+  public static void main(String[] args) throws Exception {
+    final int drones = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    List<Integer> threads = new ArrayList<>();
+    for (int i = 1; i < args.length; i++) {
+      threads.add(Integer.parseInt(args[i]));
+    }
+    if (threads.isEmpty()) {
+      threads.add(AdminHttpServer.DEFAULT_THREADS);
+    }
+
+    run("single thread", new AdminHttpServer(HOST, 0, 0, JDK_DEFAULT_BACKLOG), drones);
+    for (int workers : threads) {
+      run(
+          workers + " workers",
+          new AdminHttpServer(HOST, 0, workers, AdminHttpServer.DEFAULT_BACKLOG),
+          drones);
+    }
+  }
+
+  private static void run(String name, AdminHttpServer server, int drones)
+      throws InterruptedException {
+    InMemoryDronesStore.getInstance().clear();
+    server.start();
+
+    final long[] latencies = new long[drones];
+    final AtomicInteger failures = new AtomicInteger();
+    final AtomicReference<Exception> firstFailure = new AtomicReference<>();
+    final CountDownLatch ready = new CountDownLatch(drones);
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(drones);
+    for (int i = 0; i < drones; i++) {
+      final int id = i;
+      final AdminServerClient client = new AdminServerClient(HOST, server.getPort());
+      new Thread(
+              () -> {
+                ready.countDown();
+                try {
+                  start.await();
+                } catch (InterruptedException e) {
+                  return;
+                }
+                // Failed joins count with the time it took them to fail
+                final long begin = System.nanoTime();
+                try {
+                  client.requestDroneToEnter(new DroneIdentifier(id, HOST, 10000 + id));
+                } catch (AdminServerClient.DroneIdAlreadyInUse | RuntimeException e) {
+                  failures.incrementAndGet();
+                  firstFailure.compareAndSet(null, e);
+                } finally {
+                  latencies[id] = System.nanoTime() - begin;
+                  done.countDown();
+                }
+              })
+          .start();
+    }
+    ready.await();
+    final long begin = System.nanoTime();
+    start.countDown();
+    done.await();
+    final long elapsed = System.nanoTime() - begin;
+    server.stop(0);
+
+    Arrays.sort(latencies);
+    System.out.printf(
+        "%-16s %d joins in %d ms, %d failed: p50=%.1f ms p90=%.1f ms p99=%.1f ms max=%.1f ms%n",
+        name,
+        drones,
+        TimeUnit.NANOSECONDS.toMillis(elapsed),
+        failures.get(),
+        percentile(latencies, 0.50),
+        percentile(latencies, 0.90),
+        percentile(latencies, 0.99),
+        percentile(latencies, 1));
+    if (firstFailure.get() != null) {
+      System.out.printf("%-16s first failure: %s%n", name, firstFailure.get());
+    }
+  }
+
+  private static double percentile(long[] sortedNanos, double quantile) {
+    final int index = (int) Math.ceil(quantile * sortedNanos.length) - 1;
+    return sortedNanos[Math.max(0, index)] / 1e6;
+  }
+}
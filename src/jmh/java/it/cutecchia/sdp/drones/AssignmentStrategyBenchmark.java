@@ -0,0 +1,94 @@
+package it.cutecchia.sdp.drones;
+
+import it.cutecchia.sdp.common.*;
+import it.cutecchia.sdp.drones.store.DroneStore;
+import it.cutecchia.sdp.drones.store.InMemoryDroneStore;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the greedy and the minimum distance strategies on a master that has a batch of orders
+ * queued up. The benchmark measures how long a single assignment pass takes, while the kilometres
+ * the drones have to travel to reach their orders are printed at the end of each trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AssignmentStrategyBenchmark {
+  private static final int SCENARIOS = 64;
+
+  @Param({"5", "20", "100"})
+  public int drones;
+
+  @Param({"greedy", "min-distance"})
+  public String strategyName;
+
+  private final List<Scenario> scenarios = new ArrayList<>();
+  private int nextScenario = 0;
+
+  private static class Scenario {
+    final DroneStore store = new InMemoryDroneStore();
+    final List<Order> pendingOrders = new ArrayList<>();
+    AssignmentStrategy strategy;
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(1234);
+    for (int i = 0; i < SCENARIOS; i++) {
+      Scenario scenario = new Scenario();
+      for (int d = 0; d < drones; d++) {
+        scenario.store.addDrone(
+            new DroneIdentifier(d, "localhost", 0),
+            new DroneData(randomPoint(random), 15 + random.nextInt(86)));
+      }
+      // Twice as many orders as drones, like a master catching up after a burst
+      for (int o = 0; o < 2 * drones; o++) {
+        scenario.pendingOrders.add(new Order(o, randomPoint(random), randomPoint(random)));
+      }
+      scenario.strategy = createStrategy(scenario.store);
+      scenarios.add(scenario);
+    }
+  }
+
+  private AssignmentStrategy createStrategy(DroneStore store) {
+    AssignmentStrategy greedy = new GreedyAssignmentStrategy(store);
+    if ("greedy".equals(strategyName)) {
+      return greedy;
+    }
+    return new MinimumDistanceAssignmentStrategy(store, greedy, 1, TimeUnit.SECONDS);
+  }
+
+  private static CityPoint randomPoint(Random random) {
+    return new CityPoint(
+        random.nextInt(CityPoint.CITY_WIDTH), random.nextInt(CityPoint.CITY_HEIGHT));
+  }
+
+  @Benchmark
+  public List<DroneIdentifier> assignmentPass() {
+    Scenario scenario = scenarios.get(nextScenario);
+    nextScenario = (nextScenario + 1) % SCENARIOS;
+    return scenario.strategy.assign(scenario.pendingOrders, Collections.emptySet());
+  }
+
+  @TearDown(Level.Trial)
+  public void printTravelledKms() {
+    double totalKms = 0;
+    for (Scenario scenario : scenarios) {
+      List<DroneIdentifier> chosenDrones =
+          scenario.strategy.assign(scenario.pendingOrders, Collections.emptySet());
+      for (int i = 0; i < chosenDrones.size(); i++) {
+        CityPoint dronePosition =
+            scenario.store.getDroneData(chosenDrones.get(i)).get().getPosition();
+        totalKms += dronePosition.distanceTo(scenario.pendingOrders.get(i).getStartPoint());
+      }
+    }
+    System.out.printf(
+        "%n%s with %d drones: %.2f km to reach the orders per pass%n",
+        strategyName, drones, totalKms / SCENARIOS);
+  }
+}
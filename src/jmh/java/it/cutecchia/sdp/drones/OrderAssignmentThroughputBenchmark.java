@@ -0,0 +1,141 @@
+package it.cutecchia.sdp.drones;
+
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import it.cutecchia.sdp.common.*;
+import it.cutecchia.sdp.drones.grpc.DroneServiceGrpc;
+import it.cutecchia.sdp.drones.grpc.DroneServiceOuterClass;
+import it.cutecchia.sdp.drones.store.InMemoryDroneStore;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how many orders per second the master hands out when every drone of the fleet is free
+ * and there is one pending order for each of them. The drones live behind an in-process server that
+ * answers every offer after <code>latencyMillis</code>, like drones on a real network. In <code>
+ * blocking</code> mode the offers are sent one per RPC thread, while in <code>pipelined
+ * </code> mode every offer of a pass is in flight at the same time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(OrderAssignmentThroughputBenchmark.DRONES)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OrderAssignmentThroughputBenchmark {
+  static final int DRONES = 64;
+  private static final String SERVER_NAME = "order-assignment-benchmark";
+
+  @Param({"0", "2"})
+  public int latencyMillis;
+
+  @Param({"blocking", "pipelined"})
+  public String mode;
+
+  private final ScheduledExecutorService network = Executors.newScheduledThreadPool(4);
+  private final InMemoryDroneStore store = new InMemoryDroneStore();
+  private final List<DroneIdentifier> drones = new ArrayList<>();
+  private final List<DroneData> startingData = new ArrayList<>();
+  private Server server;
+  private RpcDroneCommunicationMiddleware middleware;
+  private OrderAssigner assigner;
+  private int nextOrderId = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    server =
+        InProcessServerBuilder.forName(SERVER_NAME)
+            .addService(
+                new DroneServiceGrpc.DroneServiceImplBase() {
+                  @Override
+                  public void assignOrder(
+                      DroneServiceOuterClass.AssignOrderMessage request,
+                      StreamObserver<DroneServiceOuterClass.AssignOrderResponse> response) {
+                    network.schedule(
+                        () -> {
+                          response.onNext(
+                              DroneServiceOuterClass.AssignOrderResponse.newBuilder()
+                                  .setAccepted(true)
+                                  .build());
+                          response.onCompleted();
+                        },
+                        latencyMillis,
+                        TimeUnit.MILLISECONDS);
+                  }
+                })
+            .build()
+            .start();
+
+    middleware =
+        new RpcDroneCommunicationMiddleware(
+            new DroneIdentifier(DRONES, "localhost", 0),
+            nothingToServe(),
+            new ChannelManager(
+                destination -> InProcessChannelBuilder.forName(SERVER_NAME).build()));
+
+    Random random = new Random(1234);
+    for (int i = 0; i < DRONES; i++) {
+      DroneIdentifier drone = new DroneIdentifier(i, "localhost", 0);
+      DroneData data =
+          new DroneData(
+              new CityPoint(
+                  random.nextInt(CityPoint.CITY_WIDTH), random.nextInt(CityPoint.CITY_HEIGHT)));
+      drones.add(drone);
+      startingData.add(data);
+      store.addDrone(drone, data);
+    }
+
+    // Hiding the asynchronous methods makes the assigner fall back to a blocking RPC per order
+    DroneCommunicationClient client =
+        "pipelined".equals(mode) ? middleware : onlyBlockingMethods(middleware);
+    assigner = new OrderAssigner(store, client);
+  }
+
+  private static DroneCommunicationServer nothingToServe() {
+    return (DroneCommunicationServer)
+        Proxy.newProxyInstance(
+            DroneCommunicationServer.class.getClassLoader(),
+            new Class<?>[] {DroneCommunicationServer.class},
+            (proxy, method, args) -> null);
+  }
+
+  private static DroneCommunicationClient onlyBlockingMethods(DroneCommunicationClient client) {
+    return (DroneCommunicationClient)
+        Proxy.newProxyInstance(
+            DroneCommunicationClient.class.getClassLoader(),
+            new Class<?>[] {DroneCommunicationClient.class},
+            (proxy, method, args) -> method.invoke(client, args));
+  }
+
+  @Setup(Level.Invocation)
+  public void freeEveryDrone() {
+    for (int i = 0; i < DRONES; i++) {
+      store.handleDroneUpdateData(drones.get(i), startingData.get(i));
+    }
+  }
+
+  @Benchmark
+  public void assignOneOrderPerDrone() throws InterruptedException {
+    for (int i = 0; i < DRONES; i++) {
+      assigner.enqueueOrder(new Order(nextOrderId++, new CityPoint(0, 0), new CityPoint(9, 9)));
+    }
+    assigner.waitUntilIdle();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    middleware.shutdown();
+    server.shutdownNow();
+    network.shutdownNow();
+  }
+}
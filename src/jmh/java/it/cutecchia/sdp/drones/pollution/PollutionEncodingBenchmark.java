@@ -0,0 +1,77 @@
+package it.cutecchia.sdp.drones.pollution;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import it.cutecchia.sdp.common.CityPoint;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.common.Order;
+import it.cutecchia.sdp.drones.grpc.DroneServiceOuterClass;
+import it.cutecchia.sdp.drones.messages.CompletedDeliveryMessage;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the cost of sending the pollution summaries of a delivery to the master, with the
+ * buckets of the quantile sketches in the <code>legacy</code> map or <code>compact</code>ly packed.
+ * The size on the wire of each message is printed when the benchmark starts. The summaries are
+ * those of the default window and of the raw measurements, after <code>measurements</code> of them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PollutionEncodingBenchmark {
+  @Param({"100", "10000"})
+  public int measurements;
+
+  @Param({"legacy", "compact"})
+  public String encoding;
+
+  private CompletedDeliveryMessage message;
+  private byte[] encoded;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    List<WindowedAggregator> aggregators = WindowedAggregator.fromSpec("8:4,1:0");
+    Random random = new Random(42);
+    for (int i = 0; i < measurements; i++) {
+      // Like the PM10 simulator, a slowly changing signal with some noise on top
+      double value = 60 + 30 * Math.sin(i / 50.0) + 10 * random.nextGaussian();
+      for (WindowedAggregator aggregator : aggregators) {
+        aggregator.addSample(value, i);
+      }
+    }
+    Map<String, PollutionSummary> pollution = new LinkedHashMap<>();
+    for (WindowedAggregator aggregator : aggregators) {
+      pollution.put(aggregator.getName(), aggregator.summarizeAndReset());
+    }
+
+    message =
+        new CompletedDeliveryMessage(
+            System.currentTimeMillis(),
+            new DroneIdentifier(1, "localhost", 10001),
+            new Order(1, new CityPoint(0, 0), new CityPoint(9, 9)),
+            12.7,
+            pollution,
+            80);
+    encoded = encode();
+    System.out.printf(
+        "%n%s encoding of %d measurements: %d bytes%n", encoding, measurements, encoded.length);
+  }
+
+  @Benchmark
+  public byte[] encode() {
+    return message.toProto(encoding.equals("compact")).toByteArray();
+  }
+
+  @Benchmark
+  public CompletedDeliveryMessage decode() throws InvalidProtocolBufferException {
+    return CompletedDeliveryMessage.fromProto(
+        DroneServiceOuterClass.CompletedDeliveryMessage.parseFrom(encoded));
+  }
+}
@@ -0,0 +1,69 @@
+package it.cutecchia.sdp.drones.store;
+
+import it.cutecchia.sdp.common.CityPoint;
+import it.cutecchia.sdp.common.DroneData;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Mixed read/write load on a master's store: three threads do what the assigner, the election and
+ * the stats tracker do, while one thread applies the position updates coming from the drones.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class DroneStoreContentionBenchmark {
+  @Param({"10", "200"})
+  public int drones;
+
+  @Param({"in-memory", "concurrent"})
+  public String storeName;
+
+  private DroneStore store;
+  private DroneIdentifier[] identifiers;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    store = "concurrent".equals(storeName) ? new ConcurrentDroneStore() : new InMemoryDroneStore();
+    identifiers = new DroneIdentifier[drones];
+    for (int i = 0; i < drones; i++) {
+      identifiers[i] = new DroneIdentifier(i, "localhost", 0);
+      store.addDrone(identifiers[i], new DroneData(CityPoint.randomPosition()));
+    }
+  }
+
+  private DroneIdentifier randomDrone() {
+    return identifiers[ThreadLocalRandom.current().nextInt(identifiers.length)];
+  }
+
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(3)
+  public Object read() {
+    switch (ThreadLocalRandom.current().nextInt(4)) {
+      case 0:
+        return store.getAllDroneIdentifiers().size();
+      case 1:
+        return store.getNextDroneInElectionRing(randomDrone());
+      case 2:
+        return store.getDroneData(randomDrone());
+      default:
+        Set<DroneIdentifier> none = Collections.emptySet();
+        return store.findClosestAvailableDrone(CityPoint.randomPosition(), none);
+    }
+  }
+
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(1)
+  public void write() {
+    store.handleDroneUpdateData(randomDrone(), new DroneData(CityPoint.randomPosition()));
+  }
+}
@@ -0,0 +1,45 @@
+package it.cutecchia.sdp.drones.store;
+
+import it.cutecchia.sdp.common.DroneIdentifier;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The store's share of the latency of an election: the ELECTION message goes around the whole ring
+ * and then the ELECTED message does it again, and every hop asks the store for the next drone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ElectionRingBenchmark {
+  @Param({"10", "100", "1000"})
+  public int ringSize;
+
+  @Param({"in-memory", "concurrent"})
+  public String storeName;
+
+  private DroneStore store;
+  private DroneIdentifier initiator;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    store = "concurrent".equals(storeName) ? new ConcurrentDroneStore() : new InMemoryDroneStore();
+    for (int i = 0; i < ringSize; i++) {
+      // Sparse ids, like drones that picked them at random
+      store.addDrone(new DroneIdentifier(i * 7 + 3, "localhost", 0));
+    }
+    initiator = new DroneIdentifier(ringSize / 2 * 7 + 3, "localhost", 0);
+  }
+
+  @Benchmark
+  public DroneIdentifier election() {
+    DroneIdentifier current = initiator;
+    for (int hop = 0; hop < 2 * ringSize; hop++) {
+      current = store.getNextDroneInElectionRing(current);
+    }
+    return current;
+  }
+}
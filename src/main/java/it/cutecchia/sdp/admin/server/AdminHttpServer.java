@@ -0,0 +1,110 @@
+package it.cutecchia.sdp.admin.server;
+
+import com.sun.jersey.api.container.ContainerFactory;
+import com.sun.jersey.api.core.DefaultResourceConfig;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import it.cutecchia.sdp.admin.server.resources.DronesResource;
+import it.cutecchia.sdp.admin.server.resources.StatisticsResource;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.codehaus.jackson.jaxrs.JacksonJsonProvider;
+
+/**
+ * Serves the admin server's REST resources on the JDK's HTTP server. Connections are accepted and
+ * read by its NIO dispatcher thread, then the requests are handled by a pool of workers instead of
+ * the dispatcher itself, which is what <code>HttpServerFactory</code> gives. Configured with these
+ * system properties:
+ *
+ * <ul>
+ *   <li><code>dronazon.admin.threads</code>: how many requests are handled at the same time. Zero
+ *       handles them one at a time on the dispatcher thread
+ *   <li><code>dronazon.admin.backlog</code>: how many connections can wait to be accepted, a burst
+ *       of drones joining together beyond this waits for the clients to retry the connection
+ *   <li><code>dronazon.admin.keep-alive</code>: how many seconds an idle connection is kept open
+ *       for the next request. Only read by the first server of the JVM
+ * </ul>
+ */
+public class AdminHttpServer {
+  public static final String THREADS_PROPERTY = "dronazon.admin.threads";
+  public static final String BACKLOG_PROPERTY = "dronazon.admin.backlog";
+  public static final String KEEP_ALIVE_PROPERTY = "dronazon.admin.keep-alive";
+  public static final int DEFAULT_THREADS =
+      Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+  public static final int DEFAULT_BACKLOG = 1024;
+  private static final int DEFAULT_KEEP_ALIVE_SECONDS = 30;
+
+  private final HttpServer server;
+  private final ExecutorService workers;
+
+  public AdminHttpServer(String host, int port, int threads, int backlog) throws IOException {
+    final int keepAlive = Integer.getInteger(KEEP_ALIVE_PROPERTY, DEFAULT_KEEP_ALIVE_SECONDS);
+    // Read by the JDK when its first server is created
+    setIfAbsent("sun.net.httpserver.idleInterval", Integer.toString(keepAlive));
+    setIfAbsent("sun.net.httpserver.maxIdleConnections", Integer.toString(backlog));
+
+    server = HttpServer.create(new InetSocketAddress(host, port), backlog);
+    server.createContext(
+        "/",
+        ContainerFactory.createContainer(
+            HttpHandler.class,
+            // HttpServerFactory found these by scanning the classpath
+            new DefaultResourceConfig(
+                DronesResource.class, StatisticsResource.class, JacksonJsonProvider.class)));
+
+    if (threads > 0) {
+      final AtomicInteger counter = new AtomicInteger();
+      workers =
+          new ThreadPoolExecutor(
+              threads,
+              threads,
+              0L,
+              TimeUnit.MILLISECONDS,
+              new LinkedBlockingQueue<>(),
+              runnable -> {
+                Thread t = new Thread(runnable, "admin-http-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+              });
+      server.setExecutor(workers);
+    } else {
+      workers = null;
+    }
+  }
+
+  public static AdminHttpServer fromSystemProperties(String host, int port) throws IOException {
+    return new AdminHttpServer(
+        host,
+        port,
+        Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS),
+        Integer.getInteger(BACKLOG_PROPERTY, DEFAULT_BACKLOG));
+  }
+
+  private static void setIfAbsent(String property, String value) {
+    if (System.getProperty(property) == null) {
+      System.setProperty(property, value);
+    }
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  /** Stops accepting connections and waits at most <code>delaySeconds</code> for the requests */
+  public void stop(int delaySeconds) {
+    server.stop(delaySeconds);
+    if (workers != null) {
+      workers.shutdown();
+    }
+  }
+
+  /** @return The port the server listens on, useful when it was created with port 0 */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+}
@@ -2,39 +2,100 @@ package it.cutecchia.sdp.admin.server;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.UniformInterfaceException;
 import com.sun.jersey.api.client.WebResource;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import it.cutecchia.sdp.admin.server.messages.DroneEnterRequest;
 import it.cutecchia.sdp.admin.server.messages.DroneEnterResponse;
+import it.cutecchia.sdp.admin.server.messages.MembershipChangesResponse;
 import it.cutecchia.sdp.common.DroneIdentifier;
 import it.cutecchia.sdp.common.FleetStats;
 import it.cutecchia.sdp.common.Log;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.ws.rs.core.MediaType;
 
-public class AdminServerClient {
+/**
+ * Talks to the admin server over persistent connections: the JDK keeps up to <code>
+ * dronazon.admin-client.connections</code> idle connections to the server open and reuses them for
+ * the next requests. The resources and the serializer are created once and shared by every request.
+ *
+ * <p>A request fails if the server does not accept the connection within <code>
+ * dronazon.admin-client.connect-timeout</code> milliseconds, or stops answering for <code>
+ * dronazon.admin-client.read-timeout</code> milliseconds, so that a hung server can't block the
+ * stats sender forever.
+ */
+public class AdminServerClient implements Closeable {
+  public static final String CONNECTIONS_PROPERTY = "dronazon.admin-client.connections";
+  private static final int DEFAULT_CONNECTIONS = 8;
+  public static final String CONNECT_TIMEOUT_PROPERTY = "dronazon.admin-client.connect-timeout";
+  private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5 * 1000;
+  public static final String READ_TIMEOUT_PROPERTY = "dronazon.admin-client.read-timeout";
+  private static final int DEFAULT_READ_TIMEOUT_MILLIS = 30 * 1000;
+  // Stats waiting to be sent when the server is slow, the oldest are dropped beyond this
+  private static final int STATS_QUEUE_CAPACITY = 64;
+
   private final Client client;
-  private final String serverAddress;
-  private final int port;
   private final Gson gson = new Gson();
+  private final WebResource dronesResource;
+  private final WebResource statsResource;
+  private final ThreadPoolExecutor statsSender;
 
   public AdminServerClient(String serverAddress, int port) {
+    // Read by the JDK when it first opens a connection
+    if (System.getProperty("http.maxConnections") == null) {
+      System.setProperty(
+          "http.maxConnections",
+          Integer.toString(Integer.getInteger(CONNECTIONS_PROPERTY, DEFAULT_CONNECTIONS)));
+    }
     this.client = Client.create();
-    this.serverAddress = serverAddress;
-    this.port = port;
-  }
+    client.setConnectTimeout(
+        Integer.getInteger(CONNECT_TIMEOUT_PROPERTY, DEFAULT_CONNECT_TIMEOUT_MILLIS));
+    client.setReadTimeout(Integer.getInteger(READ_TIMEOUT_PROPERTY, DEFAULT_READ_TIMEOUT_MILLIS));
+    final WebResource root = client.resource(String.format("http://%s:%d/", serverAddress, port));
+    this.dronesResource = root.path("drones");
+    this.statsResource = root.path("stats");
 
-  private String getServerEndpoint(String endpoint, Object... args) {
-    if (endpoint.length() > 0 && endpoint.charAt(0) == '/') {
-      endpoint = endpoint.substring(1);
-    }
-    return String.format("http://%s:%d/%s", serverAddress, port, String.format(endpoint, args));
+    // A single thread, so that the stats arrive in the order they were sent
+    this.statsSender =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(STATS_QUEUE_CAPACITY),
+            runnable -> {
+              Thread t = new Thread(runnable, "admin-stats-sender");
+              t.setDaemon(true);
+              return t;
+            },
+            (task, pool) -> {
+              if (pool.isShutdown()) {
+                ((Future<?>) task).cancel(false);
+                return;
+              }
+              Log.warn("The admin server is too slow, dropping the oldest stats not sent yet");
+              final Runnable oldest = pool.getQueue().poll();
+              if (oldest != null) ((Future<?>) oldest).cancel(false);
+              pool.execute(task);
+            });
   }
 
   public static class DroneIdAlreadyInUse extends Exception {}
@@ -43,9 +104,9 @@ public class AdminServerClient {
       throws DroneIdAlreadyInUse {
     Log.info("AdminServerClient, droneToEnter=%s", droneToEnter);
     try {
-      WebResource resource = client.resource(getServerEndpoint("/drones/" + droneToEnter.getId()));
       String response =
-          resource
+          dronesResource
+              .path(Integer.toString(droneToEnter.getId()))
               .type(MediaType.APPLICATION_JSON)
               .post(String.class, gson.toJson(new DroneEnterRequest(droneToEnter)));
       Log.info("REST Response: %s", response);
@@ -59,54 +120,144 @@ public class AdminServerClient {
   }
 
   public void requestDroneExit(DroneIdentifier quittingDrone) {
-    WebResource resource =
-        client.resource(getServerEndpoint(String.format("/drones/%d", quittingDrone.getId())));
-    resource.delete();
+    dronesResource.path(Integer.toString(quittingDrone.getId())).delete();
   }
 
   public void sendFleetStats(FleetStats stats) {
     Log.info("Sending stats to admin server...");
+    statsResource.type(MediaType.APPLICATION_JSON).post(gson.toJson(stats));
+  }
 
-    WebResource resource = client.resource(getServerEndpoint("/stats"));
-
-    Gson gson = new Gson();
-    resource.type(MediaType.APPLICATION_JSON).post(gson.toJson(stats));
+  /**
+   * Sends the stats in the background, after the stats sent before them. This never waits for the
+   * server: if it falls too far behind the oldest stats waiting to be sent are dropped.
+   *
+   * @return Completed once the server received the stats, failed if it could not be reached,
+   *     cancelled if the stats were dropped or the client closed before sending them
+   */
+  public Future<?> sendFleetStatsAsync(FleetStats stats) {
+    return statsSender.submit(
+        () -> {
+          try {
+            sendFleetStats(stats);
+          } catch (RuntimeException e) {
+            Log.error("Could not send the stats to the admin server: %s", e.getMessage());
+            throw e;
+          }
+        });
   }
 
   public Set<DroneIdentifier> getRegisteredDrones() {
-    WebResource resource = client.resource(getServerEndpoint("/drones"));
-
-    Gson gson = new Gson();
     Type droneListType = new TypeToken<TreeSet<DroneIdentifier>>() {}.getType();
-    String jsonListOfDrones = resource.type(MediaType.APPLICATION_JSON).get(String.class);
+    String jsonListOfDrones = dronesResource.type(MediaType.APPLICATION_JSON).get(String.class);
     return gson.fromJson(jsonListOfDrones, droneListType);
   }
 
-  public double getAverageDeliveriesBetweenTimestamps(long t1, long t2) {
-    WebResource resource =
-        client.resource(getServerEndpoint("/stats/average-deliveries/after/%d/before/%d", t1, t2));
+  /**
+   * @param version The version returned by the last call or by the join, -1 for every drone
+   * @return The drones that joined or left since that version
+   */
+  public MembershipChangesResponse getMembershipChangesSince(long version) {
+    String json =
+        dronesResource
+            .path("changes/since/" + version)
+            .type(MediaType.APPLICATION_JSON)
+            .get(String.class);
+    return gson.fromJson(json, MembershipChangesResponse.class);
+  }
 
-    String json = resource.type(MediaType.APPLICATION_JSON).get(String.class);
-    Gson gson = new Gson();
+  public double getAverageDeliveriesBetweenTimestamps(long t1, long t2) {
+    String json =
+        statsResource
+            .path("average-deliveries/after/" + t1 + "/before/" + t2)
+            .type(MediaType.APPLICATION_JSON)
+            .get(String.class);
     return gson.fromJson(json, Double.class);
   }
 
   public double getAverageKmsTravelledBetweenTimestamps(long t1, long t2) {
-    WebResource resource =
-        client.resource(
-            getServerEndpoint("/stats/average-kms-travelled/after/%d/before/%d", t1, t2));
-
-    String json = resource.type(MediaType.APPLICATION_JSON).get(String.class);
-    Gson gson = new Gson();
+    String json =
+        statsResource
+            .path("average-kms-travelled/after/" + t1 + "/before/" + t2)
+            .type(MediaType.APPLICATION_JSON)
+            .get(String.class);
     return gson.fromJson(json, Double.class);
   }
 
   public List<FleetStats> getRecentStats(int howMany) {
-    WebResource resource = client.resource(getServerEndpoint("/stats/last/%d", howMany));
+    List<FleetStats> stats = new ArrayList<>();
+    try (StatsStream stream = streamRecentStats(howMany)) {
+      stream.forEachRemaining(stats::add);
+    }
+    return stats;
+  }
+
+  /** @return The most recent stats, oldest first, read as they are iterated */
+  public StatsStream streamRecentStats(int howMany) {
+    return streamStats(statsResource.path("last/" + howMany));
+  }
+
+  /** @return The stats between the two timestamps, oldest first, read as they are iterated */
+  public StatsStream streamStatsBetweenTimestamps(long t1, long t2) {
+    return streamStats(statsResource.path("after/" + t1 + "/before/" + t2));
+  }
 
-    Gson gson = new Gson();
-    Type statsListType = new TypeToken<ArrayList<FleetStats>>() {}.getType();
-    String jsonListOfStats = resource.type(MediaType.APPLICATION_JSON).get(String.class);
-    return gson.fromJson(jsonListOfStats, statsListType);
+  private StatsStream streamStats(WebResource resource) {
+    return new StatsStream(
+        resource.accept(MediaType.APPLICATION_JSON).get(InputStream.class), gson);
+  }
+
+  /** Stops sending stats, dropping those not sent yet, and closes the connections */
+  @Override
+  public void close() {
+    for (Runnable notSent : statsSender.shutdownNow()) {
+      ((Future<?>) notSent).cancel(false);
+    }
+    client.destroy();
+  }
+
+  /**
+   * Parses the stats of a JSON array one at a time, as they are asked for, so that only the stats
+   * being looked at are in memory. Has to be closed to release the connection.
+   */
+  public static class StatsStream implements Iterator<FleetStats>, Closeable {
+    private final Gson gson;
+    private final JsonReader reader;
+    private boolean started = false;
+
+    StatsStream(InputStream input, Gson gson) {
+      this.gson = gson;
+      this.reader = new JsonReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean hasNext() {
+      try {
+        if (!started) {
+          reader.beginArray();
+          started = true;
+        }
+        return reader.hasNext();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public FleetStats next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return gson.fromJson(reader, FleetStats.class);
+    }
+
+    @Override
+    public void close() {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        Log.warn("Could not close the stats stream: %s", e.getMessage());
+      }
+    }
   }
 }
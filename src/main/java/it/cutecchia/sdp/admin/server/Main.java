@@ -1,7 +1,5 @@
 package it.cutecchia.sdp.admin.server;
 
-import com.sun.jersey.api.container.httpserver.HttpServerFactory;
-import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
 
 public class Main {
@@ -10,7 +8,7 @@ public class Main {
   private static final int PORT = 1337;
 
   public static void main(String[] args) throws IOException {
-    HttpServer server = HttpServerFactory.create("http://" + HOST + ":" + PORT + "/");
+    AdminHttpServer server = AdminHttpServer.fromSystemProperties(HOST, PORT);
     server.start();
 
     System.out.println("Server running!");
@@ -9,16 +9,24 @@ import javax.xml.bind.annotation.XmlRootElement;
 public class DroneEnterResponse {
   private final CityPoint newlyAddedDronePosition;
   private final Set<DroneIdentifier> allDrones;
+  // The version of the registered drones that allDrones is
+  private final long membershipVersion;
 
-  public DroneEnterResponse(CityPoint newlyAddedDronePosition, Set<DroneIdentifier> allDrones) {
+  public DroneEnterResponse(
+      CityPoint newlyAddedDronePosition, Set<DroneIdentifier> allDrones, long membershipVersion) {
     this.newlyAddedDronePosition = newlyAddedDronePosition;
     this.allDrones = allDrones;
+    this.membershipVersion = membershipVersion;
   }
 
   public Set<DroneIdentifier> getAllDrones() {
     return allDrones;
   }
 
+  public long getMembershipVersion() {
+    return membershipVersion;
+  }
+
   public CityPoint getNewlyAddedDronePosition() {
     return newlyAddedDronePosition;
   }
@@ -0,0 +1,38 @@
+package it.cutecchia.sdp.admin.server.messages;
+
+import it.cutecchia.sdp.common.DroneIdentifier;
+
+/** A drone that joined or left, with the version of the registered drones after the change */
+public class MembershipChange {
+  public enum Type {
+    JOINED,
+    LEFT
+  }
+
+  private final long version;
+  private final Type type;
+  private final DroneIdentifier drone;
+
+  public MembershipChange(long version, Type type, DroneIdentifier drone) {
+    this.version = version;
+    this.type = type;
+    this.drone = drone;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public DroneIdentifier getDrone() {
+    return drone;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("<%d: %s %s>", version, type, drone);
+  }
+}
@@ -0,0 +1,47 @@
+package it.cutecchia.sdp.admin.server.messages;
+
+import it.cutecchia.sdp.common.DroneIdentifier;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The drones that joined or left after the version a drone already knows, oldest first. When the
+ * server does not remember every change since that version <code>allDrones</code> has every
+ * registered drone instead.
+ */
+public class MembershipChangesResponse {
+  private final long version;
+  private final List<MembershipChange> changes;
+  private final Set<DroneIdentifier> allDrones;
+
+  private MembershipChangesResponse(
+      long version, List<MembershipChange> changes, Set<DroneIdentifier> allDrones) {
+    this.version = version;
+    this.changes = changes;
+    this.allDrones = allDrones;
+  }
+
+  public static MembershipChangesResponse ofChanges(long version, List<MembershipChange> changes) {
+    return new MembershipChangesResponse(version, changes, null);
+  }
+
+  public static MembershipChangesResponse ofAllDrones(
+      long version, Set<DroneIdentifier> allDrones) {
+    return new MembershipChangesResponse(version, Collections.emptyList(), allDrones);
+  }
+
+  /** @return The version after the changes */
+  public long getVersion() {
+    return version;
+  }
+
+  public List<MembershipChange> getChanges() {
+    return changes == null ? Collections.emptyList() : changes;
+  }
+
+  /** @return Every registered drone, or null if the changes are enough */
+  public Set<DroneIdentifier> getAllDrones() {
+    return allDrones;
+  }
+}
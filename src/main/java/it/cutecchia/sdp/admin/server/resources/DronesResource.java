@@ -3,12 +3,11 @@ package it.cutecchia.sdp.admin.server.resources;
 import com.google.gson.Gson;
 import it.cutecchia.sdp.admin.server.messages.DroneEnterRequest;
 import it.cutecchia.sdp.admin.server.messages.DroneEnterResponse;
+import it.cutecchia.sdp.admin.server.messages.MembershipChangesResponse;
 import it.cutecchia.sdp.admin.server.stores.DronesStore;
 import it.cutecchia.sdp.admin.server.stores.InMemoryDronesStore;
 import it.cutecchia.sdp.common.CityPoint;
-import it.cutecchia.sdp.common.DroneIdentifier;
 import it.cutecchia.sdp.common.Log;
-import java.util.Set;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -35,9 +34,15 @@ public class DronesResource {
           "New drone: Id=%d, Address=%s, Port=%d",
           droneId, request.getIpAddress(), request.getConnectionPort());
       droneStore.addNewDrone(droneId, request.getIpAddress(), request.getConnectionPort());
-      Set<DroneIdentifier> drones = droneStore.getRegisteredDrones();
+      // Every drone with the version they are at, so that the new drone can follow the changes
+      MembershipChangesResponse membership = droneStore.getMembershipChangesSince(-1);
 
-      return Response.ok(gson.toJson(new DroneEnterResponse(CityPoint.randomPosition(), drones)))
+      return Response.ok(
+              gson.toJson(
+                  new DroneEnterResponse(
+                      CityPoint.randomPosition(),
+                      membership.getAllDrones(),
+                      membership.getVersion())))
           .type(MediaType.APPLICATION_JSON)
           .build();
     } catch (DronesStore.DroneIdAlreadyInUse error) {
@@ -48,6 +53,17 @@ public class DronesResource {
     }
   }
 
+  @GET
+  @Path("changes/since/{version}")
+  @Produces("application/json")
+  public Response getMembershipChanges(@PathParam("version") long version) {
+    Gson gson = new Gson();
+    DronesStore store = InMemoryDronesStore.getInstance();
+    return Response.ok(gson.toJson(store.getMembershipChangesSince(version)))
+        .type(MediaType.APPLICATION_JSON)
+        .build();
+  }
+
   @DELETE
   @Path("{droneId}")
   public Response removeDrone(@PathParam("droneId") int droneId) {
@@ -1,21 +1,24 @@
 package it.cutecchia.sdp.admin.server.resources;
 
-import it.cutecchia.sdp.admin.server.stores.InMemoryStatisticsStore;
+import com.google.gson.Gson;
+import it.cutecchia.sdp.admin.server.stores.RollupStatisticsStore;
 import it.cutecchia.sdp.common.FleetStats;
 import it.cutecchia.sdp.common.Log;
-import java.util.List;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Response;
 
 @Path("/stats")
 public class StatisticsResource {
+  private final RollupStatisticsStore store = RollupStatisticsStore.getInstance();
 
   @GET
   @Produces("application/json")
   @Path("/last/{last}")
   public Response getStatistics(@PathParam("last") int last) {
-    List<FleetStats> stats = InMemoryStatisticsStore.getInstance().getMostRecentStats(last);
-    return Response.ok(stats).build();
+    return Response.ok(
+            new StatsStreamingOutput(
+                store, store.getOldestOfMostRecent(last), Long.MAX_VALUE, last))
+        .build();
   }
 
   @GET
@@ -25,7 +28,7 @@ public class StatisticsResource {
     if (t1 > t2) {
       return Response.status(Response.Status.BAD_REQUEST).build();
     }
-    return Response.ok(InMemoryStatisticsStore.getInstance().getStatsBetween(t1, t2)).build();
+    return Response.ok(new StatsStreamingOutput(store, t1, t2, Long.MAX_VALUE)).build();
   }
 
   @GET
@@ -36,12 +39,7 @@ public class StatisticsResource {
     if (t1 > t2) {
       return Response.status(Response.Status.BAD_REQUEST).build();
     }
-    double average =
-        InMemoryStatisticsStore.getInstance().getStatsBetween(t1, t2).stream()
-            .mapToDouble(FleetStats::getAverageDeliveries)
-            .average()
-            .orElse(0.0);
-    return Response.ok(average).build();
+    return Response.ok(store.aggregateBetween(t1, t2).getAverageDeliveries()).build();
   }
 
   @GET
@@ -52,12 +50,21 @@ public class StatisticsResource {
     if (t1 > t2) {
       return Response.status(Response.Status.BAD_REQUEST).build();
     }
-    double average =
-        InMemoryStatisticsStore.getInstance().getStatsBetween(t1, t2).stream()
-            .mapToDouble(FleetStats::getAverageKmTravelled)
-            .average()
-            .orElse(0.0);
-    return Response.ok(average).build();
+    return Response.ok(store.aggregateBetween(t1, t2).getAverageKmTravelled()).build();
+  }
+
+  @GET
+  @Produces("application/json")
+  @Path("/rollups/after/{t1}/before/{t2}")
+  public Response getRollupsBetweenTimestamps(
+      @PathParam("t1") long t1,
+      @PathParam("t2") long t2,
+      @QueryParam("resolution") @DefaultValue("0") long resolutionMillis) {
+    if (t1 > t2) {
+      return Response.status(Response.Status.BAD_REQUEST).build();
+    }
+    Gson gson = new Gson();
+    return Response.ok(gson.toJson(store.getRollupsBetween(t1, t2, resolutionMillis))).build();
   }
 
   @POST
@@ -65,7 +72,7 @@ public class StatisticsResource {
   @Produces("application/json")
   public Response postStatistics(FleetStats stats) {
     Log.info("Fleet stats: %s", stats);
-    InMemoryStatisticsStore.getInstance().addStatistic(stats);
+    store.addStatistic(stats);
     return Response.ok().build();
   }
 }
@@ -0,0 +1,63 @@
+package it.cutecchia.sdp.admin.server.resources;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import it.cutecchia.sdp.admin.server.stores.StatisticsStore;
+import it.cutecchia.sdp.common.FleetStats;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Writes the stats between two timestamps as a JSON array while reading them from the store a page
+ * at a time, so a response holds at most a page of stats in memory however long its range is. The
+ * store is not locked while the stats are sent.
+ */
+class StatsStreamingOutput implements StreamingOutput {
+  static final int PAGE_SIZE = 1024;
+
+  private final StatisticsStore store;
+  private final long earliestTimestamp;
+  private final long latestTimestamp;
+  private final long howMany;
+
+  /** @param howMany How many stats to write at most */
+  StatsStreamingOutput(
+      StatisticsStore store, long earliestTimestamp, long latestTimestamp, long howMany) {
+    this.store = store;
+    this.earliestTimestamp = earliestTimestamp;
+    this.latestTimestamp = latestTimestamp;
+    this.howMany = howMany;
+  }
+
+  @Override
+  public void write(OutputStream output) throws IOException {
+    final Gson gson = new Gson();
+    final JsonWriter writer =
+        new JsonWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+    writer.beginArray();
+
+    long from = earliestTimestamp;
+    long written = 0;
+    while (written < howMany) {
+      final int pageSize = (int) Math.min(PAGE_SIZE, howMany - written);
+      List<FleetStats> page = store.getStatsBetween(from, latestTimestamp, pageSize);
+      for (FleetStats stats : page) {
+        gson.toJson(stats, FleetStats.class, writer);
+      }
+      written += page.size();
+
+      if (page.size() < pageSize) break;
+      final long last = page.get(page.size() - 1).getTimestamp();
+      if (last == Long.MAX_VALUE) break;
+      from = last + 1;
+    }
+
+    writer.endArray();
+    writer.flush();
+  }
+}
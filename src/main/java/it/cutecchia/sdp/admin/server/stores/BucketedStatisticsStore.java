@@ -0,0 +1,179 @@
+package it.cutecchia.sdp.admin.server.stores;
+
+import it.cutecchia.sdp.common.FleetStats;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps the stats ordered by timestamp, together with the sums of the stats of each bucket of time.
+ * Ranges are found in the ordered stats without looking at the others, and an aggregate over a
+ * range only reads the stats of the buckets at its two ends: the buckets in between are already
+ * summed.
+ */
+public class BucketedStatisticsStore implements StatisticsStore {
+  public static final long DEFAULT_BUCKET_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private static BucketedStatisticsStore instance = null;
+
+  private final long bucketMillis;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final NavigableSet<FleetStats> stats = new TreeSet<>();
+  // The sums of the stats in each bucket, by the timestamp the bucket starts at
+  private final NavigableMap<Long, StatsAggregate> buckets = new TreeMap<>();
+
+  public BucketedStatisticsStore() {
+    this(DEFAULT_BUCKET_MILLIS);
+  }
+
+  public BucketedStatisticsStore(long bucketMillis) {
+    if (bucketMillis <= 0) {
+      throw new IllegalArgumentException("Invalid bucket duration: " + bucketMillis);
+    }
+    this.bucketMillis = bucketMillis;
+  }
+
+  public static synchronized BucketedStatisticsStore getInstance() {
+    if (instance == null) {
+      instance = new BucketedStatisticsStore();
+    }
+    return instance;
+  }
+
+  private long bucketStart(long timestamp) {
+    return Math.floorDiv(timestamp, bucketMillis) * bucketMillis;
+  }
+
+  // Stats are compared by timestamp only, so this finds the stats with the given timestamp
+  private static FleetStats at(long timestamp) {
+    return new FleetStats(timestamp, 0, 0, 0, 0);
+  }
+
+  @Override
+  public boolean addStatistic(FleetStats newStats) {
+    lock.writeLock().lock();
+    try {
+      if (!stats.add(newStats)) {
+        return false;
+      }
+      buckets.merge(
+          bucketStart(newStats.getTimestamp()),
+          StatsAggregate.EMPTY.plus(newStats),
+          StatsAggregate::plus);
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public List<FleetStats> getMostRecentStats(int howMany) {
+    List<FleetStats> mostRecent = new ArrayList<>(Math.max(0, Math.min(howMany, 1024)));
+    lock.readLock().lock();
+    try {
+      Iterator<FleetStats> newestFirst = stats.descendingIterator();
+      while (mostRecent.size() < howMany && newestFirst.hasNext()) {
+        mostRecent.add(newestFirst.next());
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    Collections.reverse(mostRecent);
+    return mostRecent;
+  }
+
+  @Override
+  public List<FleetStats> getStatsBetween(long earliestTimestamp, long latestTimestamp) {
+    if (earliestTimestamp > latestTimestamp) {
+      return Collections.emptyList();
+    }
+    lock.readLock().lock();
+    try {
+      return new ArrayList<>(stats.subSet(at(earliestTimestamp), true, at(latestTimestamp), true));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<FleetStats> getStatsBetween(
+      long earliestTimestamp, long latestTimestamp, int howMany) {
+    List<FleetStats> page = new ArrayList<>(Math.max(0, Math.min(howMany, 1024)));
+    if (earliestTimestamp > latestTimestamp) {
+      return page;
+    }
+    lock.readLock().lock();
+    try {
+      Iterator<FleetStats> oldestFirst =
+          stats.subSet(at(earliestTimestamp), true, at(latestTimestamp), true).iterator();
+      while (page.size() < howMany && oldestFirst.hasNext()) {
+        page.add(oldestFirst.next());
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return page;
+  }
+
+  @Override
+  public long getOldestOfMostRecent(int howMany) {
+    lock.readLock().lock();
+    try {
+      Iterator<FleetStats> newestFirst = stats.descendingIterator();
+      long oldest = Long.MAX_VALUE;
+      for (int i = 0; i < howMany && newestFirst.hasNext(); i++) {
+        oldest = newestFirst.next().getTimestamp();
+      }
+      return oldest;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public StatsAggregate aggregateBetween(long earliestTimestamp, long latestTimestamp) {
+    lock.readLock().lock();
+    try {
+      if (stats.isEmpty()) {
+        return StatsAggregate.EMPTY;
+      }
+      final long earliest = Math.max(earliestTimestamp, stats.first().getTimestamp());
+      final long latest = Math.min(latestTimestamp, stats.last().getTimestamp());
+      if (earliest > latest) {
+        return StatsAggregate.EMPTY;
+      }
+
+      // The buckets that are entirely in the range go from firstBucket included to endOfBuckets
+      // excluded. The stats before and after them are summed one by one
+      final long firstBucket =
+          bucketStart(earliest) == earliest ? earliest : bucketStart(earliest) + bucketMillis;
+      final long endOfBuckets = bucketStart(latest + 1);
+      if (firstBucket >= endOfBuckets) {
+        return StatsAggregate.of(stats.subSet(at(earliest), true, at(latest), true));
+      }
+
+      StatsAggregate aggregate =
+          StatsAggregate.of(stats.subSet(at(earliest), true, at(firstBucket), false));
+      for (StatsAggregate bucket :
+          buckets.subMap(firstBucket, true, endOfBuckets, false).values()) {
+        aggregate = aggregate.plus(bucket);
+      }
+      if (endOfBuckets <= latest) {
+        aggregate =
+            aggregate.plus(
+                StatsAggregate.of(stats.subSet(at(endOfBuckets), true, at(latest), true)));
+      }
+      return aggregate;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package it.cutecchia.sdp.admin.server.stores;
 
+import it.cutecchia.sdp.admin.server.messages.MembershipChangesResponse;
 import it.cutecchia.sdp.common.DroneIdentifier;
 import java.util.Set;
 
@@ -14,5 +15,12 @@ public interface DronesStore {
 
   Set<DroneIdentifier> getRegisteredDrones();
 
+  /**
+   * @param version A version of the registered drones returned before, any other version (for
+   *     example -1) gets every registered drone
+   * @return The drones that joined or left after that version
+   */
+  MembershipChangesResponse getMembershipChangesSince(long version);
+
   void clear();
 }
@@ -1,45 +1,71 @@
 package it.cutecchia.sdp.admin.server.stores;
 
+import it.cutecchia.sdp.admin.server.messages.MembershipChange;
+import it.cutecchia.sdp.admin.server.messages.MembershipChangesResponse;
 import it.cutecchia.sdp.common.DroneIdentifier;
 import java.util.*;
 import javax.annotation.Nonnull;
 
 public class InMemoryDronesStore implements DronesStore {
+  private static final int MEMBERSHIP_LOG_CAPACITY = 4096;
   private static final InMemoryDronesStore instance = new InMemoryDronesStore();
 
   public static InMemoryDronesStore getInstance() {
     return instance;
   }
 
-  private final Set<DroneIdentifier> drones = new HashSet<>();
+  // By id, so that a join doesn't scan every registered drone
+  private final Map<Integer, DroneIdentifier> drones = new HashMap<>();
+  private final MembershipLog log = new MembershipLog(MEMBERSHIP_LOG_CAPACITY);
+  // Shared by every reader until the next change, null when it has to be rebuilt
+  private Set<DroneIdentifier> snapshot = null;
 
   @Override
-  public void addNewDrone(int droneId, @Nonnull String ipAddress, int connectionPort)
+  public synchronized void addNewDrone(int droneId, @Nonnull String ipAddress, int connectionPort)
       throws DroneIdAlreadyInUse {
-    DroneIdentifier newDrone = new DroneIdentifier(droneId, ipAddress, connectionPort);
-
-    synchronized (drones) {
-      if (drones.parallelStream().anyMatch(drone -> drone.getId() == droneId)) {
-        throw new DroneIdAlreadyInUse();
-      }
-      drones.add(newDrone);
+    if (drones.containsKey(droneId)) {
+      throw new DroneIdAlreadyInUse();
     }
+    DroneIdentifier newDrone = new DroneIdentifier(droneId, ipAddress, connectionPort);
+    drones.put(droneId, newDrone);
+    log.append(MembershipChange.Type.JOINED, newDrone);
+    snapshot = null;
   }
 
   @Override
   public synchronized void removeDroneById(int droneId) throws DroneIdNotFound {
-    if (!drones.removeIf(drone -> drone.getId() == droneId)) {
+    DroneIdentifier removed = drones.remove(droneId);
+    if (removed == null) {
       throw new DroneIdNotFound();
     }
+    log.append(MembershipChange.Type.LEFT, removed);
+    snapshot = null;
   }
 
+  /** @return The registered drones, which must not be modified */
   @Override
   public synchronized Set<DroneIdentifier> getRegisteredDrones() {
-    return new HashSet<>(drones);
+    if (snapshot == null) {
+      snapshot = Collections.unmodifiableSet(new HashSet<>(drones.values()));
+    }
+    return snapshot;
+  }
+
+  @Override
+  public synchronized MembershipChangesResponse getMembershipChangesSince(long version) {
+    List<MembershipChange> changes = log.getChangesSince(version);
+    if (changes == null) {
+      return MembershipChangesResponse.ofAllDrones(log.getVersion(), getRegisteredDrones());
+    }
+    return MembershipChangesResponse.ofChanges(log.getVersion(), changes);
   }
 
   @Override
   public synchronized void clear() {
+    for (DroneIdentifier drone : drones.values()) {
+      log.append(MembershipChange.Type.LEFT, drone);
+    }
     drones.clear();
+    snapshot = null;
   }
 }
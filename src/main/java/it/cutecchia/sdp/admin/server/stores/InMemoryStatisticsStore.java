@@ -20,17 +20,18 @@ public class InMemoryStatisticsStore implements StatisticsStore {
   }
 
   @Override
-  public synchronized void addStatistic(FleetStats newStats) {
-    stats.add(newStats);
+  public synchronized boolean addStatistic(FleetStats newStats) {
+    return stats.add(newStats);
   }
 
   @Override
-  public List<FleetStats> getMostRecentStats(int howMany) {
+  public synchronized List<FleetStats> getMostRecentStats(int howMany) {
     return stats.stream().skip(Math.max(stats.size() - howMany, 0)).collect(Collectors.toList());
   }
 
   @Override
-  public List<FleetStats> getStatsBetween(long earliestTimestamp, long latestTimestamp) {
+  public synchronized List<FleetStats> getStatsBetween(
+      long earliestTimestamp, long latestTimestamp) {
     return stats.stream()
         .filter(s -> earliestTimestamp <= s.getTimestamp() && s.getTimestamp() <= latestTimestamp)
         .collect(Collectors.toList());
@@ -0,0 +1,507 @@
+package it.cutecchia.sdp.admin.server.stores;
+
+import it.cutecchia.sdp.common.FleetStats;
+import it.cutecchia.sdp.common.Log;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps the stats on disk, in an append-only log split in segments of at most <code>
+ * recordsPerSegment</code> records. Every record takes {@link #RECORD_SIZE} bytes, so the n-th
+ * record of a segment is found without reading the others. Segments are read through memory
+ * mappings, and each one keeps in memory the timestamp of every {@link #INDEX_INTERVAL}-th record
+ * to find where a range starts. Opening the store only reads those timestamps.
+ *
+ * <p>Segments older than <code>compactAfterMillis</code> are compacted: their records are replaced
+ * by one record per minute, weighted by how many records it replaces, so averages over a range do
+ * not change.
+ *
+ * <p>Stats must arrive in timestamp order, like they do from the master: a stats that is not more
+ * recent than the last one stored is discarded.
+ */
+public class LogStatisticsStore implements StatisticsStore, Closeable {
+  private static final String DIRECTORY_PROPERTY = "dronazon.stats.dir";
+  private static final String SEGMENT_PREFIX = "stats-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String COMPACTED_SUFFIX = ".compacted.log";
+
+  // timestamp, weight, unused, average deliveries, kms, pollution and battery level
+  static final int RECORD_SIZE = 48;
+  static final int INDEX_INTERVAL = 64;
+  public static final int DEFAULT_RECORDS_PER_SEGMENT = 16 * 1024;
+  public static final long DEFAULT_COMPACT_AFTER_MILLIS = TimeUnit.DAYS.toMillis(7);
+  private static final long COMPACTED_RESOLUTION_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private static LogStatisticsStore instance = null;
+
+  private final Path directory;
+  private final int recordsPerSegment;
+  private final long compactAfterMillis;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // By the timestamp of their first record
+  private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+  // The segment new stats are appended to, the most recent one
+  private Segment active = null;
+
+  public LogStatisticsStore(Path directory) throws IOException {
+    this(directory, DEFAULT_RECORDS_PER_SEGMENT, DEFAULT_COMPACT_AFTER_MILLIS);
+  }
+
+  public LogStatisticsStore(Path directory, int recordsPerSegment, long compactAfterMillis)
+      throws IOException {
+    if (recordsPerSegment < 1 || compactAfterMillis < 0) {
+      throw new IllegalArgumentException("Invalid segment size or compaction age");
+    }
+    this.directory = Files.createDirectories(directory);
+    this.recordsPerSegment = recordsPerSegment;
+    this.compactAfterMillis = compactAfterMillis;
+
+    try (DirectoryStream<Path> files =
+        Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (Path file : files) {
+        Segment segment = Segment.open(file);
+        Segment other = segment.count > 0 ? segments.get(segment.getFirstTimestamp()) : null;
+        if (segment.count == 0 || (other != null && other.isCompacted())) {
+          // Empty, or the store stopped after compacting the segment but before deleting it
+          segment.close();
+          Files.delete(file);
+        } else {
+          segments.put(segment.getFirstTimestamp(), segment);
+          if (other != null) {
+            other.close();
+            Files.delete(other.file);
+          }
+        }
+      }
+    }
+    if (!segments.isEmpty() && !segments.lastEntry().getValue().isCompacted()) {
+      active = segments.lastEntry().getValue();
+    }
+    Log.info("Opened %d stats segments in %s", segments.size(), directory);
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  /** The store in the directory given by the <code>dronazon.stats.dir</code> property */
+  public static synchronized LogStatisticsStore getInstance() {
+    if (instance == null) {
+      try {
+        instance = new LogStatisticsStore(Paths.get(System.getProperty(DIRECTORY_PROPERTY)));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return instance;
+  }
+
+  /** @return Whether the stats should be kept on disk, see {@link #getInstance()} */
+  public static boolean isConfigured() {
+    return System.getProperty(DIRECTORY_PROPERTY) != null;
+  }
+
+  private static final class Segment implements Closeable {
+    private final Path file;
+    private final FileChannel channel;
+    // The timestamps of the records 0, INDEX_INTERVAL, 2 * INDEX_INTERVAL and so on
+    private long[] index = new long[4];
+    private int count;
+    private long lastTimestamp;
+    private MappedByteBuffer mapped = null;
+
+    private Segment(Path file, FileChannel channel) {
+      this.file = file;
+      this.channel = channel;
+    }
+
+    static Segment open(Path file) throws IOException {
+      FileChannel channel =
+          FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      Segment segment = new Segment(file, channel);
+      segment.count = (int) (channel.size() / RECORD_SIZE);
+      if (channel.size() % RECORD_SIZE != 0) {
+        // The last record was not completely written
+        channel.truncate((long) segment.count * RECORD_SIZE);
+      }
+      if (segment.count > 0) {
+        final ByteBuffer records = segment.records();
+        for (int i = 0; i < segment.count; i += INDEX_INTERVAL) {
+          segment.indexRecord(i, records.getLong(i * RECORD_SIZE));
+        }
+        segment.lastTimestamp = records.getLong((segment.count - 1) * RECORD_SIZE);
+      }
+      return segment;
+    }
+
+    static Segment create(Path file) throws IOException {
+      return new Segment(
+          file,
+          FileChannel.open(
+              file,
+              StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE));
+    }
+
+    boolean isCompacted() {
+      return file.getFileName().toString().endsWith(COMPACTED_SUFFIX);
+    }
+
+    long getFirstTimestamp() {
+      return index[0];
+    }
+
+    private void indexRecord(int position, long timestamp) {
+      if (position % INDEX_INTERVAL == 0) {
+        final int slot = position / INDEX_INTERVAL;
+        if (slot == index.length) {
+          index = Arrays.copyOf(index, 2 * index.length);
+        }
+        index[slot] = timestamp;
+      }
+    }
+
+    /** The record is only durable after {@link #flush()} */
+    void append(ByteBuffer record, long timestamp) throws IOException {
+      final long position = (long) count * RECORD_SIZE;
+      while (record.hasRemaining()) {
+        channel.write(record, position + record.position());
+      }
+      indexRecord(count, timestamp);
+      lastTimestamp = timestamp;
+      count++;
+    }
+
+    /** @return A read only view of the records, grown when more records are appended */
+    synchronized ByteBuffer records() throws IOException {
+      if (mapped == null || mapped.capacity() < count * RECORD_SIZE) {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) count * RECORD_SIZE);
+      }
+      return mapped;
+    }
+
+    /** @return The position of the first record at or after <code>timestamp</code> */
+    int firstAtOrAfter(ByteBuffer records, long timestamp) throws IOException {
+      final int indexed = (count + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+      int slot = Arrays.binarySearch(index, 0, indexed, timestamp);
+      if (slot >= 0) {
+        return slot * INDEX_INTERVAL;
+      }
+      // The records before the insertion point are all older than the timestamp
+      int position = Math.max(0, -slot - 2) * INDEX_INTERVAL;
+      while (position < count && records.getLong(position * RECORD_SIZE) < timestamp) {
+        position++;
+      }
+      return position;
+    }
+
+    void flush() throws IOException {
+      channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  private static ByteBuffer encode(FleetStats stats, int weight) {
+    ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    record
+        .putLong(stats.getTimestamp())
+        .putInt(weight)
+        .putInt(0)
+        .putDouble(stats.getAverageDeliveries())
+        .putDouble(stats.getAverageKmTravelled())
+        .putDouble(stats.getAveragePollution())
+        .putDouble(stats.getAverageBatteryLevel())
+        .flip();
+    return record;
+  }
+
+  private static FleetStats decode(ByteBuffer records, int position) {
+    final int offset = position * RECORD_SIZE;
+    return new FleetStats(
+        records.getLong(offset),
+        records.getDouble(offset + 16),
+        records.getDouble(offset + 24),
+        records.getDouble(offset + 32),
+        records.getDouble(offset + 40));
+  }
+
+  private static int weightOf(ByteBuffer records, int position) {
+    return records.getInt(position * RECORD_SIZE + 8);
+  }
+
+  private Path segmentFile(long firstTimestamp, String suffix) {
+    return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstTimestamp, suffix));
+  }
+
+  @Override
+  public boolean addStatistic(FleetStats stats) {
+    lock.writeLock().lock();
+    try {
+      if (!segments.isEmpty()
+          && stats.getTimestamp() <= segments.lastEntry().getValue().lastTimestamp) {
+        Log.warn("Discarding stats older than the most recent ones: %s", stats);
+        return false;
+      }
+      if (active == null || active.count >= recordsPerSegment) {
+        active = Segment.create(segmentFile(stats.getTimestamp(), SEGMENT_SUFFIX));
+        segments.put(stats.getTimestamp(), active);
+        compactOldSegments(stats.getTimestamp());
+      }
+      active.append(encode(stats, 1), stats.getTimestamp());
+      active.flush();
+      return true;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Compacts the full segments that are older than the compaction age */
+  private void compactOldSegments(long now) throws IOException {
+    for (Segment segment : new ArrayList<>(segments.values())) {
+      if (segment == active || segment.isCompacted()) continue;
+      if (now - segment.lastTimestamp < compactAfterMillis) break;
+      compact(segment);
+    }
+  }
+
+  private void compact(Segment segment) throws IOException {
+    final ByteBuffer records = segment.records();
+    final Path compactedFile = segmentFile(segment.getFirstTimestamp(), COMPACTED_SUFFIX);
+    final Path temporaryFile = compactedFile.resolveSibling(compactedFile.getFileName() + ".tmp");
+    Files.deleteIfExists(temporaryFile);
+
+    try (Segment compacted = Segment.create(temporaryFile)) {
+      int position = 0;
+      while (position < segment.count) {
+        final long minute =
+            Math.floorDiv(records.getLong(position * RECORD_SIZE), COMPACTED_RESOLUTION_MILLIS);
+        StatsAggregate aggregate = StatsAggregate.EMPTY;
+        final long firstTimestamp = records.getLong(position * RECORD_SIZE);
+        while (position < segment.count
+            && Math.floorDiv(records.getLong(position * RECORD_SIZE), COMPACTED_RESOLUTION_MILLIS)
+                == minute) {
+          aggregate = aggregate.plus(decode(records, position), weightOf(records, position));
+          position++;
+        }
+        compacted.append(
+            encode(
+                new FleetStats(
+                    firstTimestamp,
+                    aggregate.getAverageDeliveries(),
+                    aggregate.getAverageKmTravelled(),
+                    aggregate.getAveragePollution(),
+                    aggregate.getAverageBatteryLevel()),
+                (int) aggregate.getCount()),
+            firstTimestamp);
+      }
+      compacted.flush();
+    }
+    Files.move(temporaryFile, compactedFile, StandardCopyOption.ATOMIC_MOVE);
+    segment.close();
+    Files.delete(segment.file);
+    segments.put(segment.getFirstTimestamp(), Segment.open(compactedFile));
+    Log.info("Compacted %s", segment.file.getFileName());
+  }
+
+  /** Calls <code>visitor</code> on every record between the two timestamps, oldest first */
+  private void forEachRecordBetween(
+      long earliestTimestamp, long latestTimestamp, RecordVisitor visitor) throws IOException {
+    forEachRecordBetween(earliestTimestamp, latestTimestamp, Integer.MAX_VALUE, visitor);
+  }
+
+  /** Stops after the first <code>limit</code> records */
+  private void forEachRecordBetween(
+      long earliestTimestamp, long latestTimestamp, int limit, RecordVisitor visitor)
+      throws IOException {
+    if (earliestTimestamp > latestTimestamp || segments.isEmpty()) return;
+    int visited = 0;
+
+    final Long firstSegment = segments.floorKey(earliestTimestamp);
+    for (Segment segment :
+        segments
+            .subMap(
+                firstSegment == null ? Long.MIN_VALUE : firstSegment, true, latestTimestamp, true)
+            .values()) {
+      if (segment.lastTimestamp < earliestTimestamp) continue;
+      final ByteBuffer records = segment.records();
+      for (int i = segment.firstAtOrAfter(records, earliestTimestamp); i < segment.count; i++) {
+        if (records.getLong(i * RECORD_SIZE) > latestTimestamp || visited++ == limit) return;
+        visitor.visit(records, i);
+      }
+    }
+  }
+
+  private interface RecordVisitor {
+    void visit(ByteBuffer records, int position);
+  }
+
+  @Override
+  public List<FleetStats> getMostRecentStats(int howMany) {
+    List<FleetStats> mostRecent = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      for (Segment segment : segments.descendingMap().values()) {
+        final ByteBuffer records = segment.records();
+        for (int i = segment.count - 1; i >= 0 && mostRecent.size() < howMany; i--) {
+          mostRecent.add(decode(records, i));
+        }
+        if (mostRecent.size() >= howMany) break;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.readLock().unlock();
+    }
+    Collections.reverse(mostRecent);
+    return mostRecent;
+  }
+
+  @Override
+  public List<FleetStats> getStatsBetween(long earliestTimestamp, long latestTimestamp) {
+    List<FleetStats> stats = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      forEachRecordBetween(
+          earliestTimestamp, latestTimestamp, (records, i) -> stats.add(decode(records, i)));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.readLock().unlock();
+    }
+    return stats;
+  }
+
+  @Override
+  public List<FleetStats> getStatsBetween(
+      long earliestTimestamp, long latestTimestamp, int howMany) {
+    List<FleetStats> stats = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      forEachRecordBetween(
+          earliestTimestamp,
+          latestTimestamp,
+          howMany,
+          (records, i) -> stats.add(decode(records, i)));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.readLock().unlock();
+    }
+    return stats;
+  }
+
+  /** Counts the records of the newest segments without reading them */
+  @Override
+  public long getOldestOfMostRecent(int howMany) {
+    lock.readLock().lock();
+    try {
+      long oldest = Long.MAX_VALUE;
+      int remaining = howMany;
+      for (Segment segment : segments.descendingMap().values()) {
+        if (remaining <= 0) break;
+        if (segment.count == 0) continue;
+        final int position = Math.max(0, segment.count - remaining);
+        oldest = segment.records().getLong(position * RECORD_SIZE);
+        remaining -= segment.count - position;
+      }
+      return oldest;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Reads the records straight from the log, without collecting them first */
+  @Override
+  public void forEachBetween(long earliestTimestamp, long latestTimestamp, StatsVisitor visitor) {
+    lock.readLock().lock();
+    try {
+      forEachRecordBetween(
+          earliestTimestamp,
+          latestTimestamp,
+          (records, i) -> visitor.visit(decode(records, i), weightOf(records, i)));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Compacted records count as many times as the records they replaced */
+  @Override
+  public StatsAggregate aggregateBetween(long earliestTimestamp, long latestTimestamp) {
+    final StatsAggregate[] aggregate = {StatsAggregate.EMPTY};
+    lock.readLock().lock();
+    try {
+      forEachRecordBetween(
+          earliestTimestamp,
+          latestTimestamp,
+          (records, i) ->
+              aggregate[0] = aggregate[0].plus(decode(records, i), weightOf(records, i)));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.readLock().unlock();
+    }
+    return aggregate[0];
+  }
+
+  public int getSegmentCount() {
+    lock.readLock().lock();
+    try {
+      return segments.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public int getCompactedSegmentCount() {
+    lock.readLock().lock();
+    try {
+      return (int) segments.values().stream().filter(Segment::isCompacted).count();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      for (Segment segment : segments.values()) {
+        segment.close();
+      }
+      segments.clear();
+      active = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
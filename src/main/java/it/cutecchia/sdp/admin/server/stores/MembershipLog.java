@@ -0,0 +1,55 @@
+package it.cutecchia.sdp.admin.server.stores;
+
+import it.cutecchia.sdp.admin.server.messages.MembershipChange;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The most recent changes to the registered drones. Every change gets the next version, so a drone
+ * that knows the drones at some version only needs the changes after it. Not thread safe, it is
+ * guarded by the store that owns it.
+ */
+class MembershipLog {
+  private final int capacity;
+  // The versions of the changes are consecutive, ending with 'version'
+  private final List<MembershipChange> changes = new ArrayList<>();
+  private long version = 0;
+
+  /** @param capacity How many changes to remember at least */
+  MembershipLog(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Invalid capacity: " + capacity);
+    }
+    this.capacity = capacity;
+  }
+
+  void append(MembershipChange.Type type, DroneIdentifier drone) {
+    version++;
+    changes.add(new MembershipChange(version, type, drone));
+    if (changes.size() >= 2 * capacity) {
+      // Forgets the oldest half at once, so that appending stays cheap
+      changes.subList(0, changes.size() - capacity).clear();
+    }
+  }
+
+  long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return The changes after <code>since</code>, oldest first, or null if some of them were
+   *     forgotten or the version was never reached
+   */
+  List<MembershipChange> getChangesSince(long since) {
+    if (since == version) {
+      return Collections.emptyList();
+    }
+    final long oldest = version - changes.size();
+    if (since < oldest || since > version) {
+      return null;
+    }
+    return new ArrayList<>(changes.subList((int) (since - oldest), changes.size()));
+  }
+}
@@ -0,0 +1,390 @@
+package it.cutecchia.sdp.admin.server.stores;
+
+import it.cutecchia.sdp.common.FleetStats;
+import it.cutecchia.sdp.common.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps every stats in another store and rolls them up in tiers of one minute, one hour and one
+ * day, updated as the stats arrive. Aggregates over long ranges are made of the coarsest rollups
+ * that fit in the range, so only the stats of the minutes at the two ends are read from the other
+ * store.
+ *
+ * <p>Minute rollups are kept only for the last {@link #MINUTE_RETENTION_MILLIS}, like the stats
+ * that the log keeps uncompacted: older ranges are made of hours and days, and their ends are read
+ * from the other store. The hour and day rollups can be saved to a checkpoint every hour, so that a
+ * restart only reads the stats after the checkpoint and the minutes that are still kept.
+ */
+public class RollupStatisticsStore implements StatisticsStore {
+  static final long[] TIERS_MILLIS = {
+    TimeUnit.MINUTES.toMillis(1), TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(1)
+  };
+  // Rollups asked without a resolution are chosen so that there are at most this many
+  public static final int DEFAULT_MAX_ROLLUPS = 1440;
+  // The master sends the stats this often, a longer range has too many of them to return
+  private static final long STATS_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(10);
+  public static final long MINUTE_RETENTION_MILLIS =
+      LogStatisticsStore.DEFAULT_COMPACT_AFTER_MILLIS;
+  private static final String CHECKPOINT_FILE = "rollups.checkpoint";
+  private static final int CHECKPOINT_MAGIC = 0x524f4c31;
+
+  private static RollupStatisticsStore instance = null;
+
+  private final StatisticsStore stats;
+  private final Path checkpoint;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // For each tier, the rollups by the timestamp they start at
+  private final List<NavigableMap<Long, StatsRollup>> tiers = new ArrayList<>();
+  private long earliestTimestamp = Long.MAX_VALUE;
+  private long latestTimestamp = Long.MIN_VALUE;
+  // The minute rollups before this were dropped, it is always the start of an hour
+  private long minuteTierStart = Long.MIN_VALUE;
+
+  /** Rolls up the stats that <code>stats</code> already has */
+  public RollupStatisticsStore(StatisticsStore stats) {
+    this(stats, null);
+  }
+
+  /**
+   * @param checkpoint Where the hour and day rollups are saved, null to roll up every stats of
+   *     <code>stats</code> again when the store is created
+   */
+  public RollupStatisticsStore(StatisticsStore stats, Path checkpoint) {
+    this.stats = stats;
+    this.checkpoint = checkpoint;
+    for (int i = 0; i < TIERS_MILLIS.length; i++) {
+      tiers.add(new TreeMap<>());
+    }
+
+    if (checkpoint != null && loadCheckpoint()) {
+      final long checkpointed = latestTimestamp;
+      stats.forEachBetween(minuteTierStart, checkpointed, this::rollUpMinute);
+      stats.forEachBetween(checkpointed + 1, Long.MAX_VALUE, this::rollUp);
+    } else {
+      stats.forEachBetween(Long.MIN_VALUE, Long.MAX_VALUE, this::rollUp);
+    }
+  }
+
+  /**
+   * Stats are kept in a {@link LogStatisticsStore} when it is configured, with the checkpoint of
+   * the rollups in its directory, in a {@link BucketedStatisticsStore} otherwise
+   */
+  public static synchronized RollupStatisticsStore getInstance() {
+    if (instance == null) {
+      if (LogStatisticsStore.isConfigured()) {
+        final LogStatisticsStore log = LogStatisticsStore.getInstance();
+        instance = new RollupStatisticsStore(log, log.getDirectory().resolve(CHECKPOINT_FILE));
+      } else {
+        instance = new RollupStatisticsStore(BucketedStatisticsStore.getInstance());
+      }
+    }
+    return instance;
+  }
+
+  private static long bucketStart(long timestamp, long resolutionMillis) {
+    return Math.floorDiv(timestamp, resolutionMillis) * resolutionMillis;
+  }
+
+  private void rollUp(FleetStats newStats, long weight) {
+    final long timestamp = newStats.getTimestamp();
+    for (int i = 1; i < TIERS_MILLIS.length; i++) {
+      addTo(i, newStats, weight);
+    }
+    earliestTimestamp = Math.min(earliestTimestamp, timestamp);
+    latestTimestamp = Math.max(latestTimestamp, timestamp);
+    dropOldMinutes();
+    rollUpMinute(newStats, weight);
+  }
+
+  private void rollUpMinute(FleetStats newStats, long weight) {
+    if (newStats.getTimestamp() >= minuteTierStart) {
+      addTo(0, newStats, weight);
+    }
+  }
+
+  private void addTo(int tier, FleetStats newStats, long weight) {
+    final long resolution = TIERS_MILLIS[tier];
+    tiers
+        .get(tier)
+        .computeIfAbsent(
+            bucketStart(newStats.getTimestamp(), resolution), s -> new StatsRollup(s, resolution))
+        .add(newStats, weight);
+  }
+
+  private void dropOldMinutes() {
+    final long start = bucketStart(latestTimestamp - MINUTE_RETENTION_MILLIS, TIERS_MILLIS[1]);
+    if (start > minuteTierStart) {
+      tiers.get(0).headMap(start, false).clear();
+      minuteTierStart = start;
+    }
+  }
+
+  @Override
+  public boolean addStatistic(FleetStats newStats) {
+    lock.writeLock().lock();
+    try {
+      if (!stats.addStatistic(newStats)) {
+        return false;
+      }
+      final long hour = TIERS_MILLIS[1];
+      if (checkpoint != null
+          && latestTimestamp != Long.MIN_VALUE
+          && bucketStart(newStats.getTimestamp(), hour) > bucketStart(latestTimestamp, hour)) {
+        // The previous hour is over, the checkpoint has every stats until the new one
+        saveCheckpoint();
+      }
+      rollUp(newStats, 1);
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Writes the hour and day rollups, which then cover every stats until the latest one */
+  private void saveCheckpoint() {
+    final Path temporaryFile = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+    try (DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+      output.writeInt(CHECKPOINT_MAGIC);
+      output.writeLong(earliestTimestamp);
+      output.writeLong(latestTimestamp);
+      for (int i = 1; i < TIERS_MILLIS.length; i++) {
+        output.writeInt(tiers.get(i).size());
+        for (StatsRollup rollup : tiers.get(i).values()) {
+          rollup.writeTo(output);
+        }
+      }
+    } catch (IOException e) {
+      Log.warn("Could not write the rollups checkpoint: %s", e.getMessage());
+      return;
+    }
+
+    try {
+      Files.move(
+          temporaryFile,
+          checkpoint,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Log.warn("Could not replace the rollups checkpoint: %s", e.getMessage());
+    }
+  }
+
+  /**
+   * Reads the hour and day rollups of the checkpoint. A checkpoint of stats that the other store
+   * doesn't have anymore is ignored.
+   *
+   * @return false if the rollups must be rebuilt from every stats
+   */
+  private boolean loadCheckpoint() {
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint)))) {
+      if (input.readInt() != CHECKPOINT_MAGIC) {
+        Log.warn("%s is not a rollups checkpoint, rebuilding the rollups", checkpoint);
+        return false;
+      }
+      final long earliest = input.readLong();
+      final long latest = input.readLong();
+      final List<FleetStats> mostRecent = stats.getMostRecentStats(1);
+      if (mostRecent.isEmpty() || mostRecent.get(0).getTimestamp() < latest) {
+        Log.warn("The rollups checkpoint is ahead of the stats, rebuilding the rollups");
+        return false;
+      }
+
+      for (int i = 1; i < TIERS_MILLIS.length; i++) {
+        final int size = input.readInt();
+        for (int j = 0; j < size; j++) {
+          StatsRollup rollup = StatsRollup.readFrom(input);
+          tiers.get(i).put(rollup.getTimestamp(), rollup);
+        }
+      }
+      earliestTimestamp = earliest;
+      latestTimestamp = latest;
+      dropOldMinutes();
+      return true;
+    } catch (NoSuchFileException e) {
+      return false;
+    } catch (IOException e) {
+      Log.warn("Could not read the rollups checkpoint, rebuilding the rollups: %s", e.getMessage());
+      for (NavigableMap<Long, StatsRollup> tier : tiers) {
+        tier.clear();
+      }
+      return false;
+    }
+  }
+
+  /** @return How many minute rollups are kept, which does not grow past the retention */
+  int getMinuteRollupCount() {
+    lock.readLock().lock();
+    try {
+      return tiers.get(0).size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<FleetStats> getMostRecentStats(int howMany) {
+    return stats.getMostRecentStats(howMany);
+  }
+
+  @Override
+  public List<FleetStats> getStatsBetween(long earliestTimestamp, long latestTimestamp) {
+    return stats.getStatsBetween(earliestTimestamp, latestTimestamp);
+  }
+
+  @Override
+  public List<FleetStats> getStatsBetween(
+      long earliestTimestamp, long latestTimestamp, int howMany) {
+    return stats.getStatsBetween(earliestTimestamp, latestTimestamp, howMany);
+  }
+
+  @Override
+  public long getOldestOfMostRecent(int howMany) {
+    return stats.getOldestOfMostRecent(howMany);
+  }
+
+  @Override
+  public void forEachBetween(long earliestTimestamp, long latestTimestamp, StatsVisitor visitor) {
+    stats.forEachBetween(earliestTimestamp, latestTimestamp, visitor);
+  }
+
+  @Override
+  public StatsAggregate aggregateBetween(long earliestTimestamp, long latestTimestamp) {
+    lock.readLock().lock();
+    try {
+      final long from = Math.max(earliestTimestamp, this.earliestTimestamp);
+      final long to = Math.min(latestTimestamp, this.latestTimestamp);
+      if (from > to) {
+        return StatsAggregate.EMPTY;
+      }
+      return aggregate(TIERS_MILLIS.length - 1, from, to + 1);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Sums the whole rollups of the tier in the range and the two ends of the range with the finer
+   * tiers, or with the stats themselves after the finest one
+   *
+   * @param to Excluded
+   */
+  private StatsAggregate aggregate(int tier, long from, long to) {
+    if (from >= to) {
+      return StatsAggregate.EMPTY;
+    }
+    if (tier < 0) {
+      return stats.aggregateBetween(from, to - 1);
+    }
+    if (tier == 0 && from < minuteTierStart) {
+      // Those minutes were dropped
+      final long split = Math.min(to, minuteTierStart);
+      return stats.aggregateBetween(from, split - 1).plus(aggregate(0, split, to));
+    }
+
+    final long resolution = TIERS_MILLIS[tier];
+    final long firstWhole =
+        from == bucketStart(from, resolution) ? from : bucketStart(from, resolution) + resolution;
+    final long endOfWhole = bucketStart(to, resolution);
+    if (firstWhole >= endOfWhole) {
+      return aggregate(tier - 1, from, to);
+    }
+
+    StatsAggregate aggregate = aggregate(tier - 1, from, firstWhole);
+    for (StatsRollup rollup :
+        tiers.get(tier).subMap(firstWhole, true, endOfWhole, false).values()) {
+      aggregate = aggregate.plus(rollup.toAggregate());
+    }
+    return aggregate.plus(aggregate(tier - 1, endOfWhole, to));
+  }
+
+  /**
+   * @param resolutionMillis The longest period that a rollup can cover. The rollups of the coarsest
+   *     tier that is not longer than this are returned, or the single stats if every tier is too
+   *     long. If there would be more than {@link #DEFAULT_MAX_ROLLUPS} single stats, one minute
+   *     rollups are returned instead. Zero or less picks the finest tier that returns at most
+   *     {@link #DEFAULT_MAX_ROLLUPS} rollups.
+   * @return The rollups that start between the two timestamps, oldest first
+   */
+  public List<StatsRollup> getRollupsBetween(
+      long earliestTimestamp, long latestTimestamp, long resolutionMillis) {
+    List<StatsRollup> rollups = new ArrayList<>();
+    if (earliestTimestamp > latestTimestamp) {
+      return rollups;
+    }
+
+    lock.readLock().lock();
+    try {
+      final long from = Math.max(earliestTimestamp, this.earliestTimestamp);
+      final long to = Math.min(latestTimestamp, this.latestTimestamp);
+      if (from > to) {
+        return rollups;
+      }
+      final double range = (double) to - from;
+      int tier = -1;
+      if (resolutionMillis > 0) {
+        while (tier + 1 < TIERS_MILLIS.length && TIERS_MILLIS[tier + 1] <= resolutionMillis) {
+          tier++;
+        }
+      } else {
+        final double needed = range / DEFAULT_MAX_ROLLUPS;
+        if (needed > STATS_PERIOD_MILLIS) {
+          tier = 0;
+          while (tier + 1 < TIERS_MILLIS.length && TIERS_MILLIS[tier] < needed) {
+            tier++;
+          }
+        }
+      }
+      if (tier < 0 && range > STATS_PERIOD_MILLIS * DEFAULT_MAX_ROLLUPS) {
+        tier = 0;
+      }
+
+      if (tier < 0) {
+        stats.forEachBetween(from, to, (s, weight) -> rollups.add(StatsRollup.of(s, weight)));
+        return rollups;
+      }
+
+      final long resolution = TIERS_MILLIS[tier];
+      long start = bucketStart(from, resolution);
+      if (tier == 0 && start < minuteTierStart) {
+        // The minutes that were dropped are rolled up again from the stats
+        final NavigableMap<Long, StatsRollup> minutes = new TreeMap<>();
+        stats.forEachBetween(
+            start,
+            Math.min(to, minuteTierStart - 1),
+            (s, weight) ->
+                minutes
+                    .computeIfAbsent(
+                        bucketStart(s.getTimestamp(), resolution),
+                        t -> new StatsRollup(t, resolution))
+                    .add(s, weight));
+        rollups.addAll(minutes.values());
+        start = minuteTierStart;
+      }
+      if (start <= to) {
+        for (StatsRollup rollup : tiers.get(tier).subMap(start, true, to, true).values()) {
+          rollups.add(rollup.copy());
+        }
+      }
+      return rollups;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+}
@@ -1,12 +1,52 @@
 package it.cutecchia.sdp.admin.server.stores;
 
 import it.cutecchia.sdp.common.FleetStats;
+import java.util.ArrayList;
 import java.util.List;
 
 public interface StatisticsStore {
-  void addStatistic(FleetStats stats);
+  /**
+   * @return Whether the stats were stored, stores discard stats with a timestamp they already have
+   */
+  boolean addStatistic(FleetStats stats);
 
   List<FleetStats> getMostRecentStats(int howMany);
 
   List<FleetStats> getStatsBetween(long earliestTimestamp, long latestTimestamp);
+
+  /**
+   * @return The oldest <code>howMany</code> stats between the two timestamps, so that a long range
+   *     can be read a page at a time, each starting after the last stats of the previous one
+   */
+  default List<FleetStats> getStatsBetween(
+      long earliestTimestamp, long latestTimestamp, int howMany) {
+    List<FleetStats> stats = getStatsBetween(earliestTimestamp, latestTimestamp);
+    return stats.size() <= howMany ? stats : new ArrayList<>(stats.subList(0, howMany));
+  }
+
+  /**
+   * @return The timestamp of the oldest of the <code>howMany</code> most recent stats, or {@link
+   *     Long#MAX_VALUE} if there are none
+   */
+  default long getOldestOfMostRecent(int howMany) {
+    List<FleetStats> mostRecent = getMostRecentStats(howMany);
+    return mostRecent.isEmpty() ? Long.MAX_VALUE : mostRecent.get(0).getTimestamp();
+  }
+
+  /** @return The sums of the stats between the two timestamps, both included */
+  default StatsAggregate aggregateBetween(long earliestTimestamp, long latestTimestamp) {
+    return StatsAggregate.of(getStatsBetween(earliestTimestamp, latestTimestamp));
+  }
+
+  interface StatsVisitor {
+    /** @param weight How many stats these stats stand for, more than one if they were compacted */
+    void visit(FleetStats stats, long weight);
+  }
+
+  /** Calls <code>visitor</code> on the stats between the two timestamps, oldest first */
+  default void forEachBetween(long earliestTimestamp, long latestTimestamp, StatsVisitor visitor) {
+    for (FleetStats stats : getStatsBetween(earliestTimestamp, latestTimestamp)) {
+      visitor.visit(stats, 1);
+    }
+  }
 }
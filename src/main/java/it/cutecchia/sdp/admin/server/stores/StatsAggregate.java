@@ -0,0 +1,93 @@
+package it.cutecchia.sdp.admin.server.stores;
+
+import it.cutecchia.sdp.common.FleetStats;
+
+/** The sums of a set of fleet stats, from which their averages are computed. Immutable */
+public final class StatsAggregate {
+  public static final StatsAggregate EMPTY = new StatsAggregate(0, 0, 0, 0, 0);
+
+  private final long count;
+  private final double deliveries;
+  private final double kmTravelled;
+  private final double pollution;
+  private final double batteryLevel;
+
+  StatsAggregate(
+      long count, double deliveries, double kmTravelled, double pollution, double batteryLevel) {
+    this.count = count;
+    this.deliveries = deliveries;
+    this.kmTravelled = kmTravelled;
+    this.pollution = pollution;
+    this.batteryLevel = batteryLevel;
+  }
+
+  public static StatsAggregate of(Iterable<FleetStats> stats) {
+    StatsAggregate aggregate = EMPTY;
+    for (FleetStats s : stats) {
+      aggregate = aggregate.plus(s);
+    }
+    return aggregate;
+  }
+
+  public StatsAggregate plus(FleetStats stats) {
+    return plus(stats, 1);
+  }
+
+  /** Adds the stats as if they were received <code>weight</code> times */
+  StatsAggregate plus(FleetStats stats, long weight) {
+    return new StatsAggregate(
+        count + weight,
+        deliveries + weight * stats.getAverageDeliveries(),
+        kmTravelled + weight * stats.getAverageKmTravelled(),
+        pollution + weight * stats.getAveragePollution(),
+        batteryLevel + weight * stats.getAverageBatteryLevel());
+  }
+
+  public StatsAggregate plus(StatsAggregate other) {
+    if (other.count == 0) return this;
+    if (count == 0) return other;
+    return new StatsAggregate(
+        count + other.count,
+        deliveries + other.deliveries,
+        kmTravelled + other.kmTravelled,
+        pollution + other.pollution,
+        batteryLevel + other.batteryLevel);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  private double average(double sum) {
+    return count == 0 ? 0.0 : sum / count;
+  }
+
+  /** @return The average of the stats' average deliveries, or 0 if there are no stats */
+  public double getAverageDeliveries() {
+    return average(deliveries);
+  }
+
+  /** @return The average of the stats' average kilometers travelled, or 0 if there are no stats */
+  public double getAverageKmTravelled() {
+    return average(kmTravelled);
+  }
+
+  public double getAveragePollution() {
+    return average(pollution);
+  }
+
+  public double getAverageBatteryLevel() {
+    return average(batteryLevel);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "<Count=%d, Deliveries=%f, Kms=%f, Pollution=%f, Battery=%f>",
+        count,
+        getAverageDeliveries(),
+        getAverageKmTravelled(),
+        getAveragePollution(),
+        getAverageBatteryLevel());
+  }
+}
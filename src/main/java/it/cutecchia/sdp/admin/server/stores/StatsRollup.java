@@ -0,0 +1,150 @@
+package it.cutecchia.sdp.admin.server.stores;
+
+import it.cutecchia.sdp.common.FleetStats;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Sum, count, minimum and maximum of every field of the stats received in a period of time, which
+ * starts at <code>timestamp</code> and lasts <code>resolutionMillis</code>. A single stats is a
+ * rollup with a count of one and no duration.
+ */
+public class StatsRollup {
+  public static class Metric {
+    private double sum = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    private void add(double value, long weight) {
+      sum += weight * value;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+    }
+
+    private void add(Metric other) {
+      sum += other.sum;
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+    }
+
+    private void writeTo(DataOutput output) throws IOException {
+      output.writeDouble(sum);
+      output.writeDouble(min);
+      output.writeDouble(max);
+    }
+
+    private void readFrom(DataInput input) throws IOException {
+      sum = input.readDouble();
+      min = input.readDouble();
+      max = input.readDouble();
+    }
+
+    public double getSum() {
+      return sum;
+    }
+
+    public double getMin() {
+      return min;
+    }
+
+    public double getMax() {
+      return max;
+    }
+  }
+
+  private final long timestamp;
+  private final long resolutionMillis;
+  private long count = 0;
+  private final Metric deliveries = new Metric();
+  private final Metric kmTravelled = new Metric();
+  private final Metric pollution = new Metric();
+  private final Metric batteryLevel = new Metric();
+
+  StatsRollup(long timestamp, long resolutionMillis) {
+    this.timestamp = timestamp;
+    this.resolutionMillis = resolutionMillis;
+  }
+
+  static StatsRollup of(FleetStats stats, long weight) {
+    StatsRollup rollup = new StatsRollup(stats.getTimestamp(), 0);
+    rollup.add(stats, weight);
+    return rollup;
+  }
+
+  void add(FleetStats stats, long weight) {
+    count += weight;
+    deliveries.add(stats.getAverageDeliveries(), weight);
+    kmTravelled.add(stats.getAverageKmTravelled(), weight);
+    pollution.add(stats.getAveragePollution(), weight);
+    batteryLevel.add(stats.getAverageBatteryLevel(), weight);
+  }
+
+  void add(StatsRollup other) {
+    count += other.count;
+    deliveries.add(other.deliveries);
+    kmTravelled.add(other.kmTravelled);
+    pollution.add(other.pollution);
+    batteryLevel.add(other.batteryLevel);
+  }
+
+  StatsRollup copy() {
+    StatsRollup copy = new StatsRollup(timestamp, resolutionMillis);
+    copy.add(this);
+    return copy;
+  }
+
+  void writeTo(DataOutput output) throws IOException {
+    output.writeLong(timestamp);
+    output.writeLong(resolutionMillis);
+    output.writeLong(count);
+    for (Metric metric : new Metric[] {deliveries, kmTravelled, pollution, batteryLevel}) {
+      metric.writeTo(output);
+    }
+  }
+
+  static StatsRollup readFrom(DataInput input) throws IOException {
+    StatsRollup rollup = new StatsRollup(input.readLong(), input.readLong());
+    rollup.count = input.readLong();
+    for (Metric metric :
+        new Metric[] {
+          rollup.deliveries, rollup.kmTravelled, rollup.pollution, rollup.batteryLevel
+        }) {
+      metric.readFrom(input);
+    }
+    return rollup;
+  }
+
+  StatsAggregate toAggregate() {
+    return new StatsAggregate(
+        count, deliveries.sum, kmTravelled.sum, pollution.sum, batteryLevel.sum);
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public long getResolutionMillis() {
+    return resolutionMillis;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public Metric getDeliveries() {
+    return deliveries;
+  }
+
+  public Metric getKmTravelled() {
+    return kmTravelled;
+  }
+
+  public Metric getPollution() {
+    return pollution;
+  }
+
+  public Metric getBatteryLevel() {
+    return batteryLevel;
+  }
+}
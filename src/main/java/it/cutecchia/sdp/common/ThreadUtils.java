@@ -1,47 +1,192 @@
 package it.cutecchia.sdp.common;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
+/**
+ * Runs work in the background on a pluggable {@link ExecutionBackend}. The backend is chosen with
+ * the <code>dronazon.threads</code> system property:
+ *
+ * <ul>
+ *   <li><code>platform</code> (the default): a new thread for every task
+ *   <li><code>pool</code>: a pool of at most <code>dronazon.threads.pool-size</code> threads. When
+ *       every thread is busy the task waits in a queue for one of them. It never runs on the thread
+ *       that submitted it, which may hold a monitor or be a gRPC handler and could deadlock
+ *   <li><code>virtual</code>: a virtual thread for every task, on JDKs that have them. Older JDKs
+ *       fall back to platform threads
+ * </ul>
+ *
+ * <p>A task that waits for other tasks to make progress, like a delivery waiting for the election
+ * messages to go around the ring, has to be started with {@link #runBlockingInAnotherThread}: if
+ * the pool's threads were all taken by such tasks, the tasks they wait for would stay in the queue
+ * forever. Those get a platform thread of their own, so there must only be a few of them at once.
+ * For the same reason {@link #spawnThreadForEach} must not be called from a background task.
+ */
 public class ThreadUtils {
-  public static <T> void spawnThreadForEach(Collection<T> elements, Consumer<T> function) {
-    List<Thread> threads = new ArrayList<>(elements.size());
-    for (T element : elements) {
-      Thread t = new Thread(() -> function.accept(element));
-      threads.add(t);
-      t.start();
-    }
-    for (Thread t : threads) {
-      try {
-        t.join();
-      } catch (InterruptedException e) {
-        e.printStackTrace();
+  public interface ExecutionBackend {
+    void execute(Runnable task);
+
+    /** Runs a task that may wait for other tasks, by default like any other */
+    default void executeBlocking(Runnable task) {
+      execute(task);
+    }
+  }
+
+  public static final String BACKEND_PROPERTY = "dronazon.threads";
+  public static final String POOL_SIZE_PROPERTY = "dronazon.threads.pool-size";
+  private static final int DEFAULT_POOL_SIZE = 64;
+
+  public static ExecutionBackend platformThreads() {
+    return task -> new Thread(task).start();
+  }
+
+  public static ExecutionBackend boundedPool(int maxThreads) {
+    final AtomicInteger counter = new AtomicInteger();
+    final AtomicInteger blockingCounter = new AtomicInteger();
+    final ThreadPoolExecutor pool =
+        new ThreadPoolExecutor(
+            maxThreads,
+            maxThreads,
+            60L,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread t = new Thread(runnable, "thread-utils-" + counter.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            });
+    pool.allowCoreThreadTimeOut(true);
+    return new ExecutionBackend() {
+      @Override
+      public void execute(Runnable task) {
+        pool.execute(task);
       }
+
+      @Override
+      public void executeBlocking(Runnable task) {
+        new Thread(task, "thread-utils-blocking-" + blockingCounter.incrementAndGet()).start();
+      }
+    };
+  }
+
+  /** @return A backend using virtual threads, or null if this JDK does not have them */
+  public static ExecutionBackend virtualThreads() {
+    try {
+      // Looked up by reflection because the project targets Java 8
+      final ExecutorService executor =
+          (ExecutorService)
+              Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      return executor::execute;
+    } catch (ReflectiveOperationException e) {
+      return null;
     }
   }
 
-  private static final List<Thread> allSpawnedThreads = new ArrayList<>();
+  private static ExecutionBackend createBackendFromSystemProperties() {
+    String name = System.getProperty(BACKEND_PROPERTY, "platform");
+    switch (name) {
+      case "pool":
+        return boundedPool(Integer.getInteger(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE));
+      case "virtual":
+        ExecutionBackend virtual = virtualThreads();
+        if (virtual != null) return virtual;
+        Log.warn("This JDK has no virtual threads, using platform threads instead");
+        return platformThreads();
+      case "platform":
+        return platformThreads();
+      default:
+        Log.warn("Unknown value '%s' for %s, using platform threads", name, BACKEND_PROPERTY);
+        return platformThreads();
+    }
+  }
+
+  private static volatile ExecutionBackend backend = createBackendFromSystemProperties();
+  private static final Object liveTasksLock = new Object();
+  private static int liveTasks = 0;
+
+  public static void setBackend(ExecutionBackend newBackend) {
+    backend = newBackend;
+  }
+
+  /** Runs the function on each element in the background and waits until every call returned */
+  public static <T> void spawnThreadForEach(Collection<T> elements, Consumer<T> function) {
+    CountDownLatch done = new CountDownLatch(elements.size());
+    for (T element : elements) {
+      runInAnotherThread(
+          () -> {
+            try {
+              function.accept(element);
+            } finally {
+              done.countDown();
+            }
+          });
+    }
+    try {
+      done.await();
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+    }
+  }
 
   public static void runInAnotherThread(Runnable runnable) {
-    Thread t = new Thread(runnable);
-    synchronized (allSpawnedThreads) {
-      allSpawnedThreads.add(t);
+    run(runnable, false);
+  }
+
+  /** Like {@link #runInAnotherThread}, for tasks that may wait for other tasks to make progress */
+  public static void runBlockingInAnotherThread(Runnable runnable) {
+    run(runnable, true);
+  }
+
+  private static void run(Runnable runnable, boolean blocking) {
+    synchronized (liveTasksLock) {
+      liveTasks++;
+    }
+
+    final Runnable task =
+        () -> {
+          try {
+            runnable.run();
+          } catch (RuntimeException e) {
+            Log.error("A background task failed due to: %s", e.getMessage());
+            e.printStackTrace();
+          } finally {
+            onTaskCompleted();
+          }
+        };
+    try {
+      if (blocking) {
+        backend.executeBlocking(task);
+      } else {
+        backend.execute(task);
+      }
+    } catch (RejectedExecutionException e) {
+      onTaskCompleted();
+      throw e;
     }
+  }
 
-    t.start();
+  private static void onTaskCompleted() {
+    synchronized (liveTasksLock) {
+      liveTasks--;
+      if (liveTasks == 0) liveTasksLock.notifyAll();
+    }
   }
 
-  public static void clearSpawnedThreadsList() {
-    synchronized (allSpawnedThreads) {
-      allSpawnedThreads.clear();
+  /** @return How many tasks started with this class are running or waiting to run */
+  public static int countLiveTasks() {
+    synchronized (liveTasksLock) {
+      return liveTasks;
     }
   }
 
-  public static List<Thread> getAllSpawnedThreads() {
-    synchronized (allSpawnedThreads) {
-      return new ArrayList<>(allSpawnedThreads);
+  /** Blocks until every task started with this class, including the ones they started, is over */
+  public static void waitUntilNoTasksAreRunning() throws InterruptedException {
+    synchronized (liveTasksLock) {
+      while (liveTasks > 0) {
+        liveTasksLock.wait();
+      }
     }
   }
 }
@@ -0,0 +1,20 @@
+package it.cutecchia.sdp.drones;
+
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.common.Order;
+import java.util.List;
+import java.util.Set;
+
+/** Decides which drones should deliver the orders that are waiting to be assigned. */
+public interface AssignmentStrategy {
+  /**
+   * Choose a drone for the orders at the head of the pending queue. The result always covers a
+   * prefix of the queue: the i-th returned drone should deliver the i-th pending order, while the
+   * orders after the last returned drone stay in the queue.
+   *
+   * @param pendingOrders The orders waiting to be assigned, the oldest first
+   * @param excludedDrones Drones that must not be chosen even if they are available
+   * @return The drones that should deliver the first orders of the queue, each at most once
+   */
+  List<DroneIdentifier> assign(Iterable<Order> pendingOrders, Set<DroneIdentifier> excludedDrones);
+}
@@ -0,0 +1,52 @@
+package it.cutecchia.sdp.drones;
+
+import it.cutecchia.sdp.common.CityPoint;
+import it.cutecchia.sdp.common.DroneData;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.common.Order;
+import it.cutecchia.sdp.drones.responses.DroneJoinResponse;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The non-blocking versions of the requests that are sent to every drone at once. No thread waits
+ * for the responses, so sending a request to the whole fleet costs the same number of threads as
+ * sending it to one drone. The returned futures never complete exceptionally: a drone that can't be
+ * reached is reported the same way as by the blocking methods.
+ */
+public interface AsyncDroneCommunicationClient extends DroneCommunicationClient {
+  /** @see #notifyDroneJoin(DroneIdentifier, CityPoint) */
+  CompletableFuture<Optional<DroneJoinResponse>> notifyDroneJoinAsync(
+      DroneIdentifier destination, CityPoint startingPosition);
+
+  /**
+   * Offers an order to a drone. Offers to many drones can be in flight at once, they share the
+   * connection instead of each one waiting for the previous answer.
+   *
+   * @return A future with whether the drone accepted the order, or empty if it is unreachable
+   * @see #assignOrder(Order, DroneIdentifier)
+   */
+  CompletableFuture<Optional<Boolean>> assignOrderAsync(Order order, DroneIdentifier drone);
+
+  /** @see #requestData(DroneIdentifier) */
+  CompletableFuture<Optional<DroneData>> requestDataAsync(DroneIdentifier drone);
+
+  /**
+   * Asks <code>destination</code> for the permission to take the lock. The permission is not the
+   * response: it arrives later as a separate grant message.
+   *
+   * @return A future with whether the request was delivered
+   * @see #requestLock(DroneIdentifier, int, DroneIdentifier)
+   */
+  CompletableFuture<Boolean> requestLockAsync(
+      DroneIdentifier destination, int logicalClock, DroneIdentifier requester);
+
+  /**
+   * Gives <code>destination</code> the permission to take the lock it asked for with <code>
+   * requestLogicalClock</code>.
+   *
+   * @return A future with whether the grant was delivered
+   */
+  CompletableFuture<Boolean> grantLockAsync(
+      DroneIdentifier destination, int requestLogicalClock, DroneIdentifier sender);
+}
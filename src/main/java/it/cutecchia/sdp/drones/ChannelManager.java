@@ -0,0 +1,245 @@
+package it.cutecchia.sdp.drones;
+
+import io.grpc.*;
+import io.grpc.netty.NettyChannelBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.common.Log;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Owns the gRPC channels towards the other drones. There is at most one channel for each drone and
+ * it is kept open across failures: a channel that loses its connection reconnects by itself with an
+ * exponential backoff, so a single failed call does not cost a new handshake. A channel is closed
+ * only after {@link #MAX_CONSECUTIVE_FAILURES} calls in a row failed, when the drone is most likely
+ * gone for good. The outcome of every call made on the channels is tracked automatically.
+ */
+public class ChannelManager {
+  /** Creates the channel towards a drone. Tests can use this to create in-process channels */
+  public interface ChannelFactory {
+    ManagedChannel create(DroneIdentifier destination);
+  }
+
+  /** The connection state of the channel towards a drone */
+  public static class PeerConnectionInfo {
+    private final ConnectivityState state;
+    private final long reconnects;
+    private final int consecutiveFailures;
+
+    private PeerConnectionInfo(ConnectivityState state, long reconnects, int consecutiveFailures) {
+      this.state = state;
+      this.reconnects = reconnects;
+      this.consecutiveFailures = consecutiveFailures;
+    }
+
+    public ConnectivityState getState() {
+      return state;
+    }
+
+    /** @return How many times the channel became ready again after losing its connection */
+    public long getReconnects() {
+      return reconnects;
+    }
+
+    public int getConsecutiveFailures() {
+      return consecutiveFailures;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "<State=%s, Reconnects=%d, ConsecutiveFailures=%d>",
+          state, reconnects, consecutiveFailures);
+    }
+  }
+
+  static final int MAX_CONSECUTIVE_FAILURES = 3;
+  // The servers must permit pings this frequent, or they close the connection
+  static final long KEEPALIVE_TIME_SECONDS = 30;
+  private static final long KEEPALIVE_TIMEOUT_SECONDS = 10;
+
+  private class PeerChannel {
+    final DroneIdentifier destination;
+    final ManagedChannel channel;
+    final Channel trackedChannel;
+    final AtomicInteger consecutiveFailures = new AtomicInteger();
+    final AtomicLong reconnects = new AtomicLong();
+    volatile boolean wasReady = false;
+
+    PeerChannel(DroneIdentifier destination, ManagedChannel channel) {
+      this.destination = destination;
+      this.channel = channel;
+      this.trackedChannel = ClientInterceptors.intercept(channel, new OutcomeTracker(this));
+    }
+  }
+
+  private final ChannelFactory factory;
+  private final Runnable onShutdown;
+  private final ConcurrentHashMap<DroneIdentifier, PeerChannel> channels =
+      new ConcurrentHashMap<>();
+
+  public ChannelManager(ChannelFactory factory) {
+    this(factory, () -> {});
+  }
+
+  private ChannelManager(ChannelFactory factory, Runnable onShutdown) {
+    this.factory = factory;
+    this.onShutdown = onShutdown;
+  }
+
+  /**
+   * Creates a manager whose channels all share one Netty event loop group and one executor, and
+   * send keepalive pings so that idle connections are not silently dropped.
+   */
+  public static ChannelManager withNettyChannels() {
+    final EventLoopGroup eventLoopGroup =
+        new NioEventLoopGroup(0, new DefaultThreadFactory("drone-channels-io", true));
+    final ExecutorService executor =
+        Executors.newCachedThreadPool(new DefaultThreadFactory("drone-channels-executor", true));
+
+    return new ChannelManager(
+        destination ->
+            NettyChannelBuilder.forAddress(
+                    destination.getIpAddress(), destination.getConnectionPort())
+                .eventLoopGroup(eventLoopGroup)
+                .channelType(NioSocketChannel.class)
+                .executor(executor)
+                .keepAliveTime(KEEPALIVE_TIME_SECONDS, TimeUnit.SECONDS)
+                .keepAliveTimeout(KEEPALIVE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .keepAliveWithoutCalls(true)
+                .usePlaintext()
+                .build(),
+        () -> {
+          eventLoopGroup.shutdownGracefully(0, 2, TimeUnit.SECONDS);
+          executor.shutdown();
+        });
+  }
+
+  /** @return The channel towards <code>destination</code>, creating it if there is none */
+  public Channel getChannel(DroneIdentifier destination) {
+    return channels.computeIfAbsent(destination, this::openChannel).trackedChannel;
+  }
+
+  private PeerChannel openChannel(DroneIdentifier destination) {
+    Log.info("Created a new channel for %s", destination);
+    PeerChannel peer = new PeerChannel(destination, factory.create(destination));
+    watchState(peer, ConnectivityState.IDLE);
+    return peer;
+  }
+
+  private void watchState(PeerChannel peer, ConnectivityState lastState) {
+    if (peer.channel.isShutdown()) return;
+
+    ConnectivityState state = peer.channel.getState(false);
+    if (state == ConnectivityState.READY && lastState != ConnectivityState.READY) {
+      if (peer.wasReady) {
+        peer.reconnects.incrementAndGet();
+      }
+      peer.wasReady = true;
+    }
+    peer.channel.notifyWhenStateChanged(state, () -> watchState(peer, state));
+  }
+
+  /** Reports the outcome of every call made on a channel to the manager */
+  private class OutcomeTracker implements ClientInterceptor {
+    private final PeerChannel peer;
+
+    OutcomeTracker(PeerChannel peer) {
+      this.peer = peer;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+        MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+      return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(
+          next.newCall(method, callOptions)) {
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+          super.start(
+              new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(
+                  responseListener) {
+                @Override
+                public void onClose(Status status, Metadata trailers) {
+                  onCallClosed(peer, status);
+                  super.onClose(status, trailers);
+                }
+              },
+              headers);
+        }
+      };
+    }
+  }
+
+  private static boolean isConnectionFailure(Status status) {
+    return status.getCode() == Status.Code.UNAVAILABLE
+        || status.getCode() == Status.Code.DEADLINE_EXCEEDED;
+  }
+
+  /**
+   * A failed call does not close the channel, which reconnects by itself, unless too many calls in
+   * a row failed.
+   */
+  private void onCallClosed(PeerChannel peer, Status status) {
+    if (status.isOk()) {
+      peer.consecutiveFailures.set(0);
+    } else if (isConnectionFailure(status)
+        && peer.consecutiveFailures.incrementAndGet() >= MAX_CONSECUTIVE_FAILURES) {
+      // The channel could have been released and replaced already
+      if (channels.remove(peer.destination, peer)) {
+        Log.info("Too many failed calls to %s, releasing its channel", peer.destination);
+        peer.channel.shutdown();
+      }
+    }
+  }
+
+  /** Closes the channel towards <code>destination</code>, if there is one */
+  public void release(DroneIdentifier destination) {
+    PeerChannel peer = channels.remove(destination);
+    if (peer != null) {
+      peer.channel.shutdown();
+    }
+  }
+
+  public Optional<PeerConnectionInfo> getConnectionInfo(DroneIdentifier destination) {
+    PeerChannel peer = channels.get(destination);
+    if (peer == null) return Optional.empty();
+
+    return Optional.of(
+        new PeerConnectionInfo(
+            peer.channel.getState(false), peer.reconnects.get(), peer.consecutiveFailures.get()));
+  }
+
+  /** @return The connection state towards every drone that currently has a channel */
+  public Map<DroneIdentifier, PeerConnectionInfo> getConnectionInfo() {
+    Map<DroneIdentifier, PeerConnectionInfo> info = new TreeMap<>();
+    for (DroneIdentifier destination : channels.keySet()) {
+      getConnectionInfo(destination).ifPresent(i -> info.put(destination, i));
+    }
+    return info;
+  }
+
+  public void shutdown() {
+    List<PeerChannel> closing = new ArrayList<>(channels.values());
+    channels.clear();
+    for (PeerChannel peer : closing) {
+      peer.channel.shutdownNow();
+    }
+    for (PeerChannel peer : closing) {
+      try {
+        peer.channel.awaitTermination(2, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Log.warn("Failed to shutdown a channel due to: %s", e.getMessage());
+      }
+    }
+    onShutdown.run();
+  }
+}
@@ -0,0 +1,96 @@
+package it.cutecchia.sdp.drones;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/** Counters describing how the master's {@link OrderDispatcher} is keeping up with the orders. */
+public class DispatchMetrics {
+  private final IntSupplier queueDepth;
+
+  private final AtomicLong signals = new AtomicLong();
+  private final AtomicLong passes = new AtomicLong();
+  private final AtomicLong totalAssignments = new AtomicLong();
+  private final AtomicLong lastPassAssignments = new AtomicLong();
+  private final AtomicLong maxPassAssignments = new AtomicLong();
+  private final AtomicLong totalPassNanos = new AtomicLong();
+  private final AtomicLong lastPassNanos = new AtomicLong();
+  private final AtomicLong maxPassNanos = new AtomicLong();
+
+  public DispatchMetrics(IntSupplier queueDepth) {
+    this.queueDepth = queueDepth;
+  }
+
+  void recordSignal() {
+    signals.incrementAndGet();
+  }
+
+  void recordPass(long elapsedNanos, int assignments) {
+    passes.incrementAndGet();
+    totalAssignments.addAndGet(assignments);
+    lastPassAssignments.set(assignments);
+    maxPassAssignments.accumulateAndGet(assignments, Math::max);
+    totalPassNanos.addAndGet(elapsedNanos);
+    lastPassNanos.set(elapsedNanos);
+    maxPassNanos.accumulateAndGet(elapsedNanos, Math::max);
+  }
+
+  /** @return The number of orders that are currently waiting to be assigned */
+  public int getQueueDepth() {
+    return queueDepth.getAsInt();
+  }
+
+  /** @return How many times a pass was requested, including the ones that were coalesced */
+  public long getSignals() {
+    return signals.get();
+  }
+
+  public long getPasses() {
+    return passes.get();
+  }
+
+  public long getTotalAssignments() {
+    return totalAssignments.get();
+  }
+
+  public long getLastPassAssignments() {
+    return lastPassAssignments.get();
+  }
+
+  public long getMaxPassAssignments() {
+    return maxPassAssignments.get();
+  }
+
+  public double getAverageAssignmentsPerPass() {
+    long passes = getPasses();
+    return passes == 0 ? 0.0 : (double) getTotalAssignments() / passes;
+  }
+
+  public double getLastPassLatencyMillis() {
+    return lastPassNanos.get() / 1e6;
+  }
+
+  public double getMaxPassLatencyMillis() {
+    return maxPassNanos.get() / 1e6;
+  }
+
+  public double getAveragePassLatencyMillis() {
+    long passes = getPasses();
+    return passes == 0 ? 0.0 : totalPassNanos.get() / 1e6 / passes;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "<QueueDepth=%d, Signals=%d, Passes=%d, Assignments/pass=%.2f (last=%d, max=%d), "
+            + "PassLatency=%.3fms (last=%.3fms, max=%.3fms)>",
+        getQueueDepth(),
+        getSignals(),
+        getPasses(),
+        getAverageAssignmentsPerPass(),
+        getLastPassAssignments(),
+        getMaxPassAssignments(),
+        getAveragePassLatencyMillis(),
+        getLastPassLatencyMillis(),
+        getMaxPassLatencyMillis());
+  }
+}
@@ -2,9 +2,22 @@ package it.cutecchia.sdp.drones;
 
 import it.cutecchia.sdp.common.DroneIdentifier;
 import it.cutecchia.sdp.common.Log;
-import it.cutecchia.sdp.common.ThreadUtils;
 import it.cutecchia.sdp.drones.store.DroneStore;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * A lock shared by the whole fleet, implemented with the Ricart-Agrawala algorithm on Lamport
+ * clocks. A drone that wants the lock asks every other drone for the permission, and the ones that
+ * are using the lock or asked for it first keep the request and grant it only when they are done.
+ * Every message is sent without waiting for the other side, so no thread is ever blocked while a
+ * drone holds the lock.
+ *
+ * <p>The lock can have more than one slot, so that up to <code>slots</code> drones hold it at the
+ * same time (Raymond's extension of the algorithm). A drone then takes the lock as soon as it is
+ * missing at most <code>slots - 1</code> permissions: the ones it is still waiting for can only
+ * come from drones that are holding a slot or asked for one before it.
+ */
 public class DistributedLock {
 
   private static class LogicalClock {
@@ -28,10 +41,16 @@ public class DistributedLock {
     }
   }
 
+  // While waiting, the request is sent again to the drones that did not answer yet: a drone that
+  // can't be reached anymore is not using the lock, so it counts as a permission
+  private static final long RETRY_PERIOD_MILLIS = 5 * 1000;
+
   private final DroneStore store;
-  private final DroneCommunicationClient client;
+  private final AsyncDroneCommunicationClient client;
   private final DroneIdentifier thisDrone;
+  private final int slots;
   private final LogicalClock clock = new LogicalClock();
+  private final Timer retryTimer = new Timer("distributed-lock-retry", true);
 
   private enum LockStatus {
     NOT_INTERESTED,
@@ -41,65 +60,220 @@ public class DistributedLock {
 
   private LockStatus lockStatus = LockStatus.NOT_INTERESTED;
   private int lockRequestTimestamp = -1;
+  private final Set<DroneIdentifier> missingPermissions = new HashSet<>();
+  // Every drone asked for the current request, including the ones that already answered
+  private final Set<DroneIdentifier> askedPermission = new HashSet<>();
+  private int permissionsToWaitFor = 0;
+  private CompletableFuture<Void> acquisition = null;
+  private TimerTask retryTask = null;
+  // The requests that will be granted when this drone releases the lock, with their timestamp
+  private final Map<DroneIdentifier, Integer> deferredRequests = new LinkedHashMap<>();
 
   public DistributedLock(
-      DroneIdentifier thisDrone, DroneStore store, DroneCommunicationClient client) {
+      DroneIdentifier thisDrone, DroneStore store, AsyncDroneCommunicationClient client) {
+    this(thisDrone, store, client, 1);
+  }
+
+  /** @param slots How many drones can hold the lock at the same time */
+  public DistributedLock(
+      DroneIdentifier thisDrone,
+      DroneStore store,
+      AsyncDroneCommunicationClient client,
+      int slots) {
+    assert slots > 0;
     this.store = store;
     this.client = client;
     this.thisDrone = thisDrone;
+    this.slots = slots;
+  }
+
+  public int getSlots() {
+    return slots;
   }
 
-  public boolean isOwned() {
+  public synchronized boolean isOwned() {
     return lockStatus == LockStatus.OWNED;
   }
 
-  public synchronized void take() {
-    lockStatus = LockStatus.WAITING;
-    lockRequestTimestamp = clock.increment();
+  /**
+   * Asks every other drone for the permission to take the lock. This is not blocking: no thread
+   * waits for the permissions, they arrive as separate messages.
+   *
+   * @return A future that completes once enough drones gave their permission
+   */
+  public CompletableFuture<Void> take() {
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+    final Set<DroneIdentifier> destinations;
+    final int timestamp;
+    synchronized (this) {
+      assert lockStatus == LockStatus.NOT_INTERESTED;
+      lockStatus = LockStatus.WAITING;
+      lockRequestTimestamp = clock.increment();
+      timestamp = lockRequestTimestamp;
+      acquisition = future;
 
-    ThreadUtils.spawnThreadForEach(
-        store.getAllDroneIdentifiers(),
-        drone -> {
-          Log.info("Requesting the lock from %s", drone);
-          client.requestLock(drone, lockRequestTimestamp, thisDrone);
-          Log.info("%s gave up the lock!", drone);
-        });
+      missingPermissions.clear();
+      missingPermissions.addAll(store.getAllDroneIdentifiers());
+      missingPermissions.remove(thisDrone);
+      destinations = new HashSet<>(missingPermissions);
+      askedPermission.clear();
+      askedPermission.addAll(destinations);
+      permissionsToWaitFor = Math.max(0, missingPermissions.size() - (slots - 1));
+      if (permissionsToWaitFor > 0) {
+        retryTask =
+            new TimerTask() {
+              @Override
+              public void run() {
+                requestMissingPermissions(timestamp);
+              }
+            };
+        retryTimer.schedule(retryTask, RETRY_PERIOD_MILLIS, RETRY_PERIOD_MILLIS);
+      }
+    }
 
-    lockStatus = LockStatus.OWNED;
+    if (permissionsToWaitFor == 0) {
+      // There are no more drones than slots
+      becomeOwner().complete(null);
+      return future;
+    }
+    for (DroneIdentifier drone : destinations) {
+      requestPermission(drone, timestamp);
+    }
+    return future;
   }
 
-  public synchronized void release() {
-    lockStatus = LockStatus.NOT_INTERESTED;
-    notifyAll();
+  private void requestPermission(DroneIdentifier drone, int timestamp) {
+    Log.info("Requesting the lock from %s", drone);
+    client
+        .requestLockAsync(drone, timestamp, thisDrone)
+        .thenAccept(
+            delivered -> {
+              if (!delivered) {
+                Log.info("%s is unreachable, it can't be using the lock", drone);
+                onLockGranted(drone, timestamp);
+              }
+            });
   }
 
-  private synchronized void waitUntilDoneWithLock() {
-    Log.info("I will wait until im done with this lock");
-    while (lockStatus != LockStatus.NOT_INTERESTED) {
-      try {
-        wait();
-      } catch (InterruptedException e) {
-        e.printStackTrace();
+  private void requestMissingPermissions(int timestamp) {
+    final Set<DroneIdentifier> missing;
+    synchronized (this) {
+      if (lockStatus != LockStatus.WAITING || lockRequestTimestamp != timestamp) return;
+      missing = new HashSet<>(missingPermissions);
+    }
+    missing.forEach(drone -> requestPermission(drone, timestamp));
+  }
+
+  /** Called when <code>sender</code> gives its permission to the request made at that timestamp */
+  public void onLockGranted(DroneIdentifier sender, int requestTimestamp) {
+    final CompletableFuture<Void> acquired;
+    synchronized (this) {
+      // A late permission for a request that is already over
+      if (lockStatus != LockStatus.WAITING || lockRequestTimestamp != requestTimestamp) return;
+
+      Log.info("%s gave up the lock!", sender);
+      if (missingPermissions.remove(sender)) {
+        permissionsToWaitFor--;
       }
+      if (permissionsToWaitFor > 0) return;
+      acquired = becomeOwner();
+    }
+    acquired.complete(null);
+  }
+
+  /** @return The future to complete, which must be completed after releasing the monitor */
+  private synchronized CompletableFuture<Void> becomeOwner() {
+    lockStatus = LockStatus.OWNED;
+    if (retryTask != null) {
+      retryTask.cancel();
+      retryTask = null;
     }
-    Log.info("I am done with this lock");
+    final CompletableFuture<Void> acquired = acquisition;
+    acquisition = null;
+    return acquired;
   }
 
+  /** Gives up the lock and sends the permissions that were deferred while owning it */
+  public void release() {
+    final Map<DroneIdentifier, Integer> granted;
+    final int timestamp;
+    synchronized (this) {
+      lockStatus = LockStatus.NOT_INTERESTED;
+      granted = new LinkedHashMap<>(deferredRequests);
+      deferredRequests.clear();
+      timestamp = clock.increment();
+    }
+
+    Log.info("Releasing the lock at %d, granting it to %d drones", timestamp, granted.size());
+    granted.forEach((drone, requestTimestamp) -> grant(drone, requestTimestamp));
+  }
+
+  private void grant(DroneIdentifier requester, int requestTimestamp) {
+    client.grantLockAsync(requester, requestTimestamp, thisDrone);
+  }
+
+  /**
+   * Requests are ordered by their timestamp and, when two drones asked at the same time, by id.
+   *
+   * @return true if the request of <code>requester</code> comes before this drone's request
+   */
+  private boolean hasPrecedence(int requestTimestamp, DroneIdentifier requester) {
+    if (requestTimestamp != lockRequestTimestamp) {
+      return requestTimestamp < lockRequestTimestamp;
+    }
+    return requester.getId() < thisDrone.getId();
+  }
+
+  /**
+   * Grants the lock right away if this drone does not need it or the requester came first,
+   * otherwise the permission is sent when this drone releases the lock. This is not blocking.
+   *
+   * <p>A drone that joined after this one only notifies some of the drones, so the requester may
+   * not be in the store yet: it is added, so that the next requests of this drone ask it too.
+   */
   public void onLockRequest(int logicalClock, DroneIdentifier requester) {
-    Log.notice("Received a lock request <Clock=%d, Drone=%s>", logicalClock, requester);
-    Log.notice(
-        "Me: %d   Clock=%d    LockStatus=%s    lockRequestTimestamp=%d",
-        thisDrone.getId(), clock.value(), lockStatus, lockRequestTimestamp);
-    clock.update(logicalClock);
-    if (lockStatus == LockStatus.NOT_INTERESTED) {
-      Log.notice("I am not interested in the lock so I don't block");
-    } else if (lockStatus == LockStatus.OWNED
-        || (lockStatus == LockStatus.WAITING && lockRequestTimestamp < logicalClock)) {
-      Log.notice("Added drone to the waiting list (my clock=%d)", lockRequestTimestamp);
-      waitUntilDoneWithLock();
-    } else {
+    if (store.addDroneIfAbsent(requester)) {
+      Log.info("%s asked for the lock before this drone knew about it", requester);
+    }
+
+    final boolean grantNow;
+    final boolean askRequester;
+    final int timestamp;
+    synchronized (this) {
       Log.notice(
-          "Sent confirmation because they have precedence (my clock=%d)", lockRequestTimestamp);
+          "Received a lock request <Clock=%d, Drone=%s>, me: %d Clock=%d LockStatus=%s"
+              + " lockRequestTimestamp=%d",
+          logicalClock,
+          requester,
+          thisDrone.getId(),
+          clock.value(),
+          lockStatus,
+          lockRequestTimestamp);
+      clock.update(logicalClock);
+
+      grantNow =
+          lockStatus == LockStatus.NOT_INTERESTED
+              || (lockStatus == LockStatus.WAITING && hasPrecedence(logicalClock, requester));
+      if (!grantNow) {
+        Log.notice("Added drone to the waiting list (my clock=%d)", lockRequestTimestamp);
+        deferredRequests.put(requester, logicalClock);
+      }
+
+      // The requester came first but this drone's request did not reach it, so it may take the
+      // lock without waiting for this drone: this drone must wait for it instead
+      askRequester = grantNow && lockStatus == LockStatus.WAITING && askedPermission.add(requester);
+      if (askRequester) {
+        missingPermissions.add(requester);
+        permissionsToWaitFor++;
+      }
+      timestamp = lockRequestTimestamp;
+    }
+
+    if (grantNow) {
+      grant(requester, logicalClock);
+    }
+    if (askRequester) {
+      requestPermission(requester, timestamp);
     }
   }
 }
@@ -3,13 +3,14 @@ package it.cutecchia.sdp.drones;
 import it.cutecchia.sdp.admin.server.AdminServerClient;
 import it.cutecchia.sdp.common.*;
 import it.cutecchia.sdp.drones.messages.CompletedDeliveryMessage;
+import it.cutecchia.sdp.drones.messages.TelemetryMessage;
 import it.cutecchia.sdp.drones.responses.DroneJoinResponse;
 import it.cutecchia.sdp.drones.states.DroneState;
 import it.cutecchia.sdp.drones.states.RingMasterState;
 import it.cutecchia.sdp.drones.states.RingSlaveState;
 import it.cutecchia.sdp.drones.states.StartupState;
+import it.cutecchia.sdp.drones.store.ConcurrentDroneStore;
 import it.cutecchia.sdp.drones.store.DroneStore;
-import it.cutecchia.sdp.drones.store.InMemoryDroneStore;
 import java.io.IOException;
 import java.util.Set;
 import java.util.Timer;
@@ -21,15 +22,19 @@ public class Drone implements DroneCommunicationServer {
   private static final long MASTER_HEARTBEAT_PERIOD = 2 * 1000;
   private static final long PRINT_STATS_PERIOD = 10 * 1000;
   private static final long TIME_TO_RECHARGE = 10 * 1000;
+  // Every drone in the fleet must be started with the same number of slots
+  private static final String CHARGING_SLOTS_PROPERTY = "dronazon.charging-slots";
 
   private final AdminServerClient adminServerClient;
   private final DroneIdentifier identifier;
   private final OrderSource orderSource;
   private final RpcDroneCommunicationMiddleware middleware;
-  private final DroneStore store = new InMemoryDroneStore();
+  private final DroneStore store = new ConcurrentDroneStore();
   private final PollutionTracker pollutionTracker = new PollutionTracker();
   private final ElectionManager electionManager;
   private final DistributedLock chargingAreaLock;
+  private final TelemetryReporter telemetry;
+  private MembershipFeed membershipFeed;
 
   private enum ChargingStatus {
     NOT_REQUESTED,
@@ -59,6 +64,10 @@ public class Drone implements DroneCommunicationServer {
               getLocalData().getBatteryPercentage(),
               currentState.isMaster() ? "yes" : "no");
           currentState.printStats();
+          Log.info("Pollution buffer: %s", pollutionTracker.getBuffer());
+          middleware
+              .getConnectionInfo()
+              .forEach((drone, info) -> Log.info("Connection to #%d: %s", drone.getId(), info));
         }
       };
 
@@ -67,7 +76,11 @@ public class Drone implements DroneCommunicationServer {
       new TimerTask() {
         @Override
         public void run() {
-          deliverToMaster(middleware::requestHeartbeat, () -> {});
+          if (isMaster()) {
+            telemetry.close();
+          } else {
+            deliverToMaster(telemetry::reportTo, () -> {});
+          }
         }
       };
 
@@ -79,7 +92,9 @@ public class Drone implements DroneCommunicationServer {
     this.middleware = new RpcDroneCommunicationMiddleware(identifier, this);
     this.orderSource = orderSource;
     this.electionManager = new ElectionManager(this, store, middleware);
-    this.chargingAreaLock = new DistributedLock(identifier, store, middleware);
+    final int chargingSlots = Math.max(1, Integer.getInteger(CHARGING_SLOTS_PROPERTY, 1));
+    this.chargingAreaLock = new DistributedLock(identifier, store, middleware, chargingSlots);
+    this.telemetry = new TelemetryReporter(middleware, this::getLocalData);
   }
 
   public DroneIdentifier getIdentifier() {
@@ -137,55 +152,55 @@ public class Drone implements DroneCommunicationServer {
 
     chargingStatus = ChargingStatus.WAITING_TO_RECHARGE;
     assert !chargingAreaLock.isOwned();
-    ThreadUtils.runInAnotherThread(
-        () -> {
-          Log.userMessage("Waiting to get permission to recharge from all other drones...");
-          chargingAreaLock.take();
-
-          synchronized (this) {
-            synchronized (localDataLock) {
-              localData = localData.refuseOrders();
-            }
-          }
-          Log.notice("Took the lock!");
-
-          chargingStatus = ChargingStatus.SLEEPING;
-
-          Log.userMessage("I will recharge as soon as I complete my order");
-          doWhenThereIsNoOrderToDeliver(
-              () -> {
-                assert !isDeliveringOrder();
-
-                Log.userMessage(
-                    "%d: Starting the recharge. Sleeping...", System.currentTimeMillis());
-                try {
-                  assert chargingAreaLock.isOwned();
-
-                  chargingStatus = ChargingStatus.SLEEPING;
-                  try {
-                    Thread.sleep(TIME_TO_RECHARGE);
-                  } catch (InterruptedException e) {
-                    e.printStackTrace();
-                  }
-                } finally {
-                  chargingAreaLock.release();
-                  chargingStatus = ChargingStatus.FINALIZING;
-                  Log.userMessage("%d: I have finished recharging", System.currentTimeMillis());
-
-                  // Invece di statusUpdate potrebbe essere un semplice doneRecharging
-                  synchronized (this) {
-                    synchronized (localDataLock) {
-                      localData = new DroneData(new CityPoint(0, 0), 100);
-                    }
-                  }
-
-                  deliverToMaster(
-                      (master) -> middleware.notifyCompletedCharging(master, identifier),
-                      () -> chargingStatus = ChargingStatus.NOT_REQUESTED);
+    Log.userMessage("Waiting to get permission to recharge from all other drones...");
+    chargingAreaLock
+        .take()
+        .thenRun(
+            () -> {
+              synchronized (this) {
+                synchronized (localDataLock) {
+                  localData = localData.refuseOrders();
                 }
-                return true;
-              });
-        });
+              }
+              Log.notice("Took the lock!");
+
+              chargingStatus = ChargingStatus.SLEEPING;
+
+              Log.userMessage("I will recharge as soon as I complete my order");
+              doWhenThereIsNoOrderToDeliver(
+                  () -> {
+                    assert !isDeliveringOrder();
+
+                    Log.userMessage(
+                        "%d: Starting the recharge. Sleeping...", System.currentTimeMillis());
+                    try {
+                      assert chargingAreaLock.isOwned();
+
+                      chargingStatus = ChargingStatus.SLEEPING;
+                      try {
+                        Thread.sleep(TIME_TO_RECHARGE);
+                      } catch (InterruptedException e) {
+                        e.printStackTrace();
+                      }
+                    } finally {
+                      chargingAreaLock.release();
+                      chargingStatus = ChargingStatus.FINALIZING;
+                      Log.userMessage("%d: I have finished recharging", System.currentTimeMillis());
+
+                      // Invece di statusUpdate potrebbe essere un semplice doneRecharging
+                      synchronized (this) {
+                        synchronized (localDataLock) {
+                          localData = new DroneData(new CityPoint(0, 0), 100);
+                        }
+                      }
+
+                      deliverToMaster(
+                          (master) -> middleware.notifyCompletedCharging(master, identifier),
+                          () -> chargingStatus = ChargingStatus.NOT_REQUESTED);
+                    }
+                    return true;
+                  });
+            });
   }
 
   public void changeStateTo(DroneState newState) {
@@ -194,7 +209,12 @@ public class Drone implements DroneCommunicationServer {
     currentState.start();
   }
 
-  public void onAdminServerAcceptance(CityPoint position, Set<DroneIdentifier> allDrones) {
+  /**
+   * @param allDrones Every registered drone, this one included
+   * @param membershipVersion The version of the registered drones that allDrones is
+   */
+  public void onAdminServerAcceptance(
+      CityPoint position, Set<DroneIdentifier> allDrones, long membershipVersion) {
     Log.userMessage("Drone #%d was accepted by the admin server", identifier.getId());
 
     synchronized (localDataLock) {
@@ -213,6 +233,8 @@ public class Drone implements DroneCommunicationServer {
       changeStateTo(
           new RingSlaveState(this, store, middleware, adminServerClient, electionManager));
     }
+    membershipFeed = new MembershipFeed(identifier, store, adminServerClient, membershipVersion);
+    membershipFeed.start();
     masterHeartbeatTimer.scheduleAtFixedRate(masterHeartbeat, 0, MASTER_HEARTBEAT_PERIOD);
     printStatsTimer.scheduleAtFixedRate(printStatsTask, 0, PRINT_STATS_PERIOD);
   }
@@ -224,7 +246,7 @@ public class Drone implements DroneCommunicationServer {
     Log.notice("A new drone (#%d) joined the ring at %s", identifier.getId(), startingPosition);
     currentState.onNewDroneJoin(identifier);
 
-    return new DroneJoinResponse(getIdentifier(), currentState.isMaster());
+    return new DroneJoinResponse(getIdentifier(), currentState.isMaster(), store.getKnownMaster());
   }
 
   private double calculateTotalTravelledDistanceForOrder(CityPoint startingPosition, Order order) {
@@ -287,7 +309,8 @@ public class Drone implements DroneCommunicationServer {
       localData = localData.withOrder(order);
     }
 
-    ThreadUtils.runInAnotherThread(
+    // Waits for an election to end if the master can't be reached
+    ThreadUtils.runBlockingInAnotherThread(
         () -> {
           Log.info("zzz for order %d", order.getId());
 
@@ -314,7 +337,7 @@ public class Drone implements DroneCommunicationServer {
                   getIdentifier(),
                   order,
                   distanceTravelledForThisOrder,
-                  pollutionTracker.readAllAndCleanAsDoubles(),
+                  pollutionTracker.readSummariesAndClean(),
                   getLocalData().getBatteryPercentage());
 
           totalDeliveredOrders++;
@@ -372,11 +395,21 @@ public class Drone implements DroneCommunicationServer {
     chargingAreaLock.onLockRequest(logicalClock, requester);
   }
 
+  @Override
+  public void onLockGranted(DroneIdentifier sender, int requestLogicalClock) {
+    chargingAreaLock.onLockGranted(sender, requestLogicalClock);
+  }
+
   @Override
   public void onCompletedChargeMessage(DroneIdentifier sender) {
     currentState.onCompletedChargeMessage(sender);
   }
 
+  @Override
+  public void onTelemetry(TelemetryMessage message) {
+    currentState.onTelemetry(message);
+  }
+
   public void becomeMaster() {
     if (currentState.isMaster()) {
       Log.warn("This drone was asked to become master, but it already is master!");
@@ -403,7 +436,7 @@ public class Drone implements DroneCommunicationServer {
    *     completed, otherwise it won't be called again until the next invocation of this method
    */
   public void doWhenThereIsNoOrderToDeliver(BooleanSupplier callback) {
-    ThreadUtils.runInAnotherThread(
+    ThreadUtils.runBlockingInAnotherThread(
         () -> {
           boolean success;
           synchronized (noOrderToDeliverCallbackLock) {
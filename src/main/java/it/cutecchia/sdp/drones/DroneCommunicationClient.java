@@ -11,8 +11,24 @@ import java.util.Optional;
 public interface DroneCommunicationClient {
   class DroneIsUnreachable extends Exception {}
 
+  /** A long-lived stream where a drone sends its data to the master */
+  interface TelemetryStream {
+    /**
+     * Sends the drone's data to the master. Only what changed since the previous call is sent, if
+     * nothing changed the message just tells the master that the drone is alive. This is not
+     * blocking.
+     *
+     * @return false if the stream is broken: the connection dropped or the master stopped answering
+     */
+    boolean push(DroneData data);
+
+    void close();
+  }
+
   boolean requestHeartbeat(DroneIdentifier destination);
 
+  TelemetryStream openTelemetryStream(DroneIdentifier master);
+
   Optional<DroneJoinResponse> notifyDroneJoin(
       DroneIdentifier destination, CityPoint startingPosition);
 
@@ -5,6 +5,7 @@ import it.cutecchia.sdp.common.DroneData;
 import it.cutecchia.sdp.common.DroneIdentifier;
 import it.cutecchia.sdp.common.Order;
 import it.cutecchia.sdp.drones.messages.CompletedDeliveryMessage;
+import it.cutecchia.sdp.drones.messages.TelemetryMessage;
 import it.cutecchia.sdp.drones.responses.DroneJoinResponse;
 
 public interface DroneCommunicationServer {
@@ -22,5 +23,9 @@ public interface DroneCommunicationServer {
 
   void onLockRequest(int logicalClock, DroneIdentifier requester);
 
+  void onLockGranted(DroneIdentifier sender, int requestLogicalClock);
+
   void onCompletedChargeMessage(DroneIdentifier sender);
+
+  void onTelemetry(TelemetryMessage message);
 }
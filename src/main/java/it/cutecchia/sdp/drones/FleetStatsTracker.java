@@ -5,20 +5,22 @@ import it.cutecchia.sdp.common.DroneData;
 import it.cutecchia.sdp.common.DroneIdentifier;
 import it.cutecchia.sdp.common.FleetStats;
 import it.cutecchia.sdp.common.Log;
+import it.cutecchia.sdp.drones.pollution.PollutionSummary;
 import it.cutecchia.sdp.drones.store.DroneStore;
-import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class FleetStatsTracker extends Thread {
   private final Timer timer = new Timer();
   private final AdminServerClient client;
 
-  private int deliveriesSinceLastUpdate = 0;
-  private double kmsSinceLastUpdate = 0.0;
-  private double pollutionSinceLastUpdate = 0.0;
-  private int pollutionMeasurementsSinceLastUpdate = 0;
+  private final IntervalAccumulator sinceLastUpdate = new IntervalAccumulator();
   private final DroneStore store;
 
   public FleetStatsTracker(DroneStore drones, AdminServerClient client) {
@@ -26,17 +28,29 @@ public class FleetStatsTracker extends Thread {
     this.store = drones;
   }
 
+  // How long the last stats can take to reach the admin server when the drone quits
+  private static final long SHUTDOWN_SEND_TIMEOUT_SECONDS = 10;
+
   private final TimerTask calculateAndSendStatsTask =
       new TimerTask() {
         @Override
         public void run() {
-          FleetStats stats = calculateFleetStats();
-          Log.notice("Sending stats to admin server %s", stats);
-          client.sendFleetStats(stats);
-          resetFleetStats();
+          calculateAndSendStats();
         }
       };
 
+  /** @return Completed when the admin server received the stats */
+  private Future<?> calculateAndSendStats() {
+    IntervalAccumulator.Snapshot interval = sinceLastUpdate.snapshotAndReset();
+    FleetStats stats = calculateFleetStats(interval);
+    interval
+        .getPollution()
+        .forEach((window, summary) -> Log.info("Pollution over %s windows: %s", window, summary));
+    Log.notice("Sending stats to admin server %s", stats);
+    // Sent in the background, so that a slow admin server doesn't delay the next stats
+    return client.sendFleetStatsAsync(stats);
+  }
+
   public void start() {
     Log.info("FleetStatsTracker start");
     timer.schedule(calculateAndSendStatsTask, 0, 10 * 1000);
@@ -45,14 +59,22 @@ public class FleetStatsTracker extends Thread {
   public void sendStatsAndShutdown() {
     Log.notice("FleetStatsTracker is shutting down and sending the last stats...");
     timer.cancel();
-    calculateAndSendStatsTask.run();
+    try {
+      calculateAndSendStats().get(SHUTDOWN_SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      Log.warn("The last stats were not sent: %s", e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
-  public void handleCompletedDeliveryStats(List<Double> pollution, double travelledKms) {
-    deliveriesSinceLastUpdate++;
-    kmsSinceLastUpdate += travelledKms;
-    pollutionMeasurementsSinceLastUpdate += pollution.size();
-    for (double p : pollution) pollutionSinceLastUpdate += p;
+  /**
+   * Counts a delivery in the current interval. This never waits, not even while the stats are being
+   * sent, and the summaries are only merged when the interval ends
+   */
+  public void handleCompletedDeliveryStats(
+      Map<String, PollutionSummary> pollution, double travelledKms) {
+    sinceLastUpdate.addDelivery(pollution, travelledKms);
   }
 
   private double calculateAverageBatteryLevel() {
@@ -71,36 +93,31 @@ public class FleetStatsTracker extends Thread {
     return averageBatteryLevel / dronesWithAvailableData;
   }
 
-  private double calculateAverageCompletedDeliveries() {
+  private double calculateAverageCompletedDeliveries(IntervalAccumulator.Snapshot interval) {
     assert store.getAllDroneIdentifiers().size() > 0;
-    return (double) deliveriesSinceLastUpdate / store.getAllDroneIdentifiers().size();
+    return (double) interval.getDeliveries() / store.getAllDroneIdentifiers().size();
   }
 
-  private double calculateAveragePollutionLevel() {
-    if (deliveriesSinceLastUpdate == 0) {
+  private double calculateAveragePollutionLevel(IntervalAccumulator.Snapshot interval) {
+    PollutionSummary summary = interval.getPollution().get(PollutionTracker.DEFAULT_WINDOW);
+    if (summary == null || summary.isEmpty()) {
       return 0.0;
     }
 
-    return pollutionSinceLastUpdate / pollutionMeasurementsSinceLastUpdate;
+    return summary.getMean();
   }
 
-  private double calculateAverageTravelledKms() {
+  private double calculateAverageTravelledKms(IntervalAccumulator.Snapshot interval) {
     assert store.getAllDroneIdentifiers().size() > 0;
-    return kmsSinceLastUpdate / store.getAllDroneIdentifiers().size();
+    return interval.getKms() / store.getAllDroneIdentifiers().size();
   }
 
-  private FleetStats calculateFleetStats() {
+  private FleetStats calculateFleetStats(IntervalAccumulator.Snapshot interval) {
     return new FleetStats(
         System.currentTimeMillis(),
-        calculateAverageCompletedDeliveries(),
-        calculateAverageTravelledKms(),
-        calculateAveragePollutionLevel(),
+        calculateAverageCompletedDeliveries(interval),
+        calculateAverageTravelledKms(interval),
+        calculateAveragePollutionLevel(interval),
         calculateAverageBatteryLevel());
   }
-
-  private void resetFleetStats() {
-    deliveriesSinceLastUpdate = 0;
-    kmsSinceLastUpdate = 0.0;
-    pollutionSinceLastUpdate = 0.0;
-  }
 }
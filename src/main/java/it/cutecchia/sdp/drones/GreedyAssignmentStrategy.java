@@ -0,0 +1,36 @@
+package it.cutecchia.sdp.drones;
+
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.common.Order;
+import it.cutecchia.sdp.drones.store.DroneStore;
+import java.util.*;
+
+/**
+ * Takes the pending orders one at a time, oldest first, and gives each one the closest drone that
+ * is still free. It stops at the first order for which no drone is left.
+ */
+public class GreedyAssignmentStrategy implements AssignmentStrategy {
+  private final DroneStore store;
+
+  public GreedyAssignmentStrategy(DroneStore store) {
+    this.store = store;
+  }
+
+  @Override
+  public List<DroneIdentifier> assign(
+      Iterable<Order> pendingOrders, Set<DroneIdentifier> excludedDrones) {
+    Set<DroneIdentifier> unavailableDrones = new HashSet<>(excludedDrones);
+    List<DroneIdentifier> chosenDrones = new ArrayList<>();
+
+    for (Order order : pendingOrders) {
+      Optional<DroneIdentifier> drone =
+          store.findClosestAvailableDrone(order.getStartPoint(), unavailableDrones);
+      if (!drone.isPresent()) break;
+
+      unavailableDrones.add(drone.get());
+      chosenDrones.add(drone.get());
+    }
+
+    return chosenDrones;
+  }
+}
@@ -0,0 +1,91 @@
+package it.cutecchia.sdp.drones;
+
+import it.cutecchia.sdp.drones.pollution.PollutionSummary;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates the completed deliveries of the fleet over a reporting interval. Any number of
+ * threads can add deliveries without ever waiting, while {@link #snapshotAndReset()} atomically
+ * ends the interval: every delivery is counted in exactly one snapshot.
+ *
+ * <p>Each interval has its own striped counters. Ending an interval swaps in a new one and waits
+ * for the deliveries that were already being added to the old one, which takes as long as adding a
+ * delivery.
+ */
+final class IntervalAccumulator {
+  private static final class Interval {
+    private final LongAdder deliveries = new LongAdder();
+    private final DoubleAdder kms = new DoubleAdder();
+    // Merged when the interval ends, so that adding never waits for another merge
+    private final Queue<Map<String, PollutionSummary>> pollution = new ConcurrentLinkedQueue<>();
+    // How many threads are adding to this interval right now
+    private final AtomicInteger writers = new AtomicInteger();
+  }
+
+  /** What was accumulated during an interval */
+  static final class Snapshot {
+    private final long deliveries;
+    private final double kms;
+    private final Map<String, PollutionSummary> pollution;
+
+    private Snapshot(long deliveries, double kms, Map<String, PollutionSummary> pollution) {
+      this.deliveries = deliveries;
+      this.kms = kms;
+      this.pollution = Collections.unmodifiableMap(pollution);
+    }
+
+    long getDeliveries() {
+      return deliveries;
+    }
+
+    double getKms() {
+      return kms;
+    }
+
+    /** @return The merged pollution summaries of every delivery, by window */
+    Map<String, PollutionSummary> getPollution() {
+      return pollution;
+    }
+  }
+
+  private final AtomicReference<Interval> current = new AtomicReference<>(new Interval());
+
+  void addDelivery(Map<String, PollutionSummary> pollution, double travelledKms) {
+    while (true) {
+      final Interval interval = current.get();
+      interval.writers.incrementAndGet();
+      // If the interval ended in the meantime it may have been read already, so use the new one
+      if (interval == current.get()) {
+        interval.deliveries.increment();
+        interval.kms.add(travelledKms);
+        interval.pollution.add(pollution);
+        interval.writers.decrementAndGet();
+        return;
+      }
+      interval.writers.decrementAndGet();
+    }
+  }
+
+  /** Ends the current interval and starts a new one */
+  synchronized Snapshot snapshotAndReset() {
+    final Interval ended = current.getAndSet(new Interval());
+    while (ended.writers.get() != 0) {
+      Thread.yield();
+    }
+
+    Map<String, PollutionSummary> pollution = new HashMap<>();
+    for (Map<String, PollutionSummary> delivery : ended.pollution) {
+      delivery.forEach(
+          (window, summary) -> pollution.merge(window, summary, PollutionSummary::merge));
+    }
+    return new Snapshot(ended.deliveries.sum(), ended.kms.sum(), pollution);
+  }
+}
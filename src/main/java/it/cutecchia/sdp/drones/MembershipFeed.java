@@ -0,0 +1,124 @@
+package it.cutecchia.sdp.drones;
+
+import it.cutecchia.sdp.admin.server.AdminServerClient;
+import it.cutecchia.sdp.admin.server.messages.MembershipChange;
+import it.cutecchia.sdp.admin.server.messages.MembershipChangesResponse;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.common.Log;
+import it.cutecchia.sdp.drones.store.DroneStore;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Keeps the drones in the store up to date with the ones registered on the admin server, by asking
+ * it every few seconds for the drones that joined or left since the last version this drone saw. A
+ * joining drone only notifies some of the others, the rest learn about it from here.
+ *
+ * <p>The period is set with the <code>dronazon.membership.poll</code> system property, in
+ * milliseconds. Zero disables the feed.
+ */
+public class MembershipFeed {
+  public static final String POLL_PERIOD_PROPERTY = "dronazon.membership.poll";
+  private static final long DEFAULT_POLL_PERIOD = 5 * 1000;
+
+  private final DroneIdentifier self;
+  private final DroneStore store;
+  private final AdminServerClient client;
+  private final Timer timer = new Timer("membership-feed", true);
+  private volatile long version;
+
+  /** @param version The version of the drones this drone got when it joined */
+  public MembershipFeed(
+      DroneIdentifier self, DroneStore store, AdminServerClient client, long version) {
+    this.self = self;
+    this.store = store;
+    this.client = client;
+    this.version = version;
+  }
+
+  public void start() {
+    final long period = Long.getLong(POLL_PERIOD_PROPERTY, DEFAULT_POLL_PERIOD);
+    if (period <= 0) {
+      Log.info("The membership feed is disabled");
+      return;
+    }
+
+    timer.schedule(
+        new TimerTask() {
+          @Override
+          public void run() {
+            poll();
+          }
+        },
+        period,
+        period);
+  }
+
+  public void stop() {
+    timer.cancel();
+  }
+
+  /** @return The version of the registered drones that the store is up to date with */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Asks the admin server for the changes since the last version and applies them to the store
+   *
+   * @return false if the admin server could not be reached
+   */
+  public synchronized boolean poll() {
+    final MembershipChangesResponse response;
+    try {
+      response = client.getMembershipChangesSince(version);
+    } catch (RuntimeException e) {
+      Log.warn("Could not get the membership changes from the admin server: %s", e.getMessage());
+      return false;
+    }
+
+    if (response.getAllDrones() != null) {
+      replaceAll(response.getAllDrones());
+    } else {
+      for (MembershipChange change : response.getChanges()) {
+        apply(change);
+      }
+    }
+    version = response.getVersion();
+    return true;
+  }
+
+  private void apply(MembershipChange change) {
+    final DroneIdentifier drone = change.getDrone();
+    if (drone.equals(self)) return;
+
+    switch (change.getType()) {
+      case JOINED:
+        if (store.addDroneIfAbsent(drone)) {
+          Log.info(
+              "Drone #%d joined the fleet (membership version %d)",
+              drone.getId(), change.getVersion());
+        }
+        break;
+      case LEFT:
+        Log.info("Drone #%d left the fleet", drone.getId());
+        store.removeDrone(drone);
+        break;
+    }
+  }
+
+  // The server forgot the changes since our version, so we compare every drone
+  private void replaceAll(Set<DroneIdentifier> registered) {
+    Log.info("Replacing the known drones with the %d registered ones", registered.size());
+    for (DroneIdentifier drone : registered) {
+      store.addDroneIfAbsent(drone);
+    }
+    for (DroneIdentifier drone : new HashSet<>(store.getAllDroneIdentifiers())) {
+      if (!drone.equals(self) && !registered.contains(drone)) {
+        store.removeDrone(drone);
+      }
+    }
+  }
+}
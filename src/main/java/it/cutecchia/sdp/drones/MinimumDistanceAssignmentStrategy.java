@@ -0,0 +1,175 @@
+package it.cutecchia.sdp.drones;
+
+import it.cutecchia.sdp.common.DroneData;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.common.Log;
+import it.cutecchia.sdp.common.Order;
+import it.cutecchia.sdp.drones.store.DroneStore;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Assigns the oldest pending orders as a batch, choosing the drones so that the total distance they
+ * have to travel to reach the orders is as small as possible (Hungarian algorithm). The batch is as
+ * large as the number of available drones, so the same orders are assigned as with the greedy
+ * strategy, only to different drones. Between drones at the same distance the one with more battery
+ * is preferred.
+ *
+ * <p>Matching n orders with m drones takes O(n * m) memory and O(n^2 * m) time: when the batch is
+ * too large or a pass goes over the time budget the batch is handed to the fallback strategy
+ * instead.
+ */
+public class MinimumDistanceAssignmentStrategy implements AssignmentStrategy {
+  // Small enough that the battery only decides between drones at the same distance
+  private static final double BATTERY_TIE_BREAK_WEIGHT = 1e-6;
+  // 8 MB of costs. Larger batches could not be matched within any sensible budget anyway
+  private static final long MAX_COST_CELLS = 1 << 20;
+
+  private final DroneStore store;
+  private final AssignmentStrategy fallback;
+  private final long timeBudgetNanos;
+  private final AtomicLong fallbacks = new AtomicLong();
+
+  public MinimumDistanceAssignmentStrategy(
+      DroneStore store, AssignmentStrategy fallback, long timeBudget, TimeUnit unit) {
+    this.store = store;
+    this.fallback = fallback;
+    this.timeBudgetNanos = unit.toNanos(timeBudget);
+  }
+
+  /** @return How many times the batch was too large and the fallback strategy was used */
+  public long getFallbackCount() {
+    return fallbacks.get();
+  }
+
+  @Override
+  public List<DroneIdentifier> assign(
+      Iterable<Order> pendingOrders, Set<DroneIdentifier> excludedDrones) {
+    final long deadline = System.nanoTime() + timeBudgetNanos;
+
+    List<DroneIdentifier> drones = new ArrayList<>();
+    List<DroneData> dronesData = new ArrayList<>();
+    for (Map.Entry<DroneIdentifier, DroneData> entry : store.getAvailableDrones().entrySet()) {
+      if (excludedDrones.contains(entry.getKey())) continue;
+      drones.add(entry.getKey());
+      dronesData.add(entry.getValue());
+    }
+
+    List<Order> batch = new ArrayList<>();
+    for (Order order : pendingOrders) {
+      if (batch.size() == drones.size()) break;
+      batch.add(order);
+    }
+
+    // With a single order the closest drone is already the best choice
+    if (batch.size() < 2) {
+      return fallback.assign(pendingOrders, excludedDrones);
+    }
+
+    if ((long) batch.size() * drones.size() > MAX_COST_CELLS) {
+      return fallBack(pendingOrders, excludedDrones, batch.size(), drones.size());
+    }
+
+    double[][] cost = new double[batch.size()][drones.size()];
+    for (int i = 0; i < batch.size(); i++) {
+      if (System.nanoTime() - deadline > 0) {
+        return fallBack(pendingOrders, excludedDrones, batch.size(), drones.size());
+      }
+      for (int j = 0; j < drones.size(); j++) {
+        DroneData data = dronesData.get(j);
+        cost[i][j] =
+            batch.get(i).getStartPoint().distanceTo(data.getPosition())
+                + (100 - data.getBatteryPercentage()) * BATTERY_TIE_BREAK_WEIGHT;
+      }
+    }
+
+    int[] droneForOrder = findMinimumCostMatching(cost, deadline);
+    if (droneForOrder == null) {
+      return fallBack(pendingOrders, excludedDrones, batch.size(), drones.size());
+    }
+
+    List<DroneIdentifier> chosenDrones = new ArrayList<>(batch.size());
+    for (int drone : droneForOrder) {
+      chosenDrones.add(drones.get(drone));
+    }
+    return chosenDrones;
+  }
+
+  private List<DroneIdentifier> fallBack(
+      Iterable<Order> pendingOrders, Set<DroneIdentifier> excludedDrones, int orders, int drones) {
+    fallbacks.incrementAndGet();
+    Log.warn(
+        "MinimumDistanceAssignmentStrategy: %d orders x %d drones are too many for the time budget",
+        orders, drones);
+    return fallback.assign(pendingOrders, excludedDrones);
+  }
+
+  /**
+   * Solves the assignment problem with the Hungarian algorithm (the O(n^2 * m) version based on
+   * potentials).
+   *
+   * @param cost cost[i][j] is the cost of giving the j-th drone to the i-th order. There must be at
+   *     most as many orders as drones
+   * @param deadline A {@link System#nanoTime()} value after which the computation is abandoned
+   * @return For each order the index of its drone, or null if the deadline was reached
+   */
+  static int[] findMinimumCostMatching(double[][] cost, long deadline) {
+    final int n = cost.length, m = cost[0].length;
+    assert n <= m;
+
+    // Everything is 1-indexed, row and column 0 are sentinels
+    double[] u = new double[n + 1], v = new double[m + 1], minv = new double[m + 1];
+    int[] orderOfDrone = new int[m + 1], way = new int[m + 1];
+    boolean[] used = new boolean[m + 1];
+
+    for (int i = 1; i <= n; i++) {
+      if (System.nanoTime() - deadline > 0) return null;
+
+      orderOfDrone[0] = i;
+      int j0 = 0;
+      Arrays.fill(minv, Double.POSITIVE_INFINITY);
+      Arrays.fill(used, false);
+      do {
+        used[j0] = true;
+        int i0 = orderOfDrone[j0], j1 = 0;
+        double delta = Double.POSITIVE_INFINITY;
+        for (int j = 1; j <= m; j++) {
+          if (used[j]) continue;
+          double reduced = cost[i0 - 1][j - 1] - u[i0] - v[j];
+          if (reduced < minv[j]) {
+            minv[j] = reduced;
+            way[j] = j0;
+          }
+          if (minv[j] < delta) {
+            delta = minv[j];
+            j1 = j;
+          }
+        }
+        for (int j = 0; j <= m; j++) {
+          if (used[j]) {
+            u[orderOfDrone[j]] += delta;
+            v[j] -= delta;
+          } else {
+            minv[j] -= delta;
+          }
+        }
+        j0 = j1;
+      } while (orderOfDrone[j0] != 0);
+
+      do {
+        int j1 = way[j0];
+        orderOfDrone[j0] = orderOfDrone[j1];
+        j0 = j1;
+      } while (j0 != 0);
+    }
+
+    int[] droneForOrder = new int[n];
+    for (int j = 1; j <= m; j++) {
+      if (orderOfDrone[j] != 0) {
+        droneForOrder[orderOfDrone[j] - 1] = j - 1;
+      }
+    }
+    return droneForOrder;
+  }
+}
@@ -3,32 +3,71 @@ package it.cutecchia.sdp.drones;
 import com.google.gson.Gson;
 import it.cutecchia.sdp.common.Log;
 import it.cutecchia.sdp.common.Order;
+import it.cutecchia.sdp.common.ThreadUtils;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import javax.annotation.Nonnull;
 import org.eclipse.paho.client.mqttv3.*;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
-public class MqttOrderSource implements OrderSource, MqttCallback {
+/**
+ * Reads the orders from an MQTT broker. Every master connects with the same client id to a
+ * persistent session, and an order is only acknowledged once it was handed to the listener: the
+ * orders that were not, because the master was paused, lost the connection or stopped, stay with
+ * the broker for the next connection or the next master.
+ *
+ * <p>The client id is read from the <code>dronazon.mqtt.client-id</code> system property.
+ */
+public class MqttOrderSource implements OrderSource, MqttCallbackExtended {
+  public static final String CLIENT_ID_PROPERTY = "dronazon.mqtt.client-id";
+  private static final String DEFAULT_CLIENT_ID = "dronazon-master";
   private static final int QOS = 2;
   private static final Gson gson = new Gson();
 
-  private final MqttClient client;
+  private final IMqttClient client;
   private final String topic;
+  private final int keepAliveSeconds;
 
-  private OrderListener listener;
+  private volatile OrderListener listener;
+  // Taken while an order is handed to the listener, so that none is once stop() returned
+  private final Object deliveryLock = new Object();
+  private boolean stopped = false;
+
+  // The orders received while paused, or not delivered yet since, oldest first
+  private final Deque<MqttMessage> held = new ArrayDeque<>();
+  private boolean paused = false;
+  private boolean deliveringHeld = false;
 
   public MqttOrderSource(@Nonnull String brokerAddress, int port, @Nonnull String topic)
       throws MqttException {
-    String connectionString = String.format("tcp://%s:%d", brokerAddress, port);
-    this.client = new MqttClient(connectionString, MqttClient.generateClientId());
+    this(
+        new MqttClient(
+            String.format("tcp://%s:%d", brokerAddress, port),
+            System.getProperty(CLIENT_ID_PROPERTY, DEFAULT_CLIENT_ID),
+            new MemoryPersistence()),
+        topic,
+        MqttConnectOptions.KEEP_ALIVE_INTERVAL_DEFAULT);
+  }
+
+  MqttOrderSource(IMqttClient client, String topic, int keepAliveSeconds) {
+    this.client = client;
     this.topic = topic;
+    this.keepAliveSeconds = keepAliveSeconds;
   }
 
   @Override
   public void start(@Nonnull OrderListener listener) {
     this.listener = listener;
+    synchronized (deliveryLock) {
+      stopped = false;
+    }
 
     MqttConnectOptions options = new MqttConnectOptions();
-    options.setCleanSession(true);
+    options.setCleanSession(false);
+    options.setAutomaticReconnect(true);
+    options.setKeepAliveInterval(keepAliveSeconds);
     client.setCallback(this);
+    client.setManualAcks(true);
     try {
       client.connect(options);
       client.subscribe(topic, QOS);
@@ -41,6 +80,12 @@ public class MqttOrderSource implements OrderSource, MqttCallback {
 
   @Override
   public void stop() {
+    synchronized (deliveryLock) {
+      stopped = true;
+    }
+    synchronized (this) {
+      held.clear();
+    }
     try {
       client.disconnect();
       Log.info("Disconnected successfully from MQTT broker");
@@ -50,20 +95,94 @@ public class MqttOrderSource implements OrderSource, MqttCallback {
     }
   }
 
+  /**
+   * Stops handing orders to the listener. The orders that arrive are held without acknowledging
+   * them, so once the broker has as many unacknowledged orders in flight as it allows it keeps the
+   * new ones until the master catches up. The connection stays up meanwhile.
+   */
+  @Override
+  public synchronized void pause() {
+    if (!paused) {
+      Log.warn("Too many pending orders, pausing the MQTT order source");
+    }
+    paused = true;
+  }
+
+  @Override
+  public void resume() {
+    synchronized (this) {
+      if (!paused) return;
+      Log.info("Resuming the MQTT order source");
+      paused = false;
+      if (held.isEmpty() || deliveringHeld) return;
+      deliveringHeld = true;
+    }
+    ThreadUtils.runInAnotherThread(this::deliverHeldOrders);
+  }
+
+  private void deliverHeldOrders() {
+    while (true) {
+      final MqttMessage message;
+      synchronized (this) {
+        if (paused || held.isEmpty()) {
+          deliveringHeld = false;
+          return;
+        }
+        message = held.peekFirst();
+      }
+      deliver(message);
+      synchronized (this) {
+        // Removed only now, so that the orders arriving meanwhile queue up behind it
+        held.remove(message);
+      }
+    }
+  }
+
+  private void deliver(MqttMessage message) {
+    synchronized (deliveryLock) {
+      if (stopped) {
+        Log.warn("Dropping an order received after the MQTT order source was stopped");
+        return;
+      }
+      listener.onOrderReceived(gson.fromJson(new String(message.getPayload()), Order.class));
+      try {
+        client.messageArrivedComplete(message.getId(), message.getQos());
+      } catch (MqttException e) {
+        Log.warn(
+            "Could not acknowledge an order, the broker may send it again: %s", e.getMessage());
+      }
+    }
+  }
+
   // ^MqttCallback
   @Override
   public void connectionLost(Throwable cause) {
-    Log.error("Connection to the MQTT broker dropped. The stack trace follows");
+    Log.error("Connection to the MQTT broker dropped, reconnecting. The stack trace follows");
     cause.printStackTrace();
+    // They were not acknowledged, so the broker sends them again once the client reconnects
+    synchronized (this) {
+      held.clear();
+    }
   }
 
   @Override
-  public void messageArrived(String topic, MqttMessage message) throws Exception {
-    assert (topic.equals(this.topic));
-    String jsonMessage = new String(message.getPayload());
-    Order order = gson.fromJson(jsonMessage, Order.class);
+  public void connectComplete(boolean reconnect, String serverURI) {
+    if (reconnect) {
+      Log.info("Reconnected to the MQTT broker");
+    }
+  }
 
-    listener.onOrderReceived(order);
+  @Override
+  public void messageArrived(String topic, MqttMessage message) {
+    assert (topic.equals(this.topic));
+    // Never blocks: the client's thread also has to keep reading the broker's acks and pings
+    synchronized (this) {
+      if (paused || !held.isEmpty()) {
+        held.addLast(message);
+        return;
+      }
+    }
+    deliver(message);
   }
 
   @Override
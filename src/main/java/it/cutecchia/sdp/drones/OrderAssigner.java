@@ -3,39 +3,89 @@ package it.cutecchia.sdp.drones;
 import it.cutecchia.sdp.common.*;
 import it.cutecchia.sdp.drones.store.DroneStore;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
 import javax.annotation.Nonnull;
 
 public class OrderAssigner {
+  private static final int ASSIGNMENT_RPC_THREADS = 8;
+  private static final int DEFAULT_PENDING_ORDERS_CAPACITY = 10_000;
+
   private final DroneStore dronesStore;
   private final DroneCommunicationClient communicationClient;
-  private final List<Order> pendingOrders = new ArrayList<>();
+  private final AssignmentStrategy strategy;
+  private final PendingOrderQueue pendingOrders;
+  // Drones that were offered an order whose answer did not arrive yet. The store still sees them
+  // as available, so the next passes must skip them
+  private final Set<DroneIdentifier> dronesWithAssignmentInFlight = new HashSet<>();
+  private final OrderDispatcher dispatcher;
 
   public OrderAssigner(
       @Nonnull DroneStore dronesStore, @Nonnull DroneCommunicationClient communicationClient) {
+    this(
+        dronesStore,
+        communicationClient,
+        new GreedyAssignmentStrategy(dronesStore),
+        new PendingOrderQueue(DEFAULT_PENDING_ORDERS_CAPACITY, PendingOrderQueue.NO_BACKPRESSURE));
+  }
+
+  public OrderAssigner(
+      @Nonnull DroneStore dronesStore,
+      @Nonnull DroneCommunicationClient communicationClient,
+      @Nonnull AssignmentStrategy strategy,
+      @Nonnull PendingOrderQueue pendingOrders) {
     this.dronesStore = dronesStore;
     this.communicationClient = communicationClient;
+    this.strategy = strategy;
+    this.pendingOrders = pendingOrders;
+    this.dispatcher =
+        new OrderDispatcher(
+            this::planAssignments,
+            new DispatchMetrics(this::countPendingOrders),
+            ASSIGNMENT_RPC_THREADS);
+    this.dispatcher.setOnIdleListener(this::onDispatcherIdle);
   }
 
   public boolean areTherePendingOrders() {
     return !pendingOrders.isEmpty();
   }
 
+  private int countPendingOrders() {
+    return pendingOrders.size();
+  }
+
+  public DispatchMetrics getDispatchMetrics() {
+    return dispatcher.getMetrics();
+  }
+
+  /**
+   * Stops the dispatcher's threads. Offers that were planned but not sent yet put their orders back
+   * in the queue.
+   */
+  public void shutdown() {
+    dispatcher.shutdown();
+  }
+
+  /** Blocks until every assignment that was triggered so far has been sent and answered. */
+  public void waitUntilIdle() throws InterruptedException {
+    dispatcher.waitUntilIdle();
+  }
+
   private void attemptAssigningOrders() {
-    ThreadUtils.runInAnotherThread(
-        () -> {
-          assignAllPossibleOrders();
-          if (noPendingOrdersCallback != null && !areTherePendingOrders()) {
-            noPendingOrdersCallback.run();
-          }
-        });
+    dispatcher.requestPass();
   }
 
-  public void enqueueOrder(Order order) {
-    synchronized (pendingOrders) {
-      pendingOrders.add(order);
+  private void onDispatcherIdle() {
+    Runnable callback;
+    synchronized (this) {
+      callback = noPendingOrdersCallback;
     }
+    if (callback != null && !areTherePendingOrders()) {
+      callback.run();
+    }
+  }
 
+  public void enqueueOrder(Order order) {
+    pendingOrders.add(order);
     attemptAssigningOrders();
   }
 
@@ -51,99 +101,140 @@ public class OrderAssigner {
     attemptAssigningOrders();
   }
 
-  private DroneIdentifier findBestDroneForOrder(Set<DroneIdentifier> drones, Order order) {
-    assert (!drones.isEmpty());
-
-    return drones.stream()
-        .reduce(
-            (left, right) -> {
-              DroneData leftData = dronesStore.getDroneData(left).orElse(null);
-              DroneData rightData = dronesStore.getDroneData(right).orElse(null);
-
-              if (leftData == null && rightData == null) {
-                return left.getId() > right.getId() ? left : right;
-              } else if (leftData == null) {
-                return right;
-              } else if (rightData == null) {
-                return left;
-              }
-
-              double leftDistance = order.getStartPoint().distanceTo(leftData.getPosition());
-              double rightDistance = order.getStartPoint().distanceTo(rightData.getPosition());
-
-              if (leftDistance != rightDistance) {
-                return leftDistance < rightDistance ? left : right;
-              }
-
-              int leftBattery = leftData.getBatteryPercentage();
-              int rightBattery = rightData.getBatteryPercentage();
-              if (leftBattery != rightBattery) {
-                return leftBattery > rightBattery ? left : right;
-              }
-
-              return left.getId() > right.getId() ? left : right;
-            })
-        .get();
-  }
-
-  private Set<DroneIdentifier> getAvailableDronesForDeliveries() {
-    return dronesStore.getAllDroneIdentifiers().parallelStream()
-        .filter(
-            id -> {
-              Optional<DroneData> data = dronesStore.getDroneData(id);
-              return data.isPresent() && data.get().isAvailableForDeliveries();
-            })
-        .collect(Collectors.toSet());
-  }
-
-  /** Assign all possible orders and wait for the drones to reply or timeout. */
-  private synchronized void assignAllPossibleOrders() {
-    Set<DroneIdentifier> drones = getAvailableDronesForDeliveries();
-
-    Map<DroneIdentifier, Order> assignedOrders = new HashMap<>();
-    while (!drones.isEmpty() && !pendingOrders.isEmpty()) {
-      Order order = pendingOrders.remove(0);
-      DroneIdentifier drone = findBestDroneForOrder(drones, order);
-      drones.remove(drone);
-      assignedOrders.put(drone, order);
-      Log.info("OrderAssigner: Assigning %s to %d", order, drone.getId());
-    }
-
-    ThreadUtils.spawnThreadForEach(
-        assignedOrders.entrySet(),
-        (entry) -> {
-          DroneIdentifier drone = entry.getKey();
-          Order order = entry.getValue();
-          boolean successfullyAssigned = false;
-          try {
-            successfullyAssigned = communicationClient.assignOrder(order, drone);
-            if (!successfullyAssigned) {
-              dronesStore.signalDroneIsRecharging(drone);
-              Log.warn(
-                  "Order %d was refused by drone #%d because it is recharging",
-                  order.getId(), drone.getId());
-            } else {
-              Log.info("Order %d was accepted by drone #%d", order.getId(), drone.getId());
-            }
-          } catch (DroneCommunicationClient.DroneIsUnreachable e) {
-            dronesStore.signalFailedCommunicationWithDrone(drone);
-            Log.warn(
-                "Failed to assign order %d to drone #%d. Re-adding order to queue...",
-                order.getId(), drone.getId());
-          } finally {
-            if (successfullyAssigned) {
-              dronesStore.signalDroneWasAssignedOrder(drone, order);
-            } else {
-              Log.info("Failed to assign order %d, re-adding to queue...", order.getId());
-              enqueueOrder(order);
+  /**
+   * Decide which drone should deliver each pending order. No RPC is made here: the returned tasks
+   * are sent by the dispatcher on its own pool. If the client can send offers without blocking,
+   * every offer of the pass is sent by a single task and they are all in flight at the same time.
+   */
+  private synchronized List<OrderDispatcher.Rpc> planAssignments() {
+    Set<DroneIdentifier> unavailableDrones;
+    synchronized (dronesWithAssignmentInFlight) {
+      unavailableDrones = new HashSet<>(dronesWithAssignmentInFlight);
+    }
+
+    // A drone is offered at most one order in each pass
+    final Map<DroneIdentifier, Order> offers = new LinkedHashMap<>();
+    // Failed orders are requeued at the head while holding the queue's monitor: holding it here
+    // guarantees that the orders we poll are the same ones the strategy looked at
+    synchronized (pendingOrders) {
+      List<DroneIdentifier> chosenDrones = strategy.assign(pendingOrders, unavailableDrones);
+
+      for (final DroneIdentifier drone : chosenDrones) {
+        final Order order = pendingOrders.poll();
+        synchronized (dronesWithAssignmentInFlight) {
+          dronesWithAssignmentInFlight.add(drone);
+        }
+        offers.put(drone, order);
+        Log.info("OrderAssigner: Assigning %s to %d", order, drone.getId());
+      }
+    }
+
+    if (offers.isEmpty()) {
+      return Collections.emptyList();
+    }
+    if (communicationClient instanceof AsyncDroneCommunicationClient) {
+      return Collections.singletonList(
+          new Offers(
+              offers,
+              () -> sendPipelined((AsyncDroneCommunicationClient) communicationClient, offers)));
+    }
+
+    List<OrderDispatcher.Rpc> assignments = new ArrayList<>();
+    offers.forEach(
+        (drone, order) ->
+            assignments.add(
+                new Offers(
+                    Collections.singletonMap(drone, order), () -> sendAssignment(order, drone))));
+    return assignments;
+  }
+
+  /** Sends some offers, or puts their orders back in the queue if they are never sent */
+  private class Offers implements OrderDispatcher.Rpc {
+    private final Map<DroneIdentifier, Order> offers;
+    private final Runnable send;
+
+    Offers(Map<DroneIdentifier, Order> offers, Runnable send) {
+      this.offers = offers;
+      this.send = send;
+    }
+
+    @Override
+    public void run() {
+      send.run();
+    }
+
+    @Override
+    public void cancel() {
+      offers.forEach(
+          (drone, order) -> {
+            synchronized (dronesWithAssignmentInFlight) {
+              dronesWithAssignmentInFlight.remove(drone);
             }
-          }
-        });
+            pendingOrders.requeue(order);
+          });
+    }
+  }
+
+  private void sendAssignment(Order order, DroneIdentifier drone) {
+    Optional<Boolean> accepted = Optional.empty();
+    try {
+      accepted = Optional.of(communicationClient.assignOrder(order, drone));
+    } catch (DroneCommunicationClient.DroneIsUnreachable e) {
+      Log.warn("Drone #%d is unreachable", drone.getId());
+    } finally {
+      onAssignmentAnswered(order, drone, accepted);
+    }
+  }
+
+  /**
+   * Sends every offer at once and handles each answer as soon as it arrives. The task returns only
+   * when every drone answered, so the dispatcher still knows when the master is idle.
+   */
+  private void sendPipelined(
+      AsyncDroneCommunicationClient client, Map<DroneIdentifier, Order> offers) {
+    List<CompletableFuture<Void>> answers = new ArrayList<>(offers.size());
+    offers.forEach(
+        (drone, order) ->
+            answers.add(
+                client
+                    .assignOrderAsync(order, drone)
+                    .thenAccept(accepted -> onAssignmentAnswered(order, drone, accepted))));
+    CompletableFuture.allOf(answers.toArray(new CompletableFuture[0])).join();
+  }
+
+  /** @param accepted Whether the drone accepted the order, or empty if it could not be reached */
+  private void onAssignmentAnswered(
+      Order order, DroneIdentifier drone, Optional<Boolean> accepted) {
+    final boolean successfullyAssigned = accepted.orElse(false);
+    if (successfullyAssigned) {
+      Log.info("Order %d was accepted by drone #%d", order.getId(), drone.getId());
+      dronesStore.signalDroneWasAssignedOrder(drone, order);
+    } else if (accepted.isPresent()) {
+      dronesStore.signalDroneIsRecharging(drone);
+      Log.warn(
+          "Order %d was refused by drone #%d because it is recharging",
+          order.getId(), drone.getId());
+    } else {
+      dronesStore.signalFailedCommunicationWithDrone(drone);
+      Log.warn(
+          "Failed to assign order %d to drone #%d. Re-adding order to queue...",
+          order.getId(), drone.getId());
+    }
+
+    synchronized (dronesWithAssignmentInFlight) {
+      dronesWithAssignmentInFlight.remove(drone);
+    }
+    if (!successfullyAssigned) {
+      Log.info("Failed to assign order %d, re-adding to queue...", order.getId());
+      pendingOrders.requeue(order);
+      attemptAssigningOrders();
+    }
   }
 
   public void printInfo() {
     final Set<DroneIdentifier> drones = dronesStore.getAllDroneIdentifiers();
-    Log.userMessage("Currently there are %d pending orders", pendingOrders.size());
+    Log.userMessage("Currently there are %d pending orders", countPendingOrders());
+    Log.userMessage("Dispatcher: %s", dispatcher.getMetrics());
     Log.userMessage("--- Delivering ---");
     for (DroneIdentifier drone : drones) {
       final Optional<DroneData> data = dronesStore.getDroneData(drone);
@@ -0,0 +1,204 @@
+package it.cutecchia.sdp.drones;
+
+import it.cutecchia.sdp.common.Log;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the master's order assignment passes on a single scheduler thread. Any number of calls to
+ * {@link #requestPass()} that happen while a pass is already pending collapse into a single pass.
+ * The RPCs that a pass produces are sent on a bounded pool instead of spawning a thread for each
+ * one of them; when the pool is saturated the scheduler sends them itself, which slows down the
+ * passes instead of queueing RPCs without limits. RPCs planned after the dispatcher was shut down
+ * are cancelled instead of sent.
+ */
+public class OrderDispatcher {
+  /** Decides which orders should be assigned right now and to which drone. */
+  public interface AssignmentPass {
+    /**
+     * @return One task for each assignment that was decided. Each task is expected to send the
+     *     order to its drone and to handle the result, it will be run on the RPC pool
+     */
+    List<Rpc> plan();
+  }
+
+  /** An RPC decided by a pass */
+  public interface Rpc extends Runnable {
+    /** Called instead of {@link #run()} when the RPC will never be sent */
+    void cancel();
+  }
+
+  private static final int RPC_QUEUE_CAPACITY = 256;
+
+  private final AssignmentPass pass;
+  private final DispatchMetrics metrics;
+  private final ThreadPoolExecutor rpcPool;
+  private final Thread scheduler;
+
+  private boolean passRequested = false;
+  private boolean passRunning = false;
+  private int pendingRpcs = 0;
+  private boolean shutdown = false;
+  private Runnable onIdleListener = null;
+
+  public OrderDispatcher(AssignmentPass pass, DispatchMetrics metrics, int rpcThreads) {
+    this.pass = pass;
+    this.metrics = metrics;
+    this.rpcPool =
+        new ThreadPoolExecutor(
+            rpcThreads,
+            rpcThreads,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(RPC_QUEUE_CAPACITY),
+            daemonThreadFactory("order-dispatch-rpc"),
+            OrderDispatcher::runOnCallerUnlessShutdown);
+    this.scheduler = new Thread(this::schedulerLoop, "order-dispatch-scheduler");
+    this.scheduler.setDaemon(true);
+    this.scheduler.start();
+  }
+
+  private static ThreadFactory daemonThreadFactory(String prefix) {
+    final AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread t = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    };
+  }
+
+  // Like CallerRunsPolicy, which silently discards the task once the pool is shut down
+  private static void runOnCallerUnlessShutdown(Runnable task, ThreadPoolExecutor pool) {
+    if (pool.isShutdown()) {
+      throw new RejectedExecutionException("The dispatcher is shut down");
+    }
+    task.run();
+  }
+
+  public DispatchMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Sets a function that is called every time the dispatcher has nothing left to do: no pass is
+   * pending or running and every RPC has completed. It is called on a dispatcher thread.
+   */
+  public synchronized void setOnIdleListener(Runnable listener) {
+    this.onIdleListener = listener;
+  }
+
+  /**
+   * Asks for an assignment pass to happen as soon as possible. This is not blocking, and does
+   * nothing once the dispatcher is shut down.
+   */
+  public void requestPass() {
+    synchronized (this) {
+      if (shutdown) return;
+      metrics.recordSignal();
+      passRequested = true;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Blocks until no pass is pending or running and every RPC that was sent has completed. Once the
+   * dispatcher is shut down it only waits for the pass and the RPCs already under way.
+   */
+  public synchronized void waitUntilIdle() throws InterruptedException {
+    while (!isIdle()) {
+      wait();
+    }
+  }
+
+  public synchronized void shutdown() {
+    shutdown = true;
+    notifyAll();
+    rpcPool.shutdown();
+  }
+
+  private boolean isIdle() {
+    // A pass requested before the shutdown will never run
+    return (!passRequested || shutdown) && !passRunning && pendingRpcs == 0;
+  }
+
+  private void schedulerLoop() {
+    while (true) {
+      synchronized (this) {
+        while (!passRequested && !shutdown) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            e.printStackTrace();
+          }
+        }
+        if (shutdown) return;
+
+        passRequested = false;
+        passRunning = true;
+      }
+
+      final long start = System.nanoTime();
+      List<Rpc> rpcs = Collections.emptyList();
+      try {
+        rpcs = pass.plan();
+      } catch (RuntimeException e) {
+        Log.error("OrderDispatcher: assignment pass failed due to: %s", e.getMessage());
+        e.printStackTrace();
+      }
+      metrics.recordPass(System.nanoTime() - start, rpcs.size());
+
+      synchronized (this) {
+        pendingRpcs += rpcs.size();
+        passRunning = false;
+      }
+
+      for (Rpc rpc : rpcs) {
+        try {
+          rpcPool.execute(
+              () -> {
+                try {
+                  rpc.run();
+                } finally {
+                  onRpcCompleted();
+                }
+              });
+        } catch (RejectedExecutionException e) {
+          Log.warn("OrderDispatcher: cancelling an assignment because the dispatcher is shut down");
+          try {
+            rpc.cancel();
+          } finally {
+            onRpcCompleted();
+          }
+        }
+      }
+
+      notifyIfIdle();
+    }
+  }
+
+  private void onRpcCompleted() {
+    synchronized (this) {
+      pendingRpcs--;
+    }
+    notifyIfIdle();
+  }
+
+  private void notifyIfIdle() {
+    Runnable listener;
+    synchronized (this) {
+      if (!isIdle()) return;
+      notifyAll();
+      listener = onIdleListener;
+    }
+
+    if (listener != null) {
+      listener.run();
+    }
+  }
+}
@@ -10,4 +10,13 @@ public interface OrderSource {
   void start(OrderListener listener);
 
   void stop();
+
+  /**
+   * Asks the source to stop producing new orders for a while because the master can't keep up.
+   * Sources that can't be slowed down can ignore this.
+   */
+  default void pause() {}
+
+  /** Lets a paused source produce orders again */
+  default void resume() {}
 }
@@ -0,0 +1,104 @@
+package it.cutecchia.sdp.drones;
+
+import it.cutecchia.sdp.common.Order;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The orders that the master received but did not assign yet. Adding and removing orders takes
+ * constant time and checking the size never blocks. Orders that could not be delivered are put back
+ * at the head with {@link #requeue(Order)} so they are assigned before the newer ones.
+ *
+ * <p>The queue is bounded only softly: orders are never dropped, but when the queue reaches its
+ * capacity the {@link BackpressureListener} is told to stop the inflow of new orders, and it is
+ * told to resume it once the queue drained to half of its capacity.
+ *
+ * <p>{@link #requeue(Order)} holds the queue's monitor: whoever needs the head of the queue to stay
+ * the same while looking at it, like the assignment pass, should hold it too.
+ */
+public class PendingOrderQueue implements Iterable<Order> {
+  public interface BackpressureListener {
+    /** Called once when the queue reaches its capacity */
+    void onSaturated();
+
+    /** Called once when a saturated queue drains to half of its capacity */
+    void onDrained();
+  }
+
+  public static final BackpressureListener NO_BACKPRESSURE =
+      new BackpressureListener() {
+        @Override
+        public void onSaturated() {}
+
+        @Override
+        public void onDrained() {}
+      };
+
+  private final ConcurrentLinkedDeque<Order> orders = new ConcurrentLinkedDeque<>();
+  // ConcurrentLinkedDeque.size() walks the whole deque, so the size is tracked separately
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicBoolean saturated = new AtomicBoolean(false);
+  private final int capacity;
+  private final BackpressureListener listener;
+
+  public PendingOrderQueue(int capacity, BackpressureListener listener) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The capacity must be at least 1");
+    }
+    this.capacity = capacity;
+    this.listener = listener;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /** Adds a new order at the tail of the queue */
+  public void add(Order order) {
+    orders.offerLast(order);
+    onSizeIncreased(size.incrementAndGet());
+  }
+
+  /** Puts an order that could not be delivered back at the head of the queue */
+  public synchronized void requeue(Order order) {
+    orders.offerFirst(order);
+    onSizeIncreased(size.incrementAndGet());
+  }
+
+  /** @return The oldest order, removing it from the queue, or null if the queue is empty */
+  public Order poll() {
+    Order order = orders.pollFirst();
+    if (order != null) {
+      onSizeDecreased(size.decrementAndGet());
+    }
+    return order;
+  }
+
+  public int size() {
+    return size.get();
+  }
+
+  public boolean isEmpty() {
+    return size.get() == 0;
+  }
+
+  /** Iterates the orders from the oldest to the newest without removing them */
+  @Override
+  public Iterator<Order> iterator() {
+    return orders.iterator();
+  }
+
+  private void onSizeIncreased(int newSize) {
+    if (newSize >= capacity && saturated.compareAndSet(false, true)) {
+      listener.onSaturated();
+    }
+  }
+
+  private void onSizeDecreased(int newSize) {
+    if (newSize <= capacity / 2 && saturated.compareAndSet(true, false)) {
+      listener.onDrained();
+    }
+  }
+}
@@ -1,57 +1,118 @@
 package it.cutecchia.sdp.drones;
 
+import it.cutecchia.sdp.drones.pollution.MeasurementRingBuffer;
+import it.cutecchia.sdp.drones.pollution.PollutionSummary;
+import it.cutecchia.sdp.drones.pollution.WindowedAggregator;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 import simulators.Buffer;
 import simulators.Measurement;
 import simulators.PM10Simulator;
 
-public class PollutionTracker implements Buffer, SlidingWindow.OnFullWindowAvailable {
-  private final SlidingWindow slidingWindow = new SlidingWindow(8, 4, this);
-  private final PM10Simulator simulator = new PM10Simulator(this);
+/**
+ * Summarizes the PM10 measurements over one or more sliding windows. The windows are read from the
+ * <code>dronazon.pollution.windows</code> system property, like <code>8:4,1:0</code>. The {@link
+ * #DEFAULT_WINDOW} is always computed because the fleet's average pollution is based on it.
+ *
+ * <p>The sensor writes into a bounded {@link MeasurementRingBuffer}, which is only read when the
+ * summaries are requested. Its capacity and what happens when it fills up are read from the <code>
+ * dronazon.pollution.buffer</code> and <code>dronazon.pollution.overflow</code> properties.
+ */
+public class PollutionTracker implements Buffer {
+  public static final String DEFAULT_WINDOW = "8:4";
+  private static final String WINDOWS_PROPERTY = "dronazon.pollution.windows";
+  private static final String BUFFER_PROPERTY = "dronazon.pollution.buffer";
+  private static final String OVERFLOW_PROPERTY = "dronazon.pollution.overflow";
 
-  private final Object averageMeasurementsLock = new Object();
-  private List<Measurement> averageMeasurements = new ArrayList<>();
+  private final List<WindowedAggregator> aggregators;
+  private final MeasurementRingBuffer buffer;
+  private final PM10Simulator simulator;
+
+  public PollutionTracker() {
+    this(
+        System.getProperty(WINDOWS_PROPERTY, DEFAULT_WINDOW),
+        new MeasurementRingBuffer(
+            Integer.getInteger(BUFFER_PROPERTY, 4096),
+            MeasurementRingBuffer.OverflowPolicy.fromName(
+                System.getProperty(OVERFLOW_PROPERTY, "drop-oldest"))));
+  }
+
+  PollutionTracker(String windows, MeasurementRingBuffer buffer) {
+    this.aggregators = WindowedAggregator.fromSpec(windows);
+    if (aggregators.stream().noneMatch(a -> a.getName().equals(DEFAULT_WINDOW))) {
+      aggregators.addAll(0, WindowedAggregator.fromSpec(DEFAULT_WINDOW));
+    }
+    this.buffer = buffer;
+    this.simulator = new PM10Simulator(buffer);
+  }
 
   public void startTracking() {
     simulator.start();
   }
 
+  /** Stops the sensor, once it wrote what it had merged into the buffer */
   public void stopTracking() {
     simulator.stopMeGently();
-  }
-
-  @Override
-  public void onWindowAvailable(List<Measurement> measurements) {
-    double average = 0.0;
-    for (Measurement m : measurements) {
-      average += m.getValue();
+    try {
+      // Once the sensor thread is done this thread is the only producer of the buffer
+      simulator.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
     }
-    average /= measurements.size();
-
-    Measurement measurement = new Measurement("0", "average", average, System.currentTimeMillis());
-    synchronized (averageMeasurementsLock) {
-      averageMeasurements.add(measurement);
+    if (!buffer.flush()) {
+      synchronized (aggregators) {
+        drainIntoAggregators();
+      }
+      buffer.flush();
     }
   }
 
+  /** @return The buffer between the sensor and the windows, to look at how often it overflowed */
+  public MeasurementRingBuffer getBuffer() {
+    return buffer;
+  }
+
   @Override
   public void addMeasurement(Measurement m) {
-    slidingWindow.addMeasurement(m);
+    buffer.addMeasurement(m);
   }
 
-  @Override
-  public List<Measurement> readAllAndClean() {
-    List<Measurement> toReturn = averageMeasurements;
-    synchronized (averageMeasurementsLock) {
-      averageMeasurements = new ArrayList<>();
+  /** @return The summary of each window since the previous call, by window name */
+  public Map<String, PollutionSummary> readSummariesAndClean() {
+    Map<String, PollutionSummary> summaries = new LinkedHashMap<>();
+    synchronized (aggregators) {
+      drainIntoAggregators();
+      for (WindowedAggregator aggregator : aggregators) {
+        summaries.put(aggregator.getName(), aggregator.summarizeAndReset());
+      }
     }
+    return summaries;
+  }
 
-    return toReturn;
+  private void drainIntoAggregators() {
+    buffer.drainTo(
+        (value, timestamp) -> {
+          for (WindowedAggregator aggregator : aggregators) {
+            aggregator.addSample(value, timestamp);
+          }
+        });
   }
 
-  public List<Double> readAllAndCleanAsDoubles() {
-    return readAllAndClean().stream().map(Measurement::getValue).collect(Collectors.toList());
+  /** @return The mean of each window since the previous call, with the window name as the type */
+  @Override
+  public List<Measurement> readAllAndClean() {
+    List<Measurement> means = new ArrayList<>();
+    final long now = System.currentTimeMillis();
+    readSummariesAndClean()
+        .forEach(
+            (window, summary) -> {
+              if (!summary.isEmpty()) {
+                means.add(new Measurement("0", window, summary.getMean(), now));
+              }
+            });
+    return means;
   }
 }
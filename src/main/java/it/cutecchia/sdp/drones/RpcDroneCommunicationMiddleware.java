@@ -1,24 +1,39 @@
 package it.cutecchia.sdp.drones;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import io.grpc.*;
+import io.grpc.netty.NettyServerBuilder;
 import io.grpc.stub.StreamObserver;
 import it.cutecchia.sdp.common.*;
 import it.cutecchia.sdp.drones.grpc.DroneServiceGrpc;
 import it.cutecchia.sdp.drones.grpc.DroneServiceOuterClass;
 import it.cutecchia.sdp.drones.messages.CompletedDeliveryMessage;
+import it.cutecchia.sdp.drones.messages.TelemetryMessage;
 import it.cutecchia.sdp.drones.responses.DroneJoinResponse;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServiceImplBase
-    implements DroneCommunicationClient {
+    implements AsyncDroneCommunicationClient {
+  // A telemetry stream whose messages are not acknowledged for this long is considered broken
+  private static final long TELEMETRY_ACK_TIMEOUT_MILLIS = 6 * 1000;
+  // What this drone advertises to the others, see the Capability enum in the proto
+  private static final int CAPABILITIES = DroneServiceOuterClass.Capability.COMPACT_POLLUTION_VALUE;
+
   private final Server rpcServer;
   private final DroneCommunicationServer droneServer;
-  private final Map<DroneIdentifier, ManagedChannel> openChannels = new HashMap<>();
+  private final ChannelManager channels;
   private final DroneIdentifier drone;
+  // What every other drone advertised when one of the two joined or when it was elected, by id
+  private final Map<Integer, Integer> peerCapabilities = new ConcurrentHashMap<>();
 
   /**
    * A middleware between a drone and other drones in the network based on gRpc.
@@ -27,56 +42,76 @@ public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServi
    * @param service: An object that will be forwarded each request that is made to this drone
    */
   public RpcDroneCommunicationMiddleware(DroneIdentifier drone, DroneCommunicationServer service) {
+    this(drone, service, ChannelManager.withNettyChannels());
+  }
+
+  /**
+   * @param channels The manager that owns the channels towards the other drones. It is shut down
+   *     together with the middleware
+   */
+  public RpcDroneCommunicationMiddleware(
+      DroneIdentifier drone, DroneCommunicationServer service, ChannelManager channels) {
     this.drone = drone;
-    this.rpcServer = ServerBuilder.forPort(drone.getConnectionPort()).addService(this).build();
+    this.rpcServer =
+        NettyServerBuilder.forPort(drone.getConnectionPort())
+            .permitKeepAliveTime(ChannelManager.KEEPALIVE_TIME_SECONDS, TimeUnit.SECONDS)
+            .permitKeepAliveWithoutCalls(true)
+            .addService(this)
+            .build();
     this.droneServer = service;
+    this.channels = channels;
   }
 
   public void startRpcServer() throws IOException {
     rpcServer.start();
   }
 
-  private ManagedChannel getManagedChannel(DroneIdentifier drone) {
-    Log.trace("Connecting to %s...", drone);
-    synchronized (openChannels) {
-      if (openChannels.containsKey(drone)) {
-        Log.trace("Reusing an already open channel");
-        return openChannels.get(drone);
-      }
-    }
-
-    ManagedChannel channel =
-        ManagedChannelBuilder.forAddress(drone.getIpAddress(), drone.getConnectionPort())
-            .usePlaintext()
-            .build();
-    synchronized (openChannels) {
-      openChannels.put(drone, channel);
-    }
-    Log.info("Created a new channel for %s", drone);
-
-    return channel;
+  /** @return The state of the connection towards every drone this drone talked to recently */
+  public Map<DroneIdentifier, ChannelManager.PeerConnectionInfo> getConnectionInfo() {
+    return channels.getConnectionInfo();
   }
 
-  private void destroyChannel(DroneIdentifier drone) {
-    Log.info("Destroying channel to drone %s", drone);
-    ManagedChannel channel;
-    synchronized (openChannels) {
-      channel = openChannels.remove(drone);
-    }
-    if (channel != null && !channel.isShutdown()) {
-      channel.shutdown();
-    }
+  /**
+   * @return Whether <code>peer</code> advertised the capability. Drones that never exchanged a join
+   *     message with this one nor were elected master since, or that are older than the capability,
+   *     are assumed not to have it
+   */
+  public boolean peerSupports(DroneIdentifier peer, DroneServiceOuterClass.Capability capability) {
+    return (peerCapabilities.getOrDefault(peer.getId(), 0) & capability.getNumber()) != 0;
   }
 
   private DroneServiceGrpc.DroneServiceBlockingStub getBlockingStub(DroneIdentifier drone) {
-    ManagedChannel channel = getManagedChannel(drone);
-    return DroneServiceGrpc.newBlockingStub(channel).withDeadlineAfter(30, TimeUnit.SECONDS);
+    return DroneServiceGrpc.newBlockingStub(channels.getChannel(drone))
+        .withDeadlineAfter(30, TimeUnit.SECONDS);
+  }
+
+  private DroneServiceGrpc.DroneServiceFutureStub getFutureStub(DroneIdentifier drone) {
+    return DroneServiceGrpc.newFutureStub(channels.getChannel(drone))
+        .withDeadlineAfter(30, TimeUnit.SECONDS);
   }
 
-  private DroneServiceGrpc.DroneServiceBlockingStub getBlockingStubWithoutDeadline(
-      DroneIdentifier drone) {
-    ManagedChannel channel = getManagedChannel(drone);
-    return DroneServiceGrpc.newBlockingStub(channel);
+  /**
+   * Adapts a gRPC future to a CompletableFuture that never fails: when the call fails the future
+   * completes with <code>onFailure</code>'s result instead.
+   */
+  private static <T, R> CompletableFuture<R> toCompletableFuture(
+      ListenableFuture<T> call, Function<T, R> onSuccess, Function<Throwable, R> onFailure) {
+    CompletableFuture<R> future = new CompletableFuture<>();
+    Futures.addCallback(
+        call,
+        new FutureCallback<T>() {
+          @Override
+          public void onSuccess(T result) {
+            future.complete(onSuccess.apply(result));
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            future.complete(onFailure.apply(t));
+          }
+        },
+        MoreExecutors.directExecutor());
+    return future;
   }
 
   // The methods below this point are what a drone should call to do the operation
@@ -97,20 +132,43 @@ public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServi
         DroneServiceOuterClass.DroneJoinMessage.newBuilder()
             .setSender(drone.toProto())
             .setStartingPosition(startingPosition.toProto())
+            .setCapabilities(CAPABILITIES)
             .build();
     try {
       DroneServiceOuterClass.DroneJoinResponse protoResponse =
           getBlockingStub(destination).notifyDroneJoin(message);
+      peerCapabilities.put(destination.getId(), protoResponse.getCapabilities());
       return Optional.of(DroneJoinResponse.fromProto(protoResponse));
     } catch (StatusRuntimeException e) {
       Log.warn(
           "RPC Failed: notifyDroneJoin to #%d due to: %s", destination.getId(), e.getMessage());
-      destroyChannel(destination);
     }
 
     return Optional.empty();
   }
 
+  @Override
+  public CompletableFuture<Optional<DroneJoinResponse>> notifyDroneJoinAsync(
+      DroneIdentifier destination, CityPoint startingPosition) {
+    DroneServiceOuterClass.DroneJoinMessage message =
+        DroneServiceOuterClass.DroneJoinMessage.newBuilder()
+            .setSender(drone.toProto())
+            .setStartingPosition(startingPosition.toProto())
+            .setCapabilities(CAPABILITIES)
+            .build();
+    return toCompletableFuture(
+        getFutureStub(destination).notifyDroneJoin(message),
+        response -> {
+          peerCapabilities.put(destination.getId(), response.getCapabilities());
+          return Optional.of(DroneJoinResponse.fromProto(response));
+        },
+        e -> {
+          Log.warn(
+              "RPC Failed: notifyDroneJoin to #%d due to: %s", destination.getId(), e.getMessage());
+          return Optional.empty();
+        });
+  }
+
   /**
    * Assign an order to a drone, requesting that it delivers that order. This method should only be
    * used by the master since it is the only one with the authority to assign orders. This is
@@ -133,11 +191,23 @@ public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServi
     } catch (Exception e) {
       Log.warn(
           "Failed to assign order with context %s due to: %s", Context.current(), e.getMessage());
-      destroyChannel(drone);
       throw new DroneIsUnreachable();
     }
   }
 
+  @Override
+  public CompletableFuture<Optional<Boolean>> assignOrderAsync(Order order, DroneIdentifier drone) {
+    DroneServiceOuterClass.AssignOrderMessage message =
+        DroneServiceOuterClass.AssignOrderMessage.newBuilder().setOrder(order.toProto()).build();
+    return toCompletableFuture(
+        getFutureStub(drone).assignOrder(message),
+        response -> Optional.of(response.getAccepted()),
+        e -> {
+          Log.warn("Failed to assign order %d to %s: %s", order.getId(), drone, e.getMessage());
+          return Optional.empty();
+        });
+  }
+
   /**
    * Notify the master drone that this drone has completed delivering the previously assigned order.
    * This also sends updated data about this drone. This is blocking.
@@ -153,13 +223,14 @@ public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServi
     DroneServiceGrpc.DroneServiceBlockingStub stub = getBlockingStub(masterDrone);
 
     try {
-      stub.notifyCompletedDelivery(message.toProto());
+      stub.notifyCompletedDelivery(
+          message.toProto(
+              peerSupports(masterDrone, DroneServiceOuterClass.Capability.COMPACT_POLLUTION)));
       return true;
     } catch (StatusRuntimeException e) {
       Log.warn(
           "Failed to notify completed delivery to %d due to: %s",
           masterDrone.getId(), e.getMessage());
-      destroyChannel(masterDrone);
       // e.printStackTrace();
       return false;
     }
@@ -178,11 +249,21 @@ public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServi
       return Optional.of(DroneData.fromProto(getBlockingStub(drone).requestData(empty())));
     } catch (StatusRuntimeException e) {
       Log.warn("Failed to request data from %s: %s", drone, e.getMessage());
-      destroyChannel(drone);
       return Optional.empty();
     }
   }
 
+  @Override
+  public CompletableFuture<Optional<DroneData>> requestDataAsync(DroneIdentifier drone) {
+    return toCompletableFuture(
+        getFutureStub(drone).requestData(empty()),
+        data -> Optional.of(DroneData.fromProto(data)),
+        e -> {
+          Log.warn("Failed to request data from %s: %s", drone, e.getMessage());
+          return Optional.empty();
+        });
+  }
+
   /**
    * Send an ELECTION message to <code>destination</code> containing the other parameters as the
    * current best candidate for the next master. This is blocking
@@ -209,7 +290,6 @@ public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServi
     } catch (StatusRuntimeException e) {
       Log.warn(
           "Failed to send ELECTION message to %d due to: %s", destination.getId(), e.getMessage());
-      destroyChannel(destination);
       return false;
     }
   }
@@ -228,6 +308,10 @@ public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServi
     DroneServiceOuterClass.ElectedMessage message =
         DroneServiceOuterClass.ElectedMessage.newBuilder()
             .setNewLeader(newLeader.toProto())
+            .setNewLeaderCapabilities(
+                newLeader.equals(drone)
+                    ? CAPABILITIES
+                    : peerCapabilities.getOrDefault(newLeader.getId(), 0))
             .build();
     try {
       getBlockingStub(destination).notifyElectedMessage(message);
@@ -235,7 +319,6 @@ public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServi
     } catch (StatusRuntimeException e) {
       Log.warn(
           "Failed to send ELECTED message to %d due to: %s", destination.getId(), e.getMessage());
-      destroyChannel(destination);
       return false;
     }
   }
@@ -257,11 +340,91 @@ public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServi
     } catch (StatusRuntimeException e) {
       Log.warn(
           "Failed to receive HEARTBEAT from %d due to: %s", destination.getId(), e.getMessage());
-      destroyChannel(destination);
       return false;
     }
   }
 
+  @Override
+  public TelemetryStream openTelemetryStream(DroneIdentifier master) {
+    return new RpcTelemetryStream(master);
+  }
+
+  private class RpcTelemetryStream implements TelemetryStream {
+    private final DroneIdentifier master;
+    private final StreamObserver<DroneServiceOuterClass.TelemetryMessage> requests;
+    private DroneData lastSent = null;
+    private int unacknowledged = 0;
+    private long waitingForAckSince = 0;
+    private boolean broken = false;
+    private boolean closed = false;
+
+    RpcTelemetryStream(DroneIdentifier master) {
+      this.master = master;
+      this.requests =
+          DroneServiceGrpc.newStub(channels.getChannel(master))
+              .streamTelemetry(
+                  new StreamObserver<DroneServiceOuterClass.Empty>() {
+                    @Override
+                    public void onNext(DroneServiceOuterClass.Empty ack) {
+                      onAck();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                      Log.warn(
+                          "Telemetry stream to %d broke due to: %s",
+                          master.getId(), t.getMessage());
+                      onBroken();
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                      onBroken();
+                    }
+                  });
+    }
+
+    private synchronized void onAck() {
+      unacknowledged--;
+      waitingForAckSince = System.currentTimeMillis();
+    }
+
+    private synchronized void onBroken() {
+      broken = true;
+    }
+
+    @Override
+    public synchronized boolean push(DroneData data) {
+      if (broken || closed) return false;
+
+      final long now = System.currentTimeMillis();
+      if (unacknowledged > 0 && now - waitingForAckSince > TELEMETRY_ACK_TIMEOUT_MILLIS) {
+        Log.warn("Master %d stopped answering on the telemetry stream", master.getId());
+        broken = true;
+        return false;
+      }
+
+      Log.trace("Sending TELEMETRY to %d", master.getId());
+      requests.onNext(TelemetryMessage.between(drone, lastSent, data).toProto());
+      lastSent = data;
+      if (unacknowledged++ == 0) {
+        waitingForAckSince = now;
+      }
+      return true;
+    }
+
+    @Override
+    public synchronized void close() {
+      if (closed) return;
+      closed = true;
+      if (broken) {
+        requests.onError(Status.CANCELLED.asRuntimeException());
+      } else {
+        requests.onCompleted();
+      }
+    }
+  }
+
   @Override
   public boolean notifyCompletedCharging(DroneIdentifier destination, DroneIdentifier sender) {
     try {
@@ -273,7 +436,6 @@ public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServi
       Log.warn(
           "Failed to send COMPLETED_CHARGING to %d due to: %s",
           destination.getId(), e.getMessage());
-      destroyChannel(destination);
       return false;
     }
   }
@@ -287,30 +449,52 @@ public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServi
               .setRequester(requester.toProto())
               .setLogicalClock(logicalClock)
               .build();
-      getBlockingStubWithoutDeadline(destination).requestLock(message);
+      getBlockingStub(destination).requestLock(message);
     } catch (StatusRuntimeException e) {
       Log.warn("Failed to send REQUEST_LOCK to %d due to: %s", destination.getId(), e.getMessage());
-      destroyChannel(destination);
     }
   }
 
+  @Override
+  public CompletableFuture<Boolean> requestLockAsync(
+      DroneIdentifier destination, int logicalClock, DroneIdentifier requester) {
+    DroneServiceOuterClass.LockRequestMessage message =
+        DroneServiceOuterClass.LockRequestMessage.newBuilder()
+            .setRequester(requester.toProto())
+            .setLogicalClock(logicalClock)
+            .build();
+    return toCompletableFuture(
+        getFutureStub(destination).requestLock(message),
+        response -> true,
+        e -> {
+          Log.warn(
+              "Failed to send REQUEST_LOCK to %d due to: %s", destination.getId(), e.getMessage());
+          return false;
+        });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> grantLockAsync(
+      DroneIdentifier destination, int requestLogicalClock, DroneIdentifier sender) {
+    DroneServiceOuterClass.LockGrantMessage message =
+        DroneServiceOuterClass.LockGrantMessage.newBuilder()
+            .setSender(sender.toProto())
+            .setRequestLogicalClock(requestLogicalClock)
+            .build();
+    return toCompletableFuture(
+        getFutureStub(destination).grantLock(message),
+        response -> true,
+        e -> {
+          Log.warn(
+              "Failed to send GRANT_LOCK to %d due to: %s", destination.getId(), e.getMessage());
+          return false;
+        });
+  }
+
   @Override
   public synchronized void shutdown() {
     Log.notice("Shutting down the middleware...");
-    ThreadUtils.spawnThreadForEach(
-        openChannels.entrySet(),
-        (entry) -> {
-          final ManagedChannel channel = entry.getValue();
-          final DroneIdentifier drone = entry.getKey();
-
-          channel.shutdownNow();
-          try {
-            channel.awaitTermination(2, TimeUnit.SECONDS);
-          } catch (InterruptedException e) {
-            Log.warn("Failed to shutdown channel to %s due to: %s", drone, e.getMessage());
-          }
-        });
-    openChannels.clear();
+    channels.shutdown();
     rpcServer.shutdownNow();
   }
 
@@ -323,10 +507,11 @@ public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServi
     DroneIdentifier sender = DroneIdentifier.fromProto(request.getSender());
     CityPoint startingPosition = CityPoint.fromProto(request.getStartingPosition());
     Log.notice("Received a request to join the ring from drone #%d", sender.getId());
+    peerCapabilities.put(sender.getId(), request.getCapabilities());
 
     DroneJoinResponse response = droneServer.onDroneJoin(sender, startingPosition);
 
-    responseObserver.onNext(response.toProto());
+    responseObserver.onNext(response.toProto().toBuilder().setCapabilities(CAPABILITIES).build());
     responseObserver.onCompleted();
   }
 
@@ -384,10 +569,13 @@ public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServi
   public void notifyElectedMessage(
       DroneServiceOuterClass.ElectedMessage request,
       StreamObserver<DroneServiceOuterClass.Empty> responseObserver) {
+    final DroneIdentifier newLeader = DroneIdentifier.fromProto(request.getNewLeader());
+    // Stored before the message is relayed. Older drones in the ring relay it without them
+    if (request.getNewLeaderCapabilities() != 0) {
+      peerCapabilities.put(newLeader.getId(), request.getNewLeaderCapabilities());
+    }
 
-    Context.current()
-        .fork()
-        .run(() -> droneServer.onElectedMessage(DroneIdentifier.fromProto(request.getNewLeader())));
+    Context.current().fork().run(() -> droneServer.onElectedMessage(newLeader));
 
     responseObserver.onNext(empty());
     responseObserver.onCompleted();
@@ -405,9 +593,6 @@ public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServi
   public void requestLock(
       DroneServiceOuterClass.LockRequestMessage request,
       StreamObserver<DroneServiceOuterClass.Empty> responseObserver) {
-    // onLockRequest will block until the lock is available. We have removed the deadline from this
-    // request
-
     droneServer.onLockRequest(
         request.getLogicalClock(), DroneIdentifier.fromProto(request.getRequester()));
 
@@ -415,6 +600,17 @@ public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServi
     responseObserver.onCompleted();
   }
 
+  @Override
+  public void grantLock(
+      DroneServiceOuterClass.LockGrantMessage request,
+      StreamObserver<DroneServiceOuterClass.Empty> responseObserver) {
+    responseObserver.onNext(empty());
+    responseObserver.onCompleted();
+
+    droneServer.onLockGranted(
+        DroneIdentifier.fromProto(request.getSender()), request.getRequestLogicalClock());
+  }
+
   @Override
   public void notifyCompletedCharging(
       DroneServiceOuterClass.DroneIdentifierPacket request,
@@ -425,6 +621,28 @@ public class RpcDroneCommunicationMiddleware extends DroneServiceGrpc.DroneServi
     droneServer.onCompletedChargeMessage(DroneIdentifier.fromProto(request));
   }
 
+  @Override
+  public StreamObserver<DroneServiceOuterClass.TelemetryMessage> streamTelemetry(
+      StreamObserver<DroneServiceOuterClass.Empty> responseObserver) {
+    return new StreamObserver<DroneServiceOuterClass.TelemetryMessage>() {
+      @Override
+      public void onNext(DroneServiceOuterClass.TelemetryMessage message) {
+        droneServer.onTelemetry(TelemetryMessage.fromProto(message));
+        responseObserver.onNext(empty());
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        Log.info("A telemetry stream was closed due to: %s", t.getMessage());
+      }
+
+      @Override
+      public void onCompleted() {
+        responseObserver.onCompleted();
+      }
+    };
+  }
+
   private DroneServiceOuterClass.Empty empty() {
     return DroneServiceOuterClass.Empty.newBuilder().build();
   }
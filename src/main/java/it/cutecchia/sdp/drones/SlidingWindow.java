@@ -1,48 +1,132 @@
 package it.cutecchia.sdp.drones;
 
-import java.util.ArrayList;
-import java.util.List;
 import simulators.Measurement;
 
+/**
+ * Keeps the last <code>windowSize</code> samples in a ring buffer of primitives together with their
+ * running sum. The first window is emitted once <code>windowSize</code> samples arrived, then a new
+ * one every <code>windowOverlap</code> samples. Adding a sample costs O(1) and allocates nothing,
+ * only the summary handed to the callback is allocated, once for each window.
+ */
 public class SlidingWindow {
   public interface OnFullWindowAvailable {
-    void onWindowAvailable(List<Measurement> measurements);
+    void onWindowAvailable(WindowSummary window);
   }
 
+  /** What a full window contained. It is immutable and can be kept after the callback returns */
+  public static final class WindowSummary {
+    private final int size;
+    private final double sum;
+    private final long firstTimestamp, lastTimestamp;
+
+    WindowSummary(int size, double sum, long firstTimestamp, long lastTimestamp) {
+      this.size = size;
+      this.sum = sum;
+      this.firstTimestamp = firstTimestamp;
+      this.lastTimestamp = lastTimestamp;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    public double getSum() {
+      return sum;
+    }
+
+    public double getMean() {
+      return sum / size;
+    }
+
+    /** @return The timestamp of the oldest sample in the window */
+    public long getFirstTimestamp() {
+      return firstTimestamp;
+    }
+
+    /** @return The timestamp of the newest sample in the window */
+    public long getLastTimestamp() {
+      return lastTimestamp;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "<Size=%d, Mean=%f, From=%d, To=%d>", size, getMean(), firstTimestamp, lastTimestamp);
+    }
+  }
+
+  // Adding and subtracting doubles for a long time accumulates rounding errors, so every now and
+  // then the running sum is computed again from the samples
+  private static final int WINDOWS_BETWEEN_SUM_RESYNC = 64;
+
   private final int windowSize, windowOverlap;
   private final OnFullWindowAvailable callback;
 
-  private final List<Measurement> recentMeasurements = new ArrayList<>();
+  private final double[] values;
+  private final long[] timestamps;
+  // Where the next sample will be written, which is also the oldest sample once the buffer is full
+  private int next = 0;
+  private int count = 0;
+  private double runningSum = 0;
+  private int samplesSinceLastWindow = 0;
+  private int windowsSinceResync = 0;
 
   public SlidingWindow(int windowSize, int windowOverlap, OnFullWindowAvailable callback) {
     assert (windowSize > windowOverlap);
     this.windowSize = windowSize;
     this.windowOverlap = windowOverlap;
     this.callback = callback;
+    this.values = new double[windowSize];
+    this.timestamps = new long[windowSize];
   }
 
-  public synchronized void addMeasurement(Measurement measurement) {
-    recentMeasurements.add(measurement);
+  public void addMeasurement(Measurement measurement) {
+    addSample(measurement.getValue(), measurement.getTimestamp());
+  }
 
-    int measurements = recentMeasurements.size();
-    if (measurements < windowSize) {
-      return;
+  public synchronized void addSample(double value, long timestamp) {
+    if (count == windowSize) {
+      runningSum -= values[next];
+    } else {
+      count++;
     }
+    values[next] = value;
+    timestamps[next] = timestamp;
+    runningSum += value;
+    next = (next + 1) % windowSize;
 
-    if (measurements == windowSize) {
-      callback.onWindowAvailable(recentMeasurements);
+    if (count < windowSize) {
       return;
     }
 
-    if (measurements == windowSize + windowOverlap) {
-      for (int i = 0; i < windowOverlap; i++) {
-        recentMeasurements.remove(0);
+    samplesSinceLastWindow++;
+    // The first full window is emitted right away, the next ones every windowOverlap samples
+    if (samplesSinceLastWindow == 1 || samplesSinceLastWindow > windowOverlap) {
+      samplesSinceLastWindow = 1;
+      emitWindow();
+    }
+  }
+
+  private void emitWindow() {
+    if (++windowsSinceResync == WINDOWS_BETWEEN_SUM_RESYNC) {
+      windowsSinceResync = 0;
+      double sum = 0;
+      for (double value : values) {
+        sum += value;
       }
-      callback.onWindowAvailable(recentMeasurements);
+      runningSum = sum;
     }
+
+    final int newest = (next + windowSize - 1) % windowSize;
+    callback.onWindowAvailable(
+        new WindowSummary(windowSize, runningSum, timestamps[next], timestamps[newest]));
   }
 
-  void clear() {
-    recentMeasurements.clear();
+  synchronized void clear() {
+    next = 0;
+    count = 0;
+    runningSum = 0;
+    samplesSinceLastWindow = 0;
+    windowsSinceResync = 0;
   }
 }
@@ -0,0 +1,50 @@
+package it.cutecchia.sdp.drones;
+
+import it.cutecchia.sdp.common.DroneData;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a telemetry stream open towards the current master and pushes this drone's data on it. This
+ * replaces polling the master with a heartbeat: the master gets fresh data from every drone and a
+ * drone notices that the master is gone when its stream breaks.
+ */
+public class TelemetryReporter {
+  private final DroneCommunicationClient client;
+  private final Supplier<DroneData> localData;
+
+  private DroneIdentifier master = null;
+  private DroneCommunicationClient.TelemetryStream stream = null;
+
+  public TelemetryReporter(DroneCommunicationClient client, Supplier<DroneData> localData) {
+    this.client = client;
+    this.localData = localData;
+  }
+
+  /**
+   * Pushes this drone's data to <code>master</code>, opening a new stream if the master changed.
+   *
+   * @return false if the master is unreachable
+   */
+  public synchronized boolean reportTo(DroneIdentifier master) {
+    if (stream == null || !master.equals(this.master)) {
+      close();
+      this.master = master;
+      this.stream = client.openTelemetryStream(master);
+    }
+
+    if (stream.push(localData.get())) {
+      return true;
+    }
+    close();
+    return false;
+  }
+
+  public synchronized void close() {
+    if (stream != null) {
+      stream.close();
+      stream = null;
+      master = null;
+    }
+  }
+}
@@ -2,15 +2,19 @@ package it.cutecchia.sdp.drones.messages;
 
 import it.cutecchia.sdp.common.DroneIdentifier;
 import it.cutecchia.sdp.common.Order;
+import it.cutecchia.sdp.drones.PollutionTracker;
 import it.cutecchia.sdp.drones.grpc.DroneServiceOuterClass;
-import java.util.List;
+import it.cutecchia.sdp.drones.pollution.PollutionSummary;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class CompletedDeliveryMessage {
   private final long timestamp;
   private final DroneIdentifier drone;
   private final Order order;
   private final double travelledKms;
-  private final List<Double> pollution;
+  private final Map<String, PollutionSummary> pollution;
   private final int batteryPercentage;
 
   public CompletedDeliveryMessage(
@@ -18,7 +22,7 @@ public class CompletedDeliveryMessage {
       DroneIdentifier drone,
       Order order,
       double travelledKms,
-      List<Double> pollution,
+      Map<String, PollutionSummary> pollution,
       int batteryPercentage) {
     this.timestamp = timestamp;
     this.drone = drone;
@@ -30,24 +34,55 @@ public class CompletedDeliveryMessage {
 
   public static CompletedDeliveryMessage fromProto(
       DroneServiceOuterClass.CompletedDeliveryMessage proto) {
+    Map<String, PollutionSummary> pollution = new LinkedHashMap<>();
+    proto
+        .getPollutionSummariesMap()
+        .forEach((window, summary) -> pollution.put(window, PollutionSummary.fromProto(summary)));
+    if (pollution.isEmpty() && proto.getPollutionCount() > 0) {
+      // Older drones send the average of each default window
+      PollutionSummary.Accumulator averages = new PollutionSummary.Accumulator();
+      for (int i = 0; i < proto.getPollutionCount(); i++) {
+        averages.add(proto.getPollution(i));
+      }
+      pollution.put(PollutionTracker.DEFAULT_WINDOW, averages.summarizeAndReset());
+    }
+
     return new CompletedDeliveryMessage(
         proto.getTimestamp(),
         DroneIdentifier.fromProto(proto.getSender()),
         Order.fromProto(proto.getCompletedOrder()),
         proto.getTravelledKms(),
-        proto.getPollutionList(),
+        pollution,
         proto.getBatteryPercentage());
   }
 
   public DroneServiceOuterClass.CompletedDeliveryMessage toProto() {
-    return DroneServiceOuterClass.CompletedDeliveryMessage.newBuilder()
-        .setTimestamp(timestamp)
-        .setSender(drone.toProto())
-        .setCompletedOrder(order.toProto())
-        .setTravelledKms(travelledKms)
-        .addAllPollution(pollution)
-        .setBatteryPercentage(batteryPercentage)
-        .build();
+    return toProto(false);
+  }
+
+  /**
+   * @param compact Whether the receiver has the <code>COMPACT_POLLUTION</code> capability, in which
+   *     case the pollution summaries take a fraction of the space. Receivers without it may be
+   *     older drones that only read the averages of the default window, so those are sent too
+   */
+  public DroneServiceOuterClass.CompletedDeliveryMessage toProto(boolean compact) {
+    DroneServiceOuterClass.CompletedDeliveryMessage.Builder builder =
+        DroneServiceOuterClass.CompletedDeliveryMessage.newBuilder()
+            .setTimestamp(timestamp)
+            .setSender(drone.toProto())
+            .setCompletedOrder(order.toProto())
+            .setTravelledKms(travelledKms)
+            .setBatteryPercentage(batteryPercentage);
+    pollution.forEach(
+        (window, summary) -> builder.putPollutionSummaries(window, summary.toProto(compact)));
+    final PollutionSummary averages = pollution.get(PollutionTracker.DEFAULT_WINDOW);
+    if (!compact && averages != null) {
+      // The single averages are not kept, their mean gives an older master the same average
+      for (long i = 0; i < averages.getCount(); i++) {
+        builder.addPollution(averages.getMean());
+      }
+    }
+    return builder.build();
   }
 
   public long getTimestamp() {
@@ -66,8 +101,9 @@ public class CompletedDeliveryMessage {
     return travelledKms;
   }
 
-  public List<Double> getPollutionValues() {
-    return pollution;
+  /** @return The summary of the pollution measured during the delivery, for each window */
+  public Map<String, PollutionSummary> getPollution() {
+    return Collections.unmodifiableMap(pollution);
   }
 
   public int getBatteryPercentage() {
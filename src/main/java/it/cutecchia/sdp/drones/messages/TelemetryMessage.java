@@ -0,0 +1,88 @@
+package it.cutecchia.sdp.drones.messages;
+
+import it.cutecchia.sdp.common.CityPoint;
+import it.cutecchia.sdp.common.DroneData;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.drones.grpc.DroneServiceOuterClass;
+import java.util.Optional;
+
+/**
+ * What changed in a drone's data since its previous telemetry message. A message where nothing
+ * changed only tells the master that the drone is alive.
+ */
+public class TelemetryMessage {
+  private final DroneIdentifier drone;
+  private final CityPoint position;
+  private final Integer batteryPercentage;
+
+  public TelemetryMessage(DroneIdentifier drone, CityPoint position, Integer batteryPercentage) {
+    this.drone = drone;
+    this.position = position;
+    this.batteryPercentage = batteryPercentage;
+  }
+
+  /**
+   * @param previous The data that was sent with the previous message, or null if this is the first
+   *     message
+   */
+  public static TelemetryMessage between(DroneIdentifier drone, DroneData previous, DroneData now) {
+    if (previous == null) {
+      return new TelemetryMessage(drone, now.getPosition(), now.getBatteryPercentage());
+    }
+    return new TelemetryMessage(
+        drone,
+        now.getPosition().equals(previous.getPosition()) ? null : now.getPosition(),
+        now.getBatteryPercentage() == previous.getBatteryPercentage()
+            ? null
+            : now.getBatteryPercentage());
+  }
+
+  public static TelemetryMessage fromProto(DroneServiceOuterClass.TelemetryMessage proto) {
+    return new TelemetryMessage(
+        DroneIdentifier.fromProto(proto.getSender()),
+        proto.hasPosition() ? CityPoint.fromProto(proto.getPosition()) : null,
+        proto.getBatteryCase()
+                == DroneServiceOuterClass.TelemetryMessage.BatteryCase.BATTERY_PERCENTAGE
+            ? proto.getBatteryPercentage()
+            : null);
+  }
+
+  public DroneServiceOuterClass.TelemetryMessage toProto() {
+    DroneServiceOuterClass.TelemetryMessage.Builder builder =
+        DroneServiceOuterClass.TelemetryMessage.newBuilder().setSender(drone.toProto());
+    if (position != null) builder.setPosition(position.toProto());
+    if (batteryPercentage != null) builder.setBatteryPercentage(batteryPercentage);
+    return builder.build();
+  }
+
+  public DroneIdentifier getDrone() {
+    return drone;
+  }
+
+  public Optional<CityPoint> getPosition() {
+    return Optional.ofNullable(position);
+  }
+
+  public Optional<Integer> getBatteryPercentage() {
+    return Optional.ofNullable(batteryPercentage);
+  }
+
+  /**
+   * Applies the changes to what the master knows about the drone. The order and whether the drone
+   * accepts orders are decided by the master, so they are kept.
+   *
+   * @param known The data the master has about the drone, or null if it has none
+   * @return The updated data, or null if the master has no data and this message is not enough
+   */
+  public DroneData applyTo(DroneData known) {
+    if (known == null) {
+      if (position == null || batteryPercentage == null) return null;
+      return new DroneData(position, batteryPercentage);
+    }
+    return new DroneData(
+        getPosition().orElse(known.getPosition()),
+        getBatteryPercentage().orElse(known.getBatteryPercentage()),
+        known.getAssignedOrder(),
+        known.canAcceptOrders());
+  }
+}
@@ -0,0 +1,233 @@
+package it.cutecchia.sdp.drones.pollution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import simulators.Buffer;
+import simulators.Measurement;
+
+/**
+ * A bounded buffer between a sensor and whoever reads its measurements. There must be a single
+ * producer, while readers only need to agree on the order in which they read. Neither side ever
+ * takes a lock: the values live in primitive arrays and the two sides only share the read and write
+ * positions.
+ *
+ * <p>When the buffer is full the {@link OverflowPolicy} decides what is lost. The counters tell how
+ * often that happened, so that the capacity can be sized for the time between two reads.
+ */
+public class MeasurementRingBuffer implements Buffer {
+  public enum OverflowPolicy {
+    /** The oldest measurement is discarded to make room for the new one */
+    DROP_OLDEST,
+    /**
+     * Like {@link #DROP_OLDEST}, but every overflow also halves the rate at which measurements are
+     * kept, until the buffer is half empty again
+     */
+    DOWNSAMPLE,
+    /**
+     * Measurements that don't fit are merged into a single one, their mean, which is written as
+     * soon as there is room. The producer has to {@link #flush()} it once it stops
+     */
+    MERGE;
+
+    public static OverflowPolicy fromName(String name) {
+      return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+  }
+
+  public interface SampleSink {
+    void accept(double value, long timestamp);
+  }
+
+  private static final int MAX_DOWNSAMPLING_STRIDE = 1024;
+
+  private final OverflowPolicy policy;
+  private final int capacity;
+  private final int mask;
+  private final double[] values;
+  private final long[] timestamps;
+  // The position of the next measurement to read. Readers move it forward, and so does the producer
+  // when it drops the oldest measurement: everyone moves it with a compare and set
+  private final AtomicLong head = new AtomicLong();
+  // The position of the next measurement to write, only the producer moves it
+  private final AtomicLong tail = new AtomicLong();
+
+  private final AtomicLong overflows = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong merged = new AtomicLong();
+
+  // Only used by the producer
+  private int stride = 1;
+  private long sequence = 0;
+  private int pendingCount = 0;
+  private double pendingSum = 0;
+  private long pendingTimestamp = 0;
+
+  /** @param capacity How many measurements fit in the buffer, rounded up to a power of two */
+  public MeasurementRingBuffer(int capacity, OverflowPolicy policy) {
+    if (capacity < 1 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid capacity: " + capacity);
+    }
+    this.capacity = roundUp(capacity);
+    this.mask = this.capacity - 1;
+    this.policy = policy;
+    this.values = new double[this.capacity];
+    this.timestamps = new long[this.capacity];
+  }
+
+  private static int roundUp(int capacity) {
+    int power = Integer.highestOneBit(capacity);
+    return power == capacity ? capacity : power << 1;
+  }
+
+  @Override
+  public void addMeasurement(Measurement m) {
+    add(m.getValue(), m.getTimestamp());
+  }
+
+  /** Adds a measurement. Only one thread can call this */
+  public void add(double value, long timestamp) {
+    if (stride > 1 && size() <= capacity / 2) {
+      stride = 1;
+    }
+    if (policy == OverflowPolicy.DOWNSAMPLE && sequence++ % stride != 0) {
+      dropped.incrementAndGet();
+      return;
+    }
+
+    if (!flush()) {
+      merge(value, timestamp);
+      return;
+    }
+
+    if (tryWrite(value, timestamp)) {
+      return;
+    }
+
+    overflows.incrementAndGet();
+    switch (policy) {
+      case DROP_OLDEST:
+        dropOldest();
+        tryWrite(value, timestamp);
+        break;
+      case DOWNSAMPLE:
+        dropOldest();
+        tryWrite(value, timestamp);
+        stride = Math.min(stride * 2, MAX_DOWNSAMPLING_STRIDE);
+        break;
+      case MERGE:
+        merge(value, timestamp);
+        break;
+    }
+  }
+
+  /**
+   * Writes the measurements merged so far, if any. Only the producer can call this, like {@link
+   * #add}, and it has to once it stops adding measurements or they are never read.
+   *
+   * @return false if the buffer is still full: it has to be read before flushing again
+   */
+  public boolean flush() {
+    if (pendingCount == 0) {
+      return true;
+    }
+    if (!tryWrite(pendingSum / pendingCount, pendingTimestamp)) {
+      return false;
+    }
+    pendingCount = 0;
+    pendingSum = 0;
+    return true;
+  }
+
+  private boolean tryWrite(double value, long timestamp) {
+    final long position = tail.get();
+    if (position - head.get() >= capacity) {
+      return false;
+    }
+    final int index = (int) position & mask;
+    values[index] = value;
+    timestamps[index] = timestamp;
+    // Publishes the values written above to the readers
+    tail.lazySet(position + 1);
+    return true;
+  }
+
+  private void dropOldest() {
+    final long oldest = head.get();
+    // If this fails a reader took the oldest measurement, which makes room just as well
+    if (tail.get() - oldest >= capacity && head.compareAndSet(oldest, oldest + 1)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  private void merge(double value, long timestamp) {
+    pendingCount++;
+    pendingSum += value;
+    pendingTimestamp = timestamp;
+    merged.incrementAndGet();
+  }
+
+  /**
+   * Hands every buffered measurement to <code>sink</code>, oldest first.
+   *
+   * @return How many measurements were read
+   */
+  public int drainTo(SampleSink sink) {
+    int drained = 0;
+    while (true) {
+      final long position = head.get();
+      if (position >= tail.get()) {
+        return drained;
+      }
+      final int index = (int) position & mask;
+      final double value = values[index];
+      final long timestamp = timestamps[index];
+      // If the producer dropped this measurement in the meantime, what we read may be overwritten
+      if (head.compareAndSet(position, position + 1)) {
+        sink.accept(value, timestamp);
+        drained++;
+      }
+    }
+  }
+
+  @Override
+  public List<Measurement> readAllAndClean() {
+    List<Measurement> measurements = new ArrayList<>();
+    drainTo((value, timestamp) -> measurements.add(new Measurement("0", "pm10", value, timestamp)));
+    return measurements;
+  }
+
+  public int size() {
+    return (int) Math.max(0, tail.get() - head.get());
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public OverflowPolicy getPolicy() {
+    return policy;
+  }
+
+  /** @return How many measurements arrived when the buffer was full */
+  public long getOverflowCount() {
+    return overflows.get();
+  }
+
+  /** @return How many measurements were lost, either dropped or skipped by downsampling */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /** @return How many measurements were merged into another one */
+  public long getMergedCount() {
+    return merged.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "<Size=%d/%d, Policy=%s, Overflows=%d, Dropped=%d, Merged=%d>",
+        size(), capacity, policy, getOverflowCount(), getDroppedCount(), getMergedCount());
+  }
+}
@@ -0,0 +1,157 @@
+package it.cutecchia.sdp.drones.pollution;
+
+import it.cutecchia.sdp.drones.grpc.DroneServiceOuterClass;
+
+/**
+ * Statistics of a set of pollution values: count, mean, variance, minimum, maximum and approximate
+ * quantiles. Summaries are immutable and can be merged without the values they were built from, so
+ * a drone sends one summary instead of every value and the master merges them as they arrive.
+ */
+public final class PollutionSummary {
+  public static final PollutionSummary EMPTY =
+      new PollutionSummary(0, 0, 0, Double.NaN, Double.NaN, new QuantileSketch());
+
+  private final long count;
+  private final double mean;
+  // The sum of the squared differences from the mean, as in Welford's algorithm
+  private final double m2;
+  private final double min, max;
+  private final QuantileSketch sketch;
+
+  private PollutionSummary(
+      long count, double mean, double m2, double min, double max, QuantileSketch sketch) {
+    this.count = count;
+    this.mean = mean;
+    this.m2 = m2;
+    this.min = min;
+    this.max = max;
+    this.sketch = sketch;
+  }
+
+  /** Builds a summary one value at a time. This class is not thread safe */
+  public static class Accumulator {
+    private long count = 0;
+    private double mean = 0;
+    private double m2 = 0;
+    private double min = Double.NaN, max = Double.NaN;
+    private QuantileSketch sketch = new QuantileSketch();
+
+    public void add(double value) {
+      count++;
+      final double delta = value - mean;
+      mean += delta / count;
+      m2 += delta * (value - mean);
+      min = count == 1 ? value : Math.min(min, value);
+      max = count == 1 ? value : Math.max(max, value);
+      sketch.add(value);
+    }
+
+    /** @return The summary of the values added since the last call */
+    public PollutionSummary summarizeAndReset() {
+      if (count == 0) return EMPTY;
+
+      PollutionSummary summary = new PollutionSummary(count, mean, m2, min, max, sketch);
+      count = 0;
+      mean = 0;
+      m2 = 0;
+      min = Double.NaN;
+      max = Double.NaN;
+      sketch = new QuantileSketch();
+      return summary;
+    }
+  }
+
+  public static PollutionSummary of(Iterable<Double> values) {
+    Accumulator accumulator = new Accumulator();
+    values.forEach(accumulator::add);
+    return accumulator.summarizeAndReset();
+  }
+
+  /**
+   * The cost does not depend on how many values the summaries describe: the quantile sketches have
+   * a bounded number of buckets.
+   *
+   * @return The summary of the values of both summaries
+   */
+  public PollutionSummary merge(PollutionSummary other) {
+    if (other.count == 0) return this;
+    if (count == 0) return other;
+
+    final long total = count + other.count;
+    final double delta = other.mean - mean;
+    final QuantileSketch mergedSketch = sketch.copy();
+    mergedSketch.merge(other.sketch);
+    return new PollutionSummary(
+        total,
+        mean + delta * other.count / total,
+        m2 + other.m2 + delta * delta * count * other.count / total,
+        Math.min(min, other.min),
+        Math.max(max, other.max),
+        mergedSketch);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public boolean isEmpty() {
+    return count == 0;
+  }
+
+  /** @return The mean, or NaN if the summary is empty */
+  public double getMean() {
+    return count == 0 ? Double.NaN : mean;
+  }
+
+  /** @return The population variance, or NaN if the summary is empty */
+  public double getVariance() {
+    return count == 0 ? Double.NaN : m2 / count;
+  }
+
+  public double getMin() {
+    return min;
+  }
+
+  public double getMax() {
+    return max;
+  }
+
+  /** @see QuantileSketch#getQuantile(double) */
+  public double getQuantile(double q) {
+    return sketch.getQuantile(q);
+  }
+
+  public static PollutionSummary fromProto(DroneServiceOuterClass.PollutionSummaryPacket proto) {
+    if (proto.getCount() == 0) return EMPTY;
+    return new PollutionSummary(
+        proto.getCount(),
+        proto.getMean(),
+        proto.getM2(),
+        proto.getMin(),
+        proto.getMax(),
+        QuantileSketch.fromProto(proto.getSketch()));
+  }
+
+  public DroneServiceOuterClass.PollutionSummaryPacket toProto() {
+    return toProto(false);
+  }
+
+  /** @see QuantileSketch#toProto(boolean) */
+  public DroneServiceOuterClass.PollutionSummaryPacket toProto(boolean compact) {
+    return DroneServiceOuterClass.PollutionSummaryPacket.newBuilder()
+        .setCount(count)
+        .setMean(mean)
+        .setM2(m2)
+        .setMin(min)
+        .setMax(max)
+        .setSketch(sketch.toProto(compact))
+        .build();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "<Count=%d, Mean=%f, Variance=%f, Min=%f, Max=%f, Median=%f, P95=%f>",
+        count, getMean(), getVariance(), min, max, getQuantile(0.5), getQuantile(0.95));
+  }
+}
@@ -0,0 +1,240 @@
+package it.cutecchia.sdp.drones.pollution;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import it.cutecchia.sdp.drones.grpc.DroneServiceOuterClass;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Approximate quantiles of a stream of non-negative values, in the style of DDSketch. Values are
+ * counted in buckets whose bounds grow geometrically, so every quantile is returned with a relative
+ * error of at most <code>relativeAccuracy</code>. The number of buckets only depends on the range
+ * of the values, not on how many there are, and two sketches are merged by adding their buckets.
+ * This class is not thread safe.
+ */
+public final class QuantileSketch {
+  public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+  // Smaller values, including zero and negative ones, are all counted in a single bucket
+  private static final double MIN_INDEXABLE_VALUE = 1e-9;
+  // With more buckets than this the lowest ones are merged, so only the lowest quantiles lose
+  // accuracy. At 1% accuracy this covers values across 17 orders of magnitude
+  static final int MAX_BUCKETS = 2048;
+  private static final long[] NO_BUCKETS = new long[0];
+
+  private final double relativeAccuracy;
+  private final double gamma;
+  private final double logGamma;
+  // buckets[i] counts the values in the bucket with index offset + i
+  private long[] buckets = NO_BUCKETS;
+  private int offset = 0;
+  private long zeroCount = 0;
+  private long count = 0;
+
+  public QuantileSketch() {
+    this(DEFAULT_RELATIVE_ACCURACY);
+  }
+
+  public QuantileSketch(double relativeAccuracy) {
+    if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+      throw new IllegalArgumentException("The relative accuracy must be between 0 and 1");
+    }
+    this.relativeAccuracy = relativeAccuracy;
+    this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+    this.logGamma = Math.log(gamma);
+  }
+
+  public void add(double value) {
+    if (value < MIN_INDEXABLE_VALUE) {
+      zeroCount++;
+    } else {
+      addToBucket((int) Math.ceil(Math.log(value) / logGamma), 1);
+    }
+    count++;
+  }
+
+  private void addToBucket(int index, long bucketCount) {
+    includeBuckets(index, index);
+    buckets[Math.max(index, offset) - offset] += bucketCount;
+  }
+
+  /** Grows the buckets so that they go at least from <code>low</code> to <code>high</code> */
+  private void includeBuckets(int low, int high) {
+    final int currentHigh = offset + buckets.length - 1;
+    if (buckets.length > 0 && low >= offset && high <= currentHigh) {
+      return;
+    }
+
+    final int newHigh = buckets.length == 0 ? high : Math.max(high, currentHigh);
+    int newLow = buckets.length == 0 ? low : Math.min(low, offset);
+    newLow = Math.max(newLow, newHigh - MAX_BUCKETS + 1);
+    final long[] grown = new long[newHigh - newLow + 1];
+    for (int i = 0; i < buckets.length; i++) {
+      grown[Math.max(offset + i, newLow) - newLow] += buckets[i];
+    }
+    buckets = grown;
+    offset = newLow;
+  }
+
+  /** Adds every value counted by <code>other</code> to this sketch */
+  public void merge(QuantileSketch other) {
+    if (other.relativeAccuracy != relativeAccuracy) {
+      throw new IllegalArgumentException("Only sketches with the same accuracy can be merged");
+    }
+    if (other.buckets.length > 0) {
+      includeBuckets(other.offset, other.offset + other.buckets.length - 1);
+      for (int i = 0; i < other.buckets.length; i++) {
+        buckets[Math.max(other.offset + i, offset) - offset] += other.buckets[i];
+      }
+    }
+    zeroCount += other.zeroCount;
+    count += other.count;
+  }
+
+  public QuantileSketch copy() {
+    QuantileSketch copy = new QuantileSketch(relativeAccuracy);
+    copy.buckets = buckets.length == 0 ? NO_BUCKETS : buckets.clone();
+    copy.offset = offset;
+    copy.zeroCount = zeroCount;
+    copy.count = count;
+    return copy;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public double getRelativeAccuracy() {
+    return relativeAccuracy;
+  }
+
+  /**
+   * @param q The quantile, between 0 and 1
+   * @return The approximate value of the quantile, or NaN if the sketch is empty
+   */
+  public double getQuantile(double q) {
+    if (q < 0 || q > 1) {
+      throw new IllegalArgumentException("The quantile must be between 0 and 1");
+    }
+    if (count == 0) {
+      return Double.NaN;
+    }
+
+    final double rank = q * (count - 1);
+    long seen = zeroCount;
+    if (seen > rank) {
+      return 0;
+    }
+    for (int i = 0; i < buckets.length; i++) {
+      seen += buckets[i];
+      if (seen > rank) {
+        return bucketValue(offset + i);
+      }
+    }
+    return bucketValue(offset + buckets.length - 1);
+  }
+
+  /** @return The value in the middle of the bucket, relatively speaking */
+  private double bucketValue(int index) {
+    return 2 * Math.pow(gamma, index) / (gamma + 1);
+  }
+
+  /** @return How many buckets are in use, which is what the sketch costs to store and send */
+  public int getBucketCount() {
+    int used = 0;
+    for (long bucketCount : buckets) {
+      if (bucketCount > 0) used++;
+    }
+    return used;
+  }
+
+  public static QuantileSketch fromProto(DroneServiceOuterClass.QuantileSketchPacket proto) {
+    QuantileSketch sketch = new QuantileSketch(proto.getRelativeAccuracy());
+    if (!proto.getPackedBuckets().isEmpty()) {
+      sketch.unpackBuckets(proto.getPackedBuckets());
+    } else {
+      proto.getBucketsMap().forEach(sketch::addToBucket);
+    }
+    sketch.zeroCount = proto.getZeroCount();
+    sketch.count = proto.getZeroCount();
+    for (long bucketCount : sketch.buckets) {
+      sketch.count += bucketCount;
+    }
+    return sketch;
+  }
+
+  public DroneServiceOuterClass.QuantileSketchPacket toProto() {
+    return toProto(false);
+  }
+
+  /**
+   * @param compact Whether to send the buckets in <code>packed_buckets</code>, which only drones
+   *     with the <code>COMPACT_POLLUTION</code> capability can read
+   */
+  public DroneServiceOuterClass.QuantileSketchPacket toProto(boolean compact) {
+    DroneServiceOuterClass.QuantileSketchPacket.Builder builder =
+        DroneServiceOuterClass.QuantileSketchPacket.newBuilder()
+            .setRelativeAccuracy(relativeAccuracy)
+            .setZeroCount(zeroCount);
+    if (compact) {
+      builder.setPackedBuckets(packBuckets());
+    } else {
+      for (int i = 0; i < buckets.length; i++) {
+        if (buckets[i] > 0) builder.putBuckets(offset + i, buckets[i]);
+      }
+    }
+    return builder.build();
+  }
+
+  private ByteString packBuckets() {
+    if (buckets.length == 0) {
+      return ByteString.EMPTY;
+    }
+
+    ByteString.Output bytes = ByteString.newOutput(buckets.length + 8);
+    CodedOutputStream output = CodedOutputStream.newInstance(bytes, buckets.length + 8);
+    try {
+      output.writeSInt32NoTag(offset);
+      int i = 0;
+      while (i < buckets.length) {
+        output.writeUInt64NoTag(buckets[i]);
+        if (buckets[i++] == 0) {
+          final int emptyStart = i;
+          while (i < buckets.length && buckets[i] == 0) i++;
+          output.writeUInt32NoTag(i - emptyStart);
+        }
+      }
+      output.flush();
+    } catch (IOException e) {
+      // ByteString.Output never fails
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteString();
+  }
+
+  private void unpackBuckets(ByteString packed) {
+    try {
+      CodedInputStream input = packed.newCodedInput();
+      final int low = input.readSInt32();
+      long[] unpacked = new long[Math.min(packed.size(), MAX_BUCKETS)];
+      int length = 0;
+      while (!input.isAtEnd()) {
+        final long bucketCount = input.readUInt64();
+        final int skipped = bucketCount == 0 ? input.readUInt32() : 0;
+        if (skipped < 0 || length + 1L + skipped > MAX_BUCKETS) {
+          throw new IllegalArgumentException("Too many buckets in a packed quantile sketch");
+        }
+        if (length + 1 + skipped > unpacked.length) {
+          unpacked = Arrays.copyOf(unpacked, Math.min(2 * (length + 1 + skipped), MAX_BUCKETS));
+        }
+        unpacked[length] = bucketCount;
+        length += 1 + skipped;
+      }
+      buckets = length == unpacked.length ? unpacked : Arrays.copyOf(unpacked, length);
+      offset = low;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Malformed packed quantile sketch", e);
+    }
+  }
+}
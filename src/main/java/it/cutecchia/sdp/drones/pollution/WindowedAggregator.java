@@ -0,0 +1,64 @@
+package it.cutecchia.sdp.drones.pollution;
+
+import it.cutecchia.sdp.drones.SlidingWindow;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Averages a stream of samples over sliding windows of its own size and overlap, and summarizes the
+ * averages it produced. A window of size 1 with no overlap summarizes the raw samples.
+ */
+public class WindowedAggregator implements SlidingWindow.OnFullWindowAvailable {
+  private final String name;
+  private final SlidingWindow window;
+  private final PollutionSummary.Accumulator accumulator = new PollutionSummary.Accumulator();
+
+  public WindowedAggregator(int windowSize, int windowOverlap) {
+    if (windowSize < 1 || windowOverlap < 0 || windowOverlap >= windowSize) {
+      throw new IllegalArgumentException(
+          String.format("Invalid window of size %d and overlap %d", windowSize, windowOverlap));
+    }
+    this.name = windowSize + ":" + windowOverlap;
+    this.window = new SlidingWindow(windowSize, windowOverlap, this);
+  }
+
+  /**
+   * @param spec A comma separated list of windows, each one written as <code>size:overlap</code>,
+   *     for example <code>8:4,1:0</code>
+   */
+  public static List<WindowedAggregator> fromSpec(String spec) {
+    List<WindowedAggregator> aggregators = new ArrayList<>();
+    for (String window : spec.split(",")) {
+      String[] parts = window.trim().split(":");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Invalid window: " + window);
+      }
+      aggregators.add(
+          new WindowedAggregator(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])));
+    }
+    return aggregators;
+  }
+
+  /** @return The name of the window, <code>size:overlap</code> */
+  public String getName() {
+    return name;
+  }
+
+  public void addSample(double value, long timestamp) {
+    window.addSample(value, timestamp);
+  }
+
+  @Override
+  public void onWindowAvailable(SlidingWindow.WindowSummary summary) {
+    synchronized (accumulator) {
+      accumulator.add(summary.getMean());
+    }
+  }
+
+  /** @return The summary of the window averages produced since the previous call */
+  public PollutionSummary summarizeAndReset() {
+    synchronized (accumulator) {
+      return accumulator.summarizeAndReset();
+    }
+  }
+}
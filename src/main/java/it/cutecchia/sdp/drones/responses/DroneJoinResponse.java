@@ -6,15 +6,27 @@ import it.cutecchia.sdp.drones.grpc.DroneServiceOuterClass;
 public class DroneJoinResponse {
   private final DroneIdentifier identifier;
   private final boolean isMaster;
+  private final DroneIdentifier knownMaster;
 
   public DroneJoinResponse(DroneIdentifier identifier, boolean isMaster) {
+    this(identifier, isMaster, null);
+  }
+
+  /** @param knownMaster The master the responding drone knows about, null if it knows none */
+  public DroneJoinResponse(
+      DroneIdentifier identifier, boolean isMaster, DroneIdentifier knownMaster) {
     this.identifier = identifier;
     this.isMaster = isMaster;
+    this.knownMaster = knownMaster;
   }
 
   public static DroneJoinResponse fromProto(DroneServiceOuterClass.DroneJoinResponse protoMessage) {
     return new DroneJoinResponse(
-        DroneIdentifier.fromProto(protoMessage.getSender()), protoMessage.getIsMaster());
+        DroneIdentifier.fromProto(protoMessage.getSender()),
+        protoMessage.getIsMaster(),
+        protoMessage.hasKnownMaster()
+            ? DroneIdentifier.fromProto(protoMessage.getKnownMaster())
+            : null);
   }
 
   public DroneIdentifier getIdentifier() {
@@ -25,16 +37,26 @@ public class DroneJoinResponse {
     return isMaster;
   }
 
+  /** @return The master the responding drone knows about, null if it knows none */
+  public DroneIdentifier getKnownMaster() {
+    return knownMaster;
+  }
+
   public DroneServiceOuterClass.DroneJoinResponse toProto() {
-    return DroneServiceOuterClass.DroneJoinResponse.newBuilder()
-        .setIsMaster(isMaster())
-        .setSender(identifier.toProto())
-        .build();
+    DroneServiceOuterClass.DroneJoinResponse.Builder builder =
+        DroneServiceOuterClass.DroneJoinResponse.newBuilder()
+            .setIsMaster(isMaster())
+            .setSender(identifier.toProto());
+    if (knownMaster != null) {
+      builder.setKnownMaster(knownMaster.toProto());
+    }
+    return builder.build();
   }
 
   @Override
   public String toString() {
     return String.format(
-        "<DroneJoinResponse: Identifier=%s, isMaster=%b>", identifier.toString(), isMaster());
+        "<DroneJoinResponse: Identifier=%s, isMaster=%b, knownMaster=%s>",
+        identifier.toString(), isMaster(), knownMaster);
   }
 }
@@ -3,6 +3,7 @@ package it.cutecchia.sdp.drones.states;
 import it.cutecchia.sdp.common.DroneIdentifier;
 import it.cutecchia.sdp.common.Log;
 import it.cutecchia.sdp.drones.messages.CompletedDeliveryMessage;
+import it.cutecchia.sdp.drones.messages.TelemetryMessage;
 
 public interface DroneState {
   void start();
@@ -19,6 +20,10 @@ public interface DroneState {
     Log.warn("Only the master should receive COMPLETED_CHARGE");
   }
 
+  default void onTelemetry(TelemetryMessage message) {
+    Log.warn("Only the master should receive telemetry");
+  }
+
   default void printStats() {}
 
   void afterCompletingAnOrder();
@@ -4,12 +4,22 @@ import it.cutecchia.sdp.admin.server.AdminServerClient;
 import it.cutecchia.sdp.common.*;
 import it.cutecchia.sdp.drones.*;
 import it.cutecchia.sdp.drones.messages.CompletedDeliveryMessage;
+import it.cutecchia.sdp.drones.messages.TelemetryMessage;
 import it.cutecchia.sdp.drones.store.DroneStore;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class RingMasterState implements DroneState, OrderSource.OrderListener {
+  // Set to "min-distance" to assign the pending orders in batches minimizing the total distance
+  private static final String ASSIGNMENT_STRATEGY_PROPERTY = "dronazon.assignment";
+  private static final long MIN_DISTANCE_TIME_BUDGET_MILLIS = 50;
+  // Past this many pending orders the order source is paused until half of them are assigned
+  private static final String PENDING_ORDERS_CAPACITY_PROPERTY = "dronazon.pending-orders";
+  private static final int DEFAULT_PENDING_ORDERS_CAPACITY = 10_000;
+
   private final Drone drone;
-  private final DroneCommunicationClient communicationClient;
+  private final AsyncDroneCommunicationClient communicationClient;
   private final DroneStore store;
   private final OrderSource orderSource;
   private final OrderAssigner orderAssigner;
@@ -20,7 +30,7 @@ public class RingMasterState implements DroneState, OrderSource.OrderListener {
   public RingMasterState(
       Drone drone,
       DroneStore store,
-      DroneCommunicationClient communicationClient,
+      AsyncDroneCommunicationClient communicationClient,
       AdminServerClient client,
       OrderSource orderSource,
       ElectionManager electionManager) {
@@ -28,12 +38,42 @@ public class RingMasterState implements DroneState, OrderSource.OrderListener {
     this.communicationClient = communicationClient;
     this.store = store;
     this.orderSource = orderSource;
-    this.orderAssigner = new OrderAssigner(store, communicationClient);
+    this.orderAssigner =
+        new OrderAssigner(
+            store,
+            communicationClient,
+            createAssignmentStrategy(store),
+            createPendingOrderQueue(orderSource));
     this.statsTracker = new FleetStatsTracker(store, client);
     this.adminServerClient = client;
     this.electionManager = electionManager;
   }
 
+  private static AssignmentStrategy createAssignmentStrategy(DroneStore store) {
+    final AssignmentStrategy greedy = new GreedyAssignmentStrategy(store);
+    if ("min-distance".equals(System.getProperty(ASSIGNMENT_STRATEGY_PROPERTY))) {
+      return new MinimumDistanceAssignmentStrategy(
+          store, greedy, MIN_DISTANCE_TIME_BUDGET_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    return greedy;
+  }
+
+  private static PendingOrderQueue createPendingOrderQueue(OrderSource orderSource) {
+    return new PendingOrderQueue(
+        Integer.getInteger(PENDING_ORDERS_CAPACITY_PROPERTY, DEFAULT_PENDING_ORDERS_CAPACITY),
+        new PendingOrderQueue.BackpressureListener() {
+          @Override
+          public void onSaturated() {
+            orderSource.pause();
+          }
+
+          @Override
+          public void onDrained() {
+            orderSource.resume();
+          }
+        });
+  }
+
   @Override
   public void onOrderReceived(Order order) {
     Log.info("Received order %s", order);
@@ -52,27 +92,21 @@ public class RingMasterState implements DroneState, OrderSource.OrderListener {
         message.getDrone(),
         new DroneData(message.getOrder().getDeliveryPoint(), message.getBatteryPercentage()));
     orderAssigner.notifyOrderCompleted(message.getOrder());
-    statsTracker.handleCompletedDeliveryStats(
-        message.getPollutionValues(), message.getTravelledKms());
+    statsTracker.handleCompletedDeliveryStats(message.getPollution(), message.getTravelledKms());
   }
 
   @Override
   public void start() {
     Log.notice("Master is requesting data from every other drone");
-    ThreadUtils.spawnThreadForEach(
-        store.getAllDroneIdentifiers(),
-        (destination) -> {
-          Optional<DroneData> data = communicationClient.requestData(destination);
-          Log.info(
-              "requestData from %s -> %s",
-              destination,
-              data.map(droneData -> "success, " + droneData.toString()).orElse("failed"));
-          if (data.isPresent()) {
-            store.handleDroneUpdateData(destination, data.get());
-          } else {
-            store.signalFailedCommunicationWithDrone(destination);
-          }
-        });
+    CompletableFuture<?>[] requests =
+        store.getAllDroneIdentifiers().stream()
+            .map(
+                destination ->
+                    communicationClient
+                        .requestDataAsync(destination)
+                        .thenAccept(data -> onDataResponse(destination, data)))
+            .toArray(CompletableFuture[]::new);
+    CompletableFuture.allOf(requests).join();
     statsTracker.start();
     /*
      * Cheap fix: If we started the orderSource before sending the requestData then what could
@@ -85,6 +119,17 @@ public class RingMasterState implements DroneState, OrderSource.OrderListener {
     orderSource.start(this);
   }
 
+  private void onDataResponse(DroneIdentifier destination, Optional<DroneData> data) {
+    Log.info(
+        "requestData from %s -> %s",
+        destination, data.map(droneData -> "success, " + droneData.toString()).orElse("failed"));
+    if (data.isPresent()) {
+      store.handleDroneUpdateData(destination, data.get());
+    } else {
+      store.signalFailedCommunicationWithDrone(destination);
+    }
+  }
+
   @Override
   public void teardown() {
     throw new IllegalStateException(
@@ -123,6 +168,7 @@ public class RingMasterState implements DroneState, OrderSource.OrderListener {
                           communicationClient.shutdown();
                         }
 
+                        orderAssigner.shutdown();
                         statsTracker.sendStatsAndShutdown();
                         adminServerClient.requestDroneExit(drone.getIdentifier());
                         System.exit(0);
@@ -134,6 +180,13 @@ public class RingMasterState implements DroneState, OrderSource.OrderListener {
         });
   }
 
+  @Override
+  public void onTelemetry(TelemetryMessage message) {
+    if (!store.updateDroneData(message.getDrone(), message::applyTo)) {
+      Log.warn("Received telemetry from drone #%d which is not known", message.getDrone().getId());
+    }
+  }
+
   @Override
   public void onCompletedChargeMessage(DroneIdentifier sender) {
     store.signalDroneCompletedCharging(sender);
@@ -2,19 +2,27 @@ package it.cutecchia.sdp.drones.states;
 
 import it.cutecchia.sdp.admin.server.AdminServerClient;
 import it.cutecchia.sdp.common.*;
+import it.cutecchia.sdp.drones.AsyncDroneCommunicationClient;
 import it.cutecchia.sdp.drones.Drone;
-import it.cutecchia.sdp.drones.DroneCommunicationClient;
 import it.cutecchia.sdp.drones.ElectionManager;
 import it.cutecchia.sdp.drones.responses.DroneJoinResponse;
 import it.cutecchia.sdp.drones.store.DroneStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 
 public class RingSlaveState implements DroneState {
+  // "all" notifies every drone of the join, instead of the neighbours in the ring and the master
+  private static final String JOIN_PROPERTY = "dronazon.membership.join";
+
   private final Drone drone;
   private final DroneStore store;
-  private final DroneCommunicationClient droneClient;
+  private final AsyncDroneCommunicationClient droneClient;
   private final AdminServerClient adminClient;
   private final ElectionManager electionManager;
   private boolean shutdownInitiated = false;
@@ -22,7 +30,7 @@ public class RingSlaveState implements DroneState {
   public RingSlaveState(
       Drone drone,
       DroneStore store,
-      DroneCommunicationClient droneClient,
+      AsyncDroneCommunicationClient droneClient,
       AdminServerClient adminClient,
       ElectionManager electionManager) {
     this.drone = drone;
@@ -34,32 +42,72 @@ public class RingSlaveState implements DroneState {
 
   @Override
   public void start() {
-    CityPoint startingPosition = drone.getLocalData().getPosition();
-
-    Set<DroneIdentifier> drones = new TreeSet<>(store.getAllDroneIdentifiers());
-    ThreadUtils.spawnThreadForEach(
-        drones,
-        (destination) -> {
-          if (destination.equals(drone.getIdentifier())) {
-            store.addDrone(destination);
-            return;
-          }
-
-          Optional<DroneJoinResponse> response =
-              droneClient.notifyDroneJoin(destination, startingPosition);
-          if (!response.isPresent()) {
-            store.signalFailedCommunicationWithDrone(destination);
-            return;
-          }
-
-          Log.info(
-              "notifyDroneJoin from #%d -> #%d success. %s",
-              drone.getIdentifier().getId(), destination.getId(), response.get());
-          store.addDrone(destination);
-          if (response.get().isMaster()) {
-            store.setKnownMaster(destination);
-          }
-        });
+    final DroneIdentifier self = drone.getIdentifier();
+    store.addDrone(self);
+
+    final Set<DroneIdentifier> others = new TreeSet<>(store.getAllDroneIdentifiers());
+    others.remove(self);
+    if ("all".equals(System.getProperty(JOIN_PROPERTY))) {
+      notifyJoin(others);
+      return;
+    }
+
+    // The neighbours in the ring first: they pass us the election messages, and one of them is
+    // likely to know the master. The other drones learn about us from the membership feed
+    final Set<DroneIdentifier> contacted = new TreeSet<>();
+    contacted.add(store.getNextDroneInElectionRing(self));
+    contacted.add(getPreviousDroneInRing(self));
+    notifyJoin(contacted);
+
+    final DroneIdentifier master = store.getKnownMaster();
+    if (master != null) {
+      if (!contacted.contains(master)) {
+        notifyJoin(Collections.singleton(master));
+      }
+      if (store.getKnownMaster() != null) return;
+    }
+
+    Log.notice("No drone told us who the master is, notifying every drone of the join");
+    others.removeAll(contacted);
+    if (master != null) others.remove(master);
+    notifyJoin(others);
+  }
+
+  private DroneIdentifier getPreviousDroneInRing(DroneIdentifier identifier) {
+    final NavigableSet<DroneIdentifier> ring = new TreeSet<>(store.getAllDroneIdentifiers());
+    final DroneIdentifier previous = ring.lower(identifier);
+    return previous != null ? previous : ring.last();
+  }
+
+  private void notifyJoin(Set<DroneIdentifier> destinations) {
+    final CityPoint startingPosition = drone.getLocalData().getPosition();
+
+    List<CompletableFuture<Void>> joins = new ArrayList<>();
+    for (DroneIdentifier destination : destinations) {
+      joins.add(
+          droneClient
+              .notifyDroneJoinAsync(destination, startingPosition)
+              .thenAccept(response -> onJoinResponse(destination, response)));
+    }
+    CompletableFuture.allOf(joins.toArray(new CompletableFuture[0])).join();
+  }
+
+  private void onJoinResponse(DroneIdentifier destination, Optional<DroneJoinResponse> response) {
+    if (!response.isPresent()) {
+      store.signalFailedCommunicationWithDrone(destination);
+      return;
+    }
+
+    Log.info(
+        "notifyDroneJoin from #%d -> #%d success. %s",
+        drone.getIdentifier().getId(), destination.getId(), response.get());
+    store.addDrone(destination);
+    if (response.get().isMaster()) {
+      store.setKnownMaster(destination);
+    } else if (response.get().getKnownMaster() != null && store.getKnownMaster() == null) {
+      store.addDroneIfAbsent(response.get().getKnownMaster());
+      store.setKnownMaster(response.get().getKnownMaster());
+    }
   }
 
   @Override
@@ -38,7 +38,10 @@ public class StartupState implements DroneState {
   public void start() {
     try {
       DroneEnterResponse response = client.requestDroneToEnter(drone.getIdentifier());
-      drone.onAdminServerAcceptance(response.getNewlyAddedDronePosition(), response.getAllDrones());
+      drone.onAdminServerAcceptance(
+          response.getNewlyAddedDronePosition(),
+          response.getAllDrones(),
+          response.getMembershipVersion());
     } catch (AdminServerClient.DroneIdAlreadyInUse e) {
       Log.userMessage(
           "Drone id #%d is already in use on the server", drone.getIdentifier().getId());
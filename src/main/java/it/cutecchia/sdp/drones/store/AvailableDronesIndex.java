@@ -0,0 +1,173 @@
+package it.cutecchia.sdp.drones.store;
+
+import it.cutecchia.sdp.common.CityPoint;
+import it.cutecchia.sdp.common.DroneData;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import java.util.*;
+
+/**
+ * A grid over the city that records where the drones available for deliveries are. Every cell
+ * covers <code>cellSize</code> x <code>cellSize</code> points, so finding the closest drone to a
+ * point only visits the cells around it instead of every drone in the fleet. This class is not
+ * thread safe: the store that owns it is expected to guard it.
+ *
+ * <p>{@link #freeze()} returns a copy that never changes, which can be read by any thread without
+ * locking. The copy shares the cells with this index, and a shared cell is copied only when this
+ * index changes it.
+ */
+class AvailableDronesIndex {
+  private final int cellSize;
+  private final int columns, rows;
+  private final List<Map<DroneIdentifier, DroneData>> cells;
+  // The cells that a frozen copy also uses, which must be copied before they are changed
+  private final boolean[] shared;
+  // Null in frozen copies, which can't be changed
+  private final Map<DroneIdentifier, Integer> cellOfDrone;
+  private final int frozenSize;
+
+  AvailableDronesIndex(int cityWidth, int cityHeight, int cellSize) {
+    assert cellSize > 0;
+    this.cellSize = cellSize;
+    this.columns = (cityWidth + cellSize - 1) / cellSize;
+    this.rows = (cityHeight + cellSize - 1) / cellSize;
+    this.cells = new ArrayList<>(columns * rows);
+    for (int i = 0; i < columns * rows; i++) {
+      cells.add(new HashMap<>());
+    }
+    this.shared = new boolean[columns * rows];
+    this.cellOfDrone = new HashMap<>();
+    this.frozenSize = 0;
+  }
+
+  private AvailableDronesIndex(AvailableDronesIndex index) {
+    this.cellSize = index.cellSize;
+    this.columns = index.columns;
+    this.rows = index.rows;
+    this.cells = new ArrayList<>(index.cells);
+    this.shared = null;
+    this.cellOfDrone = null;
+    this.frozenSize = index.size();
+  }
+
+  /** @return A copy of the index as it is now, which can be read without locking */
+  AvailableDronesIndex freeze() {
+    assert cellOfDrone != null;
+    Arrays.fill(shared, true);
+    return new AvailableDronesIndex(this);
+  }
+
+  private Map<DroneIdentifier, DroneData> writableCell(int cell) {
+    if (shared[cell]) {
+      cells.set(cell, new HashMap<>(cells.get(cell)));
+      shared[cell] = false;
+    }
+    return cells.get(cell);
+  }
+
+  /**
+   * Records the latest data of a drone. The drone is indexed only if the data says it can take new
+   * orders, otherwise it is removed from the index.
+   */
+  void update(DroneIdentifier drone, DroneData data) {
+    assert cellOfDrone != null : "A frozen index can't be changed";
+    remove(drone);
+    if (data == null || !data.isAvailableForDeliveries()) {
+      return;
+    }
+
+    int cell = cellIndex(data.getPosition().x / cellSize, data.getPosition().y / cellSize);
+    writableCell(cell).put(drone, data);
+    cellOfDrone.put(drone, cell);
+  }
+
+  void remove(DroneIdentifier drone) {
+    assert cellOfDrone != null : "A frozen index can't be changed";
+    Integer cell = cellOfDrone.remove(drone);
+    if (cell != null) {
+      writableCell(cell).remove(drone);
+    }
+  }
+
+  int size() {
+    return cellOfDrone != null ? cellOfDrone.size() : frozenSize;
+  }
+
+  Map<DroneIdentifier, DroneData> snapshot() {
+    Map<DroneIdentifier, DroneData> snapshot = new HashMap<>();
+    for (Map<DroneIdentifier, DroneData> cell : cells) {
+      snapshot.putAll(cell);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Finds the closest indexed drone to <code>point</code>. Among drones at the same distance the
+   * one with the highest battery wins, then the one with the highest id.
+   *
+   * @param point Where the drone should go
+   * @param excluded Drones that must be ignored even if they are indexed
+   * @return The best drone, or empty if there is no drone that is not excluded
+   */
+  Optional<DroneIdentifier> findClosest(CityPoint point, Set<DroneIdentifier> excluded) {
+    final int column = point.x / cellSize;
+    final int row = point.y / cellSize;
+    final int lastRing =
+        Math.max(Math.max(column, columns - 1 - column), Math.max(row, rows - 1 - row));
+
+    DroneIdentifier best = null;
+    DroneData bestData = null;
+    double bestDistance = Double.POSITIVE_INFINITY;
+
+    for (int ring = 0; ring <= lastRing; ring++) {
+      // Every point in a cell that is 'ring' cells away is at least (ring - 1) * cellSize + 1
+      // points away, so once we have something closer than that no further cell can do better
+      if (best != null && bestDistance <= (ring - 1) * cellSize) {
+        break;
+      }
+
+      for (int dy = -ring; dy <= ring; dy++) {
+        int step = (Math.abs(dy) == ring) ? 1 : 2 * ring;
+        for (int dx = -ring; dx <= ring; dx += step) {
+          int x = column + dx, y = row + dy;
+          if (x < 0 || y < 0 || x >= columns || y >= rows) continue;
+
+          for (Map.Entry<DroneIdentifier, DroneData> entry :
+              cells.get(cellIndex(x, y)).entrySet()) {
+            DroneIdentifier candidate = entry.getKey();
+            if (excluded.contains(candidate)) continue;
+
+            DroneData data = entry.getValue();
+            double distance = point.distanceTo(data.getPosition());
+            if (best == null || isBetter(candidate, data, distance, best, bestData, bestDistance)) {
+              best = candidate;
+              bestData = data;
+              bestDistance = distance;
+            }
+          }
+        }
+      }
+    }
+
+    return Optional.ofNullable(best);
+  }
+
+  private static boolean isBetter(
+      DroneIdentifier candidate,
+      DroneData candidateData,
+      double candidateDistance,
+      DroneIdentifier best,
+      DroneData bestData,
+      double bestDistance) {
+    if (candidateDistance != bestDistance) {
+      return candidateDistance < bestDistance;
+    }
+    if (candidateData.getBatteryPercentage() != bestData.getBatteryPercentage()) {
+      return candidateData.getBatteryPercentage() > bestData.getBatteryPercentage();
+    }
+    return candidate.getId() > best.getId();
+  }
+
+  private int cellIndex(int column, int row) {
+    return row * columns + column;
+  }
+}
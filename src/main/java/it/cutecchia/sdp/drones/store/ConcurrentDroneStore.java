@@ -0,0 +1,252 @@
+package it.cutecchia.sdp.drones.store;
+
+import it.cutecchia.sdp.common.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+import javax.annotation.Nonnull;
+
+/**
+ * A {@link DroneStore} where readers never wait for writers. The data of each drone lives in a
+ * concurrent map and is replaced atomically, while the sorted set of identifiers is an immutable
+ * snapshot that is rebuilt only when a drone joins or leaves: asking for every identifier, or for
+ * the next drone in the ring, doesn't copy anything. The spatial index of the available drones is
+ * published the same way: after every update readers get a frozen copy, which shares the cells that
+ * the update did not touch.
+ */
+public class ConcurrentDroneStore implements DroneStore {
+  private static final int INDEX_CELL_SIZE = 2;
+
+  /** The drones in the store at some point in time. Every change of membership has its version */
+  public static class Membership {
+    private final long version;
+    private final NavigableSet<DroneIdentifier> identifiers;
+
+    private Membership(long version, NavigableSet<DroneIdentifier> identifiers) {
+      this.version = version;
+      this.identifiers = Collections.unmodifiableNavigableSet(identifiers);
+    }
+
+    public long getVersion() {
+      return version;
+    }
+
+    public NavigableSet<DroneIdentifier> getIdentifiers() {
+      return identifiers;
+    }
+  }
+
+  // ConcurrentHashMap does not allow null values and a drone can be known before its data is
+  private static class Entry {
+    final DroneData data;
+
+    Entry(DroneData data) {
+      this.data = data;
+    }
+  }
+
+  private final ConcurrentHashMap<DroneIdentifier, Entry> drones = new ConcurrentHashMap<>();
+  // Guarded by itself and only used by writers. It is updated while 'drones' holds the lock on the
+  // drone's bin, so the updates of a drone reach the index in the same order as they reach the map
+  private final AvailableDronesIndex availableDrones =
+      new AvailableDronesIndex(CityPoint.CITY_WIDTH, CityPoint.CITY_HEIGHT, INDEX_CELL_SIZE);
+  // What readers look at, a frozen copy of 'availableDrones' replaced after every update
+  private volatile AvailableDronesIndex availableDronesSnapshot = availableDrones.freeze();
+  private final Object membershipLock = new Object();
+  private volatile Membership membership = new Membership(0, new TreeSet<>());
+  private final AtomicReference<DroneIdentifier> knownMaster = new AtomicReference<>();
+
+  public Membership getMembership() {
+    return membership;
+  }
+
+  @Override
+  public Set<DroneIdentifier> getAllDroneIdentifiers() {
+    return membership.getIdentifiers();
+  }
+
+  @Override
+  public void addDrone(DroneIdentifier identifier, DroneData data) {
+    putDroneData(identifier, data);
+  }
+
+  @Override
+  public boolean addDroneIfAbsent(DroneIdentifier identifier) {
+    final boolean[] isNew = {false};
+    drones.computeIfAbsent(
+        identifier,
+        id -> {
+          isNew[0] = true;
+          updateIndex(id, null);
+          return new Entry(null);
+        });
+    if (isNew[0]) {
+      rebuildMembership();
+    }
+    return isNew[0];
+  }
+
+  @Override
+  public void handleDroneUpdateData(DroneIdentifier identifier, DroneData data) {
+    if (putDroneData(identifier, data)) {
+      Log.warn(
+          "Inserting data for drone #%d but drone was not recorded before%n", identifier.getId());
+    }
+  }
+
+  /** @return true if the drone was not in the store before */
+  private boolean putDroneData(DroneIdentifier identifier, DroneData data) {
+    final boolean[] isNew = {false};
+    drones.compute(
+        identifier,
+        (id, old) -> {
+          isNew[0] = old == null;
+          updateIndex(id, data);
+          return new Entry(data);
+        });
+    if (isNew[0]) {
+      rebuildMembership();
+    }
+    return isNew[0];
+  }
+
+  @Override
+  public boolean updateDroneData(DroneIdentifier identifier, UnaryOperator<DroneData> update) {
+    return drones.computeIfPresent(
+            identifier,
+            (id, old) -> {
+              DroneData data = update.apply(old.data);
+              if (data == null) return old;
+              updateIndex(id, data);
+              return new Entry(data);
+            })
+        != null;
+  }
+
+  private void updateIndex(DroneIdentifier identifier, DroneData data) {
+    synchronized (availableDrones) {
+      availableDrones.update(identifier, data);
+      availableDronesSnapshot = availableDrones.freeze();
+    }
+  }
+
+  private void rebuildMembership() {
+    synchronized (membershipLock) {
+      membership = new Membership(membership.getVersion() + 1, new TreeSet<>(drones.keySet()));
+    }
+  }
+
+  @Override
+  public Optional<DroneData> getDroneData(DroneIdentifier identifier) {
+    Entry entry = drones.get(identifier);
+    return entry == null ? Optional.empty() : Optional.ofNullable(entry.data);
+  }
+
+  @Override
+  public Optional<DroneIdentifier> findClosestAvailableDrone(
+      CityPoint point, Set<DroneIdentifier> excluded) {
+    return availableDronesSnapshot.findClosest(point, excluded);
+  }
+
+  @Override
+  public Map<DroneIdentifier, DroneData> getAvailableDrones() {
+    return availableDronesSnapshot.snapshot();
+  }
+
+  @Override
+  public DroneIdentifier getNextDroneInElectionRing(DroneIdentifier identifier) {
+    NavigableSet<DroneIdentifier> ring = membership.getIdentifiers();
+    assert !ring.isEmpty();
+
+    DroneIdentifier next = ring.higher(identifier);
+    return next != null ? next : ring.first();
+  }
+
+  @Override
+  public void signalFailedCommunicationWithDrone(DroneIdentifier drone) {
+    Log.info("Master store was signalled that drone %s is not reachable.", drone);
+    removeDrone(drone);
+  }
+
+  @Override
+  public void removeDrone(DroneIdentifier drone) {
+    final boolean[] removed = {false};
+    drones.computeIfPresent(
+        drone,
+        (id, old) -> {
+          removed[0] = true;
+          synchronized (availableDrones) {
+            availableDrones.remove(id);
+            availableDronesSnapshot = availableDrones.freeze();
+          }
+          return null;
+        });
+    if (removed[0]) {
+      rebuildMembership();
+    }
+    knownMaster.compareAndSet(drone, null);
+  }
+
+  @Override
+  public void signalDroneWasAssignedOrder(@Nonnull DroneIdentifier drone, @Nonnull Order order) {
+    boolean updated =
+        updateDroneData(
+            drone,
+            old -> {
+              assert old != null;
+              assert old.getAssignedOrder() == null;
+              return old.withOrder(order);
+            });
+    if (!updated) {
+      Log.warn("Drone #%d was assigned an order but it is not in the store", drone.getId());
+    }
+  }
+
+  @Override
+  public void signalDroneIsRecharging(DroneIdentifier drone) {
+    boolean updated =
+        updateDroneData(
+            drone,
+            old -> {
+              assert old != null;
+              assert old.canAcceptOrders();
+              return old.refuseOrders();
+            });
+    if (!updated) {
+      Log.warn("Drone #%d is recharging but it is not in the store", drone.getId());
+    }
+  }
+
+  @Override
+  public void signalDroneCompletedCharging(DroneIdentifier drone) {
+    final boolean[] isNew = {false};
+    drones.compute(
+        drone,
+        (id, old) -> {
+          isNew[0] = old == null;
+          DroneData data =
+              new DroneData(
+                  new CityPoint(0, 0),
+                  100,
+                  old == null || old.data == null ? null : old.data.getAssignedOrder(),
+                  true);
+          updateIndex(id, data);
+          return new Entry(data);
+        });
+    if (isNew[0]) {
+      rebuildMembership();
+    }
+  }
+
+  @Override
+  public void setKnownMaster(DroneIdentifier drone) {
+    assert drones.containsKey(drone);
+    knownMaster.set(drone);
+  }
+
+  @Override
+  public DroneIdentifier getKnownMaster() {
+    return knownMaster.get();
+  }
+}
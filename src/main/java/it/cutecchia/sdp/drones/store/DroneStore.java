@@ -1,10 +1,13 @@
 package it.cutecchia.sdp.drones.store;
 
+import it.cutecchia.sdp.common.CityPoint;
 import it.cutecchia.sdp.common.DroneData;
 import it.cutecchia.sdp.common.DroneIdentifier;
 import it.cutecchia.sdp.common.Order;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.UnaryOperator;
 
 public interface DroneStore {
   Set<DroneIdentifier> getAllDroneIdentifiers();
@@ -15,10 +18,45 @@ public interface DroneStore {
 
   void addDrone(DroneIdentifier identifier, DroneData startingData);
 
+  /**
+   * Adds a drone without data, keeping the data it already has if it is in the store
+   *
+   * @return true if the drone was not in the store before
+   */
+  boolean addDroneIfAbsent(DroneIdentifier identifier);
+
+  /** Removes a drone that left the fleet, forgetting it as the master if it was */
+  void removeDrone(DroneIdentifier drone);
+
   void handleDroneUpdateData(DroneIdentifier identifier, DroneData data);
 
   Optional<DroneData> getDroneData(DroneIdentifier identifier);
 
+  /**
+   * Atomically replaces the data of a drone with a function of its current data. Nothing else can
+   * change the drone's data in between.
+   *
+   * @param update Receives the current data, which is null if the drone has none yet. If it returns
+   *     null the data is left as it is
+   * @return false if the drone is not in the store
+   */
+  boolean updateDroneData(DroneIdentifier identifier, UnaryOperator<DroneData> update);
+
+  /**
+   * Find the drone that should deliver an order that starts at <code>point</code>: the closest one
+   * that is available for deliveries. When more drones are at the same distance the one with the
+   * highest battery is chosen, then the one with the highest id.
+   *
+   * @param point The point the drone should reach
+   * @param excluded Drones that must not be chosen even if they are available
+   * @return The chosen drone, or empty if no drone is available
+   */
+  Optional<DroneIdentifier> findClosestAvailableDrone(
+      CityPoint point, Set<DroneIdentifier> excluded);
+
+  /** @return A snapshot of the drones that are available for deliveries and their data */
+  Map<DroneIdentifier, DroneData> getAvailableDrones();
+
   DroneIdentifier getNextDroneInElectionRing(DroneIdentifier identifier);
 
   void signalFailedCommunicationWithDrone(DroneIdentifier drone);
@@ -2,10 +2,19 @@ package it.cutecchia.sdp.drones.store;
 
 import it.cutecchia.sdp.common.*;
 import java.util.*;
+import java.util.function.UnaryOperator;
 import javax.annotation.Nonnull;
 
 public class InMemoryDroneStore implements DroneStore {
+  private static final int INDEX_CELL_SIZE = 2;
+
   private final Map<DroneIdentifier, DroneData> drones = new HashMap<>();
+  // The identifiers in 'drones' sorted by id, kept up to date on every add and remove so that
+  // finding the next drone in the ring doesn't need to sort them again. Guarded by 'drones'
+  private final TreeSet<DroneIdentifier> ring = new TreeSet<>();
+  // Guarded by 'drones' like the map itself, every write to the map must update it
+  private final AvailableDronesIndex availableDrones =
+      new AvailableDronesIndex(CityPoint.CITY_WIDTH, CityPoint.CITY_HEIGHT, INDEX_CELL_SIZE);
   private DroneIdentifier knownMaster = null;
 
   public InMemoryDroneStore() {}
@@ -13,35 +22,56 @@ public class InMemoryDroneStore implements DroneStore {
   @Override
   public Set<DroneIdentifier> getAllDroneIdentifiers() {
     synchronized (drones) {
-      return new TreeSet<>(drones.keySet());
+      return new TreeSet<>(ring);
     }
   }
 
   @Override
   public void addDrone(DroneIdentifier identifier, DroneData data) {
     synchronized (drones) {
-      drones.put(identifier, data);
+      putDroneData(identifier, data);
     }
   }
 
   @Override
-  public DroneIdentifier getNextDroneInElectionRing(DroneIdentifier identifier) {
-    assert drones.keySet().size() > 0;
+  public boolean addDroneIfAbsent(DroneIdentifier identifier) {
+    synchronized (drones) {
+      if (drones.containsKey(identifier)) return false;
+
+      putDroneData(identifier, null);
+      return true;
+    }
+  }
+
+  private void putDroneData(DroneIdentifier identifier, DroneData data) {
+    drones.put(identifier, data);
+    ring.add(identifier);
+    availableDrones.update(identifier, data);
+  }
 
-    Set<DroneIdentifier> drones = getAllDroneIdentifiers();
-    if (drones.size() == 1) {
-      return drones.stream().findFirst().get();
+  @Override
+  public Optional<DroneIdentifier> findClosestAvailableDrone(
+      CityPoint point, Set<DroneIdentifier> excluded) {
+    synchronized (drones) {
+      return availableDrones.findClosest(point, excluded);
     }
+  }
 
-    Optional<DroneIdentifier> firstNextIdentifier =
-        drones.parallelStream()
-            .filter(id -> id.getId() > identifier.getId())
-            .min(DroneIdentifier::compareTo);
-    if (firstNextIdentifier.isPresent()) {
-      return firstNextIdentifier.get();
+  @Override
+  public Map<DroneIdentifier, DroneData> getAvailableDrones() {
+    synchronized (drones) {
+      return availableDrones.snapshot();
     }
+  }
 
-    return drones.parallelStream().min(DroneIdentifier::compareTo).get();
+  @Override
+  public DroneIdentifier getNextDroneInElectionRing(DroneIdentifier identifier) {
+    synchronized (drones) {
+      assert !ring.isEmpty();
+
+      DroneIdentifier next = ring.higher(identifier);
+      return next != null ? next : ring.first();
+    }
   }
 
   @Override
@@ -51,7 +81,18 @@ public class InMemoryDroneStore implements DroneStore {
         Log.warn(
             "Inserting data for drone #%d but drone was not recorded before%n", identifier.getId());
       }
-      drones.put(identifier, data);
+      putDroneData(identifier, data);
+    }
+  }
+
+  @Override
+  public boolean updateDroneData(DroneIdentifier identifier, UnaryOperator<DroneData> update) {
+    synchronized (drones) {
+      if (!drones.containsKey(identifier)) return false;
+
+      DroneData data = update.apply(drones.get(identifier));
+      if (data != null) putDroneData(identifier, data);
+      return true;
     }
   }
 
@@ -63,10 +104,17 @@ public class InMemoryDroneStore implements DroneStore {
   }
 
   @Override
-  public synchronized void signalFailedCommunicationWithDrone(DroneIdentifier drone) {
+  public void signalFailedCommunicationWithDrone(DroneIdentifier drone) {
     Log.info("Master store was signalled that drone %s is not reachable.", drone);
+    removeDrone(drone);
+  }
+
+  @Override
+  public synchronized void removeDrone(DroneIdentifier drone) {
     synchronized (drones) {
       drones.remove(drone);
+      ring.remove(drone);
+      availableDrones.remove(drone);
       if (drone.equals(knownMaster)) {
         knownMaster = null;
       }
@@ -99,7 +147,7 @@ public class InMemoryDroneStore implements DroneStore {
             getDroneData(drone).map(DroneData::getAssignedOrder).orElse(null),
             true);
     synchronized (drones) {
-      drones.put(drone, data);
+      putDroneData(drone, data);
     }
   }
 
@@ -0,0 +1,127 @@
+package it.cutecchia.sdp.admin.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+import it.cutecchia.sdp.admin.server.messages.DroneEnterResponse;
+import it.cutecchia.sdp.admin.server.messages.MembershipChange;
+import it.cutecchia.sdp.admin.server.messages.MembershipChangesResponse;
+import it.cutecchia.sdp.admin.server.stores.InMemoryDronesStore;
+import it.cutecchia.sdp.admin.server.stores.RollupStatisticsStore;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.common.FleetStats;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AdminHttpServerTest {
+  private static final String HOST = "localhost";
+  private AdminHttpServer server;
+
+  @BeforeEach
+  public void startServer() throws IOException {
+    InMemoryDronesStore.getInstance().clear();
+    server = new AdminHttpServer(HOST, 0, 4, 128);
+    server.start();
+  }
+
+  @AfterEach
+  public void stopServer() {
+    server.stop(0);
+    InMemoryDronesStore.getInstance().clear();
+  }
+
+  @Test
+  public void dronesCanJoinAtTheSameTime() throws Exception {
+    final int drones = 100;
+    ExecutorService pool = Executors.newFixedThreadPool(16);
+    List<Future<?>> joins = new ArrayList<>();
+    for (int i = 0; i < drones; i++) {
+      final int id = i;
+      joins.add(
+          pool.submit(
+              () ->
+                  new AdminServerClient(HOST, server.getPort())
+                      .requestDroneToEnter(new DroneIdentifier(id, HOST, 10000 + id))));
+    }
+    for (Future<?> join : joins) {
+      join.get();
+    }
+    pool.shutdown();
+
+    AdminServerClient client = new AdminServerClient(HOST, server.getPort());
+    assertThat(client.getRegisteredDrones()).hasSize(drones);
+    assertThatThrownBy(() -> client.requestDroneToEnter(new DroneIdentifier(7, HOST, 1)))
+        .isInstanceOf(AdminServerClient.DroneIdAlreadyInUse.class);
+
+    client.requestDroneExit(new DroneIdentifier(7, HOST, 10007));
+    assertThat(client.getRegisteredDrones()).hasSize(drones - 1);
+  }
+
+  @Test
+  public void statsCanBeSentAndRead() {
+    AdminServerClient client = new AdminServerClient(HOST, server.getPort());
+    final long timestamp = System.currentTimeMillis();
+    client.sendFleetStats(new FleetStats(timestamp, 3, 12.5, 40, 80));
+
+    List<FleetStats> stats = client.getRecentStats(1);
+    assertThat(stats).hasSize(1);
+    assertThat(stats.get(0).getTimestamp()).isEqualTo(timestamp);
+    assertThat(client.getAverageDeliveriesBetweenTimestamps(timestamp, timestamp)).isEqualTo(3);
+  }
+
+  @Test
+  public void longRangesAreStreamedInOrder() {
+    // Long ago, so that they are not mixed with the stats of the other tests. More than three of
+    // the pages that the server reads from the store
+    final int howMany = 3 * 1024 + 5;
+    for (int i = 1; i <= howMany; i++) {
+      RollupStatisticsStore.getInstance().addStatistic(new FleetStats(i, i % 10, i, 40, 80));
+    }
+
+    AdminServerClient client = new AdminServerClient(HOST, server.getPort());
+    long expected = 1;
+    try (AdminServerClient.StatsStream stream = client.streamStatsBetweenTimestamps(1, howMany)) {
+      while (stream.hasNext()) {
+        assertThat(stream.next().getTimestamp()).isEqualTo(expected++);
+      }
+    }
+    assertThat(expected).isEqualTo(howMany + 1);
+
+    try (AdminServerClient.StatsStream stream = client.streamStatsBetweenTimestamps(-10, 0)) {
+      assertThat(stream.hasNext()).isFalse();
+    }
+  }
+
+  @Test
+  public void membershipChangesSinceAVersion() throws Exception {
+    AdminServerClient client = new AdminServerClient(HOST, server.getPort());
+    DroneIdentifier first = new DroneIdentifier(1, HOST, 10001);
+    DroneIdentifier second = new DroneIdentifier(2, HOST, 10002);
+
+    DroneEnterResponse joined = client.requestDroneToEnter(first);
+    assertThat(joined.getAllDrones()).containsExactly(first);
+    final long version = joined.getMembershipVersion();
+
+    client.requestDroneToEnter(second);
+    client.requestDroneExit(first);
+
+    MembershipChangesResponse changes = client.getMembershipChangesSince(version);
+    assertThat(changes.getAllDrones()).isNull();
+    assertThat(changes.getVersion()).isEqualTo(version + 2);
+    assertThat(changes.getChanges())
+        .extracting(MembershipChange::getType, MembershipChange::getDrone)
+        .containsExactly(
+            tuple(MembershipChange.Type.JOINED, second), tuple(MembershipChange.Type.LEFT, first));
+
+    assertThat(client.getMembershipChangesSince(changes.getVersion()).getChanges()).isEmpty();
+    assertThat(client.getMembershipChangesSince(-1).getAllDrones()).containsExactly(second);
+  }
+}
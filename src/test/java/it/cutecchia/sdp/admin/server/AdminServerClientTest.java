@@ -0,0 +1,104 @@
+package it.cutecchia.sdp.admin.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import it.cutecchia.sdp.common.FleetStats;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class AdminServerClientTest {
+  private static final String HOST = "localhost";
+
+  @Test
+  public void asyncStatsArriveInOrder() throws Exception {
+    AdminHttpServer server = new AdminHttpServer(HOST, 0, 4, 128);
+    server.start();
+    try (AdminServerClient client = new AdminServerClient(HOST, server.getPort())) {
+      // Far from the timestamps used by the other tests
+      final long first = 1_000_000;
+      final int howMany = 50;
+      List<Future<?>> sent = new ArrayList<>();
+      for (int i = 0; i < howMany; i++) {
+        sent.add(client.sendFleetStatsAsync(new FleetStats(first + i, 1, 2, 3, 4)));
+      }
+      for (Future<?> future : sent) {
+        future.get(10, TimeUnit.SECONDS);
+      }
+
+      long expected = first;
+      try (AdminServerClient.StatsStream stream =
+          client.streamStatsBetweenTimestamps(first, first + howMany)) {
+        while (stream.hasNext()) {
+          assertThat(stream.next().getTimestamp()).isEqualTo(expected++);
+        }
+      }
+      assertThat(expected).isEqualTo(first + howMany);
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void asyncStatsDoNotWaitForAnUnreachableServer() throws IOException {
+    final int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+
+    try (AdminServerClient client = new AdminServerClient(HOST, port)) {
+      Future<?> sent = client.sendFleetStatsAsync(new FleetStats(1, 1, 2, 3, 4));
+      assertThatThrownBy(() -> sent.get(10, TimeUnit.SECONDS))
+          .isInstanceOf(ExecutionException.class);
+    }
+  }
+
+  @Test
+  public void droppedStatsAreCancelled() throws Exception {
+    // Accepts the connections but never answers, so the first stats keep the sender busy
+    System.setProperty(AdminServerClient.READ_TIMEOUT_PROPERTY, "1000");
+    try (ServerSocket socket = new ServerSocket(0)) {
+      List<Future<?>> sent = new ArrayList<>();
+      try (AdminServerClient client = new AdminServerClient(HOST, socket.getLocalPort())) {
+        for (int i = 0; i < 66; i++) {
+          sent.add(client.sendFleetStatsAsync(new FleetStats(i, 1, 2, 3, 4)));
+        }
+
+        // The first is being sent, then the queue overflowed by one
+        assertThat(sent.get(0)).isNotCancelled();
+        assertThat(sent.get(1)).isCancelled();
+        assertThat(sent.get(2)).isNotDone();
+        assertThat(sent.get(65)).isNotDone();
+      }
+      assertThat(sent.subList(1, sent.size())).allMatch(Future::isCancelled);
+      // The sender was not left waiting for the server
+      assertThatThrownBy(() -> sent.get(0).get(10, TimeUnit.SECONDS))
+          .isInstanceOf(ExecutionException.class);
+    } finally {
+      System.clearProperty(AdminServerClient.READ_TIMEOUT_PROPERTY);
+    }
+  }
+
+  @Test
+  public void statsSenderRecoversFromAHungServer() throws IOException {
+    System.setProperty(AdminServerClient.READ_TIMEOUT_PROPERTY, "200");
+    try (ServerSocket socket = new ServerSocket(0);
+        AdminServerClient client = new AdminServerClient(HOST, socket.getLocalPort())) {
+      Future<?> first = client.sendFleetStatsAsync(new FleetStats(1, 1, 2, 3, 4));
+      Future<?> second = client.sendFleetStatsAsync(new FleetStats(2, 1, 2, 3, 4));
+
+      assertThatThrownBy(() -> first.get(10, TimeUnit.SECONDS))
+          .isInstanceOf(ExecutionException.class);
+      assertThatThrownBy(() -> second.get(10, TimeUnit.SECONDS))
+          .isInstanceOf(ExecutionException.class);
+    } finally {
+      System.clearProperty(AdminServerClient.READ_TIMEOUT_PROPERTY);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package it.cutecchia.sdp.admin.server.stores;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import it.cutecchia.sdp.common.FleetStats;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class BucketedStatisticsStoreTest {
+  private static FleetStats statsAt(long timestamp, double deliveries) {
+    return new FleetStats(timestamp, deliveries, deliveries * 2, 50, 80);
+  }
+
+  @Test
+  public void returnsTheMostRecentStatsInOrder() {
+    BucketedStatisticsStore store = new BucketedStatisticsStore(100);
+    for (long t = 10; t > 0; t--) {
+      store.addStatistic(statsAt(t * 10, t));
+    }
+
+    assertThat(store.getMostRecentStats(3))
+        .extracting(FleetStats::getTimestamp)
+        .containsExactly(80L, 90L, 100L);
+    assertThat(store.getMostRecentStats(20)).hasSize(10);
+    assertThat(store.getMostRecentStats(0)).isEmpty();
+
+    assertThat(store.getOldestOfMostRecent(3)).isEqualTo(80L);
+    assertThat(store.getOldestOfMostRecent(20)).isEqualTo(10L);
+    assertThat(store.getOldestOfMostRecent(0)).isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test
+  public void rangesCanBeReadAPageAtATime() {
+    BucketedStatisticsStore store = new BucketedStatisticsStore(100);
+    for (long t = 1; t <= 10; t++) {
+      store.addStatistic(statsAt(t * 10, t));
+    }
+
+    assertThat(store.getStatsBetween(25, 1000, 3))
+        .extracting(FleetStats::getTimestamp)
+        .containsExactly(30L, 40L, 50L);
+    assertThat(store.getStatsBetween(51, 75, 3))
+        .extracting(FleetStats::getTimestamp)
+        .containsExactly(60L, 70L);
+    assertThat(store.getStatsBetween(0, 1000, 0)).isEmpty();
+    assertThat(store.getStatsBetween(50, 10, 3)).isEmpty();
+  }
+
+  @Test
+  public void aggregatesAreLikeAveragingEveryStatInTheRange() {
+    Random random = new Random(5);
+    BucketedStatisticsStore bucketed = new BucketedStatisticsStore(1000);
+    InMemoryStatisticsStore plain = new InMemoryStatisticsStore();
+    for (long t = 0; t < 100_000; t += 1 + random.nextInt(20)) {
+      FleetStats stats = statsAt(t, random.nextInt(10));
+      bucketed.addStatistic(stats);
+      plain.addStatistic(stats);
+    }
+
+    for (int i = 0; i < 1000; i++) {
+      long t1 = random.nextInt(110_000) - 5000;
+      long t2 = t1 + (i % 10 == 0 ? random.nextInt(2000) : random.nextInt(50_000));
+      StatsAggregate expected = StatsAggregate.of(plain.getStatsBetween(t1, t2));
+      StatsAggregate actual = bucketed.aggregateBetween(t1, t2);
+
+      assertThat(actual.getCount()).isEqualTo(expected.getCount());
+      assertThat(actual.getAverageDeliveries())
+          .isCloseTo(expected.getAverageDeliveries(), within(1e-9));
+      assertThat(actual.getAverageKmTravelled())
+          .isCloseTo(expected.getAverageKmTravelled(), within(1e-9));
+      assertThat(bucketed.getStatsBetween(t1, t2)).hasSize((int) expected.getCount());
+    }
+  }
+
+  @Test
+  public void rangesOnBucketBoundariesIncludeBothEnds() {
+    BucketedStatisticsStore store = new BucketedStatisticsStore(100);
+    for (long t = 0; t <= 1000; t += 50) {
+      store.addStatistic(statsAt(t, 1));
+    }
+
+    assertThat(store.aggregateBetween(100, 300).getCount()).isEqualTo(5);
+    assertThat(store.aggregateBetween(100, 299).getCount()).isEqualTo(4);
+    assertThat(store.aggregateBetween(Long.MIN_VALUE, Long.MAX_VALUE).getCount()).isEqualTo(21);
+    assertThat(store.aggregateBetween(2000, 3000)).isSameAs(StatsAggregate.EMPTY);
+    assertThat(store.aggregateBetween(300, 100).getAverageDeliveries()).isZero();
+  }
+}
@@ -0,0 +1,155 @@
+package it.cutecchia.sdp.admin.server.stores;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import it.cutecchia.sdp.common.FleetStats;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LogStatisticsStoreTest {
+  private static final long TEN_SECONDS = TimeUnit.SECONDS.toMillis(10);
+
+  @TempDir Path directory;
+
+  private static FleetStats statsAt(long timestamp, Random random) {
+    return new FleetStats(
+        timestamp, random.nextInt(10), 20 * random.nextDouble(), 50, 20 + random.nextInt(80));
+  }
+
+  private static void assertSameAggregate(StatsAggregate actual, StatsAggregate expected) {
+    assertThat(actual.getCount()).isEqualTo(expected.getCount());
+    assertThat(actual.getAverageDeliveries())
+        .isCloseTo(expected.getAverageDeliveries(), within(1e-9));
+    assertThat(actual.getAverageKmTravelled())
+        .isCloseTo(expected.getAverageKmTravelled(), within(1e-9));
+    assertThat(actual.getAverageBatteryLevel())
+        .isCloseTo(expected.getAverageBatteryLevel(), within(1e-9));
+  }
+
+  private List<Path> segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  public void statsSurviveARestart() throws IOException {
+    Random random = new Random(1);
+    BucketedStatisticsStore expected = new BucketedStatisticsStore();
+    try (LogStatisticsStore store = new LogStatisticsStore(directory, 100, Long.MAX_VALUE)) {
+      for (int i = 1; i <= 1000; i++) {
+        FleetStats stats = statsAt(i * TEN_SECONDS, random);
+        store.addStatistic(stats);
+        expected.addStatistic(stats);
+      }
+      assertThat(store.getSegmentCount()).isEqualTo(10);
+    }
+
+    try (LogStatisticsStore store = new LogStatisticsStore(directory, 100, Long.MAX_VALUE)) {
+      assertThat(store.getSegmentCount()).isEqualTo(10);
+      for (int i = 0; i < 200; i++) {
+        long t1 = random.nextInt(1100) * TEN_SECONDS - 5000;
+        long t2 = t1 + random.nextInt(300) * TEN_SECONDS;
+        assertThat(store.getStatsBetween(t1, t2))
+            .usingElementComparatorOnFields(
+                "timestamp", "averageDeliveries", "averageKmTravelled", "averageBatteryLevel")
+            .containsExactlyElementsOf(expected.getStatsBetween(t1, t2));
+        assertSameAggregate(store.aggregateBetween(t1, t2), expected.aggregateBetween(t1, t2));
+        assertThat(store.getStatsBetween(t1, t2, 40))
+            .extracting(FleetStats::getTimestamp)
+            .containsExactlyElementsOf(
+                expected.getStatsBetween(t1, t2, 40).stream()
+                    .map(FleetStats::getTimestamp)
+                    .collect(Collectors.toList()));
+      }
+      for (int howMany : new int[] {0, 1, 99, 100, 101, 150, 1000, 2000}) {
+        assertThat(store.getOldestOfMostRecent(howMany))
+            .isEqualTo(expected.getOldestOfMostRecent(howMany));
+      }
+      assertThat(store.getMostRecentStats(150))
+          .extracting(FleetStats::getTimestamp)
+          .containsExactlyElementsOf(
+              expected.getMostRecentStats(150).stream()
+                  .map(FleetStats::getTimestamp)
+                  .collect(Collectors.toList()));
+
+      // New stats go after the old ones
+      store.addStatistic(statsAt(1001 * TEN_SECONDS, random));
+      assertThat(store.getMostRecentStats(1).get(0).getTimestamp()).isEqualTo(1001 * TEN_SECONDS);
+      assertThat(store.getSegmentCount()).isEqualTo(11);
+    }
+  }
+
+  @Test
+  public void aHalfWrittenRecordIsDiscarded() throws IOException {
+    Random random = new Random(2);
+    try (LogStatisticsStore store = new LogStatisticsStore(directory)) {
+      for (int i = 1; i <= 10; i++) {
+        store.addStatistic(statsAt(i * TEN_SECONDS, random));
+      }
+    }
+    Files.write(segmentFiles().get(0), new byte[] {1, 2, 3}, StandardOpenOption.APPEND);
+
+    try (LogStatisticsStore store = new LogStatisticsStore(directory)) {
+      assertThat(store.getStatsBetween(Long.MIN_VALUE, Long.MAX_VALUE)).hasSize(10);
+      store.addStatistic(statsAt(11 * TEN_SECONDS, random));
+      assertThat(store.getStatsBetween(Long.MIN_VALUE, Long.MAX_VALUE)).hasSize(11);
+    }
+    assertThat(Files.size(segmentFiles().get(0))).isEqualTo(11L * LogStatisticsStore.RECORD_SIZE);
+  }
+
+  @Test
+  public void olderStatsAreDiscarded() throws IOException {
+    Random random = new Random(3);
+    try (LogStatisticsStore store = new LogStatisticsStore(directory)) {
+      store.addStatistic(statsAt(2 * TEN_SECONDS, random));
+      store.addStatistic(statsAt(TEN_SECONDS, random));
+      store.addStatistic(statsAt(2 * TEN_SECONDS, random));
+
+      assertThat(store.getMostRecentStats(10)).hasSize(1);
+    }
+  }
+
+  @Test
+  public void compactionKeepsTheAverages() throws IOException {
+    Random random = new Random(4);
+    BucketedStatisticsStore expected = new BucketedStatisticsStore();
+    try (LogStatisticsStore store =
+        new LogStatisticsStore(directory, 100, TimeUnit.HOURS.toMillis(1))) {
+      for (int i = 1; i <= 2000; i++) {
+        FleetStats stats = statsAt(i * TEN_SECONDS, random);
+        store.addStatistic(stats);
+        expected.addStatistic(stats);
+      }
+
+      // Each segment covers 1000 seconds, those that ended more than an hour ago are compacted
+      assertThat(store.getCompactedSegmentCount()).isBetween(14, 17);
+      assertThat(store.getStatsBetween(0, TEN_SECONDS * 100)).hasSize(100 / 6 + 1);
+      assertSameAggregate(
+          store.aggregateBetween(Long.MIN_VALUE, Long.MAX_VALUE),
+          expected.aggregateBetween(Long.MIN_VALUE, Long.MAX_VALUE));
+      // Ranges made of whole minutes are not affected by the compaction
+      final long minute = TimeUnit.MINUTES.toMillis(1);
+      assertSameAggregate(
+          store.aggregateBetween(10 * minute, 100 * minute - 1),
+          expected.aggregateBetween(10 * minute, 100 * minute - 1));
+    }
+
+    try (LogStatisticsStore store = new LogStatisticsStore(directory)) {
+      assertSameAggregate(
+          store.aggregateBetween(Long.MIN_VALUE, Long.MAX_VALUE),
+          expected.aggregateBetween(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+    assertThat(segmentFiles()).hasSize(20);
+  }
+}
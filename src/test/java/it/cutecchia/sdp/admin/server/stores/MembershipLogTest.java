@@ -0,0 +1,58 @@
+package it.cutecchia.sdp.admin.server.stores;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import it.cutecchia.sdp.admin.server.messages.MembershipChange;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class MembershipLogTest {
+  private static DroneIdentifier drone(int id) {
+    return new DroneIdentifier(id, "localhost", 10000 + id);
+  }
+
+  @Test
+  public void changesSinceAVersion() {
+    MembershipLog log = new MembershipLog(10);
+    assertThat(log.getChangesSince(0)).isEmpty();
+
+    log.append(MembershipChange.Type.JOINED, drone(1));
+    log.append(MembershipChange.Type.JOINED, drone(2));
+    log.append(MembershipChange.Type.LEFT, drone(1));
+    assertThat(log.getVersion()).isEqualTo(3);
+
+    List<MembershipChange> changes = log.getChangesSince(1);
+    assertThat(changes).extracting(MembershipChange::getVersion).containsExactly(2L, 3L);
+    assertThat(changes)
+        .extracting(MembershipChange::getType)
+        .containsExactly(MembershipChange.Type.JOINED, MembershipChange.Type.LEFT);
+    assertThat(changes).extracting(MembershipChange::getDrone).containsExactly(drone(2), drone(1));
+
+    assertThat(log.getChangesSince(0)).hasSize(3);
+    assertThat(log.getChangesSince(3)).isEmpty();
+  }
+
+  @Test
+  public void unknownVersionsHaveNoChanges() {
+    MembershipLog log = new MembershipLog(10);
+    log.append(MembershipChange.Type.JOINED, drone(1));
+
+    assertThat(log.getChangesSince(-1)).isNull();
+    assertThat(log.getChangesSince(2)).isNull();
+  }
+
+  @Test
+  public void oldChangesAreForgotten() {
+    final int capacity = 4;
+    MembershipLog log = new MembershipLog(capacity);
+    for (int i = 1; i <= 100; i++) {
+      log.append(MembershipChange.Type.JOINED, drone(i));
+    }
+
+    assertThat(log.getChangesSince(0)).isNull();
+    assertThat(log.getChangesSince(100 - capacity))
+        .extracting(MembershipChange::getVersion)
+        .containsExactly(97L, 98L, 99L, 100L);
+  }
+}
@@ -0,0 +1,203 @@
+package it.cutecchia.sdp.admin.server.stores;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import it.cutecchia.sdp.common.FleetStats;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RollupStatisticsStoreTest {
+  private static final long TEN_SECONDS = TimeUnit.SECONDS.toMillis(10);
+  private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+  private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+  private static FleetStats statsAt(long timestamp, Random random) {
+    return new FleetStats(
+        timestamp, random.nextInt(10), 20 * random.nextDouble(), 50, 20 + random.nextInt(80));
+  }
+
+  private static void assertSameAggregate(StatsAggregate actual, StatsAggregate expected) {
+    assertThat(actual.getCount()).isEqualTo(expected.getCount());
+    assertThat(actual.getAverageDeliveries())
+        .isCloseTo(expected.getAverageDeliveries(), within(1e-9));
+    assertThat(actual.getAverageKmTravelled())
+        .isCloseTo(expected.getAverageKmTravelled(), within(1e-9));
+    assertThat(actual.getAverageBatteryLevel())
+        .isCloseTo(expected.getAverageBatteryLevel(), within(1e-9));
+  }
+
+  @Test
+  public void aggregatesMatchTheStats() {
+    Random random = new Random(1);
+    BucketedStatisticsStore expected = new BucketedStatisticsStore();
+    RollupStatisticsStore store = new RollupStatisticsStore(new BucketedStatisticsStore());
+    // Three days of stats
+    for (int i = 1; i <= 3 * 8640; i++) {
+      FleetStats stats = statsAt(i * TEN_SECONDS + random.nextInt(1000), random);
+      store.addStatistic(stats);
+      expected.addStatistic(stats);
+    }
+
+    for (int i = 0; i < 300; i++) {
+      long t1 = (long) (random.nextDouble() * 4 * DAY) - HOUR;
+      long t2 = t1 + (long) (random.nextDouble() * (i % 2 == 0 ? 2 * DAY : 2 * HOUR));
+      StatsAggregate actual = store.aggregateBetween(t1, t2);
+      StatsAggregate wanted = expected.aggregateBetween(t1, t2);
+      assertThat(actual.getCount()).isEqualTo(wanted.getCount());
+      assertThat(actual.getAverageDeliveries())
+          .isCloseTo(wanted.getAverageDeliveries(), within(1e-9));
+      assertThat(actual.getAverageKmTravelled())
+          .isCloseTo(wanted.getAverageKmTravelled(), within(1e-9));
+      assertThat(actual.getAverageBatteryLevel())
+          .isCloseTo(wanted.getAverageBatteryLevel(), within(1e-9));
+    }
+  }
+
+  @Test
+  public void rollupsAreRebuiltFromTheStoredStats() {
+    Random random = new Random(2);
+    BucketedStatisticsStore stats = new BucketedStatisticsStore();
+    for (int i = 1; i <= 1000; i++) {
+      stats.addStatistic(statsAt(i * TEN_SECONDS, random));
+    }
+
+    RollupStatisticsStore store = new RollupStatisticsStore(stats);
+    List<StatsRollup> hours = store.getRollupsBetween(0, 1000 * TEN_SECONDS, HOUR);
+    assertThat(hours).extracting(StatsRollup::getResolutionMillis).containsOnly(HOUR);
+    assertThat(hours.stream().mapToLong(StatsRollup::getCount).sum()).isEqualTo(1000);
+    assertThat(store.aggregateBetween(Long.MIN_VALUE, Long.MAX_VALUE).getCount()).isEqualTo(1000);
+  }
+
+  @Test
+  public void theResolutionPicksTheTier() {
+    Random random = new Random(3);
+    RollupStatisticsStore store = new RollupStatisticsStore(new BucketedStatisticsStore());
+    for (int i = 0; i < 30 * 8640; i++) {
+      store.addStatistic(statsAt(i * TEN_SECONDS, random));
+    }
+
+    assertThat(store.getRollupsBetween(0, 10 * MINUTE - 1, 0)).hasSize(60);
+    assertThat(store.getRollupsBetween(0, 10 * MINUTE - 1, 5 * MINUTE))
+        .hasSize(10)
+        .extracting(StatsRollup::getCount)
+        .containsOnly(6L);
+    assertThat(store.getRollupsBetween(0, DAY - 1, 0))
+        .hasSize(1440)
+        .extracting(StatsRollup::getResolutionMillis)
+        .containsOnly(MINUTE);
+    assertThat(store.getRollupsBetween(0, 30 * DAY, 0))
+        .hasSize(720)
+        .extracting(StatsRollup::getResolutionMillis)
+        .containsOnly(HOUR);
+    assertThat(store.getRollupsBetween(0, 30 * DAY, 7 * DAY)).hasSize(30);
+    // Too many single stats are rolled up by the minute anyway
+    assertThat(store.getRollupsBetween(0, 30 * DAY, 1))
+        .extracting(StatsRollup::getResolutionMillis)
+        .containsOnly(MINUTE);
+    assertThat(store.getRollupsBetween(10, 5, 0)).isEmpty();
+  }
+
+  @Test
+  public void rollupsKeepMinimumAndMaximum() {
+    RollupStatisticsStore store = new RollupStatisticsStore(new BucketedStatisticsStore());
+    store.addStatistic(new FleetStats(HOUR, 1, 10, 50, 90));
+    store.addStatistic(new FleetStats(HOUR + TEN_SECONDS, 5, 2, 50, 40));
+    store.addStatistic(new FleetStats(HOUR + 2 * TEN_SECONDS, 3, 6, 50, 70));
+
+    List<StatsRollup> rollups = store.getRollupsBetween(0, 2 * HOUR, HOUR);
+    assertThat(rollups).hasSize(1);
+    StatsRollup rollup = rollups.get(0);
+    assertThat(rollup.getTimestamp()).isEqualTo(HOUR);
+    assertThat(rollup.getCount()).isEqualTo(3);
+    assertThat(rollup.getDeliveries().getSum()).isEqualTo(9);
+    assertThat(rollup.getDeliveries().getMin()).isEqualTo(1);
+    assertThat(rollup.getDeliveries().getMax()).isEqualTo(5);
+    assertThat(rollup.getBatteryLevel().getMin()).isEqualTo(40);
+    assertThat(rollup.getBatteryLevel().getMax()).isEqualTo(90);
+
+    // A stats with a timestamp already stored changes nothing
+    assertThat(store.addStatistic(new FleetStats(HOUR, 100, 100, 50, 100))).isFalse();
+    assertThat(store.getRollupsBetween(0, 2 * HOUR, HOUR).get(0).getDeliveries().getMax())
+        .isEqualTo(5);
+  }
+
+  @Test
+  public void onlyRecentMinutesAreKept() {
+    Random random = new Random(4);
+    BucketedStatisticsStore expected = new BucketedStatisticsStore();
+    RollupStatisticsStore store = new RollupStatisticsStore(new BucketedStatisticsStore());
+    // Twelve days of stats, one each minute
+    final int howMany = (int) (12 * DAY / MINUTE);
+    for (int i = 0; i < howMany; i++) {
+      FleetStats stats = statsAt(i * MINUTE + random.nextInt(1000), random);
+      store.addStatistic(stats);
+      expected.addStatistic(stats);
+    }
+
+    assertThat(store.getMinuteRollupCount())
+        .isLessThanOrEqualTo(
+            (int) ((RollupStatisticsStore.MINUTE_RETENTION_MILLIS + HOUR) / MINUTE));
+    for (int i = 0; i < 100; i++) {
+      long t1 = (long) (random.nextDouble() * 12 * DAY);
+      long t2 = t1 + (long) (random.nextDouble() * (i % 2 == 0 ? 3 * DAY : 3 * HOUR));
+      assertSameAggregate(store.aggregateBetween(t1, t2), expected.aggregateBetween(t1, t2));
+    }
+    // The dropped minutes are rolled up again
+    List<StatsRollup> minutes = store.getRollupsBetween(DAY, 2 * DAY - 1, MINUTE);
+    assertThat(minutes).hasSize(1440).extracting(StatsRollup::getCount).containsOnly(1L);
+    assertThat(minutes.get(0).getTimestamp()).isEqualTo(DAY);
+  }
+
+  @Test
+  public void checkpointSavesReplayingTheHistory(@TempDir Path directory) throws IOException {
+    Random random = new Random(5);
+    final Path checkpoint = directory.resolve("rollups.checkpoint");
+    // Ten days of stats, one each minute, with the last ones after the checkpoint
+    final int howMany = (int) (10 * DAY / MINUTE) + 30;
+    try (LogStatisticsStore log = new LogStatisticsStore(directory, 4096, Long.MAX_VALUE)) {
+      RollupStatisticsStore store = new RollupStatisticsStore(log, checkpoint);
+      for (int i = 0; i < howMany; i++) {
+        store.addStatistic(statsAt(i * MINUTE, random));
+      }
+    }
+    assertThat(checkpoint).exists();
+
+    try (LogStatisticsStore log = new LogStatisticsStore(directory, 4096, Long.MAX_VALUE)) {
+      LogStatisticsStore reopened = spy(log);
+      RollupStatisticsStore restored = new RollupStatisticsStore(reopened, checkpoint);
+      verify(reopened, never()).forEachBetween(eq(Long.MIN_VALUE), anyLong(), any());
+
+      RollupStatisticsStore rebuilt = new RollupStatisticsStore(log);
+      for (int i = 0; i < 50; i++) {
+        long t1 = (long) (random.nextDouble() * 10 * DAY);
+        long t2 = t1 + (long) (random.nextDouble() * 2 * DAY);
+        assertSameAggregate(restored.aggregateBetween(t1, t2), rebuilt.aggregateBetween(t1, t2));
+      }
+      assertThat(restored.getRollupsBetween(0, 11 * DAY, DAY))
+          .extracting(StatsRollup::getCount)
+          .isEqualTo(
+              rebuilt.getRollupsBetween(0, 11 * DAY, DAY).stream()
+                  .map(StatsRollup::getCount)
+                  .collect(Collectors.toList()));
+
+      // New stats keep rolling up on top of the checkpoint
+      final long next = howMany * MINUTE;
+      assertThat(restored.addStatistic(statsAt(next, random))).isTrue();
+      assertThat(restored.aggregateBetween(0, next).getCount()).isEqualTo(howMany + 1);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package it.cutecchia.sdp.common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class ThreadUtilsTest {
+  @AfterEach
+  public void restoreBackend() {
+    ThreadUtils.setBackend(ThreadUtils.platformThreads());
+  }
+
+  @Test
+  public void spawnThreadForEachWaitsForEveryElement() {
+    ThreadUtils.setBackend(ThreadUtils.boundedPool(2));
+    AtomicInteger sum = new AtomicInteger();
+
+    ThreadUtils.spawnThreadForEach(Arrays.asList(1, 2, 3, 4, 5), sum::addAndGet);
+
+    assertThat(sum).hasValue(15);
+  }
+
+  @Test
+  public void waitsForTasksStartedByOtherTasks() throws InterruptedException {
+    AtomicInteger completed = new AtomicInteger();
+    ThreadUtils.runInAnotherThread(
+        () -> {
+          sleep(50);
+          ThreadUtils.runInAnotherThread(
+              () -> {
+                sleep(50);
+                completed.incrementAndGet();
+              });
+          completed.incrementAndGet();
+        });
+
+    ThreadUtils.waitUntilNoTasksAreRunning();
+
+    assertThat(completed).hasValue(2);
+    assertThat(ThreadUtils.countLiveTasks()).isZero();
+  }
+
+  @Test
+  public void heapAndThreadsStayBoundedAfterAMillionCallbacks() {
+    final int poolSize = 8;
+    ThreadUtils.setBackend(ThreadUtils.boundedPool(poolSize));
+    final int threadsBefore = Thread.activeCount();
+    final long heapBefore = usedHeapAfterGc();
+
+    LongAdder callbacks = new LongAdder();
+    int maxThreads = 0;
+    for (int i = 0; i < 1_000_000; i++) {
+      ThreadUtils.runInAnotherThread(callbacks::increment);
+      if (i % 10_000 == 0) maxThreads = Math.max(maxThreads, Thread.activeCount());
+    }
+    assertTimeoutPreemptively(Duration.ofSeconds(30), ThreadUtils::waitUntilNoTasksAreRunning);
+
+    assertThat(callbacks.sum()).isEqualTo(1_000_000);
+    assertThat(ThreadUtils.countLiveTasks()).isZero();
+    assertThat(maxThreads).isLessThanOrEqualTo(threadsBefore + poolSize);
+    assertThat(Thread.activeCount()).isLessThanOrEqualTo(threadsBefore + poolSize);
+    assertThat(usedHeapAfterGc() - heapBefore).isLessThan(8 * 1024 * 1024);
+  }
+
+  @Test
+  public void saturatedPoolQueuesTasksInsteadOfRunningThemOnTheCaller() {
+    ThreadUtils.setBackend(ThreadUtils.boundedPool(1));
+    CountDownLatch release = new CountDownLatch(1);
+    ThreadUtils.runInAnotherThread(() -> await(release));
+
+    final Thread caller = Thread.currentThread();
+    AtomicReference<Thread> ranOn = new AtomicReference<>();
+    ThreadUtils.runInAnotherThread(() -> ranOn.set(Thread.currentThread()));
+    // Waits for the only thread of the pool
+    assertThat(ranOn.get()).isNull();
+
+    release.countDown();
+    assertTimeoutPreemptively(Duration.ofSeconds(5), ThreadUtils::waitUntilNoTasksAreRunning);
+    assertThat(ranOn.get()).isNotNull().isNotSameAs(caller);
+  }
+
+  @Test
+  public void blockingTasksLeaveThePoolToTheTasksTheyWaitFor() {
+    ThreadUtils.setBackend(ThreadUtils.boundedPool(1));
+    CountDownLatch done = new CountDownLatch(1);
+    AtomicInteger waited = new AtomicInteger();
+
+    for (int i = 0; i < 3; i++) {
+      ThreadUtils.runBlockingInAnotherThread(
+          () -> {
+            await(done);
+            waited.incrementAndGet();
+          });
+    }
+    ThreadUtils.runInAnotherThread(done::countDown);
+
+    assertTimeoutPreemptively(Duration.ofSeconds(5), ThreadUtils::waitUntilNoTasksAreRunning);
+    assertThat(waited).hasValue(3);
+  }
+
+  private static long usedHeapAfterGc() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      sleep(50);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+    }
+  }
+}
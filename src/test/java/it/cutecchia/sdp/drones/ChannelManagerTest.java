@@ -0,0 +1,100 @@
+package it.cutecchia.sdp.drones;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.grpc.Server;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.drones.grpc.DroneServiceGrpc;
+import it.cutecchia.sdp.drones.grpc.DroneServiceOuterClass;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ChannelManagerTest {
+  private static final DroneServiceOuterClass.Empty EMPTY =
+      DroneServiceOuterClass.Empty.newBuilder().build();
+
+  private final DroneIdentifier alive = new DroneIdentifier(1, "alive", 0);
+  private final DroneIdentifier dead = new DroneIdentifier(2, "dead", 0);
+  private final AtomicInteger createdChannels = new AtomicInteger();
+  private Server server;
+  private ChannelManager manager;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    server =
+        InProcessServerBuilder.forName("alive")
+            .addService(
+                new DroneServiceGrpc.DroneServiceImplBase() {
+                  @Override
+                  public void requestHeartbeat(
+                      DroneServiceOuterClass.Empty request,
+                      StreamObserver<DroneServiceOuterClass.Empty> responseObserver) {
+                    responseObserver.onNext(EMPTY);
+                    responseObserver.onCompleted();
+                  }
+                })
+            .build()
+            .start();
+    manager =
+        new ChannelManager(
+            destination -> {
+              createdChannels.incrementAndGet();
+              return InProcessChannelBuilder.forName(destination.getIpAddress()).build();
+            });
+  }
+
+  @AfterEach
+  public void tearDown() {
+    manager.shutdown();
+    server.shutdownNow();
+  }
+
+  private void heartbeat(DroneIdentifier destination) {
+    DroneServiceGrpc.newBlockingStub(manager.getChannel(destination)).requestHeartbeat(EMPTY);
+  }
+
+  @Test
+  public void concurrentCallersShareOneChannel() throws InterruptedException {
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 16; i++) {
+      threads.add(new Thread(() -> heartbeat(alive)));
+    }
+    threads.forEach(Thread::start);
+    for (Thread t : threads) t.join();
+
+    assertThat(createdChannels).hasValue(1);
+    assertThat(manager.getConnectionInfo(alive)).isPresent();
+  }
+
+  @Test
+  public void channelIsReleasedOnlyAfterTooManyFailuresInARow() {
+    for (int i = 1; i < ChannelManager.MAX_CONSECUTIVE_FAILURES; i++) {
+      assertThatThrownBy(() -> heartbeat(dead)).isInstanceOf(StatusRuntimeException.class);
+      assertThat(manager.getConnectionInfo(dead).get().getConsecutiveFailures()).isEqualTo(i);
+    }
+    assertThat(createdChannels).hasValue(1);
+
+    assertThatThrownBy(() -> heartbeat(dead)).isInstanceOf(StatusRuntimeException.class);
+    assertThat(manager.getConnectionInfo(dead)).isEmpty();
+  }
+
+  @Test
+  public void successfulCallsAreTracked() {
+    heartbeat(alive);
+    heartbeat(alive);
+
+    assertThat(manager.getConnectionInfo(alive).get().getConsecutiveFailures()).isZero();
+    assertThat(manager.getConnectionInfo()).containsOnlyKeys(alive);
+    assertThat(createdChannels).hasValue(1);
+  }
+}
@@ -0,0 +1,315 @@
+package it.cutecchia.sdp.drones;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.drones.store.InMemoryDroneStore;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class DistributedLockTest {
+  // Delivers the messages between the drones of the simulated fleet
+  private final ExecutorService network = Executors.newFixedThreadPool(4);
+  private final Map<DroneIdentifier, DistributedLock> fleet = new ConcurrentHashMap<>();
+
+  @AfterEach
+  public void tearDown() {
+    network.shutdownNow();
+  }
+
+  private AsyncDroneCommunicationClient clientOf(DroneIdentifier sender) {
+    AsyncDroneCommunicationClient client = mock(AsyncDroneCommunicationClient.class);
+    when(client.requestLockAsync(any(), anyInt(), any()))
+        .thenAnswer(
+            invocation -> {
+              DistributedLock destination = fleet.get(invocation.<DroneIdentifier>getArgument(0));
+              int clock = invocation.getArgument(1);
+              return CompletableFuture.supplyAsync(
+                  () -> {
+                    destination.onLockRequest(clock, sender);
+                    return true;
+                  },
+                  network);
+            });
+    when(client.grantLockAsync(any(), anyInt(), any()))
+        .thenAnswer(
+            invocation -> {
+              DistributedLock destination = fleet.get(invocation.<DroneIdentifier>getArgument(0));
+              int clock = invocation.getArgument(1);
+              return CompletableFuture.supplyAsync(
+                  () -> {
+                    destination.onLockGranted(sender, clock);
+                    return true;
+                  },
+                  network);
+            });
+    return client;
+  }
+
+  private List<DroneIdentifier> createFleet(int size) {
+    return createFleet(size, 1);
+  }
+
+  private List<DroneIdentifier> createFleet(int size, int slots) {
+    fleet.clear();
+    List<DroneIdentifier> drones = new ArrayList<>();
+    InMemoryDroneStore store = new InMemoryDroneStore();
+    for (int i = 0; i < size; i++) {
+      DroneIdentifier drone = new DroneIdentifier(i, "localhost", 0);
+      drones.add(drone);
+      store.addDrone(drone);
+    }
+    for (DroneIdentifier drone : drones) {
+      fleet.put(drone, new DistributedLock(drone, store, clientOf(drone), slots));
+    }
+    return drones;
+  }
+
+  /**
+   * Every drone of the fleet asks for the lock at the same time, holds it for <code>holdMillis
+   * </code> and releases it, for <code>rounds</code> times.
+   */
+  private void runFleet(int rounds, long holdMillis, AtomicInteger maxOwners) throws Exception {
+    AtomicInteger owners = new AtomicInteger();
+    ExecutorService users = Executors.newCachedThreadPool();
+
+    for (int round = 0; round < rounds; round++) {
+      List<CompletableFuture<Void>> done = new ArrayList<>();
+      for (DistributedLock lock : fleet.values()) {
+        done.add(
+            lock.take()
+                .thenRunAsync(
+                    () -> {
+                      maxOwners.accumulateAndGet(owners.incrementAndGet(), Math::max);
+                      sleep(holdMillis);
+                      owners.decrementAndGet();
+                      lock.release();
+                    },
+                    users));
+      }
+      CompletableFuture.allOf(done.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+    }
+    users.shutdown();
+  }
+
+  @Test
+  public void everyDroneGetsTheLockOneAtATime() throws Exception {
+    createFleet(5);
+    AtomicInteger maxOwners = new AtomicInteger();
+
+    runFleet(3, 5, maxOwners);
+
+    assertThat(maxOwners).hasValue(1);
+  }
+
+  @Test
+  public void noMoreDronesThanSlotsHoldTheLock() {
+    createFleet(6, 2);
+
+    // Every time exactly 2 drones hold the lock: never more, and the second slot is always used
+    for (int round = 0; round < 3; round++) {
+      assertThat(takeInTurns(2)).isEqualTo(6);
+    }
+  }
+
+  @Test
+  public void asManyDronesAsSlotsHoldTheLockAtOnce() {
+    for (int slots = 1; slots <= 3; slots++) {
+      createFleet(9, slots);
+      Map<DistributedLock, CompletableFuture<Void>> waiting = takeAll();
+
+      // Nobody releases the lock on their own: the first k drones get it, the others keep waiting
+      List<DistributedLock> owners = awaitOwners(waiting, slots);
+      while (!owners.isEmpty()) {
+        DistributedLock owner = owners.remove(0);
+        waiting.remove(owner);
+        owner.release();
+        owners = awaitOwners(waiting, Math.min(slots, waiting.size()));
+      }
+    }
+  }
+
+  @Test
+  public void idleTimeDropsAsSlotsIncrease() {
+    long[] idleTurns = new long[4];
+    for (int slots = 1; slots <= 3; slots++) {
+      createFleet(9, slots);
+      idleTurns[slots] = takeInTurns(slots);
+    }
+
+    // 9 drones wait 0 + 1 + ... + 8 turns with one slot, 2 * (0 + 1 + 2 + 3) + 4 with two and
+    // 3 * (0 + 1 + 2) with three
+    assertThat(idleTurns[1]).isEqualTo(36);
+    assertThat(idleTurns[2]).isEqualTo(16);
+    assertThat(idleTurns[3]).isEqualTo(9);
+  }
+
+  private Map<DistributedLock, CompletableFuture<Void>> takeAll() {
+    Map<DistributedLock, CompletableFuture<Void>> waiting = new HashMap<>();
+    for (DistributedLock lock : fleet.values()) {
+      waiting.put(lock, lock.take());
+    }
+    return waiting;
+  }
+
+  /**
+   * Every drone of the fleet asks for the lock at the same time. Then, turn after turn, the drones
+   * that got the lock release it all together, after checking that exactly as many as the slots got
+   * it. Counting turns instead of time makes the idle time of the fleet exact.
+   *
+   * @return How many turns the drones spent waiting for the lock, in total
+   */
+  private long takeInTurns(int slots) {
+    Map<DistributedLock, CompletableFuture<Void>> waiting = takeAll();
+    long idleTurns = 0;
+    while (!waiting.isEmpty()) {
+      List<DistributedLock> owners = awaitOwners(waiting, Math.min(slots, waiting.size()));
+      owners.forEach(waiting::remove);
+      idleTurns += waiting.size();
+      owners.forEach(DistributedLock::release);
+    }
+    return idleTurns;
+  }
+
+  /**
+   * Waits for <code>expected</code> of the drones to get the lock, and checks no more of them do
+   */
+  private static List<DistributedLock> awaitOwners(
+      Map<DistributedLock, CompletableFuture<Void>> waiting, int expected) {
+    final long deadline = System.currentTimeMillis() + 5000;
+    while (countOwners(waiting) < expected && System.currentTimeMillis() < deadline) {
+      sleep(10);
+    }
+    sleep(50);
+    assertThat(countOwners(waiting)).isEqualTo(expected);
+
+    List<DistributedLock> owners = new ArrayList<>();
+    waiting.forEach(
+        (lock, acquisition) -> {
+          if (acquisition.isDone()) owners.add(lock);
+        });
+    return owners;
+  }
+
+  private static long countOwners(Map<DistributedLock, CompletableFuture<Void>> waiting) {
+    return waiting.values().stream().filter(CompletableFuture::isDone).count();
+  }
+
+  @Test
+  public void requestsToTheOwnerReturnRightAwayAndAreGrantedOnRelease() throws Exception {
+    List<DroneIdentifier> drones = createFleet(2);
+    DistributedLock first = fleet.get(drones.get(0));
+    DistributedLock second = fleet.get(drones.get(1));
+
+    first.take().get(1, TimeUnit.SECONDS);
+    CompletableFuture<Void> secondAcquisition = second.take();
+
+    // The request was delivered, and its handler returned, but the permission is held back
+    sleep(100);
+    assertThat(secondAcquisition).isNotDone();
+    assertThat(second.isOwned()).isFalse();
+
+    first.release();
+    secondAcquisition.get(1, TimeUnit.SECONDS);
+    assertThat(second.isOwned()).isTrue();
+  }
+
+  @Test
+  public void concurrentRequestsAreOrderedByClockThenId() {
+    InMemoryDroneStore store = new InMemoryDroneStore();
+    DroneIdentifier me = new DroneIdentifier(1, "localhost", 0);
+    DroneIdentifier lowerId = new DroneIdentifier(0, "localhost", 0);
+    DroneIdentifier higherId = new DroneIdentifier(2, "localhost", 0);
+    DroneIdentifier earlier = new DroneIdentifier(3, "localhost", 0);
+    for (DroneIdentifier drone : Arrays.asList(me, lowerId, higherId, earlier)) {
+      store.addDrone(drone);
+    }
+    AsyncDroneCommunicationClient client = mock(AsyncDroneCommunicationClient.class);
+    when(client.requestLockAsync(any(), anyInt(), any())).thenReturn(new CompletableFuture<>());
+    when(client.grantLockAsync(any(), anyInt(), any()))
+        .thenReturn(CompletableFuture.completedFuture(true));
+
+    DistributedLock lock = new DistributedLock(me, store, client);
+    lock.take();
+    verify(client).requestLockAsync(same(lowerId), eq(1), same(me));
+
+    lock.onLockRequest(1, lowerId);
+    lock.onLockRequest(1, higherId);
+    lock.onLockRequest(0, earlier);
+
+    verify(client).grantLockAsync(same(lowerId), eq(1), same(me));
+    verify(client).grantLockAsync(same(earlier), eq(0), same(me));
+    verify(client, never()).grantLockAsync(same(higherId), anyInt(), any());
+
+    lock.onLockGranted(lowerId, 1);
+    lock.onLockGranted(higherId, 1);
+    lock.onLockGranted(earlier, 1);
+    assertThat(lock.isOwned()).isTrue();
+
+    lock.release();
+    verify(client).grantLockAsync(same(higherId), eq(1), same(me));
+  }
+
+  @Test
+  public void droneThatJoinedLaterIsAskedForTheLock() throws Exception {
+    // 'joined' knows the whole fleet, the older drones don't know about it yet
+    DroneIdentifier joined = new DroneIdentifier(0, "localhost", 0);
+    DroneIdentifier waiting = new DroneIdentifier(1, "localhost", 0);
+    DroneIdentifier holder = new DroneIdentifier(2, "localhost", 0);
+    fleet.clear();
+    for (DroneIdentifier drone : Arrays.asList(joined, waiting, holder)) {
+      InMemoryDroneStore store = new InMemoryDroneStore();
+      store.addDrone(waiting);
+      store.addDrone(holder);
+      if (drone.equals(joined)) store.addDrone(joined);
+      fleet.put(drone, new DistributedLock(drone, store, clientOf(drone)));
+    }
+
+    fleet.get(holder).take().get(1, TimeUnit.SECONDS);
+    CompletableFuture<Void> waitingAcquisition = fleet.get(waiting).take();
+    // Comes first, its clock is behind the others
+    CompletableFuture<Void> joinedAcquisition = fleet.get(joined).take();
+    sleep(100);
+    assertThat(waitingAcquisition).isNotDone();
+    assertThat(joinedAcquisition).isNotDone();
+
+    fleet.get(holder).release();
+    joinedAcquisition.get(1, TimeUnit.SECONDS);
+    sleep(100);
+    assertThat(waitingAcquisition).isNotDone();
+
+    fleet.get(joined).release();
+    waitingAcquisition.get(1, TimeUnit.SECONDS);
+    assertThat(fleet.get(joined).isOwned()).isFalse();
+    assertThat(fleet.get(waiting).isOwned()).isTrue();
+  }
+
+  @Test
+  public void unreachableDronesCountAsPermissions() throws Exception {
+    InMemoryDroneStore store = new InMemoryDroneStore();
+    DroneIdentifier me = new DroneIdentifier(0, "localhost", 0);
+    store.addDrone(me);
+    store.addDrone(new DroneIdentifier(1, "localhost", 0));
+    AsyncDroneCommunicationClient client = mock(AsyncDroneCommunicationClient.class);
+    when(client.requestLockAsync(any(), anyInt(), any()))
+        .thenReturn(CompletableFuture.completedFuture(false));
+
+    DistributedLock lock = new DistributedLock(me, store, client);
+
+    lock.take().get(1, TimeUnit.SECONDS);
+    assertThat(lock.isOwned()).isTrue();
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -8,23 +8,15 @@ import it.cutecchia.sdp.common.DroneData;
 import it.cutecchia.sdp.common.DroneIdentifier;
 import it.cutecchia.sdp.common.ThreadUtils;
 import it.cutecchia.sdp.drones.store.DroneStore;
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 public class ElectionManagerTest {
-  @BeforeEach
-  public void clearSpawnedThreadsList() {
-    ThreadUtils.clearSpawnedThreadsList();
-  }
-
   private static void waitForAllThreadsToBeDone() {
-    for (Thread t : ThreadUtils.getAllSpawnedThreads()) {
-      try {
-        t.join();
-      } catch (InterruptedException e) {
-        e.printStackTrace();
-        fail();
-      }
+    try {
+      ThreadUtils.waitUntilNoTasksAreRunning();
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+      fail();
     }
   }
 
@@ -0,0 +1,83 @@
+package it.cutecchia.sdp.drones;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import it.cutecchia.sdp.drones.pollution.PollutionSummary;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+public class IntervalAccumulatorTest {
+  private static Map<String, PollutionSummary> pollutionOf(double value) {
+    return Collections.singletonMap(
+        PollutionTracker.DEFAULT_WINDOW, PollutionSummary.of(Collections.singletonList(value)));
+  }
+
+  @Test
+  public void snapshotsStartFromZero() {
+    IntervalAccumulator accumulator = new IntervalAccumulator();
+    accumulator.addDelivery(pollutionOf(10), 2.5);
+    accumulator.addDelivery(pollutionOf(20), 0.5);
+
+    IntervalAccumulator.Snapshot first = accumulator.snapshotAndReset();
+    IntervalAccumulator.Snapshot second = accumulator.snapshotAndReset();
+
+    assertThat(first.getDeliveries()).isEqualTo(2);
+    assertThat(first.getKms()).isEqualTo(3.0);
+    assertThat(first.getPollution().get(PollutionTracker.DEFAULT_WINDOW).getMean()).isEqualTo(15);
+    assertThat(second.getDeliveries()).isZero();
+    assertThat(second.getKms()).isZero();
+    assertThat(second.getPollution()).isEmpty();
+  }
+
+  @Test
+  public void everyDeliveryIsCountedInExactlyOneInterval() throws InterruptedException {
+    final int writers = 8;
+    final int deliveriesPerWriter = 50_000;
+    IntervalAccumulator accumulator = new IntervalAccumulator();
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < writers; i++) {
+      Thread writer =
+          new Thread(
+              () -> {
+                Map<String, PollutionSummary> pollution = pollutionOf(1);
+                try {
+                  start.await();
+                } catch (InterruptedException e) {
+                  return;
+                }
+                for (int j = 0; j < deliveriesPerWriter; j++) {
+                  accumulator.addDelivery(pollution, 1);
+                }
+              });
+      writer.start();
+      threads.add(writer);
+    }
+
+    long deliveries = 0;
+    double kms = 0;
+    long pollutionCount = 0;
+    int intervals = 0;
+    start.countDown();
+    boolean writing = true;
+    while (writing) {
+      writing = threads.stream().anyMatch(Thread::isAlive);
+      IntervalAccumulator.Snapshot snapshot = accumulator.snapshotAndReset();
+      deliveries += snapshot.getDeliveries();
+      kms += snapshot.getKms();
+      PollutionSummary pollution = snapshot.getPollution().get(PollutionTracker.DEFAULT_WINDOW);
+      pollutionCount += pollution == null ? 0 : pollution.getCount();
+      intervals++;
+    }
+
+    final long expected = (long) writers * deliveriesPerWriter;
+    assertThat(intervals).isGreaterThan(1);
+    assertThat(deliveries).isEqualTo(expected);
+    assertThat(kms).isEqualTo((double) expected);
+    assertThat(pollutionCount).isEqualTo(expected);
+  }
+}
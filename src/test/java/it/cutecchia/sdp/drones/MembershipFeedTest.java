@@ -0,0 +1,73 @@
+package it.cutecchia.sdp.drones;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import it.cutecchia.sdp.admin.server.AdminServerClient;
+import it.cutecchia.sdp.admin.server.messages.MembershipChange;
+import it.cutecchia.sdp.admin.server.messages.MembershipChangesResponse;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.drones.store.ConcurrentDroneStore;
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.jupiter.api.Test;
+
+public class MembershipFeedTest {
+  private final DroneIdentifier self = new DroneIdentifier(1, "localhost", 10001);
+  private final DroneIdentifier other = new DroneIdentifier(2, "localhost", 10002);
+  private final DroneIdentifier joining = new DroneIdentifier(3, "localhost", 10003);
+
+  @Test
+  public void changesAreAppliedToTheStore() {
+    ConcurrentDroneStore store = new ConcurrentDroneStore();
+    store.addDrone(self);
+    store.addDrone(other);
+    AdminServerClient client = mock(AdminServerClient.class);
+    when(client.getMembershipChangesSince(5))
+        .thenReturn(
+            MembershipChangesResponse.ofChanges(
+                7,
+                Arrays.asList(
+                    new MembershipChange(6, MembershipChange.Type.JOINED, joining),
+                    new MembershipChange(7, MembershipChange.Type.LEFT, other))));
+
+    MembershipFeed feed = new MembershipFeed(self, store, client, 5);
+    assertThat(feed.poll()).isTrue();
+
+    assertThat(feed.getVersion()).isEqualTo(7);
+    assertThat(store.getAllDroneIdentifiers()).containsExactly(self, joining);
+  }
+
+  @Test
+  public void allDronesReplaceTheKnownOnes() {
+    ConcurrentDroneStore store = new ConcurrentDroneStore();
+    store.addDrone(self);
+    store.addDrone(other);
+    store.setKnownMaster(other);
+    AdminServerClient client = mock(AdminServerClient.class);
+    when(client.getMembershipChangesSince(5))
+        .thenReturn(
+            MembershipChangesResponse.ofAllDrones(
+                9000, new HashSet<>(Arrays.asList(self, joining))));
+
+    MembershipFeed feed = new MembershipFeed(self, store, client, 5);
+    assertThat(feed.poll()).isTrue();
+
+    assertThat(feed.getVersion()).isEqualTo(9000);
+    assertThat(store.getAllDroneIdentifiers()).containsExactly(self, joining);
+    assertThat(store.getKnownMaster()).isNull();
+  }
+
+  @Test
+  public void unreachableServerKeepsTheVersion() {
+    ConcurrentDroneStore store = new ConcurrentDroneStore();
+    store.addDrone(self);
+    AdminServerClient client = mock(AdminServerClient.class);
+    when(client.getMembershipChangesSince(5)).thenThrow(new RuntimeException("unreachable"));
+
+    MembershipFeed feed = new MembershipFeed(self, store, client, 5);
+    assertThat(feed.poll()).isFalse();
+    assertThat(feed.getVersion()).isEqualTo(5);
+  }
+}
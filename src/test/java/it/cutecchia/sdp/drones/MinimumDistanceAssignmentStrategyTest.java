@@ -0,0 +1,118 @@
+package it.cutecchia.sdp.drones;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import it.cutecchia.sdp.common.*;
+import it.cutecchia.sdp.drones.store.DroneStore;
+import it.cutecchia.sdp.drones.store.InMemoryDroneStore;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class MinimumDistanceAssignmentStrategyTest {
+  private final DroneIdentifier near = new DroneIdentifier(1, "localhost", 0);
+  private final DroneIdentifier far = new DroneIdentifier(2, "localhost", 0);
+  // Greedy gives 'near' to the first order and sends 'far' across the city for the second one
+  private final List<Order> orders =
+      Arrays.asList(
+          new Order(1, new CityPoint(3, 0), new CityPoint(9, 9)),
+          new Order(2, new CityPoint(0, 0), new CityPoint(9, 9)),
+          new Order(3, new CityPoint(9, 9), new CityPoint(0, 0)));
+
+  private DroneStore createStore() {
+    DroneStore store = new InMemoryDroneStore();
+    store.addDrone(near, new DroneData(new CityPoint(2, 0)));
+    store.addDrone(far, new DroneData(new CityPoint(5, 0)));
+    return store;
+  }
+
+  @Test
+  public void minimizesTheTotalDistance() {
+    DroneStore store = createStore();
+    AssignmentStrategy greedy = new GreedyAssignmentStrategy(store);
+    AssignmentStrategy strategy =
+        new MinimumDistanceAssignmentStrategy(store, greedy, 1, TimeUnit.SECONDS);
+
+    assertThat(greedy.assign(orders, Collections.emptySet())).containsExactly(near, far);
+    assertThat(strategy.assign(orders, Collections.emptySet())).containsExactly(far, near);
+  }
+
+  @Test
+  public void excludedDronesAreNotChosen() {
+    DroneStore store = createStore();
+    AssignmentStrategy strategy =
+        new MinimumDistanceAssignmentStrategy(
+            store, new GreedyAssignmentStrategy(store), 1, TimeUnit.SECONDS);
+
+    assertThat(strategy.assign(orders, Collections.singleton(far))).containsExactly(near);
+  }
+
+  @Test
+  public void fallsBackWhenOverTheTimeBudget() {
+    DroneStore store = createStore();
+    MinimumDistanceAssignmentStrategy strategy =
+        new MinimumDistanceAssignmentStrategy(
+            store, new GreedyAssignmentStrategy(store), 0, TimeUnit.NANOSECONDS);
+
+    assertThat(strategy.assign(orders, Collections.emptySet())).containsExactly(near, far);
+    assertThat(strategy.getFallbackCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void largeBatchesFallBackRightAway() {
+    // 4000 x 4000 costs would take 128 MB, and matching them far longer than even this budget
+    final int size = 4000;
+    DroneStore store = new InMemoryDroneStore();
+    List<Order> manyOrders = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      store.addDrone(
+          new DroneIdentifier(i, "localhost", 0),
+          new DroneData(new CityPoint(i % 10, i / 10 % 10)));
+      manyOrders.add(new Order(i, new CityPoint(i % 10, 0), new CityPoint(0, 0)));
+    }
+    AssignmentStrategy fallback = (pending, excluded) -> Collections.emptyList();
+    MinimumDistanceAssignmentStrategy strategy =
+        new MinimumDistanceAssignmentStrategy(store, fallback, 5, TimeUnit.SECONDS);
+
+    final long start = System.nanoTime();
+    assertThat(strategy.assign(manyOrders, Collections.emptySet())).isEmpty();
+    assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+    assertThat(strategy.getFallbackCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void matchingIsOptimal() {
+    Random random = new Random(7);
+    for (int attempt = 0; attempt < 50; attempt++) {
+      int orders = 1 + random.nextInt(5);
+      int drones = orders + random.nextInt(3);
+      double[][] cost = new double[orders][drones];
+      for (double[] row : cost) {
+        for (int j = 0; j < drones; j++) row[j] = random.nextInt(20);
+      }
+
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      int[] matching = MinimumDistanceAssignmentStrategy.findMinimumCostMatching(cost, deadline);
+      assertThat(matching).doesNotHaveDuplicates();
+      assertThat(totalCost(cost, matching)).isEqualTo(bruteForce(cost, 0, new boolean[drones]));
+    }
+  }
+
+  private static double totalCost(double[][] cost, int[] matching) {
+    double total = 0;
+    for (int i = 0; i < matching.length; i++) total += cost[i][matching[i]];
+    return total;
+  }
+
+  private static double bruteForce(double[][] cost, int order, boolean[] used) {
+    if (order == cost.length) return 0;
+    double best = Double.POSITIVE_INFINITY;
+    for (int j = 0; j < used.length; j++) {
+      if (used[j]) continue;
+      used[j] = true;
+      best = Math.min(best, cost[order][j] + bruteForce(cost, order + 1, used));
+      used[j] = false;
+    }
+    return best;
+  }
+}
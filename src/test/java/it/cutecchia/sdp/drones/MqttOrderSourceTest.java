@@ -0,0 +1,225 @@
+package it.cutecchia.sdp.drones;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.gson.Gson;
+import it.cutecchia.sdp.common.CityPoint;
+import it.cutecchia.sdp.common.Order;
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.jupiter.api.Test;
+
+public class MqttOrderSourceTest {
+  private static final String TOPIC = "dronazon/smartcity/orders";
+  private static final Gson gson = new Gson();
+
+  private static Order order(int id) {
+    return new Order(id, new CityPoint(0, 0), new CityPoint(9, 9));
+  }
+
+  private static MqttOrderSource createSource(FakeBroker broker) throws MqttException {
+    return new MqttOrderSource(
+        new MqttClient(
+            "tcp://localhost:" + broker.getPort(), "test-master", new MemoryPersistence()),
+        TOPIC,
+        1);
+  }
+
+  @Test
+  public void pausingLongerThanTheKeepAliveKeepsTheConnection() throws Exception {
+    try (FakeBroker broker = new FakeBroker()) {
+      BlockingQueue<Order> received = new LinkedBlockingQueue<>();
+      MqttOrderSource source = createSource(broker);
+      source.start(received::add);
+      broker.awaitSubscription();
+
+      broker.publish(order(0));
+      assertThat(received.poll(5, TimeUnit.SECONDS).getId()).isEqualTo(0);
+
+      source.pause();
+      // More than the client queues up before it stops reading from the connection
+      for (int i = 1; i <= 30; i++) {
+        broker.publish(order(i));
+      }
+      // Three times the keep alive, the pings still have to be answered
+      Thread.sleep(3000);
+      assertThat(received).isEmpty();
+      assertThat(broker.getPings()).isGreaterThanOrEqualTo(2);
+      assertThat(broker.getConnects()).isEqualTo(1);
+      assertThat(broker.getAcknowledged()).containsExactly(1);
+
+      source.resume();
+      for (int i = 1; i <= 30; i++) {
+        assertThat(received.poll(5, TimeUnit.SECONDS).getId()).isEqualTo(i);
+      }
+      final long deadline = System.currentTimeMillis() + 5000;
+      while (broker.getAcknowledged().size() < 31 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertThat(broker.getAcknowledged()).hasSize(31);
+      assertThat(broker.getConnects()).isEqualTo(1);
+      source.stop();
+    }
+  }
+
+  @Test
+  public void ordersArrivingAfterStopAreDropped() throws Exception {
+    try (FakeBroker broker = new FakeBroker()) {
+      BlockingQueue<Order> received = new LinkedBlockingQueue<>();
+      MqttOrderSource source = createSource(broker);
+      source.start(received::add);
+      broker.awaitSubscription();
+
+      source.pause();
+      source.messageArrived(TOPIC, new MqttMessage(gson.toJson(order(1)).getBytes()));
+      source.stop();
+      source.resume();
+      source.messageArrived(TOPIC, new MqttMessage(gson.toJson(order(2)).getBytes()));
+
+      assertThat(received.poll(200, TimeUnit.MILLISECONDS)).isNull();
+    }
+  }
+
+  /**
+   * Just enough of an MQTT 3.1.1 broker for a single subscriber: it sends the orders with QoS 1 and
+   * records the pings and the acknowledgements
+   */
+  private static class FakeBroker implements Closeable {
+    private final ServerSocket serverSocket = new ServerSocket(0);
+    private final CountDownLatch subscribed = new CountDownLatch(1);
+    private final AtomicInteger connects = new AtomicInteger();
+    private final AtomicInteger pings = new AtomicInteger();
+    private final List<Integer> acknowledged = new CopyOnWriteArrayList<>();
+    private volatile Socket socket;
+    private int nextMessageId = 1;
+
+    FakeBroker() throws IOException {
+      Thread acceptor =
+          new Thread(
+              () -> {
+                try {
+                  while (true) {
+                    Socket accepted = serverSocket.accept();
+                    socket = accepted;
+                    Thread reader = new Thread(() -> serve(accepted), "fake-broker-reader");
+                    reader.setDaemon(true);
+                    reader.start();
+                  }
+                } catch (IOException e) {
+                  // Closed
+                }
+              },
+              "fake-broker-acceptor");
+      acceptor.setDaemon(true);
+      acceptor.start();
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    int getConnects() {
+      return connects.get();
+    }
+
+    int getPings() {
+      return pings.get();
+    }
+
+    List<Integer> getAcknowledged() {
+      return acknowledged;
+    }
+
+    void awaitSubscription() throws InterruptedException {
+      assertThat(subscribed.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    synchronized void publish(Order order) throws IOException {
+      final byte[] topic = TOPIC.getBytes(StandardCharsets.UTF_8);
+      final byte[] payload = gson.toJson(order).getBytes(StandardCharsets.UTF_8);
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(body);
+      out.writeShort(topic.length);
+      out.write(topic);
+      out.writeShort(nextMessageId++);
+      out.write(payload);
+      send(0x32, body.toByteArray());
+    }
+
+    private void serve(Socket connection) {
+      try {
+        DataInputStream in = new DataInputStream(connection.getInputStream());
+        while (true) {
+          final int header = in.read();
+          if (header < 0) return;
+          byte[] body = new byte[readRemainingLength(in)];
+          in.readFully(body);
+          switch (header >> 4) {
+            case 1: // CONNECT
+              connects.incrementAndGet();
+              send(0x20, new byte[] {0, 0});
+              break;
+            case 8: // SUBSCRIBE
+              send(0x90, new byte[] {body[0], body[1], 1});
+              subscribed.countDown();
+              break;
+            case 4: // PUBACK
+              acknowledged.add(((body[0] & 0xff) << 8) | (body[1] & 0xff));
+              break;
+            case 12: // PINGREQ
+              pings.incrementAndGet();
+              send(0xd0, new byte[0]);
+              break;
+            case 14: // DISCONNECT
+              connection.close();
+              return;
+            default:
+              break;
+          }
+        }
+      } catch (IOException e) {
+        // The client went away
+      }
+    }
+
+    private static int readRemainingLength(DataInputStream in) throws IOException {
+      int length = 0, shift = 0, digit;
+      do {
+        digit = in.readUnsignedByte();
+        length |= (digit & 0x7f) << shift;
+        shift += 7;
+      } while ((digit & 0x80) != 0);
+      return length;
+    }
+
+    private synchronized void send(int header, byte[] body) throws IOException {
+      ByteArrayOutputStream packet = new ByteArrayOutputStream();
+      packet.write(header);
+      int length = body.length;
+      do {
+        int digit = length & 0x7f;
+        length >>= 7;
+        packet.write(length > 0 ? digit | 0x80 : digit);
+      } while (length > 0);
+      packet.write(body);
+      OutputStream out = socket.getOutputStream();
+      out.write(packet.toByteArray());
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      serverSocket.close();
+      if (socket != null) socket.close();
+    }
+  }
+}
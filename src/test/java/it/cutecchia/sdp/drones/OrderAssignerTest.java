@@ -1,29 +1,21 @@
 package it.cutecchia.sdp.drones;
 
-import static org.junit.jupiter.api.Assertions.fail;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.mockito.Mockito.*;
 
 import it.cutecchia.sdp.common.*;
 import it.cutecchia.sdp.drones.store.InMemoryDroneStore;
-import org.junit.jupiter.api.BeforeEach;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import org.junit.jupiter.api.Test;
 
 public class OrderAssignerTest {
-  @BeforeEach
-  public void clearSpawnedThreadsList() {
-    ThreadUtils.clearSpawnedThreadsList();
-  }
-
-  private static void waitForAllThreadsToBeDone() {
-    for (Thread t : ThreadUtils.getAllSpawnedThreads()) {
-      try {
-        t.join();
-      } catch (InterruptedException e) {
-        e.printStackTrace();
-        fail();
-      }
-    }
-  }
 
   @Test
   public void closestDroneIsChosen()
@@ -50,7 +42,7 @@ public class OrderAssignerTest {
     OrderAssigner assigner = new OrderAssigner(store, client);
     assigner.enqueueOrder(order);
 
-    waitForAllThreadsToBeDone();
+    assigner.waitUntilIdle();
 
     verify(client, times(1)).assignOrder(same(order), same(closestDroneId));
   }
@@ -80,7 +72,7 @@ public class OrderAssignerTest {
     OrderAssigner assigner = new OrderAssigner(store, client);
     assigner.enqueueOrder(order);
 
-    waitForAllThreadsToBeDone();
+    assigner.waitUntilIdle();
 
     verify(client, times(1)).assignOrder(same(order), same(highestBatteryDrone));
   }
@@ -110,8 +102,133 @@ public class OrderAssignerTest {
     OrderAssigner assigner = new OrderAssigner(store, client);
     assigner.enqueueOrder(order);
 
-    waitForAllThreadsToBeDone();
+    assigner.waitUntilIdle();
 
     verify(client, times(1)).assignOrder(same(order), same(highestIdDrone));
   }
+
+  @Test
+  public void burstOfOrdersIsCoalescedIntoFewPasses()
+      throws InterruptedException, DroneCommunicationClient.DroneIsUnreachable {
+    InMemoryDroneStore store = new InMemoryDroneStore();
+    for (int i = 0; i < 5; i++) {
+      DroneIdentifier drone = new DroneIdentifier(i, "123", 123);
+      store.addDrone(drone);
+      store.handleDroneUpdateData(drone, new DroneData(new CityPoint(i, i)));
+    }
+
+    DroneCommunicationClient client = mock(DroneCommunicationClient.class);
+    when(client.assignOrder(any(), any())).thenReturn(true);
+
+    OrderAssigner assigner = new OrderAssigner(store, client);
+    // Holding the assigner's monitor keeps the scheduler from completing any pass while the orders
+    // arrive, so all these signals must collapse into at most one more pass
+    synchronized (assigner) {
+      for (int i = 0; i < 200; i++) {
+        assigner.enqueueOrder(new Order(i, new CityPoint(3, 3), new CityPoint(9, 9)));
+      }
+    }
+
+    assigner.waitUntilIdle();
+
+    DispatchMetrics metrics = assigner.getDispatchMetrics();
+    verify(client, times(5)).assignOrder(any(), any());
+    assertThat(metrics.getTotalAssignments()).isEqualTo(5);
+    assertThat(metrics.getQueueDepth()).isEqualTo(195);
+    assertThat(metrics.getSignals()).isEqualTo(200);
+    assertThat(metrics.getPasses()).isLessThanOrEqualTo(2);
+  }
+
+  @Test
+  public void offersOfAPassAreAllInFlightAtOnce() throws InterruptedException {
+    InMemoryDroneStore store = new InMemoryDroneStore();
+    for (int i = 0; i < 5; i++) {
+      DroneIdentifier drone = new DroneIdentifier(i, "123", 123);
+      store.addDrone(drone);
+      store.handleDroneUpdateData(drone, new DroneData(new CityPoint(i, i)));
+    }
+
+    List<CompletableFuture<Optional<Boolean>>> answers = new ArrayList<>();
+    AsyncDroneCommunicationClient client = mock(AsyncDroneCommunicationClient.class);
+    when(client.assignOrderAsync(any(), any()))
+        .thenAnswer(
+            invocation -> {
+              CompletableFuture<Optional<Boolean>> answer = new CompletableFuture<>();
+              synchronized (answers) {
+                answers.add(answer);
+                answers.notifyAll();
+              }
+              return answer;
+            });
+
+    OrderAssigner assigner = new OrderAssigner(store, client);
+    for (int i = 0; i < 5; i++) {
+      assigner.enqueueOrder(new Order(i, new CityPoint(3, 3), new CityPoint(9, 9)));
+    }
+
+    synchronized (answers) {
+      while (answers.size() < 5) {
+        answers.wait();
+      }
+      // Every drone got its offer even though no one answered yet
+      answers.get(0).complete(Optional.empty());
+      for (int i = 1; i < 5; i++) {
+        answers.get(i).complete(Optional.of(true));
+      }
+    }
+    assigner.waitUntilIdle();
+
+    verify(client, times(5)).assignOrderAsync(any(), any());
+    // The order offered to the unreachable drone is back in the queue
+    assertThat(assigner.areTherePendingOrders()).isTrue();
+    assertThat(store.getAvailableDrones().size()).isZero();
+  }
+
+  @Test
+  public void offersPlannedAfterShutdownAreRequeued() throws Exception {
+    DroneIdentifier drone = new DroneIdentifier(0, "123", 123);
+    InMemoryDroneStore store = new InMemoryDroneStore();
+    store.addDrone(drone, new DroneData(new CityPoint(0, 0)));
+    DroneCommunicationClient client = mock(DroneCommunicationClient.class);
+
+    // The master stops while the pass is deciding the assignments
+    CountDownLatch planning = new CountDownLatch(1);
+    CountDownLatch stopped = new CountDownLatch(1);
+    AssignmentStrategy strategy =
+        (orders, excluded) -> {
+          planning.countDown();
+          try {
+            stopped.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return Collections.singletonList(drone);
+        };
+    OrderAssigner assigner =
+        new OrderAssigner(
+            store, client, strategy, new PendingOrderQueue(10, PendingOrderQueue.NO_BACKPRESSURE));
+
+    assigner.enqueueOrder(new Order(0, new CityPoint(3, 3), new CityPoint(9, 9)));
+    planning.await();
+    assigner.shutdown();
+    stopped.countDown();
+
+    assigner.waitUntilIdle();
+    verify(client, never()).assignOrder(any(), any());
+    assertThat(assigner.areTherePendingOrders()).isTrue();
+  }
+
+  @Test
+  public void waitingForIdleReturnsAfterShutdown() {
+    InMemoryDroneStore store = new InMemoryDroneStore();
+    DroneCommunicationClient client = mock(DroneCommunicationClient.class);
+    OrderAssigner assigner = new OrderAssigner(store, client);
+
+    assigner.shutdown();
+    // Asks for a pass, which the stopped scheduler will never run
+    assigner.enqueueOrder(new Order(0, new CityPoint(3, 3), new CityPoint(9, 9)));
+
+    assertTimeoutPreemptively(Duration.ofSeconds(5), assigner::waitUntilIdle);
+    assertThat(assigner.areTherePendingOrders()).isTrue();
+  }
 }
@@ -0,0 +1,53 @@
+package it.cutecchia.sdp.drones;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+import it.cutecchia.sdp.common.CityPoint;
+import it.cutecchia.sdp.common.Order;
+import org.junit.jupiter.api.Test;
+
+public class PendingOrderQueueTest {
+  private static Order order(int id) {
+    return new Order(id, new CityPoint(0, 0), new CityPoint(1, 1));
+  }
+
+  @Test
+  public void requeuedOrdersComeBeforeNewOnes() {
+    PendingOrderQueue queue = new PendingOrderQueue(10, PendingOrderQueue.NO_BACKPRESSURE);
+    queue.add(order(1));
+    queue.add(order(2));
+    queue.requeue(order(0));
+
+    assertThat(queue.size()).isEqualTo(3);
+    assertThat(queue).extracting(Order::getId).containsExactly(0, 1, 2);
+    assertThat(queue.poll().getId()).isEqualTo(0);
+    assertThat(queue.poll().getId()).isEqualTo(1);
+    assertThat(queue.poll().getId()).isEqualTo(2);
+    assertThat(queue.poll()).isNull();
+    assertThat(queue.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void backpressureIsSignalledOnceAtCapacityAndReleasedAtHalf() {
+    PendingOrderQueue.BackpressureListener listener =
+        mock(PendingOrderQueue.BackpressureListener.class);
+    PendingOrderQueue queue = new PendingOrderQueue(4, listener);
+
+    for (int i = 0; i < 6; i++) queue.add(order(i));
+    verify(listener, times(1)).onSaturated();
+    // Orders past the capacity are kept anyway
+    assertThat(queue.size()).isEqualTo(6);
+
+    queue.poll();
+    queue.poll();
+    queue.poll();
+    verify(listener, never()).onDrained();
+    queue.poll();
+    verify(listener, times(1)).onDrained();
+
+    queue.add(order(6));
+    queue.add(order(7));
+    verify(listener, times(2)).onSaturated();
+  }
+}
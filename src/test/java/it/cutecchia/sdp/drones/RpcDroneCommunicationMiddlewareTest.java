@@ -0,0 +1,295 @@
+package it.cutecchia.sdp.drones;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import it.cutecchia.sdp.common.CityPoint;
+import it.cutecchia.sdp.common.DroneData;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.common.Order;
+import it.cutecchia.sdp.drones.grpc.DroneServiceGrpc;
+import it.cutecchia.sdp.drones.grpc.DroneServiceOuterClass;
+import it.cutecchia.sdp.drones.grpc.DroneServiceOuterClass.Capability;
+import it.cutecchia.sdp.drones.messages.CompletedDeliveryMessage;
+import it.cutecchia.sdp.drones.messages.TelemetryMessage;
+import it.cutecchia.sdp.drones.pollution.PollutionSummary;
+import it.cutecchia.sdp.drones.responses.DroneJoinResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+public class RpcDroneCommunicationMiddlewareTest {
+  private static final DroneData DATA = new DroneData(new CityPoint(1, 2), 90);
+
+  // Holds every request until the test releases them, like a fleet of slow drones
+  private final List<StreamObserver<DroneServiceOuterClass.DroneDataPacket>> heldRequests =
+      new ArrayList<>();
+  private Server server;
+  private RpcDroneCommunicationMiddleware middleware;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    server =
+        InProcessServerBuilder.forName("fleet")
+            .directExecutor()
+            .addService(
+                new DroneServiceGrpc.DroneServiceImplBase() {
+                  @Override
+                  public void requestData(
+                      DroneServiceOuterClass.Empty request,
+                      StreamObserver<DroneServiceOuterClass.DroneDataPacket> responseObserver) {
+                    synchronized (heldRequests) {
+                      heldRequests.add(responseObserver);
+                    }
+                  }
+                })
+            .build()
+            .start();
+    middleware =
+        new RpcDroneCommunicationMiddleware(
+            new DroneIdentifier(0, "fleet", 0),
+            mock(DroneCommunicationServer.class),
+            new ChannelManager(
+                destination -> InProcessChannelBuilder.forName("fleet").directExecutor().build()));
+  }
+
+  @AfterEach
+  public void tearDown() {
+    middleware.shutdown();
+    server.shutdownNow();
+  }
+
+  private int threadsWhileWaitingForFleet(int fleetSize) {
+    List<CompletableFuture<Optional<DroneData>>> responses = new ArrayList<>();
+    for (int i = 1; i <= fleetSize; i++) {
+      responses.add(middleware.requestDataAsync(new DroneIdentifier(i, "fleet", 0)));
+    }
+
+    int threads = Thread.activeCount();
+    assertThat(responses).noneMatch(CompletableFuture::isDone);
+
+    synchronized (heldRequests) {
+      for (StreamObserver<DroneServiceOuterClass.DroneDataPacket> request : heldRequests) {
+        request.onNext(DATA.toProto());
+        request.onCompleted();
+      }
+      heldRequests.clear();
+    }
+    CompletableFuture.allOf(responses.toArray(new CompletableFuture[0])).join();
+    assertThat(responses).allMatch(response -> response.join().isPresent());
+
+    return threads;
+  }
+
+  @Test
+  public void threadCountDoesNotGrowWithTheFleet() {
+    int withSmallFleet = threadsWhileWaitingForFleet(5);
+    int withLargeFleet = threadsWhileWaitingForFleet(500);
+
+    assertThat(withLargeFleet).isLessThanOrEqualTo(withSmallFleet + 2);
+  }
+
+  @Test
+  public void telemetryStreamSendsOnlyWhatChanged() throws IOException {
+    DroneCommunicationServer master = mock(DroneCommunicationServer.class);
+    RpcDroneCommunicationMiddleware masterMiddleware =
+        new RpcDroneCommunicationMiddleware(
+            new DroneIdentifier(1, "master", 0), master, new ChannelManager(d -> null));
+    Server masterServer =
+        InProcessServerBuilder.forName("master")
+            .directExecutor()
+            .addService(masterMiddleware)
+            .build()
+            .start();
+    RpcDroneCommunicationMiddleware slave =
+        new RpcDroneCommunicationMiddleware(
+            new DroneIdentifier(2, "slave", 0),
+            mock(DroneCommunicationServer.class),
+            new ChannelManager(
+                destination -> InProcessChannelBuilder.forName("master").directExecutor().build()));
+
+    try {
+      DroneCommunicationClient.TelemetryStream stream =
+          slave.openTelemetryStream(new DroneIdentifier(1, "master", 0));
+      assertThat(stream.push(DATA)).isTrue();
+      assertThat(stream.push(DATA.decrementBattery(10))).isTrue();
+      stream.close();
+
+      ArgumentCaptor<TelemetryMessage> messages = ArgumentCaptor.forClass(TelemetryMessage.class);
+      verify(master, timeout(1000).times(2)).onTelemetry(messages.capture());
+      assertThat(messages.getAllValues().get(0).applyTo(null))
+          .hasFieldOrPropertyWithValue("batteryPercentage", 90);
+      assertThat(messages.getAllValues().get(1).getPosition()).isEmpty();
+      assertThat(messages.getAllValues().get(1).getBatteryPercentage()).contains(80);
+    } finally {
+      slave.shutdown();
+      masterServer.shutdownNow();
+    }
+  }
+
+  @Test
+  public void compactPollutionIsOnlySentToDronesThatAdvertisedIt() throws IOException {
+    DroneIdentifier masterIdentifier = new DroneIdentifier(1, "master", 0);
+    DroneCommunicationServer master = mock(DroneCommunicationServer.class);
+    when(master.onDroneJoin(any(), any()))
+        .thenReturn(new DroneJoinResponse(masterIdentifier, true));
+    RpcDroneCommunicationMiddleware masterMiddleware =
+        new RpcDroneCommunicationMiddleware(
+            masterIdentifier, master, new ChannelManager(d -> null));
+    Server masterServer =
+        InProcessServerBuilder.forName("master")
+            .directExecutor()
+            .addService(masterMiddleware)
+            .build()
+            .start();
+    DroneIdentifier slaveIdentifier = new DroneIdentifier(2, "slave", 0);
+    RpcDroneCommunicationMiddleware slave =
+        new RpcDroneCommunicationMiddleware(
+            slaveIdentifier,
+            mock(DroneCommunicationServer.class),
+            new ChannelManager(
+                destination -> InProcessChannelBuilder.forName("master").directExecutor().build()));
+
+    try {
+      assertThat(slave.peerSupports(masterIdentifier, Capability.COMPACT_POLLUTION)).isFalse();
+      assertThat(slave.notifyDroneJoin(masterIdentifier, new CityPoint(0, 0))).isPresent();
+      assertThat(slave.peerSupports(masterIdentifier, Capability.COMPACT_POLLUTION)).isTrue();
+      assertThat(masterMiddleware.peerSupports(slaveIdentifier, Capability.COMPACT_POLLUTION))
+          .isTrue();
+      // The test server in front of the fleet is like an older drone, it does not even answer
+      assertThat(
+              middleware.notifyDroneJoin(new DroneIdentifier(3, "fleet", 0), new CityPoint(0, 0)))
+          .isEmpty();
+      assertThat(
+              middleware.peerSupports(
+                  new DroneIdentifier(3, "fleet", 0), Capability.COMPACT_POLLUTION))
+          .isFalse();
+
+      PollutionSummary pollution = PollutionSummary.of(Arrays.asList(30.0, 40.0, 50.0));
+      slave.notifyCompletedDelivery(
+          masterIdentifier,
+          new CompletedDeliveryMessage(
+              0,
+              slaveIdentifier,
+              new Order(1, new CityPoint(0, 0), new CityPoint(1, 1)),
+              1,
+              Collections.singletonMap(PollutionTracker.DEFAULT_WINDOW, pollution),
+              90));
+
+      ArgumentCaptor<CompletedDeliveryMessage> received =
+          ArgumentCaptor.forClass(CompletedDeliveryMessage.class);
+      verify(master, timeout(1000)).onCompletedDeliveryNotification(received.capture());
+      PollutionSummary receivedPollution =
+          received.getValue().getPollution().get(PollutionTracker.DEFAULT_WINDOW);
+      assertThat(receivedPollution.getCount()).isEqualTo(3);
+      assertThat(receivedPollution.getQuantile(0.5)).isEqualTo(pollution.getQuantile(0.5));
+    } finally {
+      slave.shutdown();
+      masterServer.shutdownNow();
+    }
+  }
+
+  @Test
+  public void telemetryStreamBreaksWhenTheMasterIsGone() {
+    DroneCommunicationClient.TelemetryStream stream =
+        middleware.openTelemetryStream(new DroneIdentifier(1, "fleet", 0));
+
+    // The test server does not implement the telemetry stream, so it fails it right away
+    stream.push(DATA);
+    assertThat(stream.push(DATA)).isFalse();
+    stream.close();
+  }
+
+  // Reaches every drone at the in-process server named like its address
+  private static RpcDroneCommunicationMiddleware inProcessMiddleware(DroneIdentifier drone) {
+    return new RpcDroneCommunicationMiddleware(
+        drone,
+        mock(DroneCommunicationServer.class),
+        new ChannelManager(
+            destination ->
+                InProcessChannelBuilder.forName(destination.getIpAddress())
+                    .directExecutor()
+                    .build()));
+  }
+
+  @Test
+  public void slavesLearnTheCapabilitiesOfANewMasterFromTheElectedMessage() throws IOException {
+    // Neither slave ever exchanged a join with the new master
+    DroneIdentifier masterIdentifier = new DroneIdentifier(1, "new-master", 0);
+    DroneIdentifier relayIdentifier = new DroneIdentifier(2, "relay", 0);
+    DroneIdentifier slaveIdentifier = new DroneIdentifier(3, "slave", 0);
+    RpcDroneCommunicationMiddleware master = inProcessMiddleware(masterIdentifier);
+    RpcDroneCommunicationMiddleware relay = inProcessMiddleware(relayIdentifier);
+    RpcDroneCommunicationMiddleware slave = inProcessMiddleware(slaveIdentifier);
+
+    List<DroneServiceOuterClass.CompletedDeliveryMessage> deliveries = new ArrayList<>();
+    Server masterServer =
+        InProcessServerBuilder.forName("new-master")
+            .directExecutor()
+            .addService(
+                new DroneServiceGrpc.DroneServiceImplBase() {
+                  @Override
+                  public void notifyCompletedDelivery(
+                      DroneServiceOuterClass.CompletedDeliveryMessage request,
+                      StreamObserver<DroneServiceOuterClass.Empty> responseObserver) {
+                    deliveries.add(request);
+                    responseObserver.onNext(DroneServiceOuterClass.Empty.getDefaultInstance());
+                    responseObserver.onCompleted();
+                  }
+                })
+            .build()
+            .start();
+    Server relayServer =
+        InProcessServerBuilder.forName("relay").directExecutor().addService(relay).build().start();
+    Server slaveServer =
+        InProcessServerBuilder.forName("slave").directExecutor().addService(slave).build().start();
+
+    try {
+      assertThat(master.forwardElectedMessage(relayIdentifier, masterIdentifier)).isTrue();
+      assertThat(relay.forwardElectedMessage(slaveIdentifier, masterIdentifier)).isTrue();
+      assertThat(slave.peerSupports(masterIdentifier, Capability.COMPACT_POLLUTION)).isTrue();
+
+      assertThat(
+              slave.notifyCompletedDelivery(
+                  masterIdentifier,
+                  new CompletedDeliveryMessage(
+                      0,
+                      slaveIdentifier,
+                      new Order(1, new CityPoint(0, 0), new CityPoint(1, 1)),
+                      1,
+                      Collections.singletonMap(
+                          PollutionTracker.DEFAULT_WINDOW,
+                          PollutionSummary.of(Arrays.asList(30.0, 40.0, 50.0))),
+                      90)))
+          .isTrue();
+
+      assertThat(deliveries).hasSize(1);
+      DroneServiceOuterClass.QuantileSketchPacket sketch =
+          deliveries
+              .get(0)
+              .getPollutionSummariesOrThrow(PollutionTracker.DEFAULT_WINDOW)
+              .getSketch();
+      assertThat(sketch.getPackedBuckets().isEmpty()).isFalse();
+      assertThat(sketch.getBucketsMap()).isEmpty();
+    } finally {
+      master.shutdown();
+      relay.shutdown();
+      slave.shutdown();
+      masterServer.shutdownNow();
+      relayServer.shutdownNow();
+      slaveServer.shutdownNow();
+    }
+  }
+}
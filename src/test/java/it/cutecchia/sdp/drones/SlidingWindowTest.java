@@ -1,9 +1,13 @@
 package it.cutecchia.sdp.drones;
 
-import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
 import static org.mockito.Mockito.*;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
@@ -12,7 +16,7 @@ import org.mockito.MockitoAnnotations;
 import simulators.Measurement;
 
 public class SlidingWindowTest {
-  @Captor private ArgumentCaptor<List<Measurement>> captor;
+  @Captor private ArgumentCaptor<SlidingWindow.WindowSummary> captor;
 
   private final Measurement[] testMeasurements = {
     new Measurement("0", "pm10", 1.0, 0),
@@ -41,10 +45,11 @@ public class SlidingWindowTest {
 
     verify(callback, times(1)).onWindowAvailable(captor.capture());
 
-    assertThat(captor.getValue())
-        .asList()
-        .containsExactly(
-            testMeasurements[0], testMeasurements[1], testMeasurements[2], testMeasurements[3]);
+    SlidingWindow.WindowSummary summary = captor.getValue();
+    assertThat(summary.getSize()).isEqualTo(4);
+    assertThat(summary.getMean()).isEqualTo(2.5);
+    assertThat(summary.getFirstTimestamp()).isEqualTo(0);
+    assertThat(summary.getLastTimestamp()).isEqualTo(3);
   }
 
   @Test
@@ -58,11 +63,10 @@ public class SlidingWindowTest {
 
     verify(callback, times(2)).onWindowAvailable(captor.capture());
 
-    assertThat(captor.getAllValues().get(0)).asList().hasSize(4);
-    assertThat(captor.getAllValues().get(1))
-        .asList()
-        .containsExactly(
-            testMeasurements[2], testMeasurements[3], testMeasurements[4], testMeasurements[5]);
+    SlidingWindow.WindowSummary summary = captor.getAllValues().get(1);
+    assertThat(summary.getMean()).isEqualTo(4.5);
+    assertThat(summary.getFirstTimestamp()).isEqualTo(2);
+    assertThat(summary.getLastTimestamp()).isEqualTo(5);
   }
 
   @Test
@@ -76,11 +80,53 @@ public class SlidingWindowTest {
 
     verify(callback, times(3)).onWindowAvailable(captor.capture());
 
-    assertThat(captor.getAllValues().get(0)).asList().hasSize(4);
-    assertThat(captor.getAllValues().get(1)).asList().hasSize(4);
-    assertThat(captor.getAllValues().get(2))
-        .asList()
-        .containsExactly(
-            testMeasurements[4], testMeasurements[5], testMeasurements[6], testMeasurements[7]);
+    assertThat(captor.getAllValues().get(0).getMean()).isEqualTo(2.5);
+    assertThat(captor.getAllValues().get(1).getMean()).isEqualTo(4.5);
+    SlidingWindow.WindowSummary summary = captor.getAllValues().get(2);
+    assertThat(summary.getMean()).isEqualTo(6.5);
+    assertThat(summary.getFirstTimestamp()).isEqualTo(4);
+    assertThat(summary.getLastTimestamp()).isEqualTo(7);
+  }
+
+  @Test
+  public void runningMeanMatchesTheSamplesOnALongStream() {
+    List<SlidingWindow.WindowSummary> windows = new ArrayList<>();
+    SlidingWindow window = new SlidingWindow(8, 4, windows::add);
+    Random random = new Random(42);
+    double[] samples = new double[100_000];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = 1e6 * random.nextDouble();
+      window.addSample(samples[i], i);
+    }
+
+    assertThat(windows).hasSize((samples.length - 8) / 4 + 1);
+    for (SlidingWindow.WindowSummary summary : windows) {
+      double expected = 0;
+      for (long t = summary.getFirstTimestamp(); t <= summary.getLastTimestamp(); t++) {
+        expected += samples[(int) t];
+      }
+      assertThat(summary.getLastTimestamp() - summary.getFirstTimestamp()).isEqualTo(7);
+      assertThat(summary.getMean()).isCloseTo(expected / 8, within(1e-3));
+    }
+  }
+
+  @Test
+  public void addingSamplesDoesNotAllocate() {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // The callback is only called every 5000 samples, so any allocation per sample would show
+    SlidingWindow window = new SlidingWindow(10_000, 5_000, summary -> {});
+    for (int i = 0; i < 100_000; i++) {
+      window.addSample(i, i);
+    }
+
+    long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    for (int i = 0; i < 1_000_000; i++) {
+      window.addSample(i, i);
+    }
+    long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+    // 200 summaries, plus some slack for the measurement itself
+    assertThat(allocated).isLessThan(64 * 1024);
   }
 }
@@ -0,0 +1,56 @@
+package it.cutecchia.sdp.drones.messages;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import it.cutecchia.sdp.common.CityPoint;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.common.Order;
+import it.cutecchia.sdp.drones.PollutionTracker;
+import it.cutecchia.sdp.drones.grpc.DroneServiceOuterClass;
+import it.cutecchia.sdp.drones.pollution.PollutionSummary;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+public class CompletedDeliveryMessageTest {
+  private static final PollutionSummary POLLUTION =
+      PollutionSummary.of(Arrays.asList(30.0, 40.0, 50.0));
+  private static final CompletedDeliveryMessage MESSAGE =
+      new CompletedDeliveryMessage(
+          0,
+          new DroneIdentifier(1, "localhost", 0),
+          new Order(1, new CityPoint(0, 0), new CityPoint(1, 1)),
+          1,
+          Collections.singletonMap(PollutionTracker.DEFAULT_WINDOW, POLLUTION),
+          90);
+
+  @Test
+  public void olderMastersGetTheAveragesOfTheDefaultWindow() {
+    DroneServiceOuterClass.CompletedDeliveryMessage proto = MESSAGE.toProto(false);
+
+    assertThat(proto.getPollutionList()).hasSize(3);
+    assertThat(proto.getPollutionList().stream().mapToDouble(Double::doubleValue).average())
+        .hasValueCloseTo(40.0, within(1e-9));
+
+    // What an older drone would send: only the averages
+    CompletedDeliveryMessage legacy =
+        CompletedDeliveryMessage.fromProto(proto.toBuilder().clearPollutionSummaries().build());
+    PollutionSummary received = legacy.getPollution().get(PollutionTracker.DEFAULT_WINDOW);
+    assertThat(received.getCount()).isEqualTo(3);
+    assertThat(received.getMean()).isCloseTo(40.0, within(1e-9));
+  }
+
+  @Test
+  public void compactReceiversOnlyGetTheSummaries() {
+    DroneServiceOuterClass.CompletedDeliveryMessage proto = MESSAGE.toProto(true);
+
+    assertThat(proto.getPollutionList()).isEmpty();
+    assertThat(
+            CompletedDeliveryMessage.fromProto(proto)
+                .getPollution()
+                .get(PollutionTracker.DEFAULT_WINDOW)
+                .getCount())
+        .isEqualTo(3);
+  }
+}
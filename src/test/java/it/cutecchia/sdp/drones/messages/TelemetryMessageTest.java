@@ -0,0 +1,60 @@
+package it.cutecchia.sdp.drones.messages;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import it.cutecchia.sdp.common.CityPoint;
+import it.cutecchia.sdp.common.DroneData;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.common.Order;
+import org.junit.jupiter.api.Test;
+
+public class TelemetryMessageTest {
+  private static final DroneIdentifier DRONE = new DroneIdentifier(1, "localhost", 0);
+
+  @Test
+  public void firstMessageCarriesEverything() {
+    DroneData data = new DroneData(new CityPoint(1, 2), 80);
+
+    TelemetryMessage message =
+        TelemetryMessage.fromProto(TelemetryMessage.between(DRONE, null, data).toProto());
+
+    assertThat(message.getDrone()).isEqualTo(DRONE);
+    assertThat(message.getPosition()).contains(new CityPoint(1, 2));
+    assertThat(message.getBatteryPercentage()).contains(80);
+  }
+
+  @Test
+  public void laterMessagesOnlyCarryWhatChanged() {
+    DroneData before = new DroneData(new CityPoint(1, 2), 80);
+
+    TelemetryMessage moved =
+        TelemetryMessage.fromProto(
+            TelemetryMessage.between(DRONE, before, before.moveTo(new CityPoint(3, 4))).toProto());
+    TelemetryMessage alive =
+        TelemetryMessage.fromProto(TelemetryMessage.between(DRONE, before, before).toProto());
+
+    assertThat(moved.getPosition()).contains(new CityPoint(3, 4));
+    assertThat(moved.getBatteryPercentage()).isEmpty();
+    assertThat(alive.getPosition()).isEmpty();
+    assertThat(alive.getBatteryPercentage()).isEmpty();
+  }
+
+  @Test
+  public void applyingKeepsWhatTheMasterDecided() {
+    Order order = new Order(0, new CityPoint(0, 0), new CityPoint(9, 9));
+    DroneData known = new DroneData(new CityPoint(1, 2), 80, order).refuseOrders();
+
+    DroneData updated = new TelemetryMessage(DRONE, null, 70).applyTo(known);
+
+    assertThat(updated.getPosition()).isEqualTo(new CityPoint(1, 2));
+    assertThat(updated.getBatteryPercentage()).isEqualTo(70);
+    assertThat(updated.getAssignedOrder()).isEqualTo(order);
+    assertThat(updated.canAcceptOrders()).isFalse();
+  }
+
+  @Test
+  public void partialMessageIsNotEnoughForAnUnknownDrone() {
+    assertThat(new TelemetryMessage(DRONE, new CityPoint(1, 2), null).applyTo(null)).isNull();
+    assertThat(new TelemetryMessage(DRONE, new CityPoint(1, 2), 50).applyTo(null)).isNotNull();
+  }
+}
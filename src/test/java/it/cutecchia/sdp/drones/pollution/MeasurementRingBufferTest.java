@@ -0,0 +1,126 @@
+package it.cutecchia.sdp.drones.pollution;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import it.cutecchia.sdp.drones.pollution.MeasurementRingBuffer.OverflowPolicy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+public class MeasurementRingBufferTest {
+  private static List<Double> drain(MeasurementRingBuffer buffer) {
+    List<Double> values = new ArrayList<>();
+    buffer.drainTo((value, timestamp) -> values.add(value));
+    return values;
+  }
+
+  private static void addAll(MeasurementRingBuffer buffer, int from, int to) {
+    for (int i = from; i < to; i++) {
+      buffer.add(i, i);
+    }
+  }
+
+  @Test
+  public void measurementsAreReadInOrder() {
+    MeasurementRingBuffer buffer = new MeasurementRingBuffer(6, OverflowPolicy.DROP_OLDEST);
+    assertThat(buffer.getCapacity()).isEqualTo(8);
+
+    for (int round = 0; round < 3; round++) {
+      addAll(buffer, 0, 5);
+      assertThat(buffer.size()).isEqualTo(5);
+      assertThat(drain(buffer)).containsExactly(0.0, 1.0, 2.0, 3.0, 4.0);
+    }
+    assertThat(buffer.size()).isZero();
+    assertThat(buffer.getOverflowCount()).isZero();
+  }
+
+  @Test
+  public void dropOldestKeepsTheNewestMeasurements() {
+    MeasurementRingBuffer buffer = new MeasurementRingBuffer(4, OverflowPolicy.DROP_OLDEST);
+    addAll(buffer, 0, 10);
+
+    assertThat(drain(buffer)).containsExactly(6.0, 7.0, 8.0, 9.0);
+    assertThat(buffer.getOverflowCount()).isEqualTo(6);
+    assertThat(buffer.getDroppedCount()).isEqualTo(6);
+  }
+
+  @Test
+  public void downsampleKeepsFewerMeasurementsWhileFull() {
+    MeasurementRingBuffer buffer = new MeasurementRingBuffer(4, OverflowPolicy.DOWNSAMPLE);
+    addAll(buffer, 0, 100);
+
+    List<Double> values = drain(buffer);
+    assertThat(values).hasSize(4).isSorted();
+    // The kept measurements are further apart than with a plain drop of the oldest
+    assertThat(values.get(3) - values.get(0)).isGreaterThan(3);
+    assertThat(buffer.getOverflowCount()).isLessThan(100 - 4);
+    assertThat(buffer.getDroppedCount()).isEqualTo(100 - 4);
+
+    // Once read, every measurement is kept again
+    addAll(buffer, 100, 104);
+    assertThat(drain(buffer)).containsExactly(100.0, 101.0, 102.0, 103.0);
+  }
+
+  @Test
+  public void mergeAveragesWhatDoesNotFit() {
+    MeasurementRingBuffer buffer = new MeasurementRingBuffer(2, OverflowPolicy.MERGE);
+    addAll(buffer, 0, 6);
+
+    assertThat(buffer.getMergedCount()).isEqualTo(4);
+    assertThat(buffer.getDroppedCount()).isZero();
+    assertThat(drain(buffer)).containsExactly(0.0, 1.0);
+
+    buffer.add(10, 10);
+    // The mean of 2, 3, 4 and 5 is written before the new measurement
+    assertThat(drain(buffer)).containsExactly(3.5, 10.0);
+  }
+
+  @Test
+  public void flushWritesTheLastMergedMeasurements() {
+    MeasurementRingBuffer buffer = new MeasurementRingBuffer(2, OverflowPolicy.MERGE);
+    addAll(buffer, 0, 4);
+
+    // Still full, the mean of 2 and 3 waits for room
+    assertThat(buffer.flush()).isFalse();
+    assertThat(drain(buffer)).containsExactly(0.0, 1.0);
+
+    assertThat(buffer.flush()).isTrue();
+    assertThat(drain(buffer)).containsExactly(2.5);
+    assertThat(buffer.flush()).isTrue();
+    assertThat(drain(buffer)).isEmpty();
+  }
+
+  @Test
+  public void nothingIsLostOrReorderedUnderConcurrency() throws InterruptedException {
+    final int produced = 1_000_000;
+    MeasurementRingBuffer buffer = new MeasurementRingBuffer(64, OverflowPolicy.DROP_OLDEST);
+    AtomicBoolean done = new AtomicBoolean(false);
+    AtomicLong drained = new AtomicLong();
+    AtomicBoolean ordered = new AtomicBoolean(true);
+
+    Thread consumer =
+        new Thread(
+            () -> {
+              final double[] last = {-1};
+              MeasurementRingBuffer.SampleSink sink =
+                  (value, timestamp) -> {
+                    if (value <= last[0] || timestamp != (long) value) ordered.set(false);
+                    last[0] = value;
+                    drained.incrementAndGet();
+                  };
+              while (!done.get()) {
+                buffer.drainTo(sink);
+              }
+              buffer.drainTo(sink);
+            });
+    consumer.start();
+    addAll(buffer, 0, produced);
+    done.set(true);
+    consumer.join();
+
+    assertThat(ordered.get()).isTrue();
+    assertThat(drained.get() + buffer.getDroppedCount()).isEqualTo(produced);
+  }
+}
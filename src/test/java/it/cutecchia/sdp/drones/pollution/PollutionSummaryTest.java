@@ -0,0 +1,101 @@
+package it.cutecchia.sdp.drones.pollution;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class PollutionSummaryTest {
+  private static List<Double> randomValues(Random random, int count) {
+    List<Double> values = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      values.add(20 + 80 * random.nextDouble());
+    }
+    return values;
+  }
+
+  @Test
+  public void summarizesTheValues() {
+    PollutionSummary summary =
+        PollutionSummary.of(Arrays.asList(2.0, 4.0, 4.0, 4.0, 5.0, 5.0, 7.0, 9.0));
+
+    assertThat(summary.getCount()).isEqualTo(8);
+    assertThat(summary.getMean()).isEqualTo(5.0);
+    assertThat(summary.getVariance()).isCloseTo(4.0, within(1e-9));
+    assertThat(summary.getMin()).isEqualTo(2.0);
+    assertThat(summary.getMax()).isEqualTo(9.0);
+    assertThat(summary.getQuantile(0.5)).isCloseTo(4.0, within(4.0 * 0.01));
+  }
+
+  @Test
+  public void mergingIsLikeSummarizingEverything() {
+    Random random = new Random(42);
+    List<Double> all = new ArrayList<>();
+    PollutionSummary merged = PollutionSummary.EMPTY;
+    for (int drone = 0; drone < 50; drone++) {
+      List<Double> values = randomValues(random, 1 + random.nextInt(40));
+      all.addAll(values);
+      merged = merged.merge(PollutionSummary.of(values));
+    }
+    PollutionSummary expected = PollutionSummary.of(all);
+
+    assertThat(merged.getCount()).isEqualTo(expected.getCount());
+    assertThat(merged.getMean()).isCloseTo(expected.getMean(), within(1e-9));
+    assertThat(merged.getVariance()).isCloseTo(expected.getVariance(), within(1e-6));
+    assertThat(merged.getMin()).isEqualTo(Collections.min(all));
+    assertThat(merged.getMax()).isEqualTo(Collections.max(all));
+    assertThat(merged.getQuantile(0.9)).isEqualTo(expected.getQuantile(0.9));
+  }
+
+  @Test
+  public void quantilesAreWithinTheRelativeAccuracy() {
+    List<Double> values = randomValues(new Random(7), 10_000);
+    PollutionSummary summary = PollutionSummary.of(values);
+    Collections.sort(values);
+
+    for (double q : new double[] {0.01, 0.25, 0.5, 0.75, 0.95, 0.99}) {
+      double exact = values.get((int) (q * (values.size() - 1)));
+      assertThat(summary.getQuantile(q))
+          .isCloseTo(exact, within(exact * QuantileSketch.DEFAULT_RELATIVE_ACCURACY * 1.01));
+    }
+  }
+
+  @Test
+  public void survivesTheWire() {
+    PollutionSummary summary = PollutionSummary.of(randomValues(new Random(3), 100));
+
+    PollutionSummary received = PollutionSummary.fromProto(summary.toProto());
+
+    assertThat(received.getCount()).isEqualTo(summary.getCount());
+    assertThat(received.getMean()).isEqualTo(summary.getMean());
+    assertThat(received.getVariance()).isEqualTo(summary.getVariance());
+    assertThat(received.getQuantile(0.5)).isEqualTo(summary.getQuantile(0.5));
+    assertThat(PollutionSummary.fromProto(PollutionSummary.EMPTY.toProto()).isEmpty()).isTrue();
+  }
+
+  @Test
+  public void windowsAreSummarizedSeparately() {
+    List<WindowedAggregator> aggregators = WindowedAggregator.fromSpec("4:2,1:0");
+    for (int i = 1; i <= 8; i++) {
+      for (WindowedAggregator aggregator : aggregators) {
+        aggregator.addSample(i, i);
+      }
+    }
+
+    PollutionSummary averages = aggregators.get(0).summarizeAndReset();
+    PollutionSummary raw = aggregators.get(1).summarizeAndReset();
+
+    // The windows are [1..4], [3..6] and [5..8]
+    assertThat(averages.getCount()).isEqualTo(3);
+    assertThat(averages.getMin()).isEqualTo(2.5);
+    assertThat(averages.getMax()).isEqualTo(6.5);
+    assertThat(raw.getCount()).isEqualTo(8);
+    assertThat(raw.getMean()).isEqualTo(4.5);
+    assertThat(aggregators.get(0).summarizeAndReset().isEmpty()).isTrue();
+  }
+}
@@ -0,0 +1,71 @@
+package it.cutecchia.sdp.drones.pollution;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import it.cutecchia.sdp.drones.grpc.DroneServiceOuterClass;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class QuantileSketchTest {
+  private static final double[] QUANTILES = {0, 0.1, 0.5, 0.9, 0.99, 1};
+
+  private static QuantileSketch sketchOf(double... values) {
+    QuantileSketch sketch = new QuantileSketch();
+    for (double value : values) {
+      sketch.add(value);
+    }
+    return sketch;
+  }
+
+  private static void assertSameQuantiles(QuantileSketch actual, QuantileSketch expected) {
+    assertThat(actual.getCount()).isEqualTo(expected.getCount());
+    assertThat(actual.getBucketCount()).isEqualTo(expected.getBucketCount());
+    for (double q : QUANTILES) {
+      assertThat(actual.getQuantile(q)).isEqualTo(expected.getQuantile(q));
+    }
+  }
+
+  @Test
+  public void bothEncodingsDescribeTheSameSketch() {
+    Random random = new Random(11);
+    QuantileSketch sketch = new QuantileSketch();
+    for (int i = 0; i < 5000; i++) {
+      sketch.add(20 + 80 * random.nextDouble());
+    }
+    sketch.add(0);
+
+    DroneServiceOuterClass.QuantileSketchPacket legacy = sketch.toProto(false);
+    DroneServiceOuterClass.QuantileSketchPacket compact = sketch.toProto(true);
+
+    assertThat(compact.getBucketsCount()).isZero();
+    assertThat(compact.getSerializedSize()).isLessThan(legacy.getSerializedSize() / 3);
+    assertSameQuantiles(QuantileSketch.fromProto(legacy), sketch);
+    assertSameQuantiles(QuantileSketch.fromProto(compact), sketch);
+  }
+
+  @Test
+  public void emptyBucketsArePackedAsRuns() {
+    // Far apart values leave hundreds of empty buckets between them
+    QuantileSketch sketch = sketchOf(0.5, 0.5, 3, 1e6);
+
+    DroneServiceOuterClass.QuantileSketchPacket compact = sketch.toProto(true);
+
+    assertThat(compact.getPackedBuckets().size()).isLessThan(16);
+    assertSameQuantiles(QuantileSketch.fromProto(compact), sketch);
+    assertThat(QuantileSketch.fromProto(new QuantileSketch().toProto(true)).getCount()).isZero();
+  }
+
+  @Test
+  public void theLowestBucketsAreMergedPastTheLimit() {
+    QuantileSketch sketch = sketchOf(1e-8, 1e-4, 1, 1e4, 1e8, 1e12, 1e16);
+    QuantileSketch wide = sketchOf(1e20, 1e24);
+    sketch.merge(wide);
+
+    // The lowest values end up in the lowest bucket that is kept, the highest are still exact
+    assertThat(sketch.getCount()).isEqualTo(9);
+    assertThat(sketch.getQuantile(1)).isBetween(1e24 * 0.99, 1e24 * 1.01);
+    assertThat(sketch.getQuantile(0)).isGreaterThan(1e-4);
+    assertSameQuantiles(QuantileSketch.fromProto(sketch.toProto(true)), sketch);
+    assertThat(sketch.toProto(true).getPackedBuckets().size()).isLessThan(64);
+  }
+}
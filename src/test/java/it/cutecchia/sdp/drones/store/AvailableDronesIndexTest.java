@@ -0,0 +1,139 @@
+package it.cutecchia.sdp.drones.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import it.cutecchia.sdp.common.CityPoint;
+import it.cutecchia.sdp.common.DroneData;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.common.Order;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+public class AvailableDronesIndexTest {
+  private static final Set<DroneIdentifier> NONE = Collections.emptySet();
+
+  @Test
+  public void findsClosestDroneInAFarCell() {
+    DroneIdentifier near = new DroneIdentifier(1, "localhost", 0);
+    DroneIdentifier far = new DroneIdentifier(2, "localhost", 0);
+
+    AvailableDronesIndex index = new AvailableDronesIndex(10, 10, 2);
+    index.update(near, new DroneData(new CityPoint(6, 7)));
+    index.update(far, new DroneData(new CityPoint(9, 9)));
+
+    assertThat(index.findClosest(new CityPoint(0, 0), NONE)).contains(near);
+  }
+
+  @Test
+  public void closerDroneInTheNextRingBeatsDroneInTheSameCell() {
+    DroneIdentifier sameCell = new DroneIdentifier(1, "localhost", 0);
+    DroneIdentifier nextCell = new DroneIdentifier(2, "localhost", 0);
+
+    AvailableDronesIndex index = new AvailableDronesIndex(10, 10, 3);
+    index.update(sameCell, new DroneData(new CityPoint(3, 5)));
+    index.update(nextCell, new DroneData(new CityPoint(6, 3)));
+
+    assertThat(index.findClosest(new CityPoint(5, 3), NONE)).contains(nextCell);
+  }
+
+  @Test
+  public void unavailableAndExcludedDronesAreSkipped() {
+    DroneIdentifier delivering = new DroneIdentifier(1, "localhost", 0);
+    DroneIdentifier recharging = new DroneIdentifier(2, "localhost", 0);
+    DroneIdentifier excluded = new DroneIdentifier(3, "localhost", 0);
+    DroneIdentifier available = new DroneIdentifier(4, "localhost", 0);
+    Order order = new Order(0, new CityPoint(0, 0), new CityPoint(1, 1));
+
+    AvailableDronesIndex index = new AvailableDronesIndex(10, 10, 2);
+    index.update(delivering, new DroneData(new CityPoint(1, 1), 100, order));
+    index.update(recharging, new DroneData(new CityPoint(1, 1)).refuseOrders());
+    index.update(excluded, new DroneData(new CityPoint(1, 1)));
+    index.update(available, new DroneData(new CityPoint(9, 9)));
+
+    assertThat(index.size()).isEqualTo(2);
+    assertThat(index.findClosest(new CityPoint(1, 1), Collections.singleton(excluded)))
+        .contains(available);
+  }
+
+  @Test
+  public void movingAndRemovingDronesUpdatesTheIndex() {
+    DroneIdentifier a = new DroneIdentifier(1, "localhost", 0);
+    DroneIdentifier b = new DroneIdentifier(2, "localhost", 0);
+
+    AvailableDronesIndex index = new AvailableDronesIndex(10, 10, 2);
+    index.update(a, new DroneData(new CityPoint(0, 0)));
+    index.update(b, new DroneData(new CityPoint(5, 5)));
+    index.update(a, new DroneData(new CityPoint(9, 9)));
+
+    assertThat(index.findClosest(new CityPoint(1, 1), NONE)).contains(b);
+
+    index.remove(b);
+    assertThat(index.findClosest(new CityPoint(1, 1), NONE)).contains(a);
+
+    index.remove(a);
+    assertThat(index.findClosest(new CityPoint(1, 1), NONE)).isEmpty();
+  }
+
+  @Test
+  public void tiesAreBrokenByBatteryThenById() {
+    DroneIdentifier lowBattery = new DroneIdentifier(9, "localhost", 0);
+    DroneIdentifier lowId = new DroneIdentifier(1, "localhost", 0);
+    DroneIdentifier highId = new DroneIdentifier(2, "localhost", 0);
+
+    AvailableDronesIndex index = new AvailableDronesIndex(10, 10, 2);
+    index.update(lowBattery, new DroneData(new CityPoint(4, 5), 50));
+    index.update(lowId, new DroneData(new CityPoint(5, 4), 90));
+    index.update(highId, new DroneData(new CityPoint(6, 5), 90));
+
+    assertThat(index.findClosest(new CityPoint(5, 5), NONE)).contains(highId);
+  }
+
+  @Test
+  public void agreesWithALinearScan() {
+    Random random = new Random(42);
+    AvailableDronesIndex index = new AvailableDronesIndex(10, 10, 3);
+    Map<DroneIdentifier, DroneData> drones = new HashMap<>();
+    for (int i = 0; i < 40; i++) {
+      DroneIdentifier drone = new DroneIdentifier(i, "localhost", 0);
+      DroneData data = new DroneData(CityPoint.randomPosition(), 15 + random.nextInt(86));
+      drones.put(drone, data);
+      index.update(drone, data);
+    }
+
+    for (int x = 0; x < 10; x++) {
+      for (int y = 0; y < 10; y++) {
+        CityPoint point = new CityPoint(x, y);
+        DroneIdentifier expected =
+            Collections.min(
+                drones.keySet(),
+                Comparator.<DroneIdentifier>comparingDouble(
+                        d -> point.distanceTo(drones.get(d).getPosition()))
+                    .thenComparing(d -> -drones.get(d).getBatteryPercentage())
+                    .thenComparing(d -> -d.getId()));
+
+        assertThat(index.findClosest(point, NONE)).contains(expected);
+      }
+    }
+  }
+
+  @Test
+  public void frozenCopiesDoNotSeeLaterUpdates() {
+    DroneIdentifier moving = new DroneIdentifier(1, "localhost", 0);
+    DroneIdentifier leaving = new DroneIdentifier(2, "localhost", 0);
+
+    AvailableDronesIndex index = new AvailableDronesIndex(10, 10, 2);
+    index.update(moving, new DroneData(new CityPoint(0, 0)));
+    index.update(leaving, new DroneData(new CityPoint(9, 9)));
+    AvailableDronesIndex frozen = index.freeze();
+
+    index.update(moving, new DroneData(new CityPoint(9, 8)));
+    index.remove(leaving);
+
+    assertThat(frozen.size()).isEqualTo(2);
+    assertThat(frozen.snapshot().get(moving).getPosition()).isEqualTo(new CityPoint(0, 0));
+    assertThat(frozen.findClosest(new CityPoint(9, 9), NONE)).contains(leaving);
+    assertThat(index.size()).isEqualTo(1);
+    assertThat(index.findClosest(new CityPoint(9, 9), NONE)).contains(moving);
+    assertThat(index.freeze().findClosest(new CityPoint(0, 0), NONE)).contains(moving);
+  }
+}
@@ -0,0 +1,122 @@
+package it.cutecchia.sdp.drones.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import it.cutecchia.sdp.common.CityPoint;
+import it.cutecchia.sdp.common.DroneData;
+import it.cutecchia.sdp.common.DroneIdentifier;
+import it.cutecchia.sdp.common.Order;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class ConcurrentDroneStoreTest {
+  @Test
+  public void nextIdentifierWrapsAround() {
+    DroneIdentifier a = new DroneIdentifier(1, "localhost", 0);
+    DroneIdentifier b = new DroneIdentifier(2, "localhost", 0);
+    DroneIdentifier c = new DroneIdentifier(3, "localhost", 0);
+
+    ConcurrentDroneStore store = new ConcurrentDroneStore();
+    store.addDrone(a);
+    store.addDrone(b);
+    store.addDrone(c);
+
+    assertThat(store.getNextDroneInElectionRing(b)).isEqualTo(c);
+    assertThat(store.getNextDroneInElectionRing(c)).isEqualTo(a);
+
+    store.signalFailedCommunicationWithDrone(a);
+    assertThat(store.getNextDroneInElectionRing(c)).isEqualTo(b);
+  }
+
+  @Test
+  public void onlyOneDrone() {
+    DroneIdentifier a = new DroneIdentifier(1, "localhost", 0);
+
+    ConcurrentDroneStore store = new ConcurrentDroneStore();
+    store.addDrone(a);
+
+    assertThat(store.getNextDroneInElectionRing(a)).isEqualTo(a);
+  }
+
+  @Test
+  public void simpleDataStorage() {
+    DroneIdentifier a = new DroneIdentifier(1, "localhost", 0);
+    DroneData data = new DroneData(new CityPoint(2, 5), 75);
+
+    ConcurrentDroneStore store = new ConcurrentDroneStore();
+
+    store.addDrone(a);
+    assertThat(store.getDroneData(a)).isEmpty();
+    store.handleDroneUpdateData(a, data);
+
+    assertThat(store.getDroneData(a)).contains(data);
+    assertThat(store.findClosestAvailableDrone(new CityPoint(0, 0), Collections.emptySet()))
+        .contains(a);
+
+    store.signalDroneWasAssignedOrder(a, new Order(0, new CityPoint(0, 0), new CityPoint(1, 1)));
+    assertThat(store.findClosestAvailableDrone(new CityPoint(0, 0), Collections.emptySet()))
+        .isEmpty();
+  }
+
+  @Test
+  public void membershipSnapshotChangesOnlyWhenDronesJoinOrLeave() {
+    DroneIdentifier a = new DroneIdentifier(1, "localhost", 0);
+    DroneIdentifier b = new DroneIdentifier(2, "localhost", 0);
+
+    ConcurrentDroneStore store = new ConcurrentDroneStore();
+    store.addDrone(a);
+    ConcurrentDroneStore.Membership before = store.getMembership();
+
+    store.handleDroneUpdateData(a, new DroneData(new CityPoint(1, 1)));
+    assertThat(store.getMembership()).isSameAs(before);
+
+    store.addDrone(b);
+    assertThat(store.getMembership().getVersion()).isEqualTo(before.getVersion() + 1);
+    assertThat(store.getAllDroneIdentifiers()).containsExactly(a, b);
+    // Old snapshots are never modified
+    assertThat(before.getIdentifiers()).containsExactly(a);
+  }
+
+  @Test
+  public void concurrentJoinsAndLeavesAreAllRecorded() throws InterruptedException {
+    ConcurrentDroneStore store = new ConcurrentDroneStore();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final int offset = t * 1000;
+      threads.add(
+          new Thread(
+              () -> {
+                for (int i = 0; i < 500; i++) {
+                  DroneIdentifier drone = new DroneIdentifier(offset + i, "localhost", 0);
+                  store.addDrone(drone, new DroneData(CityPoint.randomPosition()));
+                  if (i % 2 == 0) store.signalFailedCommunicationWithDrone(drone);
+                }
+              }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread t : threads) t.join();
+
+    assertThat(store.getAllDroneIdentifiers()).hasSize(4 * 250);
+    assertThat(store.getAvailableDrones()).hasSize(4 * 250);
+  }
+
+  @Test
+  public void addingAKnownDroneKeepsItsData() {
+    DroneIdentifier a = new DroneIdentifier(1, "localhost", 0);
+    DroneData data = new DroneData(new CityPoint(3, 4));
+
+    ConcurrentDroneStore store = new ConcurrentDroneStore();
+    assertThat(store.addDroneIfAbsent(a)).isTrue();
+    store.handleDroneUpdateData(a, data);
+    final long version = store.getMembership().getVersion();
+
+    assertThat(store.addDroneIfAbsent(a)).isFalse();
+    assertThat(store.getDroneData(a)).contains(data);
+    assertThat(store.getMembership().getVersion()).isEqualTo(version);
+
+    store.removeDrone(a);
+    assertThat(store.getAllDroneIdentifiers()).isEmpty();
+  }
+}